@@ -18,6 +18,8 @@ package com.blockwithme.lessobjects.bench;
 import com.blockwithme.lessobjects.FieldFactory;
 import com.blockwithme.lessobjects.compiler.Aligned64Compiler;
 import com.blockwithme.lessobjects.compiler.CompilerBase;
+import com.blockwithme.lessobjects.compiler.GeneratedAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.GeneratedPackedCompiler;
 import com.blockwithme.lessobjects.compiler.PackedCompiler;
 import com.blockwithme.lessobjects.util.FieldFactoryImpl;
 
@@ -39,6 +41,12 @@ public interface Constants {
     /** The Aligned 64 compiler */
     Aligned64Compiler ALIGNED64 = new Aligned64Compiler();
 
+    /** The generated Aligned 64 compiler */
+    Aligned64Compiler GENERATED_ALIGNED64 = new GeneratedAligned64Compiler();
+
+    /** The generated packed compiler */
+    CompilerBase GENERATED_PACKED = new GeneratedPackedCompiler();
+
     /** Number of Elements to be READ */
     int ELEMENTS_READ = _64K;
 
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.bench;
+
+import static com.blockwithme.lessobjects.bench.Constants.ALIGNED64;
+import static com.blockwithme.lessobjects.bench.Constants.FACTORY;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.beans.MultiDimensionalSupport;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.multidim.MortonMultiDimensionSupport;
+import com.blockwithme.lessobjects.multidim.MultiDimensionSupportImpl;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.annotation.AxisRange;
+import com.carrotsearch.junitbenchmarks.annotation.BenchmarkMethodChart;
+
+/**
+ * Compares the row-major and the Morton (Z-order) indexes of a three
+ * dimensional storage, with a 7 points stencil: every point reads itself,
+ * and its 6 neighbours. With the row-major index, the neighbours in y and z
+ * are SIZE and SIZE * SIZE structures away, so they are rarely in the same
+ * cache lines; the Morton index keeps most of them close. The storage is
+ * larger than the usual caches, so the time mostly measures the cache
+ * misses. The points are visited either in row-major order, which suits the
+ * row-major index, or in tiles, as the kernels which process a neighbourhood
+ * at a time do.
+ */
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@edu.umd.cs.findbugs.annotations.SuppressWarnings(value = "all")
+@SuppressWarnings("all")
+@AxisRange(min = 0, max = 3)
+@BenchmarkMethodChart(filePrefix = "StencilTest")
+public class StencilTest extends AbstractBenchmark {
+
+    /** The size, in every dimension. */
+    private static final int SIZE = 128;
+
+    /** The size of the tiles, in every dimension, for the tiled stencils. */
+    private static final int TILE = 8;
+
+    @Rule
+    public TestName name = new TestName();
+
+    private LongField<?, ?> result;
+
+    private Storage storage;
+
+    private MultiDimensionalSupport support;
+
+    private LongField<?, ?> value;
+
+    /** Sets the benchmark properties, for stats and graphics generation. */
+    static {
+        System.setProperty("jub.consumers", "CONSOLE,H2");
+        System.setProperty("jub.db.file", "benchmarks");
+        System.setProperty("jub.charts.dir", "benchmarks/charts");
+    }
+
+    /** Computes the stencil of every point of the tiles, in row-major
+     * order within each tile. */
+    private void stencil(final int theTile) {
+        for (int tz = 1; tz < SIZE - 1; tz += theTile) {
+            for (int ty = 1; ty < SIZE - 1; ty += theTile) {
+                for (int tx = 1; tx < SIZE - 1; tx += theTile) {
+                    final int toZ = Math.min(tz + theTile, SIZE - 1);
+                    final int toY = Math.min(ty + theTile, SIZE - 1);
+                    final int toX = Math.min(tx + theTile, SIZE - 1);
+                    for (int z = tz; z < toZ; z++) {
+                        for (int y = ty; y < toY; y++) {
+                            for (int x = tx; x < toX; x++) {
+                                stencil(x, y, z);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Computes the stencil of one point. */
+    private void stencil(final int x, final int y, final int z) {
+        final int index = support.getIndex(x, y, z);
+        final long sum = storage.read(value, index)
+                + storage.read(value, support.getIndex(x - 1, y, z))
+                + storage.read(value, support.getIndex(x + 1, y, z))
+                + storage.read(value, support.getIndex(x, y - 1, z))
+                + storage.read(value, support.getIndex(x, y + 1, z))
+                + storage.read(value, support.getIndex(x, y, z - 1))
+                + storage.read(value, support.getIndex(x, y, z + 1));
+        storage.write(result, index, sum);
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 10)
+    public void _Morton_Stencil() {
+        stencil(SIZE);
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 10)
+    public void _Morton_Tiled_Stencil() {
+        stencil(TILE);
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 10)
+    public void _RowMajor_Stencil() {
+        stencil(SIZE);
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 10)
+    public void _RowMajor_Tiled_Stencil() {
+        stencil(TILE);
+    }
+
+    @Before
+    public void _setUp() {
+        if (name.getMethodName().contains("Morton")) {
+            support = new MortonMultiDimensionSupport(SIZE, Arity.THREE_D);
+        } else {
+            support = new MultiDimensionSupportImpl(SIZE, Arity.THREE_D);
+        }
+        final Struct struct = ALIGNED64.compile(new Struct("StencilTest",
+                new Struct[] {}, new Field<?, ?>[] {
+                        FACTORY.newLongField("value"),
+                        FACTORY.newLongField("result") }));
+        value = struct.field("value");
+        result = struct.field("result");
+        storage = ALIGNED64.initStorage(struct, MortonMultiDimensionSupport
+                .requiredCapacity(SIZE, Arity.THREE_D), Arity.THREE_D, false,
+                false);
+        storage.setMultiDimensionalSupport(support);
+        for (int i = 0; i < storage.getCapacity(); i++) {
+            storage.write(value, i, i);
+        }
+    }
+}
@@ -14,5 +14,35 @@ public enum CompilerType {
     ALIGNED64,
 
     /** The Packed Compiler */
-    PACKED;
+    PACKED,
+
+    /** The Aligned-64 Compiler, with the data stored off-heap */
+    OFFHEAP_ALIGNED64,
+
+    /** The Packed Compiler, with the data stored off-heap */
+    OFFHEAP_PACKED,
+
+    /** The Columnar Compiler, which stores every field in its own column */
+    COLUMNAR,
+
+    /** The Blocked Compiler, which stores the fields of blocks of structures in columns */
+    BLOCKED,
+
+    /** The Aligned-64 Compiler, with the data stored in pages */
+    PAGED_ALIGNED64,
+
+    /** The Packed Compiler, with the data stored in pages */
+    PAGED_PACKED,
+
+    /** The Palette Compiler, which stores the distinct structures of a chunk only once */
+    PALETTE,
+
+    /** The Run-Length Compiler, which stores runs of identical structures only once */
+    RUN_LENGTH,
+
+    /** The Aligned-64 Compiler, with a storage class generated per structure */
+    GENERATED_ALIGNED64,
+
+    /** The Packed Compiler, with a storage class generated per structure */
+    GENERATED_PACKED;
 }
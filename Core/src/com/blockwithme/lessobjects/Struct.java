@@ -1016,6 +1016,18 @@ public final class Struct extends Child {
         return allStorageFields;
     }
 
+    /** Do the sparse storages of this struct use a bitmap index, instead of
+     * a hash map? */
+    public boolean bitmapIndexed() {
+        return structProperties.bitmapIndexed();
+    }
+
+    /** The number of structures per block, used by blocked and palette
+     * storages; 0 for the default. */
+    public int blockSize() {
+        return structProperties.blockSize();
+    }
+
     /** Returns child corresponding to a particular localIndex, Throws an Exception if not found */
     @SuppressWarnings("null")
     public Child child(final int theLocalIndex) {
@@ -1181,7 +1193,9 @@ public final class Struct extends Child {
 
         return copy(childProperties().setName(theName).setBits(theBits),
                 new StructProperties(metaDataExtracted(), isUnion,
-                        structProperties().isList(), isCompiled), theChildren,
+                        structProperties().isList(), isCompiled, blockSize(),
+                        bitmapIndexed()),
+                theChildren,
                 new FieldGroups(theFields, globalStruct, optionalFields,
                         virtualFields, objectFields), theStructInfo, true);
     }
@@ -1359,6 +1373,29 @@ public final class Struct extends Child {
 
     }
 
+    /** Sets the 'bitmap indexed' property. Sparse storages of a bitmap indexed
+     * struct, including the storages of optional children, map the structures
+     * to their slots with a SparseIndex, instead of a hash map.
+     *
+     * @param isBitmapIndexed the 'bitmap indexed' property
+     * @return the modified struct */
+    public final Struct setBitmapIndexed(final boolean isBitmapIndexed) {
+        return copy(structProperties.setBitmapIndexed(isBitmapIndexed));
+    }
+
+    /** Sets the number of structures per block, used when this struct is
+     * stored in a blocked or palette storage. Must be a power of two, or 0 for the
+     * default.
+     *
+     * @param theBlockSize the number of structures per block
+     * @return the modified struct */
+    public final Struct setBlockSize(final int theBlockSize) {
+        checkArgument(theBlockSize >= 0
+                && (theBlockSize & theBlockSize - 1) == 0,
+                "Block size must be a power of two: " + theBlockSize);
+        return copy(structProperties.setBlockSize(theBlockSize));
+    }
+
     /** Sets 'is list' property for this struct to store a variable size
      * collection of values. Storage space is allocated separately for this type
      * of children on-demand basis.
@@ -28,6 +28,10 @@ public interface MultiDimensionalSupport {
      *  Returns if the Point is 1D, 2D, 3D or 4D */
     public Arity arity();
 
+    /** Returns the number of indexes the points map to, which is one more
+     *  than the largest index. A Storage needs at least that capacity. */
+    public long indexCount();
+
     /**
      * Computes index for a one dimensional coordinates .
      *
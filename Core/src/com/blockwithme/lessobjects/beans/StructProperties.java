@@ -26,6 +26,12 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class StructProperties {
 
+    /** Do sparse storages of this struct use a bitmap index? */
+    private final boolean bitmapIndexed;
+
+    /** The number of structures per block, in blocked storages; 0 for the default. */
+    private final int blockSize;
+
     /** Is it already compiled ? */
     private final boolean compiled;
 
@@ -49,14 +55,59 @@ public class StructProperties {
     public StructProperties(final boolean theMetaDataExtractedFlag,
             final boolean isUnion, final boolean isList,
             final boolean isCompiled) {
+        this(theMetaDataExtractedFlag, isUnion, isList, isCompiled, 0);
+    }
+
+    /**
+     * Instantiates a new struct properties.
+     *
+     * @param theMetaDataExtractedFlag the meta data extracted flag, property used by the
+     * compiler to flag an intermediate state.
+     * @param isUnion is union flag
+     * @param isList is list flag.
+     * @param theBlockSize the number of structures per block, in blocked storages.
+     */
+    public StructProperties(final boolean theMetaDataExtractedFlag,
+            final boolean isUnion, final boolean isList,
+            final boolean isCompiled, final int theBlockSize) {
+        this(theMetaDataExtractedFlag, isUnion, isList, isCompiled,
+                theBlockSize, false);
+    }
+
+    /**
+     * Instantiates a new struct properties.
+     *
+     * @param theMetaDataExtractedFlag the meta data extracted flag, property used by the
+     * compiler to flag an intermediate state.
+     * @param isUnion is union flag
+     * @param isList is list flag.
+     * @param theBlockSize the number of structures per block, in blocked storages.
+     * @param isBitmapIndexed do sparse storages use a bitmap index?
+     */
+    public StructProperties(final boolean theMetaDataExtractedFlag,
+            final boolean isUnion, final boolean isList,
+            final boolean isCompiled, final int theBlockSize,
+            final boolean isBitmapIndexed) {
 
         metaDataExtracted = theMetaDataExtractedFlag;
         union = isUnion;
         list = isList;
         compiled = isCompiled;
+        blockSize = theBlockSize;
+        bitmapIndexed = isBitmapIndexed;
 
     }
 
+    /** Do sparse storages of this struct use a bitmap index? */
+    public boolean bitmapIndexed() {
+        return bitmapIndexed;
+    }
+
+    /** The number of structures per block, in blocked storages; 0 for the default. */
+    public int blockSize() {
+        return blockSize;
+    }
+
     /** Is it already Compiled ? */
     public boolean compiled() {
         return compiled;
@@ -75,14 +126,28 @@ public class StructProperties {
         return metaDataExtracted;
     }
 
+    /** Sets the 'bitmap indexed' flag.*/
+    public StructProperties setBitmapIndexed(final boolean isBitmapIndexed) {
+        return new StructProperties(metaDataExtracted, union, list, compiled,
+                blockSize, isBitmapIndexed);
+    }
+
+    /** Sets the number of structures per block, in blocked storages.*/
+    public StructProperties setBlockSize(final int theBlockSize) {
+        return new StructProperties(metaDataExtracted, union, list, compiled,
+                theBlockSize, bitmapIndexed);
+    }
+
     /**  Sets the 'compiled' flag.*/
     public StructProperties setCompiled(final boolean isCompiled) {
-        return new StructProperties(metaDataExtracted, union, list, isCompiled);
+        return new StructProperties(metaDataExtracted, union, list,
+                isCompiled, blockSize, bitmapIndexed);
     }
 
     /** Sets the 'is-list' flag.*/
     public StructProperties setList(final boolean isList) {
-        return new StructProperties(metaDataExtracted, union, isList, compiled);
+        return new StructProperties(metaDataExtracted, union, isList,
+                compiled, blockSize, bitmapIndexed);
     }
 
     /** Sets the 'meta data extracted' flag, The meta data extracted flag, property used by
@@ -90,7 +155,7 @@ public class StructProperties {
     public StructProperties setMetaDataExtracted(
             final boolean theMetaDataExtractedFlag) {
         return new StructProperties(theMetaDataExtractedFlag, union, list,
-                compiled);
+                compiled, blockSize, bitmapIndexed);
     }
 
     /** Is it a union ?*/
@@ -31,6 +31,7 @@ import com.blockwithme.lessobjects.Child;
 import com.blockwithme.lessobjects.Struct;
 import com.blockwithme.lessobjects.multidim.Arity;
 import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64BitmapSparseStorage;
 import com.blockwithme.lessobjects.storage.aligned64.Aligned64CompositeStorage;
 import com.blockwithme.lessobjects.storage.aligned64.Aligned64SparseStorage;
 import com.blockwithme.lessobjects.storage.aligned64.Aligned64Storage;
@@ -43,7 +44,8 @@ import com.blockwithme.lessobjects.util.StructConstants;
  * the array is treated as a 64 bit bucket and space for each field in is allocated
  * based on First Fit Decreasing (FFD) strategy. This compiler will try to use
  * the least possible amount of space, while never positioning any field to
- * lie across a boundary.
+ * lie across a boundary. Structures smaller than 64 bits get a power-of-two
+ * slot, so that several of them share a long.
  *
  * @author monster
  */
@@ -237,6 +239,10 @@ public class Aligned64Compiler extends CompilerBase {
         checkNotNull(theStruct);
         checkCapacity(theInitialCapacity);
         if (theAutoResize) {
+            if (theStruct.bitmapIndexed()) {
+                return new Aligned64BitmapSparseStorage(theStruct,
+                        theInitialCapacity, isTransactional, theArity);
+            }
             return new Aligned64SparseStorage(theStruct, theInitialCapacity,
                     isTransactional, theArity);
         }
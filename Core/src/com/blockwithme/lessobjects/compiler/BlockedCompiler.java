@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.compiler;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.columnar.BlockedStorage;
+
+/**
+ * Compiles the structures exactly like the PackedCompiler, but creates storages
+ * where the structures are grouped in blocks, and each field is stored
+ * contiguously inside a block. The number of structures per block is
+ * configured with Struct.setBlockSize().
+ *
+ * Auto-resizing storages, and structures with optional or list children,
+ * are not supported (yet).
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class BlockedCompiler extends PackedCompiler {
+
+    /** {@inheritDoc} */
+    @Override
+    public String compilerName() {
+        return "BlockedCompiler";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage initStorage(final Struct theStruct,
+            final int theInitialCapacity, final Arity theArity,
+            final boolean theAutoResize, final boolean isTransactional) {
+        checkArgument(!theAutoResize,
+                "Blocked storages cannot be auto-resized");
+        return initStorage(theStruct, theInitialCapacity, null,
+                isTransactional, theArity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage initStorage(final Struct theStruct,
+            final int theInitialCapacity, @Nullable final Storage theParent,
+            final boolean isTransactional, final Arity theArity) {
+
+        checkNotNull(theStruct);
+        checkArgument(theStruct.allListChildren().length == 0
+                && theStruct.allOptionalChildren().length == 0,
+                "Blocked storages do not support list or optional children");
+        checkCapacity(theInitialCapacity);
+        return new BlockedStorage(theStruct, theInitialCapacity, theParent,
+                isTransactional, theArity);
+    }
+}
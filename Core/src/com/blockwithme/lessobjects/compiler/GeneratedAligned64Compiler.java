@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.compiler;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.Storage;
+
+/**
+ * Compiles the structures exactly like the Aligned64Compiler, but creates
+ * storages of a class generated for each compiled Struct, where the offsets,
+ * shifts and masks of the fields are constants. The storages are otherwise
+ * normal Aligned64Storages.
+ *
+ * Auto-resizing storages, and structures with optional or list children,
+ * use the normal Aligned64 storages.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class GeneratedAligned64Compiler extends Aligned64Compiler {
+
+    /** {@inheritDoc} */
+    @Override
+    public String compilerName() {
+        return "GeneratedAligned64Compiler";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage initStorage(final Struct theStruct,
+            final int theInitialCapacity, @Nullable final Storage theParent,
+            final boolean isTransactional, final Arity theArity) {
+
+        checkNotNull(theStruct);
+        checkCapacity(theInitialCapacity);
+        if (theStruct.allListChildren().length > 0
+                || theStruct.allOptionalChildren().length > 0) {
+            return super.initStorage(theStruct, theInitialCapacity, theParent,
+                    isTransactional, theArity);
+        }
+        return StorageGenerator.newAligned64Storage(theStruct,
+                theInitialCapacity, theParent, isTransactional, theArity);
+    }
+}
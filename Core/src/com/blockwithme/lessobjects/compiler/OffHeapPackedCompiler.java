@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.compiler;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.offheap.MappedPackedStorage;
+import com.blockwithme.lessobjects.storage.offheap.MappedStorage;
+import com.blockwithme.lessobjects.storage.offheap.OffHeapPackedStorage;
+
+/**
+ * Compiles the structures exactly like the PackedCompiler, but creates storages
+ * which keep the data off-heap. The created storages implement OffHeapStorage,
+ * and should be closed once they are not needed anymore. This compiler can
+ * also create storages backed by memory-mapped files.
+ *
+ * Auto-resizing storages, and structures with optional or list children,
+ * are not supported (yet).
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class OffHeapPackedCompiler extends PackedCompiler {
+
+    /** Validates that the struct can be stored off-heap. */
+    private static void checkSupported(final Struct theStruct) {
+        checkNotNull(theStruct);
+        checkArgument(theStruct.allListChildren().length == 0
+                && theStruct.allOptionalChildren().length == 0,
+                "Off-heap storages do not support list or optional children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String compilerName() {
+        return "OffHeapPackedCompiler";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage initStorage(final Struct theStruct,
+            final int theInitialCapacity, final Arity theArity,
+            final boolean theAutoResize, final boolean isTransactional) {
+        checkArgument(!theAutoResize,
+                "Off-heap storages cannot be auto-resized");
+        return initStorage(theStruct, theInitialCapacity, null,
+                isTransactional, theArity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage initStorage(final Struct theStruct,
+            final int theInitialCapacity, @Nullable final Storage theParent,
+            final boolean isTransactional, final Arity theArity) {
+
+        checkSupported(theStruct);
+        checkCapacity(theInitialCapacity);
+        return new OffHeapPackedStorage(theStruct, theInitialCapacity,
+                theParent, isTransactional, theArity);
+    }
+
+    /**
+     * Opens, or creates, a storage backed by a memory-mapped file. If the file
+     * already exists, it must have been created with the same compiled Struct
+     * and compiler, and its capacity is used instead of theInitialCapacity.
+     */
+    public MappedStorage mapStorage(final Struct theStruct,
+            final File theFile, final int theInitialCapacity) {
+        checkSupported(theStruct);
+        checkCapacity(theInitialCapacity);
+        return MappedPackedStorage.open(theStruct, theFile, theInitialCapacity,
+                true, Arity.ONE_D);
+    }
+}
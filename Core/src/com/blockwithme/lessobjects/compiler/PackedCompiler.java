@@ -28,6 +28,7 @@ import com.blockwithme.lessobjects.Child;
 import com.blockwithme.lessobjects.Struct;
 import com.blockwithme.lessobjects.multidim.Arity;
 import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.packed.PackedBitmapSparseStorage;
 import com.blockwithme.lessobjects.storage.packed.PackedCompositeStorage;
 import com.blockwithme.lessobjects.storage.packed.PackedSparseStorage;
 import com.blockwithme.lessobjects.storage.packed.PackedStorage;
@@ -199,6 +200,10 @@ public class PackedCompiler extends CompilerBase {
             final boolean theAutoResize, final boolean isTransactional) {
         checkCapacity(theInitialCapacity);
         if (theAutoResize) {
+            if (theStruct.bitmapIndexed()) {
+                return new PackedBitmapSparseStorage(theStruct,
+                        theInitialCapacity, isTransactional, theArity);
+            }
             return new PackedSparseStorage(theStruct, theInitialCapacity,
                     isTransactional, theArity);
         }
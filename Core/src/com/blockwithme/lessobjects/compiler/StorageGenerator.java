@@ -0,0 +1,496 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.compiler;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.Modifier;
+import javassist.NotFoundException;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64Storage;
+import com.blockwithme.lessobjects.storage.packed.PackedStorage;
+
+/**
+ * Generates, with Javassist, one final Aligned64Storage or PackedStorage
+ * subclass per compiled Struct. The generated class overrides the primitive
+ * read and write methods with a switch on the uniqueIndex of the field,
+ * where every case has the offset, shift and mask of one field as literal
+ * constants, so that the JIT can fold them, instead of loading them from the
+ * field object. Fields without a case (there should be none) are delegated
+ * to the super class. The index-addressed rawRead() and rawWrite() are
+ * generated the same way, and blankCopy() creates an instance of the
+ * generated class, so that the copies are generated storages too.
+ *
+ * The generated code must compute exactly what the super class computes;
+ * it only replaces the field properties by constants.
+ *
+ * The generated classes are cached per compiled Struct, and never unloaded.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+final class StorageGenerator {
+
+    /** Defines the generated classes. */
+    private static final class Loader extends ClassLoader {
+
+        /** Constructor */
+        Loader(final ClassLoader theParent) {
+            super(theParent);
+        }
+
+        /** Defines a class. */
+        Class<?> define(final String theName, final byte[] theCode) {
+            return defineClass(theName, theCode, 0, theCode.length);
+        }
+    }
+
+    /** A primitive type, as seen by the generator. */
+    private static enum Type {
+        /** boolean */
+        BOOLEAN(BooleanField.class, "boolean", "Boolean"),
+        /** byte */
+        BYTE(ByteField.class, "byte", "Byte"),
+        /** char */
+        CHAR(CharField.class, "char", "Char"),
+        /** double */
+        DOUBLE(DoubleField.class, "double", "Double"),
+        /** float */
+        FLOAT(FloatField.class, "float", "Float"),
+        /** int */
+        INT(IntField.class, "int", "Int"),
+        /** long */
+        LONG(LongField.class, "long", "Long"),
+        /** short */
+        SHORT(ShortField.class, "short", "Short");
+
+        /** The field class. */
+        final Class<?> fieldClass;
+
+        /** The Java type. */
+        final String javaType;
+
+        /** The suffix of the read method. */
+        final String suffix;
+
+        /** Constructor */
+        Type(final Class<?> theFieldClass, final String theJavaType,
+                final String theSuffix) {
+            fieldClass = theFieldClass;
+            javaType = theJavaType;
+            suffix = theSuffix;
+        }
+
+        /** Converts the raw bits of the expression to the Java type. */
+        String fromBits(final String theBits) {
+            switch (this) {
+            case DOUBLE:
+                return "Double.longBitsToDouble(" + theBits + ")";
+            case FLOAT:
+                return "Float.intBitsToFloat((int) (" + theBits + "))";
+            case LONG:
+                return "(" + theBits + ")";
+            default:
+                return "((" + javaType + ") (" + theBits + "))";
+            }
+        }
+
+        /** Converts the value parameter ($2) to raw bits. */
+        String toBits() {
+            switch (this) {
+            case DOUBLE:
+                return "Double.doubleToRawLongBits($2)";
+            case FLOAT:
+                return "((long) Float.floatToRawIntBits($2))";
+            default:
+                return "((long) $2)";
+            }
+        }
+    }
+
+    /** The generated Aligned64 storage constructors, per compiled Struct. */
+    private static final Map<Struct, Constructor<?>> ALIGNED64 = new IdentityHashMap<>();
+
+    /** The class loader of the generated classes. */
+    private static final Loader LOADER = new Loader(
+            StorageGenerator.class.getClassLoader());
+
+    /** The generated Packed storage constructors, per compiled Struct. */
+    private static final Map<Struct, Constructor<?>> PACKED = new IdentityHashMap<>();
+
+    /** The Javassist class pool. */
+    private static final ClassPool POOL = new ClassPool(true);
+
+    /** The number of generated classes, used to make the names unique. */
+    private static int generated;
+
+    static {
+        POOL.appendClassPath(new ClassClassPath(StorageGenerator.class));
+    }
+
+    /** Returns the body of a generated Aligned64 read method. */
+    private static String aligned64Read(final Field<?, ?> theField,
+            final Type theType) {
+        final String word = "array[structureIndex + "
+                + theField.offsetDiv64() + "]";
+        final String bits = "(" + word + " >>> structureShift & "
+                + literal(theField.mask64()) + ")";
+        switch (theType) {
+        case BOOLEAN:
+            return "return " + bits + " != 0L;";
+        case DOUBLE:
+            return "return Double.longBitsToDouble(" + word + ");";
+        default:
+            return "return " + theType.fromBits(bits + " >> "
+                    + theField.offsetMod64()) + ";";
+        }
+    }
+
+    /** Returns the statements computing the word index (i) and the shift (b)
+     * of a field, in the structure s. */
+    private static String aligned64RawPosition(final Field<?, ?> theField) {
+        return "long p = (long) s * structSize;\n"
+                + "int i = (int) (p / 64L) + " + theField.offsetDiv64() + ";\n"
+                + "int b = (int) (p % 64L);\n";
+    }
+
+    /** Returns the body of a generated Aligned64 rawRead method. */
+    private static String aligned64RawRead(final Field<?, ?> theField) {
+        return aligned64RawPosition(theField) + "return (array[i] >>> b & "
+                + literal(theField.mask64()) + ") >> "
+                + theField.offsetMod64() + ";";
+    }
+
+    /** Returns the body of a generated Aligned64 rawWrite method. */
+    private static String aligned64RawWrite(final Field<?, ?> theField) {
+        final String mask = literal(theField.mask64());
+        final int shift = theField.offsetMod64();
+        return aligned64RawPosition(theField) + "long w = array[i];\n"
+                + "array[i] = w & ~(" + mask + " << b) | (v << " + shift
+                + " & " + mask + ") << b;\n" + "return (w >>> b & " + mask
+                + ") >> " + shift + ";";
+    }
+
+    /** Returns the body of a generated Aligned64 write method. */
+    private static String aligned64Write(final Field<?, ?> theField,
+            final Type theType) {
+        final String index = "structureIndex + " + theField.offsetDiv64();
+        final String mask = literal(theField.mask64());
+        final StringBuilder buf = new StringBuilder();
+        buf.append("int i = ").append(index).append(";\n");
+        if (theType == Type.DOUBLE
+                || theType == Type.LONG && theField.fullBits()) {
+            buf.append(theType.javaType).append(" old = ")
+                    .append(theType.fromBits("array[i]")).append(";\n");
+            buf.append("array[i] = ").append(theType.toBits()).append(";\n");
+        } else if (theType == Type.BOOLEAN) {
+            buf.append("boolean old = (array[i] >>> structureShift & ")
+                    .append(mask).append(") != 0L;\n");
+            buf.append("if ($2) { array[i] = array[i] | ").append(mask)
+                    .append(" << structureShift; } else { array[i] = ")
+                    .append("array[i] & ~(").append(mask)
+                    .append(" << structureShift); }\n");
+        } else {
+            buf.append(theType.javaType).append(" old = ")
+                    .append(theType.fromBits("(array[i] >>> structureShift & "
+                            + mask + ") >> " + theField.offsetMod64()))
+                    .append(";\n");
+            buf.append("array[i] = array[i] & ~(").append(mask)
+                    .append(" << structureShift) | (").append(theType.toBits())
+                    .append(" << ").append(theField.offsetMod64())
+                    .append(" & ").append(mask)
+                    .append(") << structureShift;\n");
+        }
+        buf.append("return old;");
+        return buf.toString();
+    }
+
+    /** Creates the class of a Struct. */
+    private static Constructor<?> generate(final Struct theStruct,
+            final Class<?> theSuperClass, final boolean isAligned64) {
+        final String name = theSuperClass.getName() + "$"
+                + theStruct.name().replaceAll("[^A-Za-z0-9_]", "_") + "$"
+                + ++generated;
+        try {
+            final CtClass ctClass = POOL.makeClass(name,
+                    POOL.get(theSuperClass.getName()));
+            ctClass.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+            ctClass.addConstructor(CtNewConstructor.make("public "
+                    + ctClass.getSimpleName() + "("
+                    + Struct.class.getName() + " s, int c, "
+                    + Storage.class.getName() + " p, boolean t, "
+                    + Arity.class.getName() + " a) { super(s, c, p, t, a); }",
+                    ctClass));
+            ctClass.addConstructor(CtNewConstructor.make("public "
+                    + ctClass.getSimpleName() + "("
+                    + Struct.class.getName() + " s, int c, "
+                    + Storage.class.getName() + " p, boolean t, boolean d, "
+                    + Arity.class.getName()
+                    + " a) { super(s, c, p, t, d, a); }", ctClass));
+            ctClass.addMethod(CtNewMethod.make("protected "
+                    + Storage.class.getName() + " blankCopy() {\n"
+                    + Storage.class.getName() + " p = null;\n"
+                    + "if (isSecondary) { p = baseStorage; }\n" + "return new "
+                    + name + "(struct, capacity, p, transactionsEnabled(), "
+                    + "false, arity);\n}", ctClass));
+            ctClass.addMethod(CtNewMethod.make("protected Class layoutClass()"
+                    + " {\nreturn " + theSuperClass.getName() + ".class;\n}",
+                    ctClass));
+            final List<Field<?, ?>> fields = storedFields(theStruct);
+            final StringBuilder rawRead = new StringBuilder();
+            final StringBuilder rawWrite = new StringBuilder();
+            for (final Field<?, ?> field : fields) {
+                final String label = "case " + field.uniqueIndex() + ": {\n";
+                rawRead.append(label).append(
+                        isAligned64 ? aligned64RawRead(field)
+                                : packedRawRead(field)).append("\n}\n");
+                rawWrite.append(label).append(
+                        isAligned64 ? aligned64RawWrite(field)
+                                : packedRawWrite(field)).append("\n}\n");
+            }
+            if (!fields.isEmpty()) {
+                final String fieldType = Field.class.getName();
+                ctClass.addMethod(CtNewMethod.make("protected long rawRead("
+                        + fieldType + " f, int s) {\nswitch (f.uniqueIndex()) "
+                        + "{\n" + rawRead + "default:\nreturn super.rawRead(f, "
+                        + "s);\n}\n}", ctClass));
+                ctClass.addMethod(CtNewMethod.make("protected long rawWrite("
+                        + fieldType + " f, int s, long v) {\nswitch ("
+                        + "f.uniqueIndex()) {\n" + rawWrite + "default:\n"
+                        + "return super.rawWrite(f, s, v);\n}\n}", ctClass));
+            }
+            for (final Type type : Type.values()) {
+                final StringBuilder read = new StringBuilder();
+                final StringBuilder write = new StringBuilder();
+                for (final Field<?, ?> field : fields) {
+                    if (type.fieldClass.isInstance(field)) {
+                        final String label = "case " + field.uniqueIndex()
+                                + ": {\n";
+                        read.append(label).append(
+                                isAligned64 ? aligned64Read(field, type)
+                                        : packedRead(field, type)).append(
+                                "\n}\n");
+                        write.append(label).append(
+                                isAligned64 ? aligned64Write(field, type)
+                                        : packedWrite(field, type)).append(
+                                "\n}\n");
+                    }
+                }
+                if (read.length() > 0) {
+                    final String fieldType = type.fieldClass.getName();
+                    ctClass.addMethod(CtNewMethod.make("public "
+                            + type.javaType + " read" + type.suffix + "("
+                            + fieldType + " f) {\nswitch (f.uniqueIndex()) {\n"
+                            + read + "default:\nreturn super.read"
+                            + type.suffix + "(f);\n}\n}", ctClass));
+                    ctClass.addMethod(CtNewMethod.make("public "
+                            + type.javaType + " writeImpl(" + fieldType
+                            + " f, " + type.javaType
+                            + " v) {\nswitch (f.uniqueIndex()) {\n" + write
+                            + "default:\nreturn super.writeImpl(f, v);\n}\n}",
+                            ctClass));
+                }
+            }
+            final byte[] code = ctClass.toBytecode();
+            ctClass.detach();
+            final Class<?> result;
+            synchronized (LOADER) {
+                result = LOADER.define(name, code);
+            }
+            return result.getConstructor(Struct.class, int.class,
+                    Storage.class, boolean.class, Arity.class);
+        } catch (final NotFoundException | CannotCompileException
+                | IOException | NoSuchMethodException e) {
+            throw new IllegalStateException("Could not generate a storage for "
+                    + theStruct.name(), e);
+        }
+    }
+
+    /** Returns a long literal. */
+    private static String literal(final long theValue) {
+        return "(" + theValue + "L)";
+    }
+
+    /** Returns the statements reading the bits of a Packed field, at the
+     * position p, into v. */
+    private static String packedBits(final Field<?, ?> theField) {
+        return "int i = (int) (p >>> 6);\n" + "int b = (int) p & 63;\n"
+                + "long v = array[i] >>> b;\n" + "if (b > "
+                + (64 - theField.bits())
+                + ") { v = v | array[i + 1] << (64 - b); }\n" + "v = v & "
+                + literal(mask(theField)) + ";\n";
+    }
+
+    /** Returns the body of a generated Packed rawRead method. */
+    private static String packedRawRead(final Field<?, ?> theField) {
+        return packedRawPosition(theField) + packedBits(theField)
+                + "return v;";
+    }
+
+    /** Returns the statement computing the position (p) of a field, in the
+     * structure s. */
+    private static String packedRawPosition(final Field<?, ?> theField) {
+        return "long p = (long) s * structSize + " + theField.offset()
+                + "L;\n";
+    }
+
+    /** Returns the body of a generated Packed rawWrite method. */
+    private static String packedRawWrite(final Field<?, ?> theField) {
+        return packedRawPosition(theField) + packedStore(theField, "v")
+                + "return old & " + literal(mask(theField)) + ";";
+    }
+
+    /** Returns the body of a generated Packed read method. */
+    private static String packedRead(final Field<?, ?> theField,
+            final Type theType) {
+        final String position = "long p = structurePosition + "
+                + theField.offset() + "L;\n";
+        if (theType == Type.BOOLEAN) {
+            return position + "return (array[(int) (p / 64L)] & 1L << "
+                    + "(int) (p % 64L)) != 0L;";
+        }
+        return position + packedBits(theField) + "return "
+                + theType.fromBits("v") + ";";
+    }
+
+    /** Returns the statements writing the bits of theValue to a Packed
+     * field, at the position p, and keeping the unmasked old bits in old. */
+    private static String packedStore(final Field<?, ?> theField,
+            final String theValue) {
+        final String mask = literal(mask(theField));
+        return "int i = (int) (p >>> 6);\n" + "int b = (int) p & 63;\n"
+                + "long w = array[i];\n" + "long old = w >>> b;\n"
+                + "long n = " + theValue + " & " + mask + ";\n"
+                + "array[i] = w & ~(" + mask + " << b) | n << b;\n" + "if (b > "
+                + (64 - theField.bits()) + ") {\n" + "int r = 64 - b;\n"
+                + "long w2 = array[i + 1];\n" + "old = old | w2 << r;\n"
+                + "array[i + 1] = w2 & ~(" + mask + " >>> r) | n >>> r;\n"
+                + "}\n";
+    }
+
+    /** Returns the body of a generated Packed write method. */
+    private static String packedWrite(final Field<?, ?> theField,
+            final Type theType) {
+        final String position = "long p = structurePosition + "
+                + theField.offset() + "L;\n";
+        if (theType == Type.BOOLEAN) {
+            return position + "int i = (int) (p / 64L);\n"
+                    + "long m = 1L << (int) (p % 64L);\n"
+                    + "boolean old = (array[i] & m) != 0L;\n"
+                    + "if ($2) { array[i] = array[i] | m; } else { "
+                    + "array[i] = array[i] & ~m; }\n" + "return old;";
+        }
+        return position + packedStore(theField, theType.toBits()) + "return "
+                + theType.fromBits("old & " + literal(mask(theField))) + ";";
+    }
+
+    /** Returns the unshifted mask of a field. */
+    private static long mask(final Field<?, ?> theField) {
+        return -1L >>> 64 - theField.bits();
+    }
+
+    /** Creates a storage. */
+    private static Storage newStorage(final Map<Struct, Constructor<?>> theCache,
+            final Class<?> theSuperClass, final boolean isAligned64,
+            final Struct theStruct, final int theCapacity,
+            @Nullable final Storage theParent, final boolean isTransactional,
+            final Arity theArity) {
+        Constructor<?> constructor;
+        synchronized (theCache) {
+            constructor = theCache.get(theStruct);
+            if (constructor == null) {
+                constructor = generate(theStruct, theSuperClass, isAligned64);
+                theCache.put(theStruct, constructor);
+            }
+        }
+        try {
+            return (Storage) constructor.newInstance(theStruct, theCapacity,
+                    theParent, isTransactional, theArity);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (final InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Returns the primitive fields stored in the structures, with distinct
+     * unique indexes. */
+    private static List<Field<?, ?>> storedFields(final Struct theStruct) {
+        final List<Field<?, ?>> result = new ArrayList<>();
+        final Set<Integer> indexes = new HashSet<>();
+        for (final Field<?, ?> field : theStruct.allStorageFields()) {
+            if (!field.global() && !field.virtual() && !field.isOptional()
+                    && !field.object()
+                    && indexes.add(Integer.valueOf(field.uniqueIndex()))) {
+                result.add(field);
+            }
+        }
+        return result;
+    }
+
+    /** Creates a generated Aligned64 storage. */
+    static Storage newAligned64Storage(final Struct theStruct,
+            final int theCapacity, @Nullable final Storage theParent,
+            final boolean isTransactional, final Arity theArity) {
+        return newStorage(ALIGNED64, Aligned64Storage.class, true, theStruct,
+                theCapacity, theParent, isTransactional, theArity);
+    }
+
+    /** Creates a generated Packed storage. */
+    static Storage newPackedStorage(final Struct theStruct,
+            final int theCapacity, @Nullable final Storage theParent,
+            final boolean isTransactional, final Arity theArity) {
+        return newStorage(PACKED, PackedStorage.class, false, theStruct,
+                theCapacity, theParent, isTransactional, theArity);
+    }
+
+    /** No instances. */
+    private StorageGenerator() {
+        // NOP
+    }
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.multidim;
+
+//CHECKSTYLE.OFF: ParameterName
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.beans.MultiDimensionalSupport;
+
+/**
+ * Provides multi-dimensional access in Storage objects, using the Morton
+ * (Z-order) index of the points: the bits of the coordinates are
+ * interleaved, x taking the lowest bit. Unlike the row-major index of
+ * MultiDimensionSupportImpl, where the neighbours in y and z are size, and
+ * size * size, structures away, the neighbours of a point are mostly stored
+ * close to it, in all the dimensions.
+ *
+ * The indexes go up to the next power of two of the size, to the power of
+ * the arity, so the storage needs requiredCapacity() structures. The bits
+ * are spread, and gathered back, with a few shifts and masks.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class MortonMultiDimensionSupport implements MultiDimensionalSupport {
+
+    /** The maximum size, per arity, so that the indexes are positive ints. */
+    private static final int[] MAX_SIZE = { Integer.MAX_VALUE, 1 << 15,
+            1 << 10, 1 << 7 };
+
+    /** The Arity (dimensionality). */
+    private final Arity arity;
+
+    /** The size. */
+    private final int size;
+
+    /** Gathers the bits 0, 2, 4, ... of the value. */
+    private static int compact2(final int theValue) {
+        int x = theValue & 0x55555555;
+        x = (x | x >>> 1) & 0x33333333;
+        x = (x | x >>> 2) & 0x0F0F0F0F;
+        x = (x | x >>> 4) & 0x00FF00FF;
+        return (x | x >>> 8) & 0x0000FFFF;
+    }
+
+    /** Gathers the bits 0, 3, 6, ... of the value. */
+    private static int compact3(final int theValue) {
+        int x = theValue & 0x09249249;
+        x = (x | x >>> 2) & 0x030C30C3;
+        x = (x | x >>> 4) & 0x0300F00F;
+        x = (x | x >>> 8) & 0xFF0000FF;
+        return (x | x >>> 16) & 0x000003FF;
+    }
+
+    /** Gathers the bits 0, 4, 8, ... of the value. */
+    private static int compact4(final int theValue) {
+        int x = theValue & 0x11111111;
+        x = (x | x >>> 3) & 0x03030303;
+        x = (x | x >>> 6) & 0x000F000F;
+        return (x | x >>> 12) & 0x000000FF;
+    }
+
+    /** Returns the number of structures a storage needs, for the size and
+     * the arity. */
+    public static int requiredCapacity(final int theSize,
+            final Arity theArity) {
+        checkArgument(theSize > 0
+                && theSize <= MAX_SIZE[theArity.ordinal()],
+                "Invalid size: " + theSize);
+        if (theArity == Arity.ONE_D) {
+            return theSize;
+        }
+        final int bits = 32 - Integer.numberOfLeadingZeros(theSize - 1);
+        return 1 << bits * (theArity.ordinal() + 1);
+    }
+
+    /** Spreads the 16 lowest bits of the value, to the bits 0, 2, 4, ... */
+    private static int spread2(final int theValue) {
+        int x = theValue & 0x0000FFFF;
+        x = (x | x << 8) & 0x00FF00FF;
+        x = (x | x << 4) & 0x0F0F0F0F;
+        x = (x | x << 2) & 0x33333333;
+        return (x | x << 1) & 0x55555555;
+    }
+
+    /** Spreads the 10 lowest bits of the value, to the bits 0, 3, 6, ... */
+    private static int spread3(final int theValue) {
+        int x = theValue & 0x000003FF;
+        x = (x | x << 16) & 0xFF0000FF;
+        x = (x | x << 8) & 0x0300F00F;
+        x = (x | x << 4) & 0x030C30C3;
+        return (x | x << 2) & 0x09249249;
+    }
+
+    /** Spreads the 8 lowest bits of the value, to the bits 0, 4, 8, ... */
+    private static int spread4(final int theValue) {
+        int x = theValue & 0x000000FF;
+        x = (x | x << 12) & 0x000F000F;
+        x = (x | x << 6) & 0x03030303;
+        return (x | x << 3) & 0x11111111;
+    }
+
+    /**
+     * Instantiates a new Morton multi dimension support.
+     *
+     * @param theSize the size, in every dimension
+     * @param theArity the dimensionality
+     */
+    @SuppressWarnings("null")
+    public MortonMultiDimensionSupport(final int theSize,
+            final Arity theArity) {
+        checkArgument(theArity != null,
+                "The theArity (dimensionality) must not be null ");
+        checkArgument(theSize > 0, "The size must greater than 0 !");
+        checkArgument(theSize <= MAX_SIZE[theArity.ordinal()],
+                "The size must be at most " + MAX_SIZE[theArity.ordinal()]
+                        + " for " + theArity);
+        arity = theArity;
+        size = theSize;
+    }
+
+    /** Checks that a coordinate is within the size. */
+    private void check(final int theCoordinate, final String theName) {
+        checkArgument(theCoordinate >= 0 && theCoordinate < size,
+                "The %s coordinate must be within the size.", theName);
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    public Arity arity() {
+        return arity;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long indexCount() {
+        return requiredCapacity(size, arity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getIndex(final int x) {
+        check(x, "x");
+        return x;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getIndex(final int x, final int y) {
+        checkState(arity == Arity.TWO_D,
+                "Method getIndex(int x, int y), applies to two dimensional "
+                        + "Storages");
+        check(x, "x");
+        check(y, "y");
+        return spread2(x) | spread2(y) << 1;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getIndex(final int x, final int y, final int z) {
+        checkState(arity == Arity.THREE_D,
+                "Method getIndex(int x, int y, int z), applies to three "
+                        + "dimensional Storages");
+        check(x, "x");
+        check(y, "y");
+        check(z, "z");
+        return spread3(x) | spread3(y) << 1 | spread3(z) << 2;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getIndex(final int x, final int y, final int z, final int w) {
+        checkState(arity == Arity.FOUR_D,
+                "Method getIndex(int x, int y, int z, int w), applies to "
+                        + "four dimensional Storages");
+        check(x, "x");
+        check(y, "y");
+        check(z, "z");
+        check(w, "w");
+        return spread4(x) | spread4(y) << 1 | spread4(z) << 2
+                | spread4(w) << 3;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getIndex(final Point thePoint) {
+        switch (thePoint.arity()) {
+        case ONE_D:
+            return getIndex((Point1D) thePoint);
+        case TWO_D:
+            return getIndex((Point2D) thePoint);
+        case THREE_D:
+            return getIndex((Point3D) thePoint);
+        case FOUR_D:
+            return getIndex((Point4D) thePoint);
+        default:
+            // This will not happen
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getIndex(final Point1D thePoint) {
+        checkState(arity == Arity.ONE_D,
+                "Method getIndex(Point1D thePoint), applies to single "
+                        + "dimensional Storages");
+        return getIndex(thePoint.getX());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getIndex(final Point2D thePoint) {
+        return getIndex(thePoint.getX(), thePoint.getY());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getIndex(final Point3D thePoint) {
+        return getIndex(thePoint.getX(), thePoint.getY(), thePoint.getZ());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getIndex(final Point4D thePoint) {
+        return getIndex(thePoint.getX(), thePoint.getY(), thePoint.getZ(),
+                thePoint.getW());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Point toPoint(final int theIndex) {
+        checkArgument(theIndex >= 0,
+                "The index must be a non negative integer");
+        switch (arity) {
+        case ONE_D:
+            return new Point1D(theIndex);
+        case TWO_D:
+            return new Point2D(compact2(theIndex), compact2(theIndex >>> 1));
+        case THREE_D:
+            return new Point3D(compact3(theIndex), compact3(theIndex >>> 1),
+                    compact3(theIndex >>> 2));
+        case FOUR_D:
+            return new Point4D(compact4(theIndex), compact4(theIndex >>> 1),
+                    compact4(theIndex >>> 2), compact4(theIndex >>> 3));
+        default:
+            // This will not happen.
+            throw new IllegalStateException();
+        }
+    }
+}
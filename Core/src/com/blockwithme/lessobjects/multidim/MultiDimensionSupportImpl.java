@@ -99,6 +99,20 @@ public class MultiDimensionSupportImpl implements MultiDimensionalSupport {
         return arity;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public long indexCount() {
+        long result = size;
+        for (int i = 0; i < arity.ordinal(); i++) {
+            if (result > Integer.MAX_VALUE) {
+                // Already more than any capacity.
+                break;
+            }
+            result *= size;
+        }
+        return result;
+    }
+
     /** {@inheritDoc} */
     @Override
     public int getIndex(final int x) {
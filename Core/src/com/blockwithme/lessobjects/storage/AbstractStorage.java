@@ -30,10 +30,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -45,6 +48,7 @@ import com.blockwithme.lessobjects.Struct;
 import com.blockwithme.lessobjects.Struct.UnionDiscriminatorValueMapping;
 import com.blockwithme.lessobjects.beans.ChangeInfo;
 import com.blockwithme.lessobjects.beans.MultiDimensionalSupport;
+import com.blockwithme.lessobjects.beans.ValueChange;
 import com.blockwithme.lessobjects.compiler.Aligned64Compiler;
 import com.blockwithme.lessobjects.fields.object.ObjectField;
 import com.blockwithme.lessobjects.fields.optional.BooleanOptionalField;
@@ -76,6 +80,11 @@ import com.blockwithme.lessobjects.storage.collections.IntLongMap;
 import com.blockwithme.lessobjects.storage.collections.IntObjectMap;
 import com.blockwithme.lessobjects.storage.collections.IntSet;
 import com.blockwithme.lessobjects.storage.collections.IntShortMap;
+import com.blockwithme.lessobjects.storage.parallel.ChangeBuffer;
+import com.blockwithme.lessobjects.storage.parallel.IndexSpliterator;
+import com.blockwithme.lessobjects.storage.parallel.StorageTasks;
+import com.blockwithme.lessobjects.storage.parallel.StructOperator;
+import com.blockwithme.lessobjects.storage.parallel.StructureVisitor;
 import com.carrotsearch.hppc.IntOpenHashSet;
 
 //CHECKSTYLE.OFF: IllegalType
@@ -101,6 +110,10 @@ public abstract class AbstractStorage implements Storage {
     @Nonnull
     private final ChangeInfo change;
 
+    /** The secondary indexes, by field unique index; null if none. */
+    @Nullable
+    private transient FieldIndex[] indexes;
+
     /** The multi dimensional support gets created lazily. */
     private MultiDimensionalSupport mdSupport;
 
@@ -174,26 +187,176 @@ public abstract class AbstractStorage implements Storage {
                 "Maximum capacity exceeded: " + theCapacity);
     }
 
-    /**
-     * Check if the field belongs to a parent which is of a list type.
-     *
-     * @return returns the list type parent if its a list field else returns null.
-     */
-    @Nullable
-    private static Struct checkIsListField(final Field<?, ?> theField,
-            final Struct theCurrentStruct) {
-
-        Struct s = theField.parent();
-        while (s != null) {
-            if (s == theCurrentStruct) {
-                return null;
+    /** Moves the values of an optional field, or of an optional object
+     * field, so that structure theTargetFrom + i of theTarget gets the value
+     * of structure theStructures[i] of theSource, or theFrom + i if
+     * theStructures is null. All the values are read before any is written,
+     * so theSource and theTarget can be the same. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static void moveOptional(final Object theSource,
+            @Nullable final int[] theStructures, final int theFrom,
+            final Object theTarget, final int theTargetFrom,
+            final int theCount) {
+        final boolean[] present = new boolean[theCount];
+        if (theSource instanceof IntSet) {
+            final IntSet set = (IntSet) theSource;
+            final IntSet target = (IntSet) theTarget;
+            for (int i = 0; i < theCount; i++) {
+                present[i] = set.contains(theStructures == null ? theFrom + i
+                        : theStructures[i]);
+            }
+            for (int i = 0; i < theCount; i++) {
+                if (present[i]) {
+                    target.add(theTargetFrom + i);
+                } else {
+                    target.removeAllOccurrences(theTargetFrom + i);
+                }
+            }
+        } else if (theSource instanceof IntByteMap) {
+            final IntByteMap map = (IntByteMap) theSource;
+            final IntByteMap target = (IntByteMap) theTarget;
+            final byte[] values = new byte[theCount];
+            for (int i = 0; i < theCount; i++) {
+                if (map.containsKey(theStructures == null ? theFrom + i
+                        : theStructures[i])) {
+                    present[i] = true;
+                    values[i] = map.lget();
+                }
+            }
+            for (int i = 0; i < theCount; i++) {
+                if (present[i]) {
+                    target.put(theTargetFrom + i, values[i]);
+                } else {
+                    target.remove(theTargetFrom + i);
+                }
+            }
+        } else if (theSource instanceof IntCharMap) {
+            final IntCharMap map = (IntCharMap) theSource;
+            final IntCharMap target = (IntCharMap) theTarget;
+            final char[] values = new char[theCount];
+            for (int i = 0; i < theCount; i++) {
+                if (map.containsKey(theStructures == null ? theFrom + i
+                        : theStructures[i])) {
+                    present[i] = true;
+                    values[i] = map.lget();
+                }
+            }
+            for (int i = 0; i < theCount; i++) {
+                if (present[i]) {
+                    target.put(theTargetFrom + i, values[i]);
+                } else {
+                    target.remove(theTargetFrom + i);
+                }
+            }
+        } else if (theSource instanceof IntDoubleMap) {
+            final IntDoubleMap map = (IntDoubleMap) theSource;
+            final IntDoubleMap target = (IntDoubleMap) theTarget;
+            final double[] values = new double[theCount];
+            for (int i = 0; i < theCount; i++) {
+                if (map.containsKey(theStructures == null ? theFrom + i
+                        : theStructures[i])) {
+                    present[i] = true;
+                    values[i] = map.lget();
+                }
+            }
+            for (int i = 0; i < theCount; i++) {
+                if (present[i]) {
+                    target.put(theTargetFrom + i, values[i]);
+                } else {
+                    target.remove(theTargetFrom + i);
+                }
+            }
+        } else if (theSource instanceof IntFloatMap) {
+            final IntFloatMap map = (IntFloatMap) theSource;
+            final IntFloatMap target = (IntFloatMap) theTarget;
+            final float[] values = new float[theCount];
+            for (int i = 0; i < theCount; i++) {
+                if (map.containsKey(theStructures == null ? theFrom + i
+                        : theStructures[i])) {
+                    present[i] = true;
+                    values[i] = map.lget();
+                }
+            }
+            for (int i = 0; i < theCount; i++) {
+                if (present[i]) {
+                    target.put(theTargetFrom + i, values[i]);
+                } else {
+                    target.remove(theTargetFrom + i);
+                }
+            }
+        } else if (theSource instanceof IntIntMap) {
+            final IntIntMap map = (IntIntMap) theSource;
+            final IntIntMap target = (IntIntMap) theTarget;
+            final int[] values = new int[theCount];
+            for (int i = 0; i < theCount; i++) {
+                if (map.containsKey(theStructures == null ? theFrom + i
+                        : theStructures[i])) {
+                    present[i] = true;
+                    values[i] = map.lget();
+                }
             }
-            if (s.list()) {
-                return s;
+            for (int i = 0; i < theCount; i++) {
+                if (present[i]) {
+                    target.put(theTargetFrom + i, values[i]);
+                } else {
+                    target.remove(theTargetFrom + i);
+                }
+            }
+        } else if (theSource instanceof IntLongMap) {
+            final IntLongMap map = (IntLongMap) theSource;
+            final IntLongMap target = (IntLongMap) theTarget;
+            final long[] values = new long[theCount];
+            for (int i = 0; i < theCount; i++) {
+                if (map.containsKey(theStructures == null ? theFrom + i
+                        : theStructures[i])) {
+                    present[i] = true;
+                    values[i] = map.lget();
+                }
+            }
+            for (int i = 0; i < theCount; i++) {
+                if (present[i]) {
+                    target.put(theTargetFrom + i, values[i]);
+                } else {
+                    target.remove(theTargetFrom + i);
+                }
+            }
+        } else if (theSource instanceof IntShortMap) {
+            final IntShortMap map = (IntShortMap) theSource;
+            final IntShortMap target = (IntShortMap) theTarget;
+            final short[] values = new short[theCount];
+            for (int i = 0; i < theCount; i++) {
+                if (map.containsKey(theStructures == null ? theFrom + i
+                        : theStructures[i])) {
+                    present[i] = true;
+                    values[i] = map.lget();
+                }
+            }
+            for (int i = 0; i < theCount; i++) {
+                if (present[i]) {
+                    target.put(theTargetFrom + i, values[i]);
+                } else {
+                    target.remove(theTargetFrom + i);
+                }
+            }
+        } else {
+            final IntObjectMap map = (IntObjectMap) theSource;
+            final IntObjectMap target = (IntObjectMap) theTarget;
+            final Object[] values = new Object[theCount];
+            for (int i = 0; i < theCount; i++) {
+                if (map.containsKey(theStructures == null ? theFrom + i
+                        : theStructures[i])) {
+                    present[i] = true;
+                    values[i] = map.lget();
+                }
+            }
+            for (int i = 0; i < theCount; i++) {
+                if (present[i]) {
+                    target.put(theTargetFrom + i, values[i]);
+                } else {
+                    target.remove(theTargetFrom + i);
+                }
             }
-            s = s.parent();
         }
-        return null;
     }
 
     /**
@@ -340,6 +503,22 @@ public abstract class AbstractStorage implements Storage {
         }
     }
 
+    /** Checks an access to a field of the given structure, which does not
+     * use the selected structure. Returns false for global fields, which do
+     * not depend on the structure, and must be read normally. */
+    private boolean checkIndexedAccess(final Field<?, ?> theField,
+            final int theStructure) {
+        if (checkNotNull(theField).global() && !isGlobalStorage) {
+            return false;
+        }
+        checkArgument(checkBulkAccess(theField), theField.name()
+                + " depends on the selected structure");
+        checkArgument(theStructure >= 0
+                && (this instanceof SparseStorage || theStructure < capacity),
+                "Invalid structure index: " + theStructure);
+        return true;
+    }
+
     /** Validates the usage of a union descriptor */
     @SuppressWarnings("null")
     private boolean checkUnionDescriptor(final Field<?, ?> theChild,
@@ -355,13 +534,184 @@ public abstract class AbstractStorage implements Storage {
         return true;
     }
 
-    /** Copies the value of one field from another storage into this storage, for the selected structure. */
-    private void copyField(final Storage theOther,
-            final Map<Field<?, ?>, Field<?, ?>> theFieldMapping,
-            final Field<?, ?> theNewField) {
-        final Field<?, ?> oldField = theFieldMapping.get(theNewField);
-        if (oldField != null) {
-            oldField.copyValue(this, theNewField, theOther);
+    /** Copies the values of the object and optional fields of theCount
+     * structures into theTarget, for copyRange(). theFields maps the fields
+     * of theTarget to the fields of this storage. */
+    @SuppressWarnings("rawtypes")
+    private void copyRangeValues(final int theFrom,
+            final AbstractStorage theTarget, final int theTargetFrom,
+            final int theCount, final Map<Field<?, ?>, Field<?, ?>> theFields) {
+        for (final Map.Entry<Field<?, ?>, Field<?, ?>> entry : theFields
+                .entrySet()) {
+            final Field<?, ?> field = entry.getValue();
+            final Field<?, ?> targetField = entry.getKey();
+            if (field.global() || field.virtual()) {
+                continue;
+            }
+            if (field.object()) {
+                final Object objects = objectStorageObjects[field.properties()
+                        .objectFieldIndex()];
+                final Object targetObjects = theTarget.objectStorageObjects[
+                        targetField.properties().objectFieldIndex()];
+                if (field.properties().isOptional()) {
+                    moveOptional(objects, null, theFrom, targetObjects,
+                            theTargetFrom, theCount);
+                } else {
+                    final Object[] values = new Object[theCount];
+                    for (int i = 0; i < theCount; i++) {
+                        values[i] = objectAt(objects, theFrom + i);
+                    }
+                    for (int i = 0; i < theCount; i++) {
+                        theTarget.objectAt(targetObjects, theTargetFrom + i,
+                                values[i]);
+                    }
+                }
+            } else if (field.isOptional()) {
+                moveOptional(optionalStorageObjects[((OptionalField) field)
+                        .optionalFieldIndex()], null, theFrom,
+                        theTarget.optionalStorageObjects[((OptionalField)
+                                targetField).optionalFieldIndex()],
+                        theTargetFrom, theCount);
+            }
+        }
+    }
+
+    /** (Re)builds an index from the current content of this storage. */
+    private void buildIndex(final FieldIndex theIndex) {
+        final Field<?, ?> field = theIndex.field();
+        theIndex.reset();
+        final int selected = getSelectedStructure();
+        for (int i = 0; i < capacity; i++) {
+            selectStructure(i);
+            theIndex.put(i, indexedValue(field));
+        }
+        selectStructure(selected);
+    }
+
+    /** Updates the index of a field, if any, after a change. */
+    private void indexChanged(final Field<?, ?> theField,
+            final int theStructure, @Nullable final Object theValue) {
+        final FieldIndex index = index(theField);
+        if (index != null) {
+            index.put(theStructure, theValue);
+        }
+    }
+
+    /** Returns the indexed value of a field, in the selected structure. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Nullable
+    private Object indexedValue(final Field<?, ?> theField) {
+        if (theField instanceof BooleanField) {
+            return Long.valueOf(read((BooleanField) theField) ? 1 : 0);
+        }
+        if (theField instanceof ByteField) {
+            return Long.valueOf(read((ByteField) theField));
+        }
+        if (theField instanceof CharField) {
+            return Long.valueOf(read((CharField) theField));
+        }
+        if (theField instanceof IntField) {
+            return Long.valueOf(read((IntField) theField));
+        }
+        if (theField instanceof LongField) {
+            return Long.valueOf(read((LongField) theField));
+        }
+        if (theField instanceof ShortField) {
+            return Long.valueOf(read((ShortField) theField));
+        }
+        return read((ObjectField) theField);
+    }
+
+    /** Moves the values of the (non-optional) object fields, of this struct
+     * and of its non-optional children. */
+    @SuppressWarnings("rawtypes")
+    private void permuteObjects(final Struct theStruct, final int[] theOrder) {
+        for (final ObjectField<?, ?> f : theStruct.structObjectFields()) {
+            final Object objects = objectStorageObjects[f.properties()
+                    .objectFieldIndex()];
+            if (f.properties().isOptional()) {
+                moveOptional(objects, theOrder, 0, objects, 0,
+                        theOrder.length);
+            } else {
+                final Object[] values = new Object[theOrder.length];
+                for (int i = 0; i < theOrder.length; i++) {
+                    values[i] = objectAt(objects, theOrder[i]);
+                }
+                for (int i = 0; i < theOrder.length; i++) {
+                    objectAt(objects, i, values[i]);
+                }
+            }
+        }
+        for (final Struct child : theStruct.structChildren()) {
+            if (child != null) {
+                permuteObjects(child, theOrder);
+            }
+        }
+    }
+
+    /** Moves the values of the optional fields, of this struct and of its
+     * non-optional children. */
+    private void permuteOptionals(final Struct theStruct,
+            final int[] theOrder) {
+        for (final Field<?, ?> f : theStruct.structOptionalFields()) {
+            final Object values = optionalStorageObjects[((OptionalField<?, ?>)
+                    f).optionalFieldIndex()];
+            moveOptional(values, theOrder, 0, values, 0, theOrder.length);
+        }
+        for (final Struct child : theStruct.structChildren()) {
+            if (child != null) {
+                permuteOptionals(child, theOrder);
+            }
+        }
+    }
+
+    /** Publishes the changes recorded by the cursors of apply(), in order. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void publishChanges(final ChangeBuffer theChanges) {
+        for (int i = 0; i < theChanges.size(); i++) {
+            final Field field = theChanges.field(i);
+            final int structure = theChanges.structure(i);
+            final long oldBits = theChanges.oldBits(i);
+            final long newBits = theChanges.newBits(i);
+            if (field instanceof BooleanField) {
+                publishChange((BooleanField) field, ChangeType.BOOLEAN_FIELD,
+                        newBits != 0, oldBits != 0, structure);
+            } else if (field instanceof ByteField) {
+                publishChange((ByteField) field, ChangeType.BYTE_FIELD,
+                        (byte) newBits, (byte) oldBits, structure);
+            } else if (field instanceof CharField) {
+                publishChange((CharField) field, ChangeType.CHAR_FIELD,
+                        (char) newBits, (char) oldBits, structure);
+            } else if (field instanceof DoubleField) {
+                publishChange((DoubleField) field, ChangeType.DOUBLE_FIELD,
+                        Double.longBitsToDouble(newBits),
+                        Double.longBitsToDouble(oldBits), structure);
+            } else if (field instanceof FloatField) {
+                publishChange((FloatField) field, ChangeType.FLOAT_FIELD,
+                        Float.intBitsToFloat((int) newBits),
+                        Float.intBitsToFloat((int) oldBits), structure);
+            } else if (field instanceof IntField) {
+                publishChange((IntField) field, ChangeType.INT_FIELD,
+                        (int) newBits, (int) oldBits, structure);
+            } else if (field instanceof LongField) {
+                publishChange((LongField) field, ChangeType.LONG_FIELD,
+                        newBits, oldBits, structure);
+            } else {
+                publishChange((ShortField) field, ChangeType.SHORT_FIELD,
+                        (short) newBits, (short) oldBits, structure);
+            }
+        }
+    }
+
+    /** Rebuilds all the indexes, after the structures moved, or were written
+     * without publishing the changes. */
+    protected final void rebuildIndexes() {
+        if (indexes != null) {
+            for (final FieldIndex index : indexes) {
+                if (index != null) {
+                    buildIndex(index);
+                }
+            }
         }
     }
 
@@ -419,6 +769,22 @@ public abstract class AbstractStorage implements Storage {
         }
     }
 
+    /** Re-reads the value of the field of a rolled back change, and updates
+     * the index of the field, if any. */
+    @SuppressWarnings("null")
+    void reindex(final ValueChange<?> theChange) {
+        if (indexes != null) {
+            final Field<?, ?> field = theChange.field();
+            final FieldIndex index = index(field);
+            if (index != null) {
+                final int selected = getSelectedStructure();
+                selectStructure(theChange.structureIndex());
+                index.put(theChange.structureIndex(), indexedValue(field));
+                selectStructure(selected);
+            }
+        }
+    }
+
     /** Read bytes. */
     @SuppressWarnings({ "null", "unchecked" })
     <E, F extends ObjectField<E, F>> E readObject(final F theField) {
@@ -429,12 +795,343 @@ public abstract class AbstractStorage implements Storage {
                     capacity, Object.class);
             return (E) map.get(structure);
         }
-        final Object[] array = (Object[]) objectStorageObjects[objectFieldIndex];
-        return (E) array[structure];
+        return (E) objectAt(objectStorageObjects[objectFieldIndex], structure);
     }
     /** Blank copy without any data and defaults *not* initialized.  */
     protected abstract Storage blankCopy();
 
+    /** Reads a BooleanField of several structures. The structure of the
+     * value i is theStructures[i], or theFrom + i if theStructures is null.
+     * This implementation selects every structure; the storages which can
+     * address their structures directly override it. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkRead(final BooleanField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final boolean[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            theValues[i] = direct ? readBoolean((BooleanField) theField)
+                    : read(theField);
+        }
+    }
+
+    /** Reads a ByteField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkRead(final ByteField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final byte[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            theValues[i] = direct ? readByte((ByteField) theField)
+                    : read(theField);
+        }
+    }
+
+    /** Reads a CharField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkRead(final CharField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final char[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            theValues[i] = direct ? readChar((CharField) theField)
+                    : read(theField);
+        }
+    }
+
+    /** Reads a DoubleField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkRead(final DoubleField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final double[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            theValues[i] = direct ? readDouble((DoubleField) theField)
+                    : read(theField);
+        }
+    }
+
+    /** Reads a FloatField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkRead(final FloatField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final float[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            theValues[i] = direct ? readFloat((FloatField) theField)
+                    : read(theField);
+        }
+    }
+
+    /** Reads a IntField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkRead(final IntField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final int[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            theValues[i] = direct ? readInt((IntField) theField)
+                    : read(theField);
+        }
+    }
+
+    /** Reads a LongField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkRead(final LongField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final long[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            theValues[i] = direct ? readLong((LongField) theField)
+                    : read(theField);
+        }
+    }
+
+    /** Reads a ShortField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkRead(final ShortField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final short[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            theValues[i] = direct ? readShort((ShortField) theField)
+                    : read(theField);
+        }
+    }
+
+    /** Writes a BooleanField of several structures. The structure of the
+     * value i is theStructures[i], or theFrom + i if theStructures is null.
+     * This implementation selects every structure; the storages which can
+     * address their structures directly override it. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkWrite(final BooleanField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final boolean[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            final boolean value = theValues[i];
+            if (direct) {
+                final boolean oldValue = writeImpl((BooleanField) theField,
+                        value);
+                if (transactionsEnabled() && oldValue != value) {
+                    publishChange((BooleanField) theField,
+                            ChangeType.BOOLEAN_FIELD, value, oldValue,
+                            getSelectedStructure());
+                }
+            } else {
+                write(theField, value);
+            }
+        }
+    }
+
+    /** Writes a ByteField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkWrite(final ByteField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final byte[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            final byte value = theValues[i];
+            if (direct) {
+                final byte oldValue = writeImpl((ByteField) theField, value);
+                if (transactionsEnabled() && oldValue != value) {
+                    publishChange((ByteField) theField, ChangeType.BYTE_FIELD,
+                            value, oldValue, getSelectedStructure());
+                }
+            } else {
+                write(theField, value);
+            }
+        }
+    }
+
+    /** Writes a CharField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkWrite(final CharField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final char[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            final char value = theValues[i];
+            if (direct) {
+                final char oldValue = writeImpl((CharField) theField, value);
+                if (transactionsEnabled() && oldValue != value) {
+                    publishChange((CharField) theField, ChangeType.CHAR_FIELD,
+                            value, oldValue, getSelectedStructure());
+                }
+            } else {
+                write(theField, value);
+            }
+        }
+    }
+
+    /** Writes a DoubleField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkWrite(final DoubleField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final double[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            final double value = theValues[i];
+            if (direct) {
+                final double oldValue = writeImpl((DoubleField) theField,
+                        value);
+                if (transactionsEnabled() && oldValue != value) {
+                    publishChange((DoubleField) theField,
+                            ChangeType.DOUBLE_FIELD, value, oldValue,
+                            getSelectedStructure());
+                }
+            } else {
+                write(theField, value);
+            }
+        }
+    }
+
+    /** Writes a FloatField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkWrite(final FloatField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final float[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            final float value = theValues[i];
+            if (direct) {
+                final float oldValue = writeImpl((FloatField) theField, value);
+                if (transactionsEnabled() && oldValue != value) {
+                    publishChange((FloatField) theField, ChangeType.FLOAT_FIELD,
+                            value, oldValue, getSelectedStructure());
+                }
+            } else {
+                write(theField, value);
+            }
+        }
+    }
+
+    /** Writes a IntField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkWrite(final IntField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final int[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            final int value = theValues[i];
+            if (direct) {
+                final int oldValue = writeImpl((IntField) theField, value);
+                if (transactionsEnabled() && oldValue != value) {
+                    publishChange((IntField) theField, ChangeType.INT_FIELD,
+                            value, oldValue, getSelectedStructure());
+                }
+            } else {
+                write(theField, value);
+            }
+        }
+    }
+
+    /** Writes a LongField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkWrite(final LongField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final long[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            final long value = theValues[i];
+            if (direct) {
+                final long oldValue = writeImpl((LongField) theField, value);
+                if (transactionsEnabled() && oldValue != value) {
+                    publishChange((LongField) theField, ChangeType.LONG_FIELD,
+                            value, oldValue, getSelectedStructure());
+                }
+            } else {
+                write(theField, value);
+            }
+        }
+    }
+
+    /** Writes a ShortField of several structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected void bulkWrite(final ShortField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final short[] theValues, final int theCount) {
+        final boolean direct = checkBulkAccess(theField);
+        for (int i = 0; i < theCount; i++) {
+            selectStructure(theStructures == null ? theFrom + i
+                    : theStructures[i]);
+            final short value = theValues[i];
+            if (direct) {
+                final short oldValue = writeImpl((ShortField) theField, value);
+                if (transactionsEnabled() && oldValue != value) {
+                    publishChange((ShortField) theField, ChangeType.SHORT_FIELD,
+                            value, oldValue, getSelectedStructure());
+                }
+            } else {
+                write(theField, value);
+            }
+        }
+    }
+
+    /** Checks the access to a field, once for a whole bulk operation. Returns
+     * true if the field is a plain field of the structures, which can be read
+     * and written without checking the access for every structure. Global,
+     * optional and virtual fields, and the fields of unions, are accessed
+     * (and checked) one structure at a time. */
+    protected final boolean checkBulkAccess(final Field<?, ?> theField) {
+        checkNotNull(theField);
+        final UnionDiscriminatorValueMapping[] udMap = struct
+                .uDMapping(theField);
+        if (theField.global() || theField.isOptional() || theField.virtual()
+                || udMap != null && udMap.length > 0) {
+            return false;
+        }
+        final String error = doAccessCheck(theField, struct, this);
+        checkState(error == null, error);
+        return true;
+    }
+
+    /** Checks that the structures of a bulk operation are all within the
+     * capacity of this storage. */
+    protected final void checkBulkRange(@Nullable final int[] theStructures,
+            final int theFrom, final int theCount) {
+        if (theStructures == null) {
+            checkArgument(theFrom >= 0 && theFrom + theCount <= capacity,
+                    "Invalid structure range");
+        } else {
+            for (int i = 0; i < theCount; i++) {
+                final int structure = theStructures[i];
+                checkArgument(structure >= 0 && structure < capacity,
+                        "Invalid structure index");
+            }
+        }
+    }
+
     /** Clears all children at current position and sets default values. */
     protected abstract void clearAllChildren();
 
@@ -464,14 +1161,10 @@ public abstract class AbstractStorage implements Storage {
         if (theStruct.structObjectFields().length > 0) {
             for (final ObjectField<?, ?> f : theStruct.structObjectFields()) {
                 if (!f.properties().isOptional()) {
-                    final Object[] oldArray = (Object[]) theOldObjectStorage[f
-                            .properties().objectFieldIndex()];
                     final int objectFieldIndex = f.properties()
                             .objectFieldIndex();
-                    final Object[] newArray = (Object[]) theNewObjectStorage[objectFieldIndex];
-                    final int length = Math.min(oldArray.length,
-                            newArray.length);
-                    System.arraycopy(oldArray, 0, newArray, 0, length);
+                    copyObjects(theOldObjectStorage[objectFieldIndex],
+                            theNewObjectStorage[objectFieldIndex]);
                 } else {
                     final IntObjectMap oldMap = (IntObjectMap) theOldObjectStorage[f
                             .properties().objectFieldIndex()];
@@ -491,10 +1184,56 @@ public abstract class AbstractStorage implements Storage {
         }
     }
 
+    /** Copies the values of a (non-optional) object field, from one object
+     * array, as created by newObjects(), to another. */
+    protected void copyObjects(final Object theSource, final Object theTarget) {
+        final Object[] source = (Object[]) theSource;
+        final Object[] target = (Object[]) theTarget;
+        System.arraycopy(source, 0, target, 0,
+                Math.min(source.length, target.length));
+    }
+
     /** Gets a storage instance that can store single element, used for global fields. */
     protected abstract AbstractStorage getSingleStorage(
             final Struct theGlobalStruct);
 
+    /** Copies the bits of the directly stored fields of theCount structures
+     * into theTarget, for copyRange(). theFields maps the fields of theTarget
+     * to the fields of this storage. This default implementation goes
+     * through rawRead() and rawWrite(), one field at a time, reading all the
+     * values before writing any, so that the ranges can overlap. */
+    protected void copyRangeBits(final int theFrom,
+            final AbstractStorage theTarget, final int theTargetFrom,
+            final int theCount, final Map<Field<?, ?>, Field<?, ?>> theFields) {
+        final List<Field<?, ?>> fields = new ArrayList<>();
+        for (final Field<?, ?> field : theFields.values()) {
+            if (!field.global() && !field.isOptional() && !field.virtual()
+                    && !field.object()) {
+                fields.add(field);
+            }
+        }
+        final long[][] values = new long[fields.size()][theCount];
+        for (int f = 0; f < values.length; f++) {
+            final Field<?, ?> field = fields.get(f);
+            final long[] fieldValues = values[f];
+            for (int i = 0; i < theCount; i++) {
+                fieldValues[i] = rawRead(field, theFrom + i);
+            }
+        }
+        final Map<Field<?, ?>, Field<?, ?>> targetFields = new HashMap<>();
+        for (final Map.Entry<Field<?, ?>, Field<?, ?>> entry : theFields
+                .entrySet()) {
+            targetFields.put(entry.getValue(), entry.getKey());
+        }
+        for (int f = 0; f < values.length; f++) {
+            final Field<?, ?> field = targetFields.get(fields.get(f));
+            final long[] fieldValues = values[f];
+            for (int i = 0; i < theCount; i++) {
+                theTarget.rawWrite(field, theTargetFrom + i, fieldValues[i]);
+            }
+        }
+    }
+
     /** Initializes object arrays for storing object field types. */
     @SuppressWarnings("rawtypes")
     protected final void initObjectStorage(final Struct theStruct) {
@@ -505,8 +1244,7 @@ public abstract class AbstractStorage implements Storage {
 
                 final int objectFieldIndex = f.properties().objectFieldIndex();
                 if (!f.properties().isOptional()) {
-                    final Object[] objects = new Object[capacity];
-                    objectStorageObjects[objectFieldIndex] = objects;
+                    objectStorageObjects[objectFieldIndex] = newObjects(capacity);
                 } else {
                     objectStorageObjects[objectFieldIndex] = COLL_FACTORY
                             .createIntObjectMap(capacity, Object.class);
@@ -524,15 +1262,127 @@ public abstract class AbstractStorage implements Storage {
 
     }
 
-    /** Checks if the Storage and Struct types are different. */
+    /** Checks if the Storage and Struct types are different, so that the
+     * storage cannot be copied as-is into theOther. The raw copies do not
+     * include the optional and global fields, so the storages having some
+     * are always copied field by field. */
     protected boolean isDifferent(final Storage theOther) {
         if (theOther instanceof StorageWrapperImpl) {
             return true;
         }
-        return !(theOther.getClass() == getClass())
-                || theOther.struct().equals(struct());
+        return !sameLayout(theOther) || struct.optionalFieldsCount() > 0
+                || struct.globalStruct() != null;
+    }
+
+    /** Checks if the storage cannot be copied as-is into theOther, with the
+     * given migrator. Only the default migrator allows raw copies, as the
+     * others can map the fields differently, and have a postProcessor. */
+    protected final boolean isDifferent(final Storage theOther,
+            final SchemaMigrator theSchemaMigrator) {
+        return theSchemaMigrator != Struct.DEFAULT_SCHEMA_MIGRATOR
+                || isDifferent(theOther);
+    }
+
+    /** Returns the class which defines how this storage lays out its
+     * structures. The generated storages only replace the accessors of the
+     * class they extend, and return that class. */
+    protected Class<?> layoutClass() {
+        return getClass();
+    }
+
+    /** Checks if theOther stores the same structures in the same way, so
+     * that the content of one can be copied as-is into the other. */
+    protected boolean sameLayout(final Storage theOther) {
+        return theOther instanceof AbstractStorage
+                && ((AbstractStorage) theOther).layoutClass() == layoutClass()
+                && theOther.struct().equals(struct);
+    }
+
+    /** Copies the bits of the plain fields of the structures theFrom
+     * (inclusive) to theTo (exclusive) into theOther, for copyStorage(), and
+     * returns the fields of theOther that were copied; the other fields are
+     * then copied field by field. theMapping maps the fields of theOther to
+     * the fields of this storage. This default implementation copies
+     * nothing. */
+    protected Set<Field<?, ?>> migrateBits(final Storage theOther,
+            final Map<Field<?, ?>, Field<?, ?>> theMapping, final int theFrom,
+            final int theTo) {
+        return Collections.emptySet();
+    }
+
+    /** Creates the array storing the values of a (non-optional) object field.
+     * Called from the constructor, so it must not use the instance fields. */
+    protected Object newObjects(final int theCapacity) {
+        return new Object[theCapacity];
+    }
+
+    /** Returns the value of a (non-optional) object field, at some index. */
+    protected Object objectAt(final Object theObjects, final int theIndex) {
+        return ((Object[]) theObjects)[theIndex];
+    }
+
+    /** Sets the value of a (non-optional) object field, at some index, and
+     * returns the old value. */
+    protected Object objectAt(final Object theObjects, final int theIndex,
+            @Nullable final Object theValue) {
+        final Object[] objects = (Object[]) theObjects;
+        final Object result = objects[theIndex];
+        objects[theIndex] = theValue;
+        return result;
+    }
+
+    /** Moves the bits of the directly stored fields, so that structure i
+     * gets the bits that structure theOrder[i] had. This default
+     * implementation goes through rawRead() and rawWrite(), one field at a
+     * time, reading all the values before writing any, so that overlapping
+     * union fields end up with the bits of the same structure. */
+    protected void permuteBits(final int[] theOrder) {
+        final List<Field<?, ?>> fields = new ArrayList<>();
+        for (final Field<?, ?> field : struct.allStorageFields()) {
+            if (!field.global() && !field.isOptional() && !field.virtual()
+                    && !field.object()) {
+                fields.add(field);
+            }
+        }
+        final long[][] values = new long[fields.size()][theOrder.length];
+        for (int f = 0; f < values.length; f++) {
+            final Field<?, ?> field = fields.get(f);
+            final long[] fieldValues = values[f];
+            for (int i = 0; i < theOrder.length; i++) {
+                fieldValues[i] = rawRead(field, theOrder[i]);
+            }
+        }
+        for (int f = 0; f < values.length; f++) {
+            final Field<?, ?> field = fields.get(f);
+            final long[] fieldValues = values[f];
+            for (int i = 0; i < theOrder.length; i++) {
+                rawWrite(field, i, fieldValues[i]);
+            }
+        }
+    }
+
+    /** Moves everything stored for the structures, for permute(). Storages
+     * with optional or list children, and sparse storages, which only move
+     * their structure indexes, override it. theInverse is the inverse
+     * permutation of theOrder. */
+    protected void permuteStructures(final int[] theOrder,
+            final int[] theInverse) {
+        permuteBits(theOrder);
+        permuteObjects(struct, theOrder);
+        permuteOptionals(struct, theOrder);
     }
 
+    /** Reads the bits of a directly stored field, in the given structure,
+     * without using, or changing, the selected structure. */
+    protected abstract long rawRead(final Field<?, ?> theField,
+            final int theStructure);
+
+    /** Writes the bits of a directly stored field, in the given structure,
+     * without using, or changing, the selected structure, and returns the
+     * previous bits. */
+    protected abstract long rawWrite(final Field<?, ?> theField,
+            final int theStructure, final long theValue);
+
     /** Initializes object arrays for storing object field types. */
     @SuppressWarnings("rawtypes")
     protected final void reInitObjectStorage(final Struct theStruct,
@@ -540,7 +1390,7 @@ public abstract class AbstractStorage implements Storage {
         if (theStruct.structObjectFields().length > 0) {
             for (final ObjectField<?, ?> f : theStruct.structObjectFields()) {
                 if (!f.properties().isOptional()) {
-                    theObjectStorage[f.properties().objectFieldIndex()] = new Object[capacity];
+                    theObjectStorage[f.properties().objectFieldIndex()] = newObjects(capacity);
                 } else {
                     final int objectFieldIndex = f.properties()
                             .objectFieldIndex();
@@ -558,6 +1408,61 @@ public abstract class AbstractStorage implements Storage {
         }
     }
 
+    /**
+     * Adds a secondary index, and builds it from the current content of this
+     * storage. The index is then updated by every published change of its
+     * field, so this storage must have transactions enabled, and they cannot
+     * be disabled while it has indexes. The bulk operations which bypass the
+     * changes, like copyStorage() and resizeStorage(), rebuild the indexes.
+     * Indexes are not copied with the storage, and sparse storages cannot be
+     * indexed.
+     */
+    public void addIndex(final FieldIndex theIndex) {
+        final Field<?, ?> field = theIndex.field();
+        checkAccess(field);
+        checkArgument(!(this instanceof SparseStorage),
+                "Sparse storages cannot be indexed");
+        checkState(transactionsEnabled(),
+                "Indexes require transactions to be enabled");
+        checkState(index(field) == null, "Field already indexed: "
+                + field.name());
+        final int uniqueIndex = field.uniqueIndex();
+        if (indexes == null) {
+            indexes = new FieldIndex[uniqueIndex + 1];
+        } else if (indexes.length <= uniqueIndex) {
+            indexes = Arrays.copyOf(indexes, uniqueIndex + 1);
+        }
+        buildIndex(theIndex);
+        indexes[uniqueIndex] = theIndex;
+    }
+
+    /** The operator writes with transactions disabled, while each cursor
+     * records its own changes; the changes are then published in index
+     * order, so they end up in the current transaction. If the operator
+     * throws, the changes made until then are still published, so that they
+     * can be rolled back. */
+    @Override
+    public void apply(final int theFrom, final int theTo,
+            final StructOperator theOperator) {
+        checkReadOnly();
+        checkArgument(theFrom >= 0 && theFrom <= theTo
+                && (this instanceof SparseStorage || theTo <= capacity),
+                "Invalid structure range");
+        final ChangeBuffer changes = transactionsEnabled() ? new ChangeBuffer()
+                : null;
+        final boolean oldDisabled = transactionsDisabled;
+        transactionsDisabled = true;
+        try {
+            StorageTasks.apply(this, theFrom, theTo, theOperator,
+                    concurrentWriteGranularity(), changes);
+        } finally {
+            transactionsDisabled = oldDisabled;
+            if (changes != null) {
+                publishChanges(changes);
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     @SuppressWarnings("null")
     @Override
@@ -622,9 +1527,8 @@ public abstract class AbstractStorage implements Storage {
                 }
             } else {
 
-                final Object[] array = (Object[]) objectStorageObjects[objectFieldIndex];
-                oldObject = (E) array[structure];
-                array[structure] = null;
+                oldObject = (E) objectAt(objectStorageObjects[objectFieldIndex],
+                        structure, null);
                 valueChanged = oldObject != null;
 
             }
@@ -757,6 +1661,22 @@ public abstract class AbstractStorage implements Storage {
         }
     }
 
+    /** Returns true if the bulk reads (readRange() and gather()) never change
+     * the state of this storage, so that several threads can perform them at
+     * the same time, as long as nobody writes. */
+    public boolean concurrentBulkRead() {
+        return false;
+    }
+
+    /** Returns a number of structures, such that the ranges of structures
+     * starting at its multiples never share a long word, or a page, so that
+     * several threads can write them at the same time, using the
+     * index-addressed write operations. Returns 0 if concurrent writes are
+     * not supported. */
+    public int concurrentWriteGranularity() {
+        return 0;
+    }
+
     /** {@inheritDoc} */
     @SuppressWarnings("null")
     @Override
@@ -767,10 +1687,42 @@ public abstract class AbstractStorage implements Storage {
         checkState(!transactionManager().isUncommitted(),
                 "The current Storage has uncommitted data.");
         final Storage result = blankCopy();
+        // The default support does not always fit the capacity.
+        ((AbstractStorage) result).mdSupport = mdSupport;
         copyStorage(result);
         return result;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void copyRange(final int theFrom, final Storage theTarget,
+            final int theTargetFrom, final int theCount) {
+        checkArgument(theTarget instanceof AbstractStorage,
+                "Unsupported target storage: " + theTarget.getClass());
+        final AbstractStorage target = (AbstractStorage) theTarget;
+        checkArgument(struct.equals(target.struct),
+                "The storages must have the same schema");
+        checkArgument(!(this instanceof SparseStorage)
+                && !(target instanceof SparseStorage),
+                "Sparse storages are not supported");
+        checkArgument(struct.allOptionalChildren().length == 0
+                && struct.allListChildren().length == 0,
+                "Optional and list children are not supported");
+        checkArgument(theCount >= 0 && theFrom >= 0
+                && theFrom + theCount <= capacity && theTargetFrom >= 0
+                && theTargetFrom + theCount <= target.capacity,
+                "Invalid range");
+        target.checkReadOnly();
+        checkState(!target.transactionManager().isUncommitted(),
+                "The target Storage has uncommitted data.");
+        final SchemaMigrator migrator = Struct.DEFAULT_SCHEMA_MIGRATOR;
+        final Map<Field<?, ?>, Field<?, ?>> fields = migrator.mapSchema(
+                target.struct, struct);
+        copyRangeBits(theFrom, target, theTargetFrom, theCount, fields);
+        copyRangeValues(theFrom, target, theTargetFrom, theCount, fields);
+        target.rebuildIndexes();
+    }
+
     /** {@inheritDoc} */
     @Override
     @SuppressWarnings("null")
@@ -796,88 +1748,27 @@ public abstract class AbstractStorage implements Storage {
         // storage.
         selectStructure(0);
         theOther.selectStructure(0);
-        theOther.enableTransactions(false);
-
-        final Struct otherStruct = theOther.struct();
-        final Struct thisStruct = struct;
-
-        final Map<Field<?, ?>, Field<?, ?>> schemaMigrator = theSchemaMigrator
-                .mapSchema(otherStruct, thisStruct);
-
-        final Map<Field<?, ?>, Struct> listFields = new HashMap<>();
-        final Map<Field<?, ?>, Struct> listOldFields = new HashMap<>();
-        final List<Field<?, ?>> globalFields = new ArrayList<>();
-        final List<Field<?, ?>> nonListFields = new ArrayList<>();
-
-        // check if field types match.
-        for (final Field<?, ?> newField : schemaMigrator.keySet()) {
-
-            final Field<?, ?> oldField = schemaMigrator.get(newField);
-            if (newField.fieldType() != oldField.fieldType()) {
-                throw new IllegalStateException("Field types for fields "
-                        + newField.qualifiedName() + " and "
-                        + oldField.qualifiedName() + " do not match!");
-            }
-            final Struct s = checkIsListField(newField, theOther.struct());
-            if (s != null) {
-                final Field<?, ?> oldListField = schemaMigrator.get(newField);
-                if (oldListField != null) {
-                    final Struct oldS = checkIsListField(oldListField,
-                            thisStruct);
-                    listFields.put(newField, s);
-                    listOldFields.put(oldListField, oldS);
-                }
-
-            } else if (newField.global()) {
-                globalFields.add(newField);
-            } else {
-                nonListFields.add(newField);
-            }
-        }
-
-        // Copy Global fields only once.
-        for (final Field<?, ?> newField : globalFields) {
-            copyField(theOther, schemaMigrator, newField);
+        if (theOther instanceof AbstractStorage) {
+            // Its indexes, if any, are rebuilt afterward.
+            ((AbstractStorage) theOther).enableTransactionsInternal(false);
+        } else {
+            theOther.enableTransactions(false);
         }
 
-        // Copy Field data for all
-        for (int i = 0; i < capacity; i++) {
-            selectStructure(i);
-            theOther.selectStructure(i);
+        final StorageMigration migration = new StorageMigration(this,
+                theOther, theSchemaMigrator);
+        migration.copyGlobals();
+        migration.copyStructures(0, capacity);
 
-            for (final Field<?, ?> newField : nonListFields) {
-                if (newField.virtual() || newField.global()) {
-                    continue;
-                }
-                copyField(theOther, schemaMigrator, newField);
-            }
-            for (final Field<?, ?> newField : listFields.keySet()) {
-                final Field<?, ?> oldField = schemaMigrator.get(newField);
-                final Struct oldFieldParent = listOldFields.get(oldField);
-                final Struct newFieldParent = listFields.get(newField);
-
-                final Storage childStorage = list(oldFieldParent);
-
-                if (childStorage != null) {
-                    final Storage otherChildStorage = theOther
-                            .createOrClearList(newFieldParent,
-                                    childStorage.getCapacity());
-                    otherChildStorage.enableTransactions(false);
-                    childStorage.copyStorage(otherChildStorage,
-                            theSchemaMigrator);
-                    otherChildStorage.enableTransactions(childStorage
-                            .transactionsEnabled());
-                }
-            }
-            // call post processor here.
-            theSchemaMigrator.postProcessor(this, theOther, i, i);
-        }
         // reset the selected index.
         // reset the transactional flag.
         selectStructure(thisCurrentIndex);
         theOther.selectStructure(otherCurrentIndex);
         theOther.transactionManager().commit();
         theOther.enableTransactions(transactionEnabled);
+        if (theOther instanceof AbstractStorage) {
+            ((AbstractStorage) theOther).rebuildIndexes();
+        }
     }
 
     /** {@inheritDoc} */
@@ -886,9 +1777,90 @@ public abstract class AbstractStorage implements Storage {
 
         checkState(!transactionManager().isUncommitted(),
                 "The current Storage has uncommitted data.");
+        checkState(theEnableFlag || indexes == null,
+                "Cannot disable transactions, with secondary indexes");
         enableTransactionsInternal(theEnableFlag);
     }
 
+    /** Visits the structures in parallel; all the engines support concurrent
+     * index-addressed reads. */
+    @Override
+    public void forEach(final StructureVisitor theVisitor) {
+        StorageTasks.forEach(this, spliterator(), theVisitor, true);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final BooleanField<?, ?> theField,
+            final int[] theStructures, final boolean[] theDest) {
+        checkArgument(theDest.length >= theStructures.length,
+                "Destination too small");
+        bulkRead(theField, theStructures, 0, theDest, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final ByteField<?, ?> theField,
+            final int[] theStructures, final byte[] theDest) {
+        checkArgument(theDest.length >= theStructures.length,
+                "Destination too small");
+        bulkRead(theField, theStructures, 0, theDest, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final CharField<?, ?> theField,
+            final int[] theStructures, final char[] theDest) {
+        checkArgument(theDest.length >= theStructures.length,
+                "Destination too small");
+        bulkRead(theField, theStructures, 0, theDest, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final DoubleField<?, ?> theField,
+            final int[] theStructures, final double[] theDest) {
+        checkArgument(theDest.length >= theStructures.length,
+                "Destination too small");
+        bulkRead(theField, theStructures, 0, theDest, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final FloatField<?, ?> theField,
+            final int[] theStructures, final float[] theDest) {
+        checkArgument(theDest.length >= theStructures.length,
+                "Destination too small");
+        bulkRead(theField, theStructures, 0, theDest, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final IntField<?, ?> theField,
+            final int[] theStructures, final int[] theDest) {
+        checkArgument(theDest.length >= theStructures.length,
+                "Destination too small");
+        bulkRead(theField, theStructures, 0, theDest, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final LongField<?, ?> theField,
+            final int[] theStructures, final long[] theDest) {
+        checkArgument(theDest.length >= theStructures.length,
+                "Destination too small");
+        bulkRead(theField, theStructures, 0, theDest, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final ShortField<?, ?> theField,
+            final int[] theStructures, final short[] theDest) {
+        checkArgument(theDest.length >= theStructures.length,
+                "Destination too small");
+        bulkRead(theField, theStructures, 0, theDest, theStructures.length);
+    }
+
     @SuppressWarnings("null")
     public StorageBuilder getBuilder() {
 
@@ -926,6 +1898,20 @@ public abstract class AbstractStorage implements Storage {
         return globalFieldsStorage;
     }
 
+    /** Does this storage have secondary indexes? */
+    public boolean hasIndexes() {
+        return indexes != null;
+    }
+
+    /** Returns the secondary index of a field, or null if none. */
+    @Nullable
+    public FieldIndex index(final Field<?, ?> theField) {
+        final FieldIndex[] array = indexes;
+        final int uniqueIndex = theField.uniqueIndex();
+        return array == null || uniqueIndex >= array.length ? null
+                : array[uniqueIndex];
+    }
+
     /** The is global storage. */
     public boolean isGlobalStorage() {
         return isGlobalStorage;
@@ -942,6 +1928,31 @@ public abstract class AbstractStorage implements Storage {
         return mdSupport;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void permute(final int[] theOrder) {
+        checkReadOnly();
+        checkState(!transactionManager().isUncommitted(),
+                "The current Storage has uncommitted data.");
+        checkArgument(this instanceof SparseStorage
+                || theOrder.length <= capacity, "Order longer than capacity");
+        final int[] inverse = new int[theOrder.length];
+        Arrays.fill(inverse, -1);
+        for (int i = 0; i < theOrder.length; i++) {
+            final int structure = theOrder[i];
+            checkArgument(structure >= 0 && structure < theOrder.length
+                    && inverse[structure] < 0, "Not a permutation: "
+                    + structure);
+            inverse[structure] = i;
+        }
+        final int selected = getSelectedStructure();
+        permuteStructures(theOrder, inverse);
+        if (!(this instanceof SparseStorage)) {
+            selectStructure(selected);
+        }
+        rebuildIndexes();
+    }
+
     /** Publish boolean change to change listeners and Change tracking.*/
     public <F extends BooleanField<?, F>> void publishChange(final F theField,
             final ChangeType theType, final boolean theValue,
@@ -950,6 +1961,9 @@ public abstract class AbstractStorage implements Storage {
         actionSetImpl().logChange(thePrimaryIndex, theField, theType,
                 theOldValue, theValue);
         change.update(thePrimaryIndex, theField, theOldValue, theValue);
+        if (indexes != null) {
+            indexChanged(theField, thePrimaryIndex, Long.valueOf(theValue ? 1 : 0));
+        }
         callListeners();
     }
 
@@ -961,6 +1975,9 @@ public abstract class AbstractStorage implements Storage {
         actionSetImpl().logChange(thePrimaryIndex, theField, theType,
                 theOldValue, theValue);
         change.update(thePrimaryIndex, theField, theOldValue, theValue);
+        if (indexes != null) {
+            indexChanged(theField, thePrimaryIndex, Long.valueOf(theValue));
+        }
         callListeners();
 
     }
@@ -973,6 +1990,9 @@ public abstract class AbstractStorage implements Storage {
         actionSetImpl().logChange(thePrimaryIndex, theField, theType,
                 theOldValue, theValue);
         change.update(thePrimaryIndex, theField, theOldValue, theValue);
+        if (indexes != null) {
+            indexChanged(theField, thePrimaryIndex, Long.valueOf(theValue));
+        }
         callListeners();
     }
 
@@ -1007,6 +2027,9 @@ public abstract class AbstractStorage implements Storage {
         actionSetImpl().logChange(thePrimaryIndex, theField, theType,
                 theOldValue, theValue);
         change.update(thePrimaryIndex, theField, theOldValue, theValue);
+        if (indexes != null) {
+            indexChanged(theField, thePrimaryIndex, Long.valueOf(theValue));
+        }
         callListeners();
     }
 
@@ -1018,6 +2041,9 @@ public abstract class AbstractStorage implements Storage {
         actionSetImpl().logChange(thePrimaryIndex, theField, theType,
                 theOldValue, theValue);
         change.update(thePrimaryIndex, theField, theOldValue, theValue);
+        if (indexes != null) {
+            indexChanged(theField, thePrimaryIndex, Long.valueOf(theValue));
+        }
         callListeners();
     }
 
@@ -1029,6 +2055,9 @@ public abstract class AbstractStorage implements Storage {
         actionSetImpl().logChange(thePrimaryIndex, theField, theType,
                 theOldValue, theValue);
         change.update(thePrimaryIndex, theField, theOldValue, theValue);
+        if (indexes != null) {
+            indexChanged(theField, thePrimaryIndex, Long.valueOf(theValue));
+        }
         callListeners();
     }
 
@@ -1040,6 +2069,9 @@ public abstract class AbstractStorage implements Storage {
         actionSetImpl().logChange(thePrimaryIndex, theField, theOldValue,
                 theValue);
         change.update(thePrimaryIndex, theField, theOldValue, theValue);
+        if (indexes != null) {
+            indexChanged(theField, thePrimaryIndex, theValue);
+        }
         callListeners();
     }
 
@@ -1105,8 +2137,7 @@ public abstract class AbstractStorage implements Storage {
             }
             return null;
         }
-        final Object[] array = (Object[]) objectStorageObjects[objectFieldIndex];
-        return (E) array[structure];
+        return (E) objectAt(objectStorageObjects[objectFieldIndex], structure);
     }
 
     /** {@inheritDoc} */
@@ -1115,6 +2146,81 @@ public abstract class AbstractStorage implements Storage {
         return theField.readShort(this);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean read(final BooleanField<?, ?> theField,
+            final int theStructure) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            return read(theField);
+        }
+        return rawRead(theField, theStructure) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public byte read(final ByteField<?, ?> theField, final int theStructure) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            return read(theField);
+        }
+        return (byte) rawRead(theField, theStructure);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public char read(final CharField<?, ?> theField, final int theStructure) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            return read(theField);
+        }
+        return (char) rawRead(theField, theStructure);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double read(final DoubleField<?, ?> theField,
+            final int theStructure) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            return read(theField);
+        }
+        return Double.longBitsToDouble(rawRead(theField, theStructure));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public float read(final FloatField<?, ?> theField, final int theStructure) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            return read(theField);
+        }
+        return Float.intBitsToFloat((int) rawRead(theField,
+                theStructure));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read(final IntField<?, ?> theField, final int theStructure) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            return read(theField);
+        }
+        return (int) rawRead(theField, theStructure);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long read(final LongField<?, ?> theField, final int theStructure) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            return read(theField);
+        }
+        return rawRead(theField, theStructure);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public short read(final ShortField<?, ?> theField, final int theStructure) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            return read(theField);
+        }
+        return (short) rawRead(theField, theStructure);
+    }
+
     /** The Actual internal implementation of read boolean */
     public abstract <F extends BooleanField<?, F>> boolean readBoolean(
             final F theField);
@@ -1227,12 +2333,207 @@ public abstract class AbstractStorage implements Storage {
     public abstract <F extends ShortField<?, F>> short readShort(
             final F theField);
 
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final BooleanField<?, ?> theField, final int theFrom,
+            final int theTo, final boolean[] theDest) {
+        checkArgument(theFrom <= theTo && theDest.length >= theTo - theFrom,
+                "Invalid range");
+        bulkRead(theField, null, theFrom, theDest, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final ByteField<?, ?> theField, final int theFrom,
+            final int theTo, final byte[] theDest) {
+        checkArgument(theFrom <= theTo && theDest.length >= theTo - theFrom,
+                "Invalid range");
+        bulkRead(theField, null, theFrom, theDest, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final CharField<?, ?> theField, final int theFrom,
+            final int theTo, final char[] theDest) {
+        checkArgument(theFrom <= theTo && theDest.length >= theTo - theFrom,
+                "Invalid range");
+        bulkRead(theField, null, theFrom, theDest, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final DoubleField<?, ?> theField, final int theFrom,
+            final int theTo, final double[] theDest) {
+        checkArgument(theFrom <= theTo && theDest.length >= theTo - theFrom,
+                "Invalid range");
+        bulkRead(theField, null, theFrom, theDest, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final FloatField<?, ?> theField, final int theFrom,
+            final int theTo, final float[] theDest) {
+        checkArgument(theFrom <= theTo && theDest.length >= theTo - theFrom,
+                "Invalid range");
+        bulkRead(theField, null, theFrom, theDest, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final IntField<?, ?> theField, final int theFrom,
+            final int theTo, final int[] theDest) {
+        checkArgument(theFrom <= theTo && theDest.length >= theTo - theFrom,
+                "Invalid range");
+        bulkRead(theField, null, theFrom, theDest, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final LongField<?, ?> theField, final int theFrom,
+            final int theTo, final long[] theDest) {
+        checkArgument(theFrom <= theTo && theDest.length >= theTo - theFrom,
+                "Invalid range");
+        bulkRead(theField, null, theFrom, theDest, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final ShortField<?, ?> theField, final int theFrom,
+            final int theTo, final short[] theDest) {
+        checkArgument(theFrom <= theTo && theDest.length >= theTo - theFrom,
+                "Invalid range");
+        bulkRead(theField, null, theFrom, theDest, theTo - theFrom);
+    }
+
+    /** Removes the secondary index of a field, and returns it, or null if
+     * the field was not indexed. */
+    @Nullable
+    public FieldIndex removeIndex(final Field<?, ?> theField) {
+        final FieldIndex result = index(theField);
+        if (result != null) {
+            indexes[theField.uniqueIndex()] = null;
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final BooleanField<?, ?> theField,
+            final int[] theStructures, final boolean[] theSource) {
+        checkArgument(theSource.length >= theStructures.length,
+                "Source too small");
+        bulkWrite(theField, theStructures, 0, theSource, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final ByteField<?, ?> theField,
+            final int[] theStructures, final byte[] theSource) {
+        checkArgument(theSource.length >= theStructures.length,
+                "Source too small");
+        bulkWrite(theField, theStructures, 0, theSource, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final CharField<?, ?> theField,
+            final int[] theStructures, final char[] theSource) {
+        checkArgument(theSource.length >= theStructures.length,
+                "Source too small");
+        bulkWrite(theField, theStructures, 0, theSource, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final DoubleField<?, ?> theField,
+            final int[] theStructures, final double[] theSource) {
+        checkArgument(theSource.length >= theStructures.length,
+                "Source too small");
+        bulkWrite(theField, theStructures, 0, theSource, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final FloatField<?, ?> theField,
+            final int[] theStructures, final float[] theSource) {
+        checkArgument(theSource.length >= theStructures.length,
+                "Source too small");
+        bulkWrite(theField, theStructures, 0, theSource, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final IntField<?, ?> theField,
+            final int[] theStructures, final int[] theSource) {
+        checkArgument(theSource.length >= theStructures.length,
+                "Source too small");
+        bulkWrite(theField, theStructures, 0, theSource, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final LongField<?, ?> theField,
+            final int[] theStructures, final long[] theSource) {
+        checkArgument(theSource.length >= theStructures.length,
+                "Source too small");
+        bulkWrite(theField, theStructures, 0, theSource, theStructures.length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final ShortField<?, ?> theField,
+            final int[] theStructures, final short[] theSource) {
+        checkArgument(theSource.length >= theStructures.length,
+                "Source too small");
+        bulkWrite(theField, theStructures, 0, theSource, theStructures.length);
+    }
+
     /** Selects a structure using a point. */
     @Override
     public boolean selectPoint(final Point thePoint) {
         return selectStructure(multiDimensionalSupport().getIndex(thePoint));
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void setMultiDimensionalSupport(
+            final MultiDimensionalSupport theSupport) {
+        checkArgument(theSupport.arity() == arity, "Expected arity " + arity
+                + " but was " + theSupport.arity());
+        checkArgument(theSupport.indexCount() <= capacity, "The support needs "
+                + theSupport.indexCount() + " structures, but the capacity is "
+                + capacity);
+        mdSupport = theSupport;
+    }
+
+    /** Returns a read-only copy of this storage. This costs a full copy();
+     * the storages which can share their data with the snapshot override
+     * it. */
+    @Override
+    public Storage snapshot() {
+        final AbstractStorage result = (AbstractStorage) copy();
+        result.readOnly = true;
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sortBy(final Field<?, ?>... theFields) {
+        checkArgument(!(this instanceof SparseStorage),
+                "Sparse storages cannot be sorted");
+        checkArgument(theFields.length > 0, "No field to sort by");
+        permute(StructureSorter.order(this, theFields));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IndexSpliterator spliterator() {
+        if (this instanceof SparseStorage) {
+            return new IndexSpliterator(((SparseStorage) this).structures());
+        }
+        return new IndexSpliterator(0, capacity);
+    }
+
     /** {@inheritDoc} */
     @SuppressWarnings("null")
     @Override
@@ -1330,9 +2631,8 @@ public abstract class AbstractStorage implements Storage {
             oldValue = (E) map.get(structure);
             map.put(structure, theValue);
         } else {
-            final Object[] array = (Object[]) objectStorageObjects[objectFieldIndex];
-            oldValue = (E) array[structure];
-            array[structure] = theValue;
+            oldValue = (E) objectAt(objectStorageObjects[objectFieldIndex],
+                    structure, theValue);
         }
         if (!transactionsDisabled && !Objects.equals(oldValue, theValue)) {
             publishChange(theField, theValue, oldValue, getSelectedStructure());
@@ -1346,6 +2646,149 @@ public abstract class AbstractStorage implements Storage {
         theField.writeShort(this, theValue);
     }
 
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void write(final BooleanField<?, ?> theField, final int theStructure,
+            final boolean theValue) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            write(theField, theValue);
+            return;
+        }
+        checkReadOnly();
+        final boolean oldValue = rawWrite(theField, theStructure,
+                theValue ? 1L : 0L) != 0;
+        if (transactionsEnabled() && oldValue != theValue) {
+            publishChange((BooleanField) theField, ChangeType.BOOLEAN_FIELD,
+                    theValue, oldValue, theStructure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void write(final ByteField<?, ?> theField, final int theStructure,
+            final byte theValue) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            write(theField, theValue);
+            return;
+        }
+        checkReadOnly();
+        final byte oldValue = (byte) rawWrite(theField, theStructure,
+                theValue);
+        if (transactionsEnabled() && oldValue != theValue) {
+            publishChange((ByteField) theField, ChangeType.BYTE_FIELD, theValue,
+                    oldValue, theStructure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void write(final CharField<?, ?> theField, final int theStructure,
+            final char theValue) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            write(theField, theValue);
+            return;
+        }
+        checkReadOnly();
+        final char oldValue = (char) rawWrite(theField, theStructure,
+                theValue);
+        if (transactionsEnabled() && oldValue != theValue) {
+            publishChange((CharField) theField, ChangeType.CHAR_FIELD, theValue,
+                    oldValue, theStructure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void write(final DoubleField<?, ?> theField, final int theStructure,
+            final double theValue) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            write(theField, theValue);
+            return;
+        }
+        checkReadOnly();
+        final double oldValue = Double.longBitsToDouble(rawWrite(theField,
+                theStructure, Double.doubleToRawLongBits(theValue)));
+        if (transactionsEnabled() && oldValue != theValue) {
+            publishChange((DoubleField) theField, ChangeType.DOUBLE_FIELD,
+                    theValue, oldValue, theStructure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void write(final FloatField<?, ?> theField, final int theStructure,
+            final float theValue) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            write(theField, theValue);
+            return;
+        }
+        checkReadOnly();
+        final float oldValue = Float.intBitsToFloat((int) rawWrite(theField,
+                theStructure, Float.floatToRawIntBits(theValue)));
+        if (transactionsEnabled() && oldValue != theValue) {
+            publishChange((FloatField) theField, ChangeType.FLOAT_FIELD,
+                    theValue, oldValue, theStructure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void write(final IntField<?, ?> theField, final int theStructure,
+            final int theValue) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            write(theField, theValue);
+            return;
+        }
+        checkReadOnly();
+        final int oldValue = (int) rawWrite(theField, theStructure,
+                theValue);
+        if (transactionsEnabled() && oldValue != theValue) {
+            publishChange((IntField) theField, ChangeType.INT_FIELD, theValue,
+                    oldValue, theStructure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void write(final LongField<?, ?> theField, final int theStructure,
+            final long theValue) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            write(theField, theValue);
+            return;
+        }
+        checkReadOnly();
+        final long oldValue = rawWrite(theField, theStructure, theValue);
+        if (transactionsEnabled() && oldValue != theValue) {
+            publishChange((LongField) theField, ChangeType.LONG_FIELD, theValue,
+                    oldValue, theStructure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void write(final ShortField<?, ?> theField, final int theStructure,
+            final short theValue) {
+        if (!checkIndexedAccess(theField, theStructure)) {
+            write(theField, theValue);
+            return;
+        }
+        checkReadOnly();
+        final short oldValue = (short) rawWrite(theField, theStructure,
+                theValue);
+        if (transactionsEnabled() && oldValue != theValue) {
+            publishChange((ShortField) theField, ChangeType.SHORT_FIELD,
+                    theValue, oldValue, theStructure);
+        }
+    }
+
     /** The Actual internal implementation of write */
     public abstract <F extends BooleanField<?, F>> boolean writeImpl(
             final F theField, final boolean theValue);
@@ -1497,4 +2940,76 @@ public abstract class AbstractStorage implements Storage {
         }
         return oldValue;
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final BooleanField<?, ?> theField, final int theFrom,
+            final int theTo, final boolean[] theSource) {
+        checkArgument(theFrom <= theTo && theSource.length >= theTo - theFrom,
+                "Invalid range");
+        bulkWrite(theField, null, theFrom, theSource, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final ByteField<?, ?> theField, final int theFrom,
+            final int theTo, final byte[] theSource) {
+        checkArgument(theFrom <= theTo && theSource.length >= theTo - theFrom,
+                "Invalid range");
+        bulkWrite(theField, null, theFrom, theSource, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final CharField<?, ?> theField, final int theFrom,
+            final int theTo, final char[] theSource) {
+        checkArgument(theFrom <= theTo && theSource.length >= theTo - theFrom,
+                "Invalid range");
+        bulkWrite(theField, null, theFrom, theSource, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final DoubleField<?, ?> theField, final int theFrom,
+            final int theTo, final double[] theSource) {
+        checkArgument(theFrom <= theTo && theSource.length >= theTo - theFrom,
+                "Invalid range");
+        bulkWrite(theField, null, theFrom, theSource, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final FloatField<?, ?> theField, final int theFrom,
+            final int theTo, final float[] theSource) {
+        checkArgument(theFrom <= theTo && theSource.length >= theTo - theFrom,
+                "Invalid range");
+        bulkWrite(theField, null, theFrom, theSource, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final IntField<?, ?> theField, final int theFrom,
+            final int theTo, final int[] theSource) {
+        checkArgument(theFrom <= theTo && theSource.length >= theTo - theFrom,
+                "Invalid range");
+        bulkWrite(theField, null, theFrom, theSource, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final LongField<?, ?> theField, final int theFrom,
+            final int theTo, final long[] theSource) {
+        checkArgument(theFrom <= theTo && theSource.length >= theTo - theFrom,
+                "Invalid range");
+        bulkWrite(theField, null, theFrom, theSource, theTo - theFrom);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final ShortField<?, ?> theField, final int theFrom,
+            final int theTo, final short[] theSource) {
+        checkArgument(theFrom <= theTo && theSource.length >= theTo - theFrom,
+                "Invalid range");
+        bulkWrite(theField, null, theFrom, theSource, theTo - theFrom);
+    }
 }
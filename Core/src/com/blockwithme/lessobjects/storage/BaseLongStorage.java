@@ -16,36 +16,33 @@
 // $codepro.audit.disable com.instantiations.assist.eclipse.arrayIsStoredWithoutCopying
 package com.blockwithme.lessobjects.storage;
 
-import static com.blockwithme.lessobjects.util.StructConstants.BYTE_MASK;
-import static com.blockwithme.lessobjects.util.StructConstants.INDEX_FIELD_INDEX;
-import static com.blockwithme.lessobjects.util.StructConstants.MAX_NUMBER_OF_CHILDREN;
-import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkState;
-
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
-import com.blockwithme.lessobjects.Child;
 import com.blockwithme.lessobjects.Field;
 import com.blockwithme.lessobjects.Struct;
-import com.blockwithme.lessobjects.fields.primitive.CharField;
 import com.blockwithme.lessobjects.multidim.Arity;
-import com.blockwithme.lessobjects.util.StructConstants;
+import com.blockwithme.lessobjects.storage.parallel.StorageTasks;
+import com.blockwithme.lessobjects.storage.parallel.StructOperator;
+import com.blockwithme.lessobjects.storage.parallel.StructureCursor;
 import com.blockwithme.msgpack.ObjectPacker;
 import com.blockwithme.msgpack.Packer;
 import com.blockwithme.msgpack.templates.PackerContext;
 
 /**
  * Implements the base storage implementation for the Packed and
- * Aligned64 compilers.
+ * Aligned64 compilers, where the words are stored in a heap long array.
  *
  * @author monster, tarung
  */
 @ParametersAreNonnullByDefault
-public abstract class BaseLongStorage extends AbstractStorage {
+public abstract class BaseLongStorage extends BaseWordStorage {
 
     /** The long array. */
     @Nonnull
@@ -54,36 +51,76 @@ public abstract class BaseLongStorage extends AbstractStorage {
     /** The set defaults flag. */
     protected boolean setDefaults;
 
-    /** struct size in bits. */
-    protected final long structSize;
-
-    /** The position of the current struct, as an array Index. */
-    protected int structureIndex;
-
-    /** The position of the current struct, in bits. */
-    protected long structurePosition;
-
-    /** Adjusts the structure size in bits to a multiple of 64. */
-    protected static long adjustStructSize(long theSize) {
-        final long structRest = theSize % StructConstants.LONG_BITS;
-        if (structRest != 0) {
-            theSize += StructConstants.LONG_BITS - structRest;
+    /** Copies theCount bits from theSource, at bit theFrom, to theTarget, at
+     * bit theTo. When both positions have the same offset within their word,
+     * the whole words in between are copied with System.arraycopy();
+     * otherwise, the bits are streamed up to 64 at a time. */
+    static void copyBits(final long[] theSource, final long theFrom,
+            final long[] theTarget, final long theTo, final long theCount) {
+        long done = 0;
+        final int shift = (int) (theFrom % Long.SIZE);
+        if (shift == theTo % Long.SIZE) {
+            done = Math.min(theCount, (Long.SIZE - shift) % Long.SIZE);
+            if (done > 0) {
+                writeBits(theTarget, theTo, (int) done,
+                        readBits(theSource, theFrom, (int) done));
+            }
+            final int words = (int) ((theCount - done) / Long.SIZE);
+            System.arraycopy(theSource, (int) ((theFrom + done) / Long.SIZE),
+                    theTarget, (int) ((theTo + done) / Long.SIZE), words);
+            done += (long) words * Long.SIZE;
+        }
+        while (done < theCount) {
+            final int count = (int) Math.min(Long.SIZE, theCount - done);
+            writeBits(theTarget, theTo + done, count,
+                    readBits(theSource, theFrom + done, count));
+            done += count;
         }
-        return theSize;
     }
 
-    /** Computes a bitmask */
-    protected static long mask(final int theBitsPerValue) {
-        return -1L >>> StructConstants.LONG_BITS - theBitsPerValue;
+    /** Returns the mask of the given number of low bits, up to 64. */
+    private static long lowBits(final int theCount) {
+        return theCount == Long.SIZE ? -1L : (1L << theCount) - 1;
+    }
+
+    /** Reads up to 64 bits, which can span two words. */
+    static long readBits(final long[] theArray, final long thePosition,
+            final int theCount) {
+        final int index = (int) (thePosition / Long.SIZE);
+        final int shift = (int) (thePosition % Long.SIZE);
+        long result = theArray[index] >>> shift;
+        if (shift + theCount > Long.SIZE) {
+            result |= theArray[index + 1] << Long.SIZE - shift;
+        }
+        return result & lowBits(theCount);
+    }
+
+    /** Writes up to 64 bits, which can span two words. */
+    static void writeBits(final long[] theArray,
+            final long thePosition, final int theCount, final long theValue) {
+        final int index = (int) (thePosition / Long.SIZE);
+        final int shift = (int) (thePosition % Long.SIZE);
+        final long mask = lowBits(theCount);
+        theArray[index] = theArray[index] & ~(mask << shift)
+                | (theValue & mask) << shift;
+        if (shift + theCount > Long.SIZE) {
+            final long highMask = lowBits(shift + theCount - Long.SIZE);
+            theArray[index + 1] = theArray[index + 1] & ~highMask
+                    | theValue >>> Long.SIZE - shift & highMask;
+        }
     }
 
     /** Constructor */
     protected BaseLongStorage(final StorageBuilder theBuilder) {
         super(theBuilder);
         array = theBuilder.getArray();
-        structSize = adjustStructSize(theBuilder.getStruct().bits());
-        capacity = theBuilder.getCapacity();
-        structurePosition = theBuilder.getStructurePosition();
+    }
+
+    /** Constructor, with an explicit struct size in bits. */
+    protected BaseLongStorage(final StorageBuilder theBuilder,
+            final long theSize) {
+        super(theBuilder, theSize);
+        array = theBuilder.getArray();
     }
 
     /** Constructor */
@@ -91,25 +128,83 @@ public abstract class BaseLongStorage extends AbstractStorage {
             final long theSize, final int theCapacity,
             @Nullable final Storage theBaseStorage,
             final boolean theTransactionalFlag, final Arity theArity) {
-        super(theStruct, theBaseStorage, theCapacity, theTransactionalFlag,
-                theArity);
+        super(theStruct, theSize, theCapacity, theBaseStorage,
+                theTransactionalFlag, theArity);
         array = theArray;
-        structSize = theSize;
-        capacity = theCapacity;
-        structurePosition = 0;
+    }
 
+    /** Copies the bit rows directly, when theTarget has the same layout;
+     * when both are the same array, the source words are copied first, since
+     * the ranges can overlap. */
+    @Override
+    protected void copyRangeBits(final int theFrom,
+            final AbstractStorage theTarget, final int theTargetFrom,
+            final int theCount, final Map<Field<?, ?>, Field<?, ?>> theFields) {
+        if (!sameLayout(theTarget)) {
+            super.copyRangeBits(theFrom, theTarget, theTargetFrom, theCount,
+                    theFields);
+            return;
+        }
+        final long[] target = ((BaseLongStorage) theTarget).array;
+        final long bits = theCount * structSize;
+        long from = theFrom * structSize;
+        long[] source = array;
+        if (source == target) {
+            final int first = (int) (from / Long.SIZE);
+            source = Arrays.copyOfRange(source, first,
+                    (int) ((from + bits + Long.SIZE - 1) / Long.SIZE));
+            from -= (long) first * Long.SIZE;
+        }
+        copyBits(source, from, target, theTargetFrom * structSize, bits);
     }
 
-    /** Delegates clear() call to all feilds and children. */
-    private void clearInternal(final Struct theChild) {
-        for (final Field<?, ?> f : theChild.allStorageFields()) {
-            f.clear(this);
+    /** Runs a compiled MigrationPlan, when theOther also keeps its
+     * structures in a long array. The structures are split across threads,
+     * when theOther supports concurrent writes. */
+    @Override
+    protected Set<Field<?, ?>> migrateBits(final Storage theOther,
+            final Map<Field<?, ?>, Field<?, ?>> theMapping, final int theFrom,
+            final int theTo) {
+        if (!(theOther instanceof BaseLongStorage)
+                || this instanceof SparseStorage
+                || theOther instanceof SparseStorage) {
+            return super.migrateBits(theOther, theMapping, theFrom, theTo);
         }
-        for (final Struct c : theChild.children()) {
-            if (c != null) {
-                clearChild(c);
+        final BaseLongStorage target = (BaseLongStorage) theOther;
+        final MigrationPlan plan = MigrationPlan.compile(struct,
+                target.struct, theMapping);
+        final long[] source = array;
+        final long sourceSize = structSize;
+        StorageTasks.apply(target, theFrom, theTo, new StructOperator() {
+            @Override
+            public void apply(final StructureCursor theCursor) {
+                final int structure = theCursor.structure();
+                plan.run(source, sourceSize, target.array, target.structSize,
+                        structure, structure + 1);
+            }
+        }, target.concurrentWriteGranularity(), null);
+        return plan.fields();
+    }
+
+    /** Copies the bit rows of the structures into a new array, in the new
+     * order; whole words are copied when the structures are word-aligned. */
+    @Override
+    protected void permuteBits(final int[] theOrder) {
+        final long[] source = array;
+        final long[] target = source.clone();
+        if (structSize % Long.SIZE == 0) {
+            final int words = (int) (structSize / Long.SIZE);
+            for (int i = 0; i < theOrder.length; i++) {
+                System.arraycopy(source, theOrder[i] * words, target, i
+                        * words, words);
+            }
+        } else {
+            for (int i = 0; i < theOrder.length; i++) {
+                copyBits(source, theOrder[i] * structSize, target, i
+                        * structSize, structSize);
             }
         }
+        array = target;
     }
 
     /** Serialize self. */
@@ -122,36 +217,6 @@ public abstract class BaseLongStorage extends AbstractStorage {
         objPacker.writeObject(array);
     }
 
-    /** Clear (set to 0/false) one field of the selected structure. */
-    @Override
-    public void clear(final Field<?, ?> theField) {
-        theField.clear(this);
-    }
-
-    /** {@inheritDoc} */
-    @SuppressWarnings({ "rawtypes", "null" })
-    @Override
-    public void clearChild(final Struct theChild) {
-        checkState(!theChild.isOptional()
-                && !theChild.structProperties().isList(),
-                "Something is wrong !! " + "Optional/List child should "
-                        + "get cleared only in Sparse storages");
-        if (theChild.union()) {
-            // Get localIndex of the currently selected child.
-            final CharField theField = (CharField) theChild.structFields()[INDEX_FIELD_INDEX];
-            final char localFieldIndex = read(theField);
-            final int localIndex = localFieldIndex & StructConstants.BYTE_MASK;
-            final Child chld = theChild.child(localIndex);
-            if (chld.isField()) {
-                ((Field) chld).clear(this);
-            } else {
-                clearChild((Struct) chld);
-            }
-        } else {
-            clearInternal(theChild);
-        }
-    }
-
     /** Returns the long array. */
     @SuppressWarnings("null")
     public final long[] getArray() {
@@ -168,75 +233,4 @@ public abstract class BaseLongStorage extends AbstractStorage {
         builder.setStructurePosition(structurePosition);
         return builder;
     }
-
-    /** {@inheritDoc} */
-    @Override
-    public final int getCapacity() {
-        return capacity;
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    public int getSelectedStructure() {
-        return structure;
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    public int getSize() {
-        return capacity;
-    }
-
-    /** {@inheritDoc} */
-    @SuppressWarnings("null")
-    @Override
-    public Struct rootStruct() {
-        return struct;
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    public boolean selectStructure(final int theStructure) {
-        checkArgument(theStructure < getCapacity(),
-                "Storage capacity is less then the element index passed!");
-        structure = theStructure;
-        structurePosition = theStructure * structSize;
-        structureIndex = (int) (structurePosition / StructConstants.LONG_BITS);
-        return true;
-    }
-
-    /** {@inheritDoc} */
-    @SuppressWarnings("null")
-    @Override
-    public void selectUnionPosition(final Field<?, ?> theField) {
-        selectUnionPosition(theField.parent(), theField.localIndex());
-    }
-
-    /** {@inheritDoc} */
-    @SuppressWarnings("null")
-    @Override
-    public void selectUnionPosition(final Struct theStruct,
-            final int theChildIndex) {
-        checkArgument(theChildIndex >= 0,
-                "Invalid value of child index passed: " + theChildIndex);
-        checkArgument(theChildIndex < MAX_NUMBER_OF_CHILDREN,
-                "Invalid value of child index passed: " + theChildIndex);
-        checkArgument(theStruct.union(),
-                "The current structure is not a union.");
-        final boolean equals = struct.equals(theStruct);
-        checkArgument(
-                equals || struct.child(theStruct.qualifiedName()) != null,
-                "The struct passed is not backed by the current storage.");
-        // Get localIndex of the currently selected child.
-        final CharField<?, ?> theField = (CharField<?, ?>) theStruct
-                .structFields()[INDEX_FIELD_INDEX];
-        if (theField != null) {
-            final char localFieldIndex = read(theField);
-            final int localIndex = localFieldIndex & BYTE_MASK;
-            if (localIndex != theChildIndex) {
-                clearChild(theStruct);
-            }
-            write(theField, (char) theChildIndex);
-        }
-    }
 }
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.util.Bitmaps;
+
+/**
+ * A FieldIndex keeping one bitmap of structures per value, for fields with
+ * few possible values: booleans, enums, and other fields of at most MAX_BITS
+ * bits. A bitmap only exists once a structure has its value, and all the
+ * bitmaps have the same length, so that they can be combined with the
+ * Bitmaps operations, word by word.
+ *
+ * Enum values are mapped with the converter of the field; the other values
+ * can be given as Number or Boolean.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class BitmapFieldIndex extends FieldIndex {
+
+    /** The maximum number of bits of an indexed field. */
+    public static final int MAX_BITS = 8;
+
+    /** The structures, for each value; null if none. */
+    private final long[][] bitmaps;
+
+    /** The number of bits of the field. */
+    private final int bits;
+
+    /** The number of indexed structures. */
+    private int count;
+
+    /** One more than the highest indexed structure. */
+    private int limit;
+
+    /** The mask of the field bits. */
+    private final long mask;
+
+    /** Constructor */
+    public BitmapFieldIndex(final Field<?, ?> theField) {
+        super(theField);
+        checkArgument(theField instanceof BooleanField
+                || theField instanceof ByteField
+                || theField instanceof CharField
+                || theField instanceof IntField
+                || theField instanceof LongField
+                || theField instanceof ShortField, "Cannot index field "
+                + theField.name());
+        bits = theField.bits();
+        checkArgument(bits <= MAX_BITS, "Field " + theField.name()
+                + " has too many bits: " + bits);
+        mask = (1L << bits) - 1;
+        bitmaps = new long[1 << bits][];
+    }
+
+    /** Returns the bitmap index of a value, or -1 if the field cannot have
+     * that value. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private int code(@Nullable final Object theValue) {
+        final long value;
+        if (theValue instanceof Number) {
+            value = ((Number) theValue).longValue();
+        } else if (theValue instanceof Boolean) {
+            value = (Boolean) theValue ? 1 : 0;
+        } else if (field() instanceof ByteField) {
+            value = ((ByteField) field()).converter().fromObject(theValue);
+        } else {
+            checkArgument(theValue == null, "Not a valid value: " + theValue);
+            value = 0;
+        }
+        // Negative values are accepted, if they fit once sign-extended.
+        if ((value & ~mask) != 0 && value >> bits - 1 != -1) {
+            return -1;
+        }
+        return (int) (value & mask);
+    }
+
+    /** Returns the number of words of the bitmaps. */
+    private int words() {
+        return (limit + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void add(@Nullable final Object theValue, final int theStructure) {
+        final int code = code(theValue);
+        checkArgument(code >= 0, "Not a valid value: " + theValue);
+        limit = Math.max(limit, theStructure + 1);
+        final int word = theStructure / Long.SIZE;
+        long[] bitmap = bitmaps[code];
+        if (bitmap == null) {
+            bitmap = new long[words()];
+            bitmaps[code] = bitmap;
+        } else if (word >= bitmap.length) {
+            bitmap = Arrays.copyOf(bitmap, Math.max(words(),
+                    bitmap.length * 2));
+            bitmaps[code] = bitmap;
+        }
+        bitmap[word] |= 1L << theStructure;
+        count++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void clear() {
+        Arrays.fill(bitmaps, null);
+        count = 0;
+        limit = 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    void put(final int theStructure, @Nullable final Object theValue) {
+        // The current value is found in the bitmaps themselves.
+        final int word = theStructure / Long.SIZE;
+        final long bit = 1L << theStructure;
+        for (int i = 0; i < bitmaps.length; i++) {
+            final long[] bitmap = bitmaps[i];
+            if (bitmap != null && word < bitmap.length
+                    && (bitmap[word] & bit) != 0) {
+                if (i == code(theValue)) {
+                    return;
+                }
+                bitmap[word] &= ~bit;
+                count--;
+                break;
+            }
+        }
+        add(theValue, theStructure);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void remove(@Nullable final Object theValue,
+            final int theStructure) {
+        final int code = code(theValue);
+        final long[] bitmap = code < 0 ? null : bitmaps[code];
+        final int word = theStructure / Long.SIZE;
+        if (bitmap != null && word < bitmap.length
+                && (bitmap[word] & 1L << theStructure) != 0) {
+            bitmap[word] &= ~(1L << theStructure);
+            count--;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    void reset() {
+        clear();
+    }
+
+    /** Returns the structures where the field is equal to theValue, as a
+     * bitmap of limit() bits. */
+    public long[] bitmap(final long theValue) {
+        return bitmap(Long.valueOf(theValue));
+    }
+
+    /** Returns the structures where the field is equal to theValue, as a
+     * bitmap of limit() bits. */
+    public long[] bitmap(@Nullable final Object theValue) {
+        final int code = code(theValue);
+        final long[] bitmap = code < 0 ? null : bitmaps[code];
+        return bitmap == null ? new long[words()] : Arrays.copyOf(bitmap,
+                words());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int[] find(@Nullable final Object theValue) {
+        return Bitmaps.toArray(bitmap(theValue));
+    }
+
+    /** Returns one more than the highest indexed structure; normally the
+     * capacity of the storage. */
+    public int limit() {
+        return limit;
+    }
+
+    /** Returns the indexed structures which are not selected by the bitmap. */
+    public long[] not(final long[] theBitmap) {
+        return Bitmaps.not(theBitmap, limit);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return count;
+    }
+}
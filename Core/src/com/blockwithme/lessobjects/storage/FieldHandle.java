@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.Struct.UnionDiscriminatorValueMapping;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.util.StructConstants;
+
+/**
+ * A primitive field, resolved once against the layout of an Aligned64 or
+ * Packed storage. The field is validated when the handle is created; after
+ * that, reading or writing the field of a structure only computes the bit
+ * position of the structure, from the precomputed slot size, offset and
+ * mask, and accesses the storage array directly. Handles are immutable, and
+ * meant to be stored in (static) final fields, so that the JIT can treat
+ * their values as constants.
+ *
+ * A handle accepts all the storages of the same compiled Struct and layout
+ * (see accepts()). Passing any other storage is not detected, and gives
+ * undefined results.
+ *
+ * Like with getArray(), the accesses bypass the selected structure, the
+ * transactions, the change listeners and the indexes. Writing through a
+ * handle is therefore rejected for storages with transactions enabled, or
+ * with secondary indexes. The structure index is checked against the
+ * capacity of the storage, unless the unchecked methods are used.
+ *
+ * Like with Storage.read(), the fields that do not use all the bits of their
+ * type are read as unsigned values.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class FieldHandle {
+
+    /** The number of bits of the field. */
+    private final int bits;
+
+    /** The field. */
+    private final Field<?, ?> field;
+
+    /** The mask of the field bits, before shifting. */
+    private final long mask;
+
+    /** The offset of the field, within a structure, in bits. */
+    private final long offset;
+
+    /** Does the field always lie within a single word? */
+    private final boolean single;
+
+    /** The size of a structure slot, in bits. */
+    private final long slotBits;
+
+    /** The compiled Struct of the accepted storages. */
+    private final Struct struct;
+
+    /** Resolves a field against a storage. The field must be a non-global,
+     * non-virtual, non-optional, primitive field of the storage, and the
+     * storage must be a non-sparse Aligned64 or Packed storage. */
+    public static FieldHandle resolve(final Storage theStorage,
+            final Field<?, ?> theField) {
+        checkNotNull(theStorage, "theStorage");
+        checkNotNull(theField, "theField");
+        checkArgument(theStorage instanceof BaseLongStorage
+                && !(theStorage instanceof SparseStorage),
+                "Not a dense Aligned64 or Packed storage: " + theStorage);
+        checkArgument(theField instanceof BooleanField
+                || theField instanceof ByteField
+                || theField instanceof CharField
+                || theField instanceof DoubleField
+                || theField instanceof FloatField
+                || theField instanceof IntField
+                || theField instanceof LongField
+                || theField instanceof ShortField, "Not a primitive field: "
+                + theField.name());
+        checkArgument(!theField.global() && !theField.virtual()
+                && !theField.isOptional(), "Field " + theField.name()
+                + " is not stored in the structures");
+        final UnionDiscriminatorValueMapping[] udMap = theStorage.struct()
+                .uDMapping(theField);
+        checkArgument(udMap == null || udMap.length == 0, "Field "
+                + theField.name() + " is a union field");
+        theStorage.checkAccess(theField);
+        return new FieldHandle(theStorage.struct(), theField,
+                ((BaseLongStorage) theStorage).getStructSize());
+    }
+
+    /** Constructor */
+    private FieldHandle(final Struct theStruct, final Field<?, ?> theField,
+            final long theSlotBits) {
+        struct = theStruct;
+        field = theField;
+        slotBits = theSlotBits;
+        bits = theField.bits();
+        offset = theField.offset();
+        mask = -1L >>> StructConstants.LONG_BITS - bits;
+        if (theSlotBits % StructConstants.LONG_BITS == 0) {
+            single = offset % StructConstants.LONG_BITS + bits
+                    <= StructConstants.LONG_BITS;
+        } else {
+            // Power-of-two slots never cross a word boundary.
+            single = StructConstants.LONG_BITS % theSlotBits == 0;
+        }
+    }
+
+    /** Returns true if this handle can be used with the given storage. */
+    public boolean accepts(final Storage theStorage) {
+        return theStorage instanceof BaseLongStorage
+                && !(theStorage instanceof SparseStorage)
+                && theStorage.struct() == struct
+                && ((BaseLongStorage) theStorage).getStructSize() == slotBits;
+    }
+
+    /** Returns the field. */
+    public Field<?, ?> field() {
+        return field;
+    }
+
+    /** Reads the bits of the field, in the given structure.
+     *
+     * @throws IndexOutOfBoundsException if theStructure is not within the
+     *         capacity of theStorage. */
+    public long readBits(final BaseLongStorage theStorage,
+            final int theStructure) {
+        checkElementIndex(theStructure, theStorage.getCapacity());
+        return readBitsUnchecked(theStorage, theStructure);
+    }
+
+    /** Reads the bits of the field, in the given structure, without checking
+     * the structure index. An invalid index gives undefined results. */
+    public long readBitsUnchecked(final BaseLongStorage theStorage,
+            final int theStructure) {
+        final long[] array = theStorage.getArray();
+        final long position = theStructure * slotBits + offset;
+        final int index = (int) (position >>> 6);
+        final int shift = (int) position & 63;
+        long result = array[index] >>> shift;
+        if (!single && shift + bits > StructConstants.LONG_BITS) {
+            result |= array[index + 1] << StructConstants.LONG_BITS - shift;
+        }
+        return result & mask;
+    }
+
+    /** Reads a boolean field, in the given structure. */
+    public boolean readBoolean(final BaseLongStorage theStorage,
+            final int theStructure) {
+        return readBits(theStorage, theStructure) != 0;
+    }
+
+    /** Reads a byte field, in the given structure. */
+    public byte readByte(final BaseLongStorage theStorage,
+            final int theStructure) {
+        return (byte) readBits(theStorage, theStructure);
+    }
+
+    /** Reads a char field, in the given structure. */
+    public char readChar(final BaseLongStorage theStorage,
+            final int theStructure) {
+        return (char) readBits(theStorage, theStructure);
+    }
+
+    /** Reads a double field, in the given structure. */
+    public double readDouble(final BaseLongStorage theStorage,
+            final int theStructure) {
+        return Double.longBitsToDouble(readBits(theStorage, theStructure));
+    }
+
+    /** Reads a float field, in the given structure. */
+    public float readFloat(final BaseLongStorage theStorage,
+            final int theStructure) {
+        return Float.intBitsToFloat((int) readBits(theStorage, theStructure));
+    }
+
+    /** Reads an int field, in the given structure. */
+    public int readInt(final BaseLongStorage theStorage,
+            final int theStructure) {
+        return (int) readBits(theStorage, theStructure);
+    }
+
+    /** Reads a long field, in the given structure. */
+    public long readLong(final BaseLongStorage theStorage,
+            final int theStructure) {
+        return readBits(theStorage, theStructure);
+    }
+
+    /** Reads a short field, in the given structure. */
+    public short readShort(final BaseLongStorage theStorage,
+            final int theStructure) {
+        return (short) readBits(theStorage, theStructure);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "FieldHandle(" + struct.name() + "." + field.name() + ")";
+    }
+
+    /** Writes the bits of the field, in the given structure.
+     *
+     * @throws IndexOutOfBoundsException if theStructure is not within the
+     *         capacity of theStorage.
+     * @throws IllegalStateException if theStorage has transactions enabled,
+     *         or secondary indexes. */
+    public void writeBits(final BaseLongStorage theStorage,
+            final int theStructure, final long theBits) {
+        checkElementIndex(theStructure, theStorage.getCapacity());
+        writeBitsUnchecked(theStorage, theStructure, theBits);
+    }
+
+    /** Writes the bits of the field, in the given structure, without checking
+     * the structure index. An invalid index corrupts the storage.
+     *
+     * @throws IllegalStateException if theStorage has transactions enabled,
+     *         or secondary indexes. */
+    public void writeBitsUnchecked(final BaseLongStorage theStorage,
+            final int theStructure, final long theBits) {
+        checkState(!theStorage.transactionsEnabled(),
+                "Cannot write through a handle, with transactions enabled");
+        checkState(!theStorage.hasIndexes(),
+                "Cannot write through a handle, with secondary indexes");
+        final long[] array = theStorage.getArray();
+        final long position = theStructure * slotBits + offset;
+        final int index = (int) (position >>> 6);
+        final int shift = (int) position & 63;
+        final long value = theBits & mask;
+        array[index] = array[index] & ~(mask << shift) | value << shift;
+        if (!single && shift + bits > StructConstants.LONG_BITS) {
+            final int written = StructConstants.LONG_BITS - shift;
+            array[index + 1] = array[index + 1] & ~(mask >>> written)
+                    | value >>> written;
+        }
+    }
+
+    /** Writes a boolean field, in the given structure. */
+    public void writeBoolean(final BaseLongStorage theStorage,
+            final int theStructure, final boolean theValue) {
+        writeBits(theStorage, theStructure, theValue ? 1 : 0);
+    }
+
+    /** Writes a byte field, in the given structure. */
+    public void writeByte(final BaseLongStorage theStorage,
+            final int theStructure, final byte theValue) {
+        writeBits(theStorage, theStructure, theValue);
+    }
+
+    /** Writes a char field, in the given structure. */
+    public void writeChar(final BaseLongStorage theStorage,
+            final int theStructure, final char theValue) {
+        writeBits(theStorage, theStructure, theValue);
+    }
+
+    /** Writes a double field, in the given structure. */
+    public void writeDouble(final BaseLongStorage theStorage,
+            final int theStructure, final double theValue) {
+        writeBits(theStorage, theStructure,
+                Double.doubleToRawLongBits(theValue));
+    }
+
+    /** Writes a float field, in the given structure. */
+    public void writeFloat(final BaseLongStorage theStorage,
+            final int theStructure, final float theValue) {
+        writeBits(theStorage, theStructure, Float.floatToRawIntBits(theValue));
+    }
+
+    /** Writes an int field, in the given structure. */
+    public void writeInt(final BaseLongStorage theStorage,
+            final int theStructure, final int theValue) {
+        writeBits(theStorage, theStructure, theValue);
+    }
+
+    /** Writes a long field, in the given structure. */
+    public void writeLong(final BaseLongStorage theStorage,
+            final int theStructure, final long theValue) {
+        writeBits(theStorage, theStructure, theValue);
+    }
+
+    /** Writes a short field, in the given structure. */
+    public void writeShort(final BaseLongStorage theStorage,
+            final int theStructure, final short theValue) {
+        writeBits(theStorage, theStructure, theValue);
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.carrotsearch.hppc.IntObjectOpenHashMap;
+import com.carrotsearch.hppc.IntOpenHashSet;
+
+/**
+ * A secondary index on a field, which finds the structures of a storage from
+ * the value of their field.
+ *
+ * An index is added to a transactional storage with
+ * AbstractStorage.addIndex(). It is then kept up to date by every published
+ * change of the field, and by the rollbacks. The values of primitive fields
+ * are indexed as Long (booleans as 0 or 1).
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public abstract class FieldIndex {
+
+    /** The field. */
+    private final Field<?, ?> field;
+
+    /** The indexed value of every structure. */
+    private final IntObjectOpenHashMap<Object> values = new IntObjectOpenHashMap<>();
+
+    /** Returns the structures of the set, in ascending order. */
+    protected static int[] toArray(@Nullable final IntOpenHashSet theSet) {
+        if (theSet == null) {
+            return new int[0];
+        }
+        final int[] result = theSet.toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Checks that the field is an IntField, a LongField or an ObjectField. */
+    static Field<?, ?> checkValueField(final Field<?, ?> theField) {
+        checkArgument(theField instanceof IntField
+                || theField instanceof LongField
+                || theField instanceof ObjectField, "Cannot index field "
+                + theField.name());
+        return theField;
+    }
+
+    /** Constructor */
+    protected FieldIndex(final Field<?, ?> theField) {
+        checkNotNull(theField);
+        checkArgument(!theField.global() && !theField.virtual(),
+                "Cannot index global or virtual field " + theField.name());
+        field = theField;
+    }
+
+    /** Adds a structure, under the given value. */
+    protected abstract void add(@Nullable Object theValue, int theStructure);
+
+    /** Removes all the structures. */
+    protected abstract void clear();
+
+    /** Removes a structure, from the given value. */
+    protected abstract void remove(@Nullable Object theValue,
+            int theStructure);
+
+    /** Sets the indexed value of a structure. */
+    void put(final int theStructure, @Nullable final Object theValue) {
+        if (values.containsKey(theStructure)) {
+            final Object oldValue = values.lget();
+            if (oldValue == null ? theValue == null : oldValue
+                    .equals(theValue)) {
+                return;
+            }
+            remove(oldValue, theStructure);
+        }
+        values.put(theStructure, theValue);
+        add(theValue, theStructure);
+    }
+
+    /** Removes all the structures, before the index is (re)built. */
+    void reset() {
+        values.clear();
+        clear();
+    }
+
+    /** Returns the indexed field. */
+    public final Field<?, ?> field() {
+        return field;
+    }
+
+    /** Returns the structures where the field is equal to theValue, in
+     * ascending order. */
+    public abstract int[] find(@Nullable Object theValue);
+
+    /** Returns the structures where the IntField or LongField is equal to
+     * theValue, in ascending order. */
+    public final int[] find(final long theValue) {
+        return find(Long.valueOf(theValue));
+    }
+
+    /** Returns the number of indexed structures. */
+    public int size() {
+        return values.size();
+    }
+}
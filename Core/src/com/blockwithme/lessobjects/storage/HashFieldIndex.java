@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.carrotsearch.hppc.IntOpenHashSet;
+
+/**
+ * A FieldIndex using a hash table, to find the structures with a given value
+ * in constant time.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class HashFieldIndex extends FieldIndex {
+
+    /** The structures, for each value. */
+    private final Map<Object, IntOpenHashSet> structures = new HashMap<>();
+
+    /** Constructor */
+    public HashFieldIndex(final Field<?, ?> theField) {
+        super(checkValueField(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void add(@Nullable final Object theValue, final int theStructure) {
+        IntOpenHashSet set = structures.get(theValue);
+        if (set == null) {
+            set = new IntOpenHashSet();
+            structures.put(theValue, set);
+        }
+        set.add(theStructure);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void clear() {
+        structures.clear();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void remove(@Nullable final Object theValue,
+            final int theStructure) {
+        final IntOpenHashSet set = structures.get(theValue);
+        if (set != null && set.remove(theStructure) && set.isEmpty()) {
+            structures.remove(theValue);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int[] find(@Nullable final Object theValue) {
+        return toArray(structures.get(theValue));
+    }
+}
@@ -0,0 +1,1396 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.beans.MultiDimensionalSupport;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Point;
+import com.blockwithme.lessobjects.storage.parallel.IndexSpliterator;
+import com.blockwithme.lessobjects.storage.parallel.StructOperator;
+import com.blockwithme.lessobjects.storage.parallel.StructureVisitor;
+
+/**
+ * A Storage being migrated to a new schema, while it is in use. It serves
+ * the new schema, from the target storage, while the structures of the
+ * source storage are copied into it, one chunk at a time, by a background
+ * thread. Accessing a structure first migrates its chunk, if the background
+ * thread did not migrate it yet; the operations over the whole storage
+ * first migrate all the remaining chunks.
+ *
+ * Until the migration completes, every operation takes a lock, which the
+ * background thread also takes, for each chunk. The source storage must not
+ * be used by anything else, and its changes are not seen by the migration.
+ * The migration is not recorded in the transactions of the target, so the
+ * indexes of the target are rebuilt once it completes.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class MigratingStorage implements Storage {
+
+    /** Completes with the target storage, once all the chunks were
+     * migrated, by the background thread or not. */
+    private final class Completion extends FutureTask<Storage> {
+
+        /** Constructor */
+        Completion(final Callable<Storage> theCallable) {
+            super(theCallable);
+        }
+
+        /** Completes the future, unless it already completed. */
+        void complete() {
+            set(target);
+        }
+    }
+
+    /** The default number of structures, migrated at once. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 12;
+
+    /** The number of structures, migrated at once. */
+    private final int chunkSize;
+
+    /** Completes once all the chunks were migrated. */
+    private final Completion completion;
+
+    /** Were all the chunks migrated? */
+    private volatile boolean done;
+
+    /** The time when all the chunks were migrated, in nanoseconds. */
+    private volatile long endTime;
+
+    /** Protects both storages, until the migration completes. */
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    /** Was each chunk migrated? */
+    private final boolean[] migrated;
+
+    /** The number of migrated structures. */
+    private volatile int migratedStructures;
+
+    /** Copies the structures. */
+    private final StorageMigration migration;
+
+    /** The source storage, in the old schema. */
+    private final AbstractStorage source;
+
+    /** Was the background thread started? */
+    private boolean started;
+
+    /** The time when the migration started, in nanoseconds. */
+    private final long startTime;
+
+    /** The target storage, in the new schema. */
+    private final AbstractStorage target;
+
+    /** Constructor, with the default chunk size. */
+    public MigratingStorage(final Storage theSource, final Storage theTarget,
+            final SchemaMigrator theSchemaMigrator) {
+        this(theSource, theTarget, theSchemaMigrator, DEFAULT_CHUNK_SIZE);
+    }
+
+    /** Constructor. The global fields are migrated immediately; the
+     * structures are migrated once start() is called, or when used.
+     *
+     * @throws IllegalStateException if the types of two mapped fields do not
+     *         match, or if theTarget has uncommitted data. */
+    public MigratingStorage(final Storage theSource, final Storage theTarget,
+            final SchemaMigrator theSchemaMigrator, final int theChunkSize) {
+        checkArgument(theSource instanceof AbstractStorage
+                && theTarget instanceof AbstractStorage,
+                "Unsupported storages");
+        checkArgument(theChunkSize > 0, "Invalid chunk size: "
+                + theChunkSize);
+        checkArgument(theTarget.getCapacity() >= theSource.getCapacity(),
+                "The target storage is too small");
+        checkState(!theTarget.transactionManager().isUncommitted(),
+                "The target Storage has uncommitted data.");
+        source = (AbstractStorage) theSource;
+        target = (AbstractStorage) theTarget;
+        chunkSize = theChunkSize;
+        migrated = new boolean[(source.getCapacity() + theChunkSize - 1)
+                / theChunkSize];
+        migration = new StorageMigration(source, target, theSchemaMigrator);
+        completion = new Completion(new Callable<Storage>() {
+            @Override
+            public Storage call() {
+                for (int chunk = 0; chunk < migrated.length; chunk++) {
+                    lock.lock();
+                    try {
+                        migrate(chunk);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                return target;
+            }
+        });
+        startTime = System.nanoTime();
+        final boolean disabled = target.transactionsDisabled;
+        target.transactionsDisabled = true;
+        try {
+            migration.copyGlobals();
+        } finally {
+            target.transactionsDisabled = disabled;
+        }
+        done = migrated.length == 0;
+        if (done) {
+            completion.complete();
+        }
+    }
+
+    /** Migrates all the remaining chunks, in the current thread. */
+    private void finish() {
+        if (!done) {
+            lock.lock();
+            try {
+                for (int chunk = 0; chunk < migrated.length; chunk++) {
+                    migrate(chunk);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Takes the lock, unless the migration completed, and migrates the
+     * chunk of the structure, if needed. Returns true if the lock was
+     * taken. */
+    private boolean lock(final int theStructure) {
+        return lock(theStructure, theStructure + 1);
+    }
+
+    /** Takes the lock, unless the migration completed, and migrates the
+     * chunks of the structures theFrom (inclusive) to theTo (exclusive), if
+     * needed. Returns true if the lock was taken. */
+    private boolean lock(final int theFrom, final int theTo) {
+        if (done) {
+            return false;
+        }
+        lock.lock();
+        try {
+            migrate(theFrom, theTo);
+        } catch (final RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        return true;
+    }
+
+    /** Takes the lock, unless the migration completed, and migrates the
+     * chunks of the structures, if needed. Returns true if the lock was
+     * taken. */
+    private boolean lock(final int[] theStructures) {
+        if (done) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (final int structure : theStructures) {
+                migrate(structure, structure + 1);
+            }
+        } catch (final RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        return true;
+    }
+
+    /** Takes the lock, unless the migration completed, and migrates the
+     * chunk of the selected structure, if needed. Returns true if the lock
+     * was taken. */
+    private boolean lockSelected() {
+        if (done) {
+            return false;
+        }
+        lock.lock();
+        try {
+            final int selected = target.getSelectedStructure();
+            migrate(selected, selected + 1);
+        } catch (final RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        return true;
+    }
+
+    /** Migrates the chunks of the structures theFrom (inclusive) to theTo
+     * (exclusive), if needed. The lock must be held. */
+    private void migrate(final int theFrom, final int theTo) {
+        final int to = Math.min(theTo, source.getCapacity());
+        if (theFrom >= 0 && theFrom < to) {
+            for (int chunk = theFrom / chunkSize; chunk <= (to - 1)
+                    / chunkSize; chunk++) {
+                migrate(chunk);
+            }
+        }
+    }
+
+    /** Migrates a chunk, unless it was already migrated. The lock must be
+     * held. The migration is not recorded, and the selected structures do
+     * not change. */
+    private void migrate(final int theChunk) {
+        if (migrated[theChunk]) {
+            return;
+        }
+        final int from = theChunk * chunkSize;
+        final int to = Math.min(from + chunkSize, source.getCapacity());
+        final int sourceSelected = source.getSelectedStructure();
+        final int targetSelected = target.getSelectedStructure();
+        final boolean disabled = target.transactionsDisabled;
+        target.transactionsDisabled = true;
+        try {
+            migration.copyStructures(from, to);
+        } finally {
+            target.transactionsDisabled = disabled;
+            source.selectStructure(sourceSelected);
+            target.selectStructure(targetSelected);
+        }
+        migrated[theChunk] = true;
+        migratedStructures += to - from;
+        if (migratedStructures == source.getCapacity()) {
+            endTime = System.nanoTime();
+            // The copies bypassed the indexes.
+            target.rebuildIndexes();
+            done = true;
+            completion.complete();
+        }
+    }
+
+    /** Releases the lock, if it was taken. */
+    private void unlock(final boolean isLocked) {
+        if (isLocked) {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the future, which completes with the target storage, once
+     * all the chunks were migrated, by the background thread started by
+     * start(), or because the operations needed them. */
+    public Future<Storage> completion() {
+        return completion;
+    }
+
+    /** Returns the number of structures migrated so far. */
+    public int migratedStructures() {
+        return migratedStructures;
+    }
+
+    /** Returns the source storage, in the old schema. */
+    public Storage source() {
+        return source;
+    }
+
+    /** Starts migrating the structures in a background thread, and returns
+     * the completion future. */
+    public Future<Storage> start() {
+        checkState(!started, "Already started");
+        started = true;
+        final Thread thread = new Thread(completion, "MigratingStorage");
+        thread.setDaemon(true);
+        thread.start();
+        return completion;
+    }
+
+    /** Returns the number of structures migrated per second, since the
+     * migration started, and until it completed. */
+    public double structuresPerSecond() {
+        final long end = done ? endTime : System.nanoTime();
+        return migratedStructures * 1e9 / Math.max(1, end - startTime);
+    }
+
+    /** Returns the target storage, in the new schema. */
+    public Storage target() {
+        return target;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void apply(final int theFrom, final int theTo,
+            final StructOperator theOperator) {
+        finish();
+        target.apply(theFrom, theTo, theOperator);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ChangeListenerSupport changeListenerSupport() {
+        return target.changeListenerSupport();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void checkAccess(final Field<?, ?> theChild) {
+        target.checkAccess(theChild);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clear() {
+        final boolean locked = lockSelected();
+        try {
+            target.clear();
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clear(final Field<?, ?> theField) {
+        finish();
+        target.clear(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clearChild(final Struct theChild) {
+        final boolean locked = lockSelected();
+        try {
+            target.clearChild(theChild);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage copy() {
+        finish();
+        return target.copy();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void copyStorage(final Storage theOther,
+            final SchemaMigrator theSchemaMigrator) {
+        finish();
+        target.copyStorage(theOther, theSchemaMigrator);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void copyRange(final int theFrom, final Storage theTarget,
+            final int theTargetFrom, final int theCount) {
+        finish();
+        target.copyRange(theFrom, theTarget, theTargetFrom, theCount);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild) {
+        final boolean locked = lockSelected();
+        try {
+            return target.createOrClearList(theListChild);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild,
+            final int theInitialSize) {
+        final boolean locked = lockSelected();
+        try {
+            return target.createOrClearList(theListChild, theInitialSize);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void enableTransactions(final boolean theEnableFlag) {
+        final boolean locked = lock(-1);
+        try {
+            target.enableTransactions(theEnableFlag);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void forEach(final StructureVisitor theVisitor) {
+        finish();
+        target.forEach(theVisitor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final BooleanField<?, ?> theField,
+            final int[] theStructures, final boolean[] theDest) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.gather(theField, theStructures, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final ByteField<?, ?> theField,
+            final int[] theStructures, final byte[] theDest) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.gather(theField, theStructures, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final CharField<?, ?> theField,
+            final int[] theStructures, final char[] theDest) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.gather(theField, theStructures, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final DoubleField<?, ?> theField,
+            final int[] theStructures, final double[] theDest) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.gather(theField, theStructures, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final FloatField<?, ?> theField,
+            final int[] theStructures, final float[] theDest) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.gather(theField, theStructures, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final IntField<?, ?> theField,
+            final int[] theStructures, final int[] theDest) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.gather(theField, theStructures, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final LongField<?, ?> theField,
+            final int[] theStructures, final long[] theDest) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.gather(theField, theStructures, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final ShortField<?, ?> theField,
+            final int[] theStructures, final short[] theDest) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.gather(theField, theStructures, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getCapacity() {
+        return target.getCapacity();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Point getSelectedPoint() {
+        final boolean locked = lockSelected();
+        try {
+            return target.getSelectedPoint();
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getSelectedStructure() {
+        final boolean locked = lockSelected();
+        try {
+            return target.getSelectedStructure();
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getSize() {
+        return target.getSize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    public Storage list(final Struct theListChild) {
+        final boolean locked = lockSelected();
+        try {
+            return target.list(theListChild);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void permute(final int[] theOrder) {
+        finish();
+        target.permute(theOrder);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean read(final BooleanField<?, ?> theField) {
+        final boolean locked = lockSelected();
+        try {
+            return target.read(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public byte read(final ByteField<?, ?> theField) {
+        final boolean locked = lockSelected();
+        try {
+            return target.read(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public char read(final CharField<?, ?> theField) {
+        final boolean locked = lockSelected();
+        try {
+            return target.read(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double read(final DoubleField<?, ?> theField) {
+        final boolean locked = lockSelected();
+        try {
+            return target.read(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public float read(final FloatField<?, ?> theField) {
+        final boolean locked = lockSelected();
+        try {
+            return target.read(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read(final IntField<?, ?> theField) {
+        final boolean locked = lockSelected();
+        try {
+            return target.read(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long read(final LongField<?, ?> theField) {
+        final boolean locked = lockSelected();
+        try {
+            return target.read(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    public <E, F extends ObjectField<E, F>> E read(final ObjectField<E,
+            F> theField) {
+        final boolean locked = lockSelected();
+        try {
+            return target.read(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public short read(final ShortField<?, ?> theField) {
+        final boolean locked = lockSelected();
+        try {
+            return target.read(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean read(final BooleanField<?, ?> theField,
+            final int theStructure) {
+        final boolean locked = lock(theStructure);
+        try {
+            return target.read(theField, theStructure);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public byte read(final ByteField<?, ?> theField, final int theStructure) {
+        final boolean locked = lock(theStructure);
+        try {
+            return target.read(theField, theStructure);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public char read(final CharField<?, ?> theField, final int theStructure) {
+        final boolean locked = lock(theStructure);
+        try {
+            return target.read(theField, theStructure);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double read(final DoubleField<?, ?> theField,
+            final int theStructure) {
+        final boolean locked = lock(theStructure);
+        try {
+            return target.read(theField, theStructure);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public float read(final FloatField<?, ?> theField, final int theStructure) {
+        final boolean locked = lock(theStructure);
+        try {
+            return target.read(theField, theStructure);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read(final IntField<?, ?> theField, final int theStructure) {
+        final boolean locked = lock(theStructure);
+        try {
+            return target.read(theField, theStructure);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long read(final LongField<?, ?> theField, final int theStructure) {
+        final boolean locked = lock(theStructure);
+        try {
+            return target.read(theField, theStructure);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public short read(final ShortField<?, ?> theField, final int theStructure) {
+        final boolean locked = lock(theStructure);
+        try {
+            return target.read(theField, theStructure);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final BooleanField<?, ?> theField, final int theFrom,
+            final int theTo, final boolean[] theDest) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.readRange(theField, theFrom, theTo, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final ByteField<?, ?> theField, final int theFrom,
+            final int theTo, final byte[] theDest) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.readRange(theField, theFrom, theTo, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final CharField<?, ?> theField, final int theFrom,
+            final int theTo, final char[] theDest) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.readRange(theField, theFrom, theTo, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final DoubleField<?, ?> theField, final int theFrom,
+            final int theTo, final double[] theDest) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.readRange(theField, theFrom, theTo, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final FloatField<?, ?> theField, final int theFrom,
+            final int theTo, final float[] theDest) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.readRange(theField, theFrom, theTo, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final IntField<?, ?> theField, final int theFrom,
+            final int theTo, final int[] theDest) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.readRange(theField, theFrom, theTo, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final LongField<?, ?> theField, final int theFrom,
+            final int theTo, final long[] theDest) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.readRange(theField, theFrom, theTo, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final ShortField<?, ?> theField, final int theFrom,
+            final int theTo, final short[] theDest) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.readRange(theField, theFrom, theTo, theDest);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void resizeStorage(final int theNewCapacity) {
+        finish();
+        target.resizeStorage(theNewCapacity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Struct rootStruct() {
+        return target.rootStruct();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final BooleanField<?, ?> theField,
+            final int[] theStructures, final boolean[] theSource) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.scatter(theField, theStructures, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final ByteField<?, ?> theField,
+            final int[] theStructures, final byte[] theSource) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.scatter(theField, theStructures, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final CharField<?, ?> theField,
+            final int[] theStructures, final char[] theSource) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.scatter(theField, theStructures, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final DoubleField<?, ?> theField,
+            final int[] theStructures, final double[] theSource) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.scatter(theField, theStructures, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final FloatField<?, ?> theField,
+            final int[] theStructures, final float[] theSource) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.scatter(theField, theStructures, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final IntField<?, ?> theField,
+            final int[] theStructures, final int[] theSource) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.scatter(theField, theStructures, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final LongField<?, ?> theField,
+            final int[] theStructures, final long[] theSource) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.scatter(theField, theStructures, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final ShortField<?, ?> theField,
+            final int[] theStructures, final short[] theSource) {
+        final boolean locked = lock(theStructures);
+        try {
+            target.scatter(theField, theStructures, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectPoint(final Point thePoint) {
+        return selectStructure(target.multiDimensionalSupport().getIndex(
+                thePoint));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectStructure(final int theStructure) {
+        final boolean locked = lock(theStructure);
+        try {
+            return target.selectStructure(theStructure);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void selectUnionPosition(final Field<?, ?> theField) {
+        final boolean locked = lockSelected();
+        try {
+            target.selectUnionPosition(theField);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void selectUnionPosition(final Struct theStruct,
+            final int thePosition) {
+        final boolean locked = lockSelected();
+        try {
+            target.selectUnionPosition(theStruct, thePosition);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setMultiDimensionalSupport(
+            final MultiDimensionalSupport theSupport) {
+        final boolean locked = lock(-1);
+        try {
+            target.setMultiDimensionalSupport(theSupport);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage snapshot() {
+        finish();
+        return target.snapshot();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sortBy(final Field<?, ?>... theFields) {
+        finish();
+        target.sortBy(theFields);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IndexSpliterator spliterator() {
+        finish();
+        return target.spliterator();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Struct struct() {
+        return target.struct();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public TransactionManager transactionManager() {
+        return target.transactionManager();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean transactionsEnabled() {
+        return target.transactionsEnabled();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final BooleanField<?, ?> theField,
+            final boolean theValue) {
+        final boolean locked = lockSelected();
+        try {
+            target.write(theField, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final ByteField<?, ?> theField, final byte theValue) {
+        final boolean locked = lockSelected();
+        try {
+            target.write(theField, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final CharField<?, ?> theField, final char theValue) {
+        final boolean locked = lockSelected();
+        try {
+            target.write(theField, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final DoubleField<?, ?> theField, final double theValue) {
+        final boolean locked = lockSelected();
+        try {
+            target.write(theField, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final FloatField<?, ?> theField, final float theValue) {
+        final boolean locked = lockSelected();
+        try {
+            target.write(theField, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final IntField<?, ?> theField, final int theValue) {
+        final boolean locked = lockSelected();
+        try {
+            target.write(theField, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final LongField<?, ?> theField, final long theValue) {
+        final boolean locked = lockSelected();
+        try {
+            target.write(theField, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <E, F extends ObjectField<E, F>> void write(final ObjectField<E,
+            F> theField, @Nullable final E theValue) {
+        final boolean locked = lockSelected();
+        try {
+            target.write(theField, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final ShortField<?, ?> theField, final short theValue) {
+        final boolean locked = lockSelected();
+        try {
+            target.write(theField, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final BooleanField<?, ?> theField,
+            final int theStructure, final boolean theValue) {
+        final boolean locked = lock(theStructure);
+        try {
+            target.write(theField, theStructure, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final ByteField<?, ?> theField, final int theStructure,
+            final byte theValue) {
+        final boolean locked = lock(theStructure);
+        try {
+            target.write(theField, theStructure, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final CharField<?, ?> theField, final int theStructure,
+            final char theValue) {
+        final boolean locked = lock(theStructure);
+        try {
+            target.write(theField, theStructure, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final DoubleField<?, ?> theField, final int theStructure,
+            final double theValue) {
+        final boolean locked = lock(theStructure);
+        try {
+            target.write(theField, theStructure, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final FloatField<?, ?> theField, final int theStructure,
+            final float theValue) {
+        final boolean locked = lock(theStructure);
+        try {
+            target.write(theField, theStructure, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final IntField<?, ?> theField, final int theStructure,
+            final int theValue) {
+        final boolean locked = lock(theStructure);
+        try {
+            target.write(theField, theStructure, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final LongField<?, ?> theField, final int theStructure,
+            final long theValue) {
+        final boolean locked = lock(theStructure);
+        try {
+            target.write(theField, theStructure, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final ShortField<?, ?> theField, final int theStructure,
+            final short theValue) {
+        final boolean locked = lock(theStructure);
+        try {
+            target.write(theField, theStructure, theValue);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final BooleanField<?, ?> theField,
+            final int theFrom, final int theTo, final boolean[] theSource) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.writeRange(theField, theFrom, theTo, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final ByteField<?, ?> theField, final int theFrom,
+            final int theTo, final byte[] theSource) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.writeRange(theField, theFrom, theTo, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final CharField<?, ?> theField, final int theFrom,
+            final int theTo, final char[] theSource) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.writeRange(theField, theFrom, theTo, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final DoubleField<?, ?> theField, final int theFrom,
+            final int theTo, final double[] theSource) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.writeRange(theField, theFrom, theTo, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final FloatField<?, ?> theField, final int theFrom,
+            final int theTo, final float[] theSource) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.writeRange(theField, theFrom, theTo, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final IntField<?, ?> theField, final int theFrom,
+            final int theTo, final int[] theSource) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.writeRange(theField, theFrom, theTo, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final LongField<?, ?> theField, final int theFrom,
+            final int theTo, final long[] theSource) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.writeRange(theField, theFrom, theTo, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final ShortField<?, ?> theField, final int theFrom,
+            final int theTo, final short[] theSource) {
+        final boolean locked = lock(theFrom, theTo);
+        try {
+            target.writeRange(theField, theFrom, theTo, theSource);
+        } finally {
+            unlock(locked);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void copyStorage(final Storage theOther) {
+        finish();
+        target.copyStorage(theOther);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public MultiDimensionalSupport multiDimensionalSupport() {
+        return target.multiDimensionalSupport();
+    }
+}
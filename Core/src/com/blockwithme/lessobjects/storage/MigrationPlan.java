@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+
+/**
+ * The copy of the bits of the plain fields of one schema into another,
+ * compiled once for copyStorage(), between two storages keeping their
+ * structures in a long array.
+ *
+ * Every mapped field becomes a move of bits, from its offset in the old
+ * structure to its offset in the new structure. The moves are sorted by
+ * their new offset, and the moves that continue each other in both
+ * structures are merged, so copying a structure is only a few bit
+ * extractions, shifts and insertions, with no field lookups.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+final class MigrationPlan {
+
+    /** The number of bits read, per move. */
+    private final int[] bits;
+
+    /** The fields of the new schema, copied by this plan. */
+    private final Set<Field<?, ?>> fields;
+
+    /** The offset of the bits in the old structure, per move. */
+    private final long[] sourceOffsets;
+
+    /** The offset of the bits in the new structure, per move. */
+    private final long[] targetOffsets;
+
+    /** The number of bits written, per move; the bits that are not read are
+     * cleared, as when a narrower value is written into a wider field. */
+    private final int[] widths;
+
+    /** Can the bits of this field be moved as-is? The union members are
+     * left to the field by field copy, since their bits overlap. */
+    private static boolean movable(final Struct theStruct,
+            final Field<?, ?> theField) {
+        return !theField.global() && !theField.isOptional()
+                && !theField.virtual() && !theField.object()
+                && theStruct.uDMapping(theField).length == 0;
+    }
+
+    /** Compiles the plan. theMapping maps the fields of theTarget to the
+     * fields of theSource, as returned by SchemaMigrator.mapSchema(). */
+    static MigrationPlan compile(final Struct theSource,
+            final Struct theTarget,
+            final Map<Field<?, ?>, Field<?, ?>> theMapping) {
+        final Set<Field<?, ?>> sourceFields = new HashSet<>(
+                theSource.allStorageFields());
+        final List<Field<?, ?>> targetFields = new ArrayList<>();
+        for (final Field<?, ?> field : theTarget.allStorageFields()) {
+            final Field<?, ?> sourceField = theMapping.get(field);
+            if (sourceField != null && sourceFields.contains(sourceField)
+                    && sourceField.fieldType() == field.fieldType()
+                    && movable(theTarget, field)
+                    && movable(theSource, sourceField)) {
+                targetFields.add(field);
+            }
+        }
+        Collections.sort(targetFields, new Comparator<Field<?, ?>>() {
+            @Override
+            public int compare(final Field<?, ?> theFirst,
+                    final Field<?, ?> theSecond) {
+                return Integer.compare(theFirst.offset(), theSecond.offset());
+            }
+        });
+        return new MigrationPlan(targetFields, theMapping);
+    }
+
+    /** Constructor */
+    private MigrationPlan(final List<Field<?, ?>> theTargetFields,
+            final Map<Field<?, ?>, Field<?, ?>> theMapping) {
+        final int count = theTargetFields.size();
+        final int[] tmpBits = new int[count];
+        final long[] tmpSources = new long[count];
+        final long[] tmpTargets = new long[count];
+        final int[] tmpWidths = new int[count];
+        int moves = 0;
+        for (final Field<?, ?> field : theTargetFields) {
+            final Field<?, ?> sourceField = theMapping.get(field);
+            final int read = Math.min(sourceField.bits(), field.bits());
+            final int last = moves - 1;
+            if (moves > 0 && tmpBits[last] == tmpWidths[last]
+                    && read == field.bits()
+                    && tmpSources[last] + tmpBits[last] == sourceField
+                            .offset()
+                    && tmpTargets[last] + tmpBits[last] == field.offset()) {
+                // Continues the previous move, in both structures.
+                tmpBits[last] += read;
+                tmpWidths[last] += read;
+            } else {
+                tmpBits[moves] = read;
+                tmpSources[moves] = sourceField.offset();
+                tmpTargets[moves] = field.offset();
+                tmpWidths[moves] = field.bits();
+                moves++;
+            }
+        }
+        bits = Arrays.copyOf(tmpBits, moves);
+        sourceOffsets = Arrays.copyOf(tmpSources, moves);
+        targetOffsets = Arrays.copyOf(tmpTargets, moves);
+        widths = Arrays.copyOf(tmpWidths, moves);
+        fields = Collections.unmodifiableSet(new HashSet<>(theTargetFields));
+    }
+
+    /** Returns the fields of the new schema, copied by this plan. */
+    Set<Field<?, ?>> fields() {
+        return fields;
+    }
+
+    /** Copies the bits of the structures theFrom (inclusive) to theTo
+     * (exclusive), from theSource, where structures take theSourceSize bits,
+     * to theTarget, where they take theTargetSize bits. */
+    void run(final long[] theSource, final long theSourceSize,
+            final long[] theTarget, final long theTargetSize,
+            final int theFrom, final int theTo) {
+        for (int structure = theFrom; structure < theTo; structure++) {
+            final long source = structure * theSourceSize;
+            final long target = structure * theTargetSize;
+            for (int m = 0; m < bits.length; m++) {
+                final int read = bits[m];
+                if (read == widths[m]) {
+                    BaseLongStorage.copyBits(theSource, source
+                            + sourceOffsets[m], theTarget, target
+                            + targetOffsets[m], read);
+                } else {
+                    BaseLongStorage.writeBits(theTarget, target
+                            + targetOffsets[m], widths[m], BaseLongStorage
+                            .readBits(theSource, source + sourceOffsets[m],
+                                    read));
+                }
+            }
+        }
+    }
+}
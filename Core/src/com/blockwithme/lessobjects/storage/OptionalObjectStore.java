@@ -248,6 +248,31 @@ public class OptionalObjectStore {
         return listStorageArray[theStructure];
     }
 
+    /**
+     * Moves the optional and list children, after the structures of the
+     * parent storage were permuted, so that structure i gets the children of
+     * structure theOrder[i]. theInverse is the inverse permutation.
+     */
+    @SuppressWarnings("null")
+    public void permute(final int[] theOrder, final int[] theInverse) {
+        for (final IntCursor key : optionalStore.keys()) {
+            ((AbstractStorage) optionalStore.get(key.value))
+                    .permuteStructures(theOrder, theInverse);
+        }
+        for (final int key : listStore.keys().toArray()) {
+            final Storage[] children = listStore.get(key);
+            final Storage[] permuted = new Storage[Math.max(
+                    children.length, theOrder.length)];
+            System.arraycopy(children, 0, permuted, 0, children.length);
+            for (int i = 0; i < theOrder.length; i++) {
+                final int source = theOrder[i];
+                permuted[i] = source < children.length ? children[source]
+                        : null;
+            }
+            listStore.put(key, permuted);
+        }
+    }
+
     /** Performs look up for appropriate storage and reads Boolean from it */
     @SuppressWarnings("null")
     public boolean readSparse(final int theStructure,
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.carrotsearch.hppc.IntOpenHashSet;
+
+/**
+ * A FieldIndex using a sorted tree, to find the structures with a given value,
+ * or within a range of values, in logarithmic time. The values of an
+ * ObjectField must be Comparable; the structures where the field is null are
+ * not indexed.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class SortedFieldIndex extends FieldIndex {
+
+    /** The structures, for each value. */
+    private final TreeMap<Object, IntOpenHashSet> structures = new TreeMap<>();
+
+    /** Constructor */
+    public SortedFieldIndex(final Field<?, ?> theField) {
+        super(checkValueField(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void add(@Nullable final Object theValue, final int theStructure) {
+        if (theValue != null) {
+            IntOpenHashSet set = structures.get(theValue);
+            if (set == null) {
+                set = new IntOpenHashSet();
+                structures.put(theValue, set);
+            }
+            set.add(theStructure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void clear() {
+        structures.clear();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void remove(@Nullable final Object theValue,
+            final int theStructure) {
+        if (theValue != null) {
+            final IntOpenHashSet set = structures.get(theValue);
+            if (set != null && set.remove(theStructure) && set.isEmpty()) {
+                structures.remove(theValue);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int[] find(@Nullable final Object theValue) {
+        return theValue == null ? new int[0] : toArray(structures
+                .get(theValue));
+    }
+
+    /** Returns the structures where the IntField or LongField is between
+     * theMin and theMax (both inclusive), in ascending order. */
+    public int[] range(final long theMin, final long theMax) {
+        return range(Long.valueOf(theMin), Long.valueOf(theMax));
+    }
+
+    /** Returns the structures where the field is between theMin and theMax
+     * (both inclusive), in ascending order. */
+    public int[] range(final Object theMin, final Object theMax) {
+        checkNotNull(theMin);
+        checkNotNull(theMax);
+        @SuppressWarnings("unchecked")
+        final int order = ((Comparable<Object>) theMin).compareTo(theMax);
+        if (order > 0) {
+            return new int[0];
+        }
+        final NavigableMap<Object, IntOpenHashSet> range = structures.subMap(
+                theMin, true, theMax, true);
+        int size = 0;
+        for (final IntOpenHashSet set : range.values()) {
+            size += set.size();
+        }
+        final int[] result = new int[size];
+        int pos = 0;
+        for (final IntOpenHashSet set : range.values()) {
+            final int[] array = set.toArray();
+            System.arraycopy(array, 0, result, pos, array.length);
+            pos += array.length;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+}
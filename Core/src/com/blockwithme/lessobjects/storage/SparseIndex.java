@@ -0,0 +1,314 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Maps the (sparse) structure indexes of a SparseStorage to the (dense) slots
+ * that hold their values, without hashing.
+ *
+ * The structure indexes are split in chunks of 256. Each non-empty chunk has
+ * a presence bitmap, and the slots of its present structures, in index order.
+ * The slot of a structure is found using the rank of the structure in its
+ * chunk bitmap. Removing a structure only frees its slot, which is reused by
+ * the next insertion; the values of the other structures never move.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class SparseIndex {
+
+    /** The number of bits of a structure index, used to select the chunk. */
+    private static final int CHUNK_SHIFT = 8;
+
+    /** The number of words of a chunk bitmap. */
+    private static final int CHUNK_WORDS = (1 << CHUNK_SHIFT) / Long.SIZE;
+
+    /** The word-index mask, within a chunk. */
+    private static final int WORD_MASK = CHUNK_WORDS - 1;
+
+    /** The word-index shift. */
+    private static final int WORD_SHIFT = 6;
+
+    /** The presence bitmaps, per chunk; null for empty chunks. */
+    private long[][] bitmaps = new long[0][];
+
+    /** The number of present structures, per chunk. */
+    private int[] counts = new int[0];
+
+    /** The lowest word of used, which can have a free slot; the words
+     * before it are full. */
+    private int freeWord;
+
+    /** The number of present structures. */
+    private int size;
+
+    /** The slots of the present structures, per chunk, in index order. */
+    private int[][] slots = new int[0][];
+
+    /** The used slots bitmap. */
+    private long[] used = new long[0];
+
+    /** Allocates the lowest free slot. */
+    private int allocate() {
+        int word = freeWord;
+        while (word < used.length && used[word] == -1L) {
+            word++;
+        }
+        if (word == used.length) {
+            used = Arrays.copyOf(used, Math.max(1, used.length * 2));
+        }
+        final int bit = Long.numberOfTrailingZeros(~used[word]);
+        used[word] |= 1L << bit;
+        freeWord = word;
+        return word * Long.SIZE + bit;
+    }
+
+    /** Adds a structure, which is not present, in the given slot. */
+    private void insert(final int theStructure, final int theSlot) {
+        final int chunk = theStructure >>> CHUNK_SHIFT;
+        if (chunk >= bitmaps.length) {
+            final int length = Math.max(chunk + 1, bitmaps.length * 2);
+            bitmaps = Arrays.copyOf(bitmaps, length);
+            slots = Arrays.copyOf(slots, length);
+            counts = Arrays.copyOf(counts, length);
+        }
+        long[] bitmap = bitmaps[chunk];
+        if (bitmap == null) {
+            bitmap = new long[CHUNK_WORDS];
+            bitmaps[chunk] = bitmap;
+            slots[chunk] = new int[2];
+        }
+        final int rank = rank(bitmap, theStructure);
+        final int count = counts[chunk];
+        int[] chunkSlots = slots[chunk];
+        if (count == chunkSlots.length) {
+            chunkSlots = Arrays.copyOf(chunkSlots, count * 2);
+            slots[chunk] = chunkSlots;
+        }
+        System.arraycopy(chunkSlots, rank, chunkSlots, rank + 1, count - rank);
+        chunkSlots[rank] = theSlot;
+        bitmap[theStructure >>> WORD_SHIFT & WORD_MASK] |= 1L << theStructure;
+        counts[chunk] = count + 1;
+        size++;
+    }
+
+    /** Returns the number of present structures, in the bitmap, which are
+     * before the given structure. */
+    private static int rank(final long[] theBitmap, final int theStructure) {
+        final int word = theStructure >>> WORD_SHIFT & WORD_MASK;
+        int result = Long.bitCount(theBitmap[word]
+                & (1L << theStructure) - 1);
+        for (int i = 0; i < word; i++) {
+            result += Long.bitCount(theBitmap[i]);
+        }
+        return result;
+    }
+
+    /** Adds a structure, and returns its slot. If the structure was already
+     * present, its current slot is returned. */
+    public int add(final int theStructure) {
+        checkArgument(theStructure >= 0, "Negative index: " + theStructure);
+        final int current = slot(theStructure);
+        if (current >= 0) {
+            return current;
+        }
+        final int result = allocate();
+        insert(theStructure, result);
+        return result;
+    }
+
+    /** Removes all the structures. */
+    public void clear() {
+        bitmaps = new long[0][];
+        counts = new int[0];
+        slots = new int[0][];
+        used = new long[0];
+        freeWord = 0;
+        size = 0;
+    }
+
+    /** Checks if a structure is present. */
+    public boolean contains(final int theStructure) {
+        final int chunk = theStructure >>> CHUNK_SHIFT;
+        if (theStructure < 0 || chunk >= bitmaps.length
+                || bitmaps[chunk] == null) {
+            return false;
+        }
+        return (bitmaps[chunk][theStructure >>> WORD_SHIFT & WORD_MASK] & 1L << theStructure) != 0;
+    }
+
+    /** Copies the content of this index to the other index. */
+    public void copyTo(final SparseIndex theOther) {
+        theOther.bitmaps = new long[bitmaps.length][];
+        theOther.slots = new int[slots.length][];
+        for (int i = 0; i < bitmaps.length; i++) {
+            if (bitmaps[i] != null) {
+                theOther.bitmaps[i] = bitmaps[i].clone();
+                theOther.slots[i] = slots[i].clone();
+            }
+        }
+        theOther.counts = counts.clone();
+        theOther.used = used.clone();
+        theOther.freeWord = freeWord;
+        theOther.size = size;
+    }
+
+    /** Returns the lowest present structure, which is greater or equal to
+     * the given structure, or -1 if there is none. Allows iterating over the
+     * present structures, in index order. */
+    public int nextStructure(final int theStructure) {
+        int chunk = Math.max(theStructure, 0) >>> CHUNK_SHIFT;
+        int word = Math.max(theStructure, 0) >>> WORD_SHIFT & WORD_MASK;
+        long mask = theStructure < 0 ? -1L : -1L << theStructure;
+        while (chunk < bitmaps.length) {
+            final long[] bitmap = bitmaps[chunk];
+            if (bitmap != null) {
+                while (word < CHUNK_WORDS) {
+                    final long bits = bitmap[word] & mask;
+                    if (bits != 0) {
+                        return (chunk << CHUNK_SHIFT) + word * Long.SIZE
+                                + Long.numberOfTrailingZeros(bits);
+                    }
+                    word++;
+                    mask = -1L;
+                }
+            }
+            chunk++;
+            word = 0;
+            mask = -1L;
+        }
+        return -1;
+    }
+
+    /** Removes a structure, and returns its (now free) slot, or -1 if it was
+     * not present. */
+    public int remove(final int theStructure) {
+        if (!contains(theStructure)) {
+            return -1;
+        }
+        final int chunk = theStructure >>> CHUNK_SHIFT;
+        final long[] bitmap = bitmaps[chunk];
+        final int rank = rank(bitmap, theStructure);
+        final int[] chunkSlots = slots[chunk];
+        final int result = chunkSlots[rank];
+        final int count = counts[chunk] - 1;
+        System.arraycopy(chunkSlots, rank + 1, chunkSlots, rank, count - rank);
+        bitmap[theStructure >>> WORD_SHIFT & WORD_MASK] &= ~(1L << theStructure);
+        if (count == 0) {
+            bitmaps[chunk] = null;
+            slots[chunk] = null;
+        }
+        counts[chunk] = count;
+        used[result >>> WORD_SHIFT] &= ~(1L << result);
+        freeWord = Math.min(freeWord, result >>> WORD_SHIFT);
+        size--;
+        return result;
+    }
+
+    /** Renumbers the present structures, keeping their slots: structure s
+     * becomes theInverse[s], if s is less than theInverse.length.
+     *
+     * @throws IllegalArgumentException if theInverse is not a permutation of
+     *         0 to theInverse.length (exclusive). */
+    public void renumber(final int[] theInverse) {
+        final boolean[] seen = new boolean[theInverse.length];
+        for (final int structure : theInverse) {
+            checkArgument(structure >= 0 && structure < theInverse.length
+                    && !seen[structure], "Not a permutation: " + structure);
+            seen[structure] = true;
+        }
+        final int count = size;
+        final int[] structures = new int[count];
+        final int[] structureSlots = new int[count];
+        int structure = nextStructure(0);
+        for (int i = 0; i < count; i++) {
+            structures[i] = structure;
+            structureSlots[i] = slot(structure);
+            structure = nextStructure(structure + 1);
+        }
+        bitmaps = new long[0][];
+        counts = new int[0];
+        slots = new int[0][];
+        size = 0;
+        for (int i = 0; i < count; i++) {
+            final int old = structures[i];
+            insert(old < theInverse.length ? theInverse[old] : old,
+                    structureSlots[i]);
+        }
+    }
+
+    /** Returns the structure with the given rank, that is, the structure
+     * which has theRank present structures before it. */
+    public int select(final int theRank) {
+        checkArgument(theRank >= 0 && theRank < size, "Invalid rank: "
+                + theRank);
+        int rest = theRank;
+        int chunk = 0;
+        while (rest >= counts[chunk]) {
+            rest -= counts[chunk];
+            chunk++;
+        }
+        final long[] bitmap = bitmaps[chunk];
+        int word = 0;
+        while (rest >= Long.bitCount(bitmap[word])) {
+            rest -= Long.bitCount(bitmap[word]);
+            word++;
+        }
+        long bits = bitmap[word];
+        for (int i = 0; i < rest; i++) {
+            bits &= bits - 1;
+        }
+        return (chunk << CHUNK_SHIFT) + word * Long.SIZE
+                + Long.numberOfTrailingZeros(bits);
+    }
+
+    /** Returns the number of present structures. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the slot of a structure, or -1 if it is not present. */
+    public int slot(final int theStructure) {
+        final int chunk = theStructure >>> CHUNK_SHIFT;
+        if (theStructure < 0 || chunk >= bitmaps.length) {
+            return -1;
+        }
+        final long[] bitmap = bitmaps[chunk];
+        if (bitmap == null
+                || (bitmap[theStructure >>> WORD_SHIFT & WORD_MASK] & 1L << theStructure) == 0) {
+            return -1;
+        }
+        return slots[chunk][rank(bitmap, theStructure)];
+    }
+
+    /** Returns one more than the highest used slot; the storage cannot shrink
+     * below that. */
+    public int slotLimit() {
+        for (int i = used.length - 1; i >= 0; i--) {
+            if (used[i] != 0) {
+                return i * Long.SIZE + Long.SIZE
+                        - Long.numberOfLeadingZeros(used[i]);
+            }
+        }
+        return 0;
+    }
+}
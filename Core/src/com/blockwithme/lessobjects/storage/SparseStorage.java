@@ -46,4 +46,7 @@ public interface SparseStorage extends Storage {
      */
     int currentSize();
 
+    /** Returns the present structures, in ascending order. */
+    int[] structures();
+
 }
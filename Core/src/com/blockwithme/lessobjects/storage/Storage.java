@@ -32,6 +32,9 @@ import com.blockwithme.lessobjects.fields.primitive.IntField;
 import com.blockwithme.lessobjects.fields.primitive.LongField;
 import com.blockwithme.lessobjects.fields.primitive.ShortField;
 import com.blockwithme.lessobjects.multidim.Point;
+import com.blockwithme.lessobjects.storage.parallel.IndexSpliterator;
+import com.blockwithme.lessobjects.storage.parallel.StructOperator;
+import com.blockwithme.lessobjects.storage.parallel.StructureVisitor;
 
 /**
  * A Storage is an object that actually wraps data for a schema that is defined by a Struct
@@ -51,6 +54,19 @@ import com.blockwithme.lessobjects.multidim.Point;
 @ParametersAreNonnullByDefault
 public interface Storage {
 
+    /**
+     * Applies an operator to the structures theFrom (inclusive) to theTo
+     * (exclusive), in parallel if possible. Each worker thread gets its own
+     * cursor, through which the operator reads and writes the fields of the
+     * current structure; the selected structure is neither used nor
+     * changed. The parallel parts never share a long word, or a page. If
+     * transactions are enabled, the changes of all the parts are added to
+     * the current transaction, in index order, once all the parts are done;
+     * if the operator fails, the changes already made are not recorded.
+     */
+    void apply(final int theFrom, final int theTo,
+            final StructOperator theOperator);
+
     /** Change listener support.
      *
      * @return the change listener support */
@@ -91,6 +107,17 @@ public interface Storage {
     void copyStorage(final Storage theOther,
             final SchemaMigrator theSchemaMigrator);
 
+    /**
+     * Copies theCount structures, starting at theFrom, into theTarget,
+     * starting at theTargetFrom. theTarget must have the same schema, and can
+     * be this storage, in which case the ranges can overlap. The copy is not
+     * recorded in the transactions of theTarget, which must have no
+     * uncommitted changes. Sparse storages, and storages with optional or
+     * list children, are not supported.
+     */
+    void copyRange(final int theFrom, final Storage theTarget,
+            final int theTargetFrom, final int theCount);
+
     /** Creates a new list-type storage and returns the reference, if there
      * exists a non-empty storage at this position, it is discarded and changes
      * are recorded.
@@ -117,6 +144,50 @@ public interface Storage {
      * @throws IllegalStateException when there is uncommitted data in this storage*/
     void enableTransactions(final boolean theEnableFlag);
 
+    /**
+     * Visits all the structures, or all the present structures of a sparse
+     * storage, in parallel if possible. Each worker thread gets its own
+     * cursor, so the selected structure is neither used nor changed. The
+     * storage must not be modified until this method returns.
+     */
+    void forEach(final StructureVisitor theVisitor);
+
+    /**
+     * Reads a field of several structures, at once. theDest[i] receives the
+     * value of the field in the structure theStructures[i]. The access to the
+     * field is only checked once. The selected structure can change.
+     */
+    void gather(final BooleanField<?, ?> theField, final int[] theStructures,
+            final boolean[] theDest);
+
+    /** Reads a ByteField of several structures, at once. */
+    void gather(final ByteField<?, ?> theField, final int[] theStructures,
+            final byte[] theDest);
+
+    /** Reads a CharField of several structures, at once. */
+    void gather(final CharField<?, ?> theField, final int[] theStructures,
+            final char[] theDest);
+
+    /** Reads a DoubleField of several structures, at once. */
+    void gather(final DoubleField<?, ?> theField, final int[] theStructures,
+            final double[] theDest);
+
+    /** Reads a FloatField of several structures, at once. */
+    void gather(final FloatField<?, ?> theField, final int[] theStructures,
+            final float[] theDest);
+
+    /** Reads a IntField of several structures, at once. */
+    void gather(final IntField<?, ?> theField, final int[] theStructures,
+            final int[] theDest);
+
+    /** Reads a LongField of several structures, at once. */
+    void gather(final LongField<?, ?> theField, final int[] theStructures,
+            final long[] theDest);
+
+    /** Reads a ShortField of several structures, at once. */
+    void gather(final ShortField<?, ?> theField, final int[] theStructures,
+            final short[] theDest);
+
     /** Returns the current capacity of the underlying raw storage. */
     int getCapacity();
 
@@ -142,6 +213,16 @@ public interface Storage {
     @Nullable
     Storage list(final Struct theListChild);
 
+    /**
+     * Physically reorders the structures, so that the structure at index i
+     * is the one that was at index theOrder[i]. theOrder must be a
+     * permutation of [0, theOrder.length); the structures at or beyond
+     * theOrder.length do not move. The reordering is not recorded in the
+     * transactions, so there must be no uncommitted changes. The selected
+     * structure index does not change.
+     */
+    void permute(final int[] theOrder);
+
     /** Reads a BooleanField. */
     boolean read(final BooleanField<?, ?> theField);
 
@@ -170,6 +251,76 @@ public interface Storage {
     /** Reads a ShortField. */
     short read(final ShortField<?, ?> theField);
 
+    /**
+     * Reads a BooleanField of the given structure, without using, or
+     * changing, the selected structure. Global fields are supported, but
+     * optional, virtual and union fields are not, because they depend on the
+     * selected structure. Any number of threads can read concurrently, as
+     * long as no other thread writes. Readers running concurrently to a
+     * single writer see either the old or the new value of the fields stored
+     * in a single word; fields crossing words, sparse storages, and the
+     * compressed engines, need external synchronization.
+     */
+    boolean read(final BooleanField<?, ?> theField, final int theStructure);
+
+    /** Reads a ByteField of the given structure. */
+    byte read(final ByteField<?, ?> theField, final int theStructure);
+
+    /** Reads a CharField of the given structure. */
+    char read(final CharField<?, ?> theField, final int theStructure);
+
+    /** Reads a DoubleField of the given structure. */
+    double read(final DoubleField<?, ?> theField, final int theStructure);
+
+    /** Reads a FloatField of the given structure. */
+    float read(final FloatField<?, ?> theField, final int theStructure);
+
+    /** Reads a IntField of the given structure. */
+    int read(final IntField<?, ?> theField, final int theStructure);
+
+    /** Reads a LongField of the given structure. */
+    long read(final LongField<?, ?> theField, final int theStructure);
+
+    /** Reads a ShortField of the given structure. */
+    short read(final ShortField<?, ?> theField, final int theStructure);
+
+    /**
+     * Reads a field of all the structures from theFrom (inclusive) to theTo
+     * (exclusive), at once. theDest[i] receives the value of the field in the
+     * structure theFrom + i. The access to the field is only checked once.
+     * The selected structure can change.
+     */
+    void readRange(final BooleanField<?, ?> theField, final int theFrom,
+            final int theTo, final boolean[] theDest);
+
+    /** Reads a ByteField of a range of structures, at once. */
+    void readRange(final ByteField<?, ?> theField, final int theFrom,
+            final int theTo, final byte[] theDest);
+
+    /** Reads a CharField of a range of structures, at once. */
+    void readRange(final CharField<?, ?> theField, final int theFrom,
+            final int theTo, final char[] theDest);
+
+    /** Reads a DoubleField of a range of structures, at once. */
+    void readRange(final DoubleField<?, ?> theField, final int theFrom,
+            final int theTo, final double[] theDest);
+
+    /** Reads a FloatField of a range of structures, at once. */
+    void readRange(final FloatField<?, ?> theField, final int theFrom,
+            final int theTo, final float[] theDest);
+
+    /** Reads a IntField of a range of structures, at once. */
+    void readRange(final IntField<?, ?> theField, final int theFrom,
+            final int theTo, final int[] theDest);
+
+    /** Reads a LongField of a range of structures, at once. */
+    void readRange(final LongField<?, ?> theField, final int theFrom,
+            final int theTo, final long[] theDest);
+
+    /** Reads a ShortField of a range of structures, at once. */
+    void readRange(final ShortField<?, ?> theField, final int theFrom,
+            final int theTo, final short[] theDest);
+
     /** Modifies the capacity of the storage.
      * The old data that still fits in the new storage will be preserved. */
     void resizeStorage(final int theNewCapacity);
@@ -177,6 +328,42 @@ public interface Storage {
     /** Returns the Root struct that is backed by this storage */
     Struct rootStruct();
 
+    /**
+     * Writes a field of several structures, at once. The structure
+     * theStructures[i] receives the value theSource[i]. The access to the
+     * field is only checked once. The selected structure can change.
+     */
+    void scatter(final BooleanField<?, ?> theField, final int[] theStructures,
+            final boolean[] theSource);
+
+    /** Writes a ByteField of several structures, at once. */
+    void scatter(final ByteField<?, ?> theField, final int[] theStructures,
+            final byte[] theSource);
+
+    /** Writes a CharField of several structures, at once. */
+    void scatter(final CharField<?, ?> theField, final int[] theStructures,
+            final char[] theSource);
+
+    /** Writes a DoubleField of several structures, at once. */
+    void scatter(final DoubleField<?, ?> theField, final int[] theStructures,
+            final double[] theSource);
+
+    /** Writes a FloatField of several structures, at once. */
+    void scatter(final FloatField<?, ?> theField, final int[] theStructures,
+            final float[] theSource);
+
+    /** Writes a IntField of several structures, at once. */
+    void scatter(final IntField<?, ?> theField, final int[] theStructures,
+            final int[] theSource);
+
+    /** Writes a LongField of several structures, at once. */
+    void scatter(final LongField<?, ?> theField, final int[] theStructures,
+            final long[] theSource);
+
+    /** Writes a ShortField of several structures, at once. */
+    void scatter(final ShortField<?, ?> theField, final int[] theStructures,
+            final short[] theSource);
+
     /** Positions the storage to the position corresponding to the coordinates of a point. */
     boolean selectPoint(final Point thePoint);
 
@@ -189,6 +376,35 @@ public interface Storage {
     /** Change the "selected field" (position) of a union */
     void selectUnionPosition(final Struct theStruct, final int thePosition);
 
+    /**
+     * Creates an immutable, read-only, view of the current content of this
+     * storage. Later changes to this storage are not visible in the snapshot.
+     *
+     * Only the paged storages make cheap snapshots: they share their pages
+     * with the snapshot, and only copy the pages that get modified
+     * afterward. All the other storages copy their whole content, like
+     * copy(), so their snapshots cost O(capacity) in time and memory.
+     *
+     * @return the snapshot.
+     * @throws IllegalStateException if the current transaction has some uncommitted data.
+     */
+    Storage snapshot();
+
+    /**
+     * Sorts the structures in ascending order of the given fields, the first
+     * field being the most significant, using permute(). The sort is stable.
+     * The fields must be primitive fields, or object fields with Comparable
+     * values (null first). Sparse storages cannot be sorted.
+     */
+    void sortBy(final Field<?, ?>... theFields);
+
+    /**
+     * Returns a spliterator over the indexes of all the structures, or of
+     * the present structures of a sparse storage, in ascending order; that
+     * is, in the order of the MultiDimensionalSupport indexes.
+     */
+    IndexSpliterator spliterator();
+
     /**
      * Returns the Struct instance backed by this storage.
      * @return the struct instance
@@ -233,6 +449,81 @@ public interface Storage {
     /** Writes a ShortField. */
     void write(final ShortField<?, ?> theField, final short theValue);
 
+    /**
+     * Writes a BooleanField of the given structure, without using, or
+     * changing, the selected structure. Only a single thread should write at
+     * a time. Changes are recorded, and published to the listeners and
+     * indexes, as for the other writes. In a SparseStorage, writing a missing
+     * structure adds it.
+     */
+    void write(final BooleanField<?, ?> theField, final int theStructure,
+            final boolean theValue);
+
+    /** Writes a ByteField of the given structure. */
+    void write(final ByteField<?, ?> theField, final int theStructure,
+            final byte theValue);
+
+    /** Writes a CharField of the given structure. */
+    void write(final CharField<?, ?> theField, final int theStructure,
+            final char theValue);
+
+    /** Writes a DoubleField of the given structure. */
+    void write(final DoubleField<?, ?> theField, final int theStructure,
+            final double theValue);
+
+    /** Writes a FloatField of the given structure. */
+    void write(final FloatField<?, ?> theField, final int theStructure,
+            final float theValue);
+
+    /** Writes a IntField of the given structure. */
+    void write(final IntField<?, ?> theField, final int theStructure,
+            final int theValue);
+
+    /** Writes a LongField of the given structure. */
+    void write(final LongField<?, ?> theField, final int theStructure,
+            final long theValue);
+
+    /** Writes a ShortField of the given structure. */
+    void write(final ShortField<?, ?> theField, final int theStructure,
+            final short theValue);
+
+    /**
+     * Writes a field of all the structures from theFrom (inclusive) to theTo
+     * (exclusive), at once. The structure theFrom + i receives the value
+     * theSource[i]. The access to the field is only checked once. The
+     * selected structure can change.
+     */
+    void writeRange(final BooleanField<?, ?> theField, final int theFrom,
+            final int theTo, final boolean[] theSource);
+
+    /** Writes a ByteField of a range of structures, at once. */
+    void writeRange(final ByteField<?, ?> theField, final int theFrom,
+            final int theTo, final byte[] theSource);
+
+    /** Writes a CharField of a range of structures, at once. */
+    void writeRange(final CharField<?, ?> theField, final int theFrom,
+            final int theTo, final char[] theSource);
+
+    /** Writes a DoubleField of a range of structures, at once. */
+    void writeRange(final DoubleField<?, ?> theField, final int theFrom,
+            final int theTo, final double[] theSource);
+
+    /** Writes a FloatField of a range of structures, at once. */
+    void writeRange(final FloatField<?, ?> theField, final int theFrom,
+            final int theTo, final float[] theSource);
+
+    /** Writes a IntField of a range of structures, at once. */
+    void writeRange(final IntField<?, ?> theField, final int theFrom,
+            final int theTo, final int[] theSource);
+
+    /** Writes a LongField of a range of structures, at once. */
+    void writeRange(final LongField<?, ?> theField, final int theFrom,
+            final int theTo, final long[] theSource);
+
+    /** Writes a ShortField of a range of structures, at once. */
+    void writeRange(final ShortField<?, ?> theField, final int theFrom,
+            final int theTo, final short[] theSource);
+
     /**
      * Copies current storage data to 'theOther' storage. The 'transactional' property of 'theOther' storage
      * is disabled before the data is copied and reset to its original value later. This operation cannot be rolled-back.
@@ -246,4 +537,11 @@ public interface Storage {
 
     /** An object of MultiDimensionalSupport to access multidimensional data in this storage. */
     public MultiDimensionalSupport multiDimensionalSupport();
+
+    /** Replaces the MultiDimensionalSupport of this storage, for example with
+     * a MortonMultiDimensionSupport, so that the neighbours of a point are
+     * stored close to it. It must have the arity of this storage, and its
+     * indexes must fit in the capacity. It should be set before the storage
+     * is filled, since the structures are not moved. */
+    public void setMultiDimensionalSupport(MultiDimensionalSupport theSupport);
 }
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+
+/**
+ * Copies the structures of a storage into another storage, possibly with a
+ * different schema, as copyStorage() does. The fields are mapped once, so
+ * that the structures can then be copied in several ranges, as
+ * MigratingStorage does.
+ *
+ * The selected structures of both storages are changed, and the changes are
+ * recorded in the target, if its transactions are enabled.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+final class StorageMigration {
+
+    /** Maps the fields of the target to the fields of the source. */
+    private final Map<Field<?, ?>, Field<?, ?>> fieldMapping;
+
+    /** The global fields of the target. */
+    private final List<Field<?, ?>> globalFields;
+
+    /** The list fields of the target, and their list struct. */
+    private final Map<Field<?, ?>, Struct> listFields;
+
+    /** The list fields of the source, and their list struct. */
+    private final Map<Field<?, ?>, Struct> listOldFields;
+
+    /** The other fields of the target. */
+    private final List<Field<?, ?>> nonListFields;
+
+    /** The schema migrator. */
+    private final SchemaMigrator schemaMigrator;
+
+    /** The source storage. */
+    private final AbstractStorage source;
+
+    /** The target storage. */
+    private final Storage target;
+
+    /**
+     * Check if the field belongs to a parent which is of a list type.
+     *
+     * @return returns the list type parent if its a list field else returns null.
+     */
+    @Nullable
+    private static Struct checkIsListField(final Field<?, ?> theField,
+            final Struct theCurrentStruct) {
+
+        Struct s = theField.parent();
+        while (s != null) {
+            if (s == theCurrentStruct) {
+                return null;
+            }
+            if (s.list()) {
+                return s;
+            }
+            s = s.parent();
+        }
+        return null;
+    }
+
+    /** Maps the fields of theTarget to the fields of theSource.
+     *
+     * @throws IllegalStateException if the types of two mapped fields do not
+     *         match. */
+    StorageMigration(final AbstractStorage theSource, final Storage theTarget,
+            final SchemaMigrator theSchemaMigrator) {
+        source = theSource;
+        target = theTarget;
+        schemaMigrator = theSchemaMigrator;
+        fieldMapping = theSchemaMigrator.mapSchema(theTarget.struct(),
+                theSource.struct());
+        listFields = new HashMap<>();
+        listOldFields = new HashMap<>();
+        globalFields = new ArrayList<>();
+        nonListFields = new ArrayList<>();
+
+        // check if field types match.
+        for (final Field<?, ?> newField : fieldMapping.keySet()) {
+
+            final Field<?, ?> oldField = fieldMapping.get(newField);
+            if (oldField == null) {
+                // A new field keeps its default value.
+                continue;
+            }
+            if (newField.fieldType() != oldField.fieldType()) {
+                throw new IllegalStateException("Field types for fields "
+                        + newField.qualifiedName() + " and "
+                        + oldField.qualifiedName() + " do not match!");
+            }
+            final Struct s = checkIsListField(newField, theTarget.struct());
+            if (s != null) {
+                final Struct oldS = checkIsListField(oldField,
+                        theSource.struct());
+                listFields.put(newField, s);
+                listOldFields.put(oldField, oldS);
+            } else if (newField.global()) {
+                globalFields.add(newField);
+            } else {
+                nonListFields.add(newField);
+            }
+        }
+    }
+
+    /** Copies the value of one field, for the selected structures. */
+    private void copyField(final Field<?, ?> theNewField) {
+        final Field<?, ?> oldField = fieldMapping.get(theNewField);
+        if (oldField != null) {
+            oldField.copyValue(source, theNewField, target);
+        }
+    }
+
+    /** Copies the global fields, which only need to be copied once. */
+    void copyGlobals() {
+        for (final Field<?, ?> newField : globalFields) {
+            copyField(newField);
+        }
+    }
+
+    /** Copies the structures theFrom (inclusive) to theTo (exclusive). */
+    void copyStructures(final int theFrom, final int theTo) {
+        // Copy the bits of the plain fields in bulk, if possible.
+        final Set<Field<?, ?>> migratedFields = source.migrateBits(target,
+                fieldMapping, theFrom, theTo);
+
+        for (int i = theFrom; i < theTo; i++) {
+            source.selectStructure(i);
+            target.selectStructure(i);
+
+            for (final Field<?, ?> newField : nonListFields) {
+                if (newField.virtual() || migratedFields.contains(newField)) {
+                    continue;
+                }
+                copyField(newField);
+            }
+            for (final Field<?, ?> newField : listFields.keySet()) {
+                final Field<?, ?> oldField = fieldMapping.get(newField);
+                final Struct oldFieldParent = listOldFields.get(oldField);
+                final Struct newFieldParent = listFields.get(newField);
+
+                final Storage childStorage = source.list(oldFieldParent);
+
+                if (childStorage != null) {
+                    final Storage otherChildStorage = target
+                            .createOrClearList(newFieldParent,
+                                    childStorage.getCapacity());
+                    otherChildStorage.enableTransactions(false);
+                    childStorage.copyStorage(otherChildStorage,
+                            schemaMigrator);
+                    otherChildStorage.enableTransactions(childStorage
+                            .transactionsEnabled());
+                }
+            }
+            // call post processor here.
+            schemaMigrator.postProcessor(source, target, i, i);
+        }
+    }
+}
@@ -44,6 +44,10 @@ import com.blockwithme.lessobjects.fields.primitive.IntField;
 import com.blockwithme.lessobjects.fields.primitive.LongField;
 import com.blockwithme.lessobjects.fields.primitive.ShortField;
 import com.blockwithme.lessobjects.multidim.Point;
+import com.blockwithme.lessobjects.storage.parallel.IndexSpliterator;
+import com.blockwithme.lessobjects.storage.parallel.StorageTasks;
+import com.blockwithme.lessobjects.storage.parallel.StructOperator;
+import com.blockwithme.lessobjects.storage.parallel.StructureVisitor;
 import com.blockwithme.lessobjects.util.Util;
 import com.carrotsearch.hppc.IntObjectOpenHashMap;
 import com.carrotsearch.hppc.LongLongOpenHashMap;
@@ -216,6 +220,15 @@ public class StorageWrapperImpl implements StorageWrapper {
         }
     }
 
+    /** Applies the operator in the current thread, since the writes go
+     * through the buffers. */
+    @Override
+    public void apply(final int theFrom, final int theTo,
+            final StructOperator theOperator) {
+        checkArgument(theFrom >= 0 && theFrom <= theTo, "Invalid range");
+        StorageTasks.apply(this, theFrom, theTo, theOperator, 0, null);
+    }
+
     /** {@inheritDoc} */
     @Override
     public ChangeListenerSupport changeListenerSupport() {
@@ -276,6 +289,13 @@ public class StorageWrapperImpl implements StorageWrapper {
         throw new UnsupportedOperationException();
     }
 
+    /** This operation is not supported on Storage wrapper */
+    @Override
+    public void copyRange(final int theFrom, final Storage theTarget,
+            final int theTargetFrom, final int theCount) {
+        throw new UnsupportedOperationException();
+    }
+
     /** This operation is not supported on Storage wrapper */
     @Override
     public void copyStorage(final Storage theOther) {
@@ -329,6 +349,93 @@ public class StorageWrapperImpl implements StorageWrapper {
         throw new UnsupportedOperationException();
     }
 
+    /** Visits the structures in the current thread, since the reads go
+     * through the selection, to see the buffered changes. */
+    @Override
+    public void forEach(final StructureVisitor theVisitor) {
+        StorageTasks.forEach(this, spliterator(), theVisitor, false);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final BooleanField<?, ?> theField,
+            final int[] theStructures, final boolean[] theDest) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            theDest[i] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final ByteField<?, ?> theField,
+            final int[] theStructures, final byte[] theDest) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            theDest[i] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final CharField<?, ?> theField,
+            final int[] theStructures, final char[] theDest) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            theDest[i] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final DoubleField<?, ?> theField,
+            final int[] theStructures, final double[] theDest) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            theDest[i] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final FloatField<?, ?> theField,
+            final int[] theStructures, final float[] theDest) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            theDest[i] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final IntField<?, ?> theField,
+            final int[] theStructures, final int[] theDest) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            theDest[i] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final LongField<?, ?> theField,
+            final int[] theStructures, final long[] theDest) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            theDest[i] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void gather(final ShortField<?, ?> theField,
+            final int[] theStructures, final short[] theDest) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            theDest[i] = read(theField);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public int getCapacity() {
@@ -427,6 +534,12 @@ public class StorageWrapperImpl implements StorageWrapper {
         return actualStorage.multiDimensionalSupport();
     }
 
+    /** This operation is not supported on Storage wrapper */
+    @Override
+    public void permute(final int[] theOrder) {
+        throw new UnsupportedOperationException();
+    }
+
     /** {@inheritDoc} */
     @SuppressWarnings("null")
     @Override
@@ -501,6 +614,169 @@ public class StorageWrapperImpl implements StorageWrapper {
         return theField.readShort(actualStorage, buffer());
     }
 
+    /** Goes through the selection, so that the buffered changes are seen,
+     * and restores it afterwards. */
+    @Override
+    public boolean read(final BooleanField<?, ?> theField,
+            final int theStructure) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        final boolean result = read(theField);
+        selectStructure(selected);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public byte read(final ByteField<?, ?> theField, final int theStructure) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        final byte result = read(theField);
+        selectStructure(selected);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public char read(final CharField<?, ?> theField, final int theStructure) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        final char result = read(theField);
+        selectStructure(selected);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double read(final DoubleField<?, ?> theField,
+            final int theStructure) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        final double result = read(theField);
+        selectStructure(selected);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public float read(final FloatField<?, ?> theField, final int theStructure) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        final float result = read(theField);
+        selectStructure(selected);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read(final IntField<?, ?> theField, final int theStructure) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        final int result = read(theField);
+        selectStructure(selected);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long read(final LongField<?, ?> theField, final int theStructure) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        final long result = read(theField);
+        selectStructure(selected);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public short read(final ShortField<?, ?> theField, final int theStructure) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        final short result = read(theField);
+        selectStructure(selected);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final BooleanField<?, ?> theField, final int theFrom,
+            final int theTo, final boolean[] theDest) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            theDest[i - theFrom] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final ByteField<?, ?> theField, final int theFrom,
+            final int theTo, final byte[] theDest) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            theDest[i - theFrom] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final CharField<?, ?> theField, final int theFrom,
+            final int theTo, final char[] theDest) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            theDest[i - theFrom] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final DoubleField<?, ?> theField, final int theFrom,
+            final int theTo, final double[] theDest) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            theDest[i - theFrom] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final FloatField<?, ?> theField, final int theFrom,
+            final int theTo, final float[] theDest) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            theDest[i - theFrom] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final IntField<?, ?> theField, final int theFrom,
+            final int theTo, final int[] theDest) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            theDest[i - theFrom] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final LongField<?, ?> theField, final int theFrom,
+            final int theTo, final long[] theDest) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            theDest[i - theFrom] = read(theField);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void readRange(final ShortField<?, ?> theField, final int theFrom,
+            final int theTo, final short[] theDest) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            theDest[i - theFrom] = read(theField);
+        }
+    }
+
     /** {@inheritDoc} */
     @SuppressWarnings("null")
     @Override
@@ -536,6 +812,86 @@ public class StorageWrapperImpl implements StorageWrapper {
         return actualStorage.rootStruct();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final BooleanField<?, ?> theField,
+            final int[] theStructures, final boolean[] theSource) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            write(theField, theSource[i]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final ByteField<?, ?> theField,
+            final int[] theStructures, final byte[] theSource) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            write(theField, theSource[i]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final CharField<?, ?> theField,
+            final int[] theStructures, final char[] theSource) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            write(theField, theSource[i]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final DoubleField<?, ?> theField,
+            final int[] theStructures, final double[] theSource) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            write(theField, theSource[i]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final FloatField<?, ?> theField,
+            final int[] theStructures, final float[] theSource) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            write(theField, theSource[i]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final IntField<?, ?> theField,
+            final int[] theStructures, final int[] theSource) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            write(theField, theSource[i]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final LongField<?, ?> theField,
+            final int[] theStructures, final long[] theSource) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            write(theField, theSource[i]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void scatter(final ShortField<?, ?> theField,
+            final int[] theStructures, final short[] theSource) {
+        for (int i = 0; i < theStructures.length; i++) {
+            selectStructure(theStructures[i]);
+            write(theField, theSource[i]);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public boolean selectPoint(final Point thePoint) {
@@ -572,6 +928,31 @@ public class StorageWrapperImpl implements StorageWrapper {
         }
     }
 
+    /** This operation is not supported on Storage wrapper */
+    @Override
+    public void setMultiDimensionalSupport(
+            final MultiDimensionalSupport theSupport) {
+        throw new UnsupportedOperationException();
+    }
+
+    /** This operation is not supported on Storage wrapper */
+    @Override
+    public Storage snapshot() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** This operation is not supported on Storage wrapper */
+    @Override
+    public void sortBy(final Field<?, ?>... theFields) {
+        throw new UnsupportedOperationException();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IndexSpliterator spliterator() {
+        return actualStorage.spliterator();
+    }
+
     /** {@inheritDoc} */
     @Override
     public Struct struct() {
@@ -664,6 +1045,167 @@ public class StorageWrapperImpl implements StorageWrapper {
         theField.writeShort(actualStorage, buffer(), theValue);
     }
 
+    /** Goes through the selection, so that the change is buffered, and
+     * restores it afterwards. */
+    @Override
+    public void write(final BooleanField<?, ?> theField, final int theStructure,
+            final boolean theValue) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        write(theField, theValue);
+        selectStructure(selected);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final ByteField<?, ?> theField, final int theStructure,
+            final byte theValue) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        write(theField, theValue);
+        selectStructure(selected);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final CharField<?, ?> theField, final int theStructure,
+            final char theValue) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        write(theField, theValue);
+        selectStructure(selected);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final DoubleField<?, ?> theField, final int theStructure,
+            final double theValue) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        write(theField, theValue);
+        selectStructure(selected);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final FloatField<?, ?> theField, final int theStructure,
+            final float theValue) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        write(theField, theValue);
+        selectStructure(selected);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final IntField<?, ?> theField, final int theStructure,
+            final int theValue) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        write(theField, theValue);
+        selectStructure(selected);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final LongField<?, ?> theField, final int theStructure,
+            final long theValue) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        write(theField, theValue);
+        selectStructure(selected);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final ShortField<?, ?> theField, final int theStructure,
+            final short theValue) {
+        final int selected = getSelectedStructure();
+        selectStructure(theStructure);
+        write(theField, theValue);
+        selectStructure(selected);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final BooleanField<?, ?> theField, final int theFrom,
+            final int theTo, final boolean[] theSource) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            write(theField, theSource[i - theFrom]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final ByteField<?, ?> theField, final int theFrom,
+            final int theTo, final byte[] theSource) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            write(theField, theSource[i - theFrom]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final CharField<?, ?> theField, final int theFrom,
+            final int theTo, final char[] theSource) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            write(theField, theSource[i - theFrom]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final DoubleField<?, ?> theField, final int theFrom,
+            final int theTo, final double[] theSource) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            write(theField, theSource[i - theFrom]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final FloatField<?, ?> theField, final int theFrom,
+            final int theTo, final float[] theSource) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            write(theField, theSource[i - theFrom]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final IntField<?, ?> theField, final int theFrom,
+            final int theTo, final int[] theSource) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            write(theField, theSource[i - theFrom]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final LongField<?, ?> theField, final int theFrom,
+            final int theTo, final long[] theSource) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            write(theField, theSource[i - theFrom]);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeRange(final ShortField<?, ?> theField, final int theFrom,
+            final int theTo, final short[] theSource) {
+        for (int i = theFrom; i < theTo; i++) {
+            selectStructure(i);
+            write(theField, theSource[i - theFrom]);
+        }
+    }
+
     /** {@inheritDoc} */
     @SuppressWarnings("null")
     @Override
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+
+/**
+ * Computes the order of the structures of a storage, sorted by the values of
+ * some fields, for Storage.sortBy().
+ *
+ * The values of the primitive fields are read once, and converted to long
+ * keys that sort like the values. The structure indexes are then merge
+ * sorted, so that the sort is stable.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+final class StructureSorter {
+
+    /** The keys of the primitive fields, per field; null for object fields. */
+    private final long[][] keys;
+
+    /** The values of the object fields, per field; null for primitive
+     * fields. */
+    private final Object[][] objects;
+
+    /** Returns the key of the bits of a double, or a float, which sorts like
+     * the value itself. */
+    private static long floatingKey(final long theBits) {
+        return theBits ^ theBits >> Long.SIZE - 1 & Long.MAX_VALUE;
+    }
+
+    /** Returns the order of the structures of the storage, sorted by the
+     * values of the fields. */
+    static int[] order(final Storage theStorage,
+            final Field<?, ?>[] theFields) {
+        return new StructureSorter(theStorage, theFields).sort(theStorage
+                .getCapacity());
+    }
+
+    /** Constructor */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private StructureSorter(final Storage theStorage,
+            final Field<?, ?>[] theFields) {
+        final int count = theStorage.getCapacity();
+        keys = new long[theFields.length][];
+        objects = new Object[theFields.length][];
+        for (int f = 0; f < theFields.length; f++) {
+            final Field<?, ?> field = theFields[f];
+            if (field instanceof ObjectField) {
+                final Object[] values = new Object[count];
+                final int selected = theStorage.getSelectedStructure();
+                for (int i = 0; i < count; i++) {
+                    theStorage.selectStructure(i);
+                    final Object value = theStorage.read((ObjectField) field);
+                    checkArgument(value == null || value instanceof Comparable,
+                            "Values of " + field.name()
+                                    + " are not Comparable");
+                    values[i] = value;
+                }
+                theStorage.selectStructure(selected);
+                objects[f] = values;
+            } else {
+                final long[] values = new long[count];
+                for (int i = 0; i < count; i++) {
+                    values[i] = key(theStorage, field, i);
+                }
+                keys[f] = values;
+            }
+        }
+    }
+
+    /** Compares two structures. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private int compare(final int theFirst, final int theSecond) {
+        for (int f = 0; f < keys.length; f++) {
+            final int result;
+            final long[] fieldKeys = keys[f];
+            if (fieldKeys != null) {
+                result = Long.compare(fieldKeys[theFirst],
+                        fieldKeys[theSecond]);
+            } else {
+                final Object first = objects[f][theFirst];
+                final Object second = objects[f][theSecond];
+                if (first == null) {
+                    result = second == null ? 0 : -1;
+                } else {
+                    result = second == null ? 1 : ((Comparable) first)
+                            .compareTo(second);
+                }
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the sort key of a primitive field, in some structure. */
+    @SuppressWarnings("rawtypes")
+    private long key(final Storage theStorage, final Field<?, ?> theField,
+            final int theStructure) {
+        if (theField instanceof BooleanField) {
+            return theStorage.read((BooleanField) theField, theStructure) ? 1
+                    : 0;
+        }
+        if (theField instanceof ByteField) {
+            return theStorage.read((ByteField) theField, theStructure);
+        }
+        if (theField instanceof CharField) {
+            return theStorage.read((CharField) theField, theStructure);
+        }
+        if (theField instanceof DoubleField) {
+            return floatingKey(Double.doubleToLongBits(theStorage.read(
+                    (DoubleField) theField, theStructure)));
+        }
+        if (theField instanceof FloatField) {
+            return floatingKey(Float.floatToIntBits(theStorage.read(
+                    (FloatField) theField, theStructure)));
+        }
+        if (theField instanceof IntField) {
+            return theStorage.read((IntField) theField, theStructure);
+        }
+        if (theField instanceof LongField) {
+            return theStorage.read((LongField) theField, theStructure);
+        }
+        if (theField instanceof ShortField) {
+            return theStorage.read((ShortField) theField, theStructure);
+        }
+        throw new IllegalArgumentException("Cannot sort by field "
+                + theField.name());
+    }
+
+    /** Merges the sorted runs [theFrom, theMiddle) and [theMiddle, theTo)
+     * of the source, into the target. */
+    private void merge(final int[] theSource, final int[] theTarget,
+            final int theFrom, final int theMiddle, final int theTo) {
+        int left = theFrom;
+        int right = theMiddle;
+        int next = theFrom;
+        while (left < theMiddle && right < theTo) {
+            // Takes the left structure first when equal, for stability.
+            if (compare(theSource[right], theSource[left]) < 0) {
+                theTarget[next++] = theSource[right++];
+            } else {
+                theTarget[next++] = theSource[left++];
+            }
+        }
+        System.arraycopy(theSource, left, theTarget, next, theMiddle - left);
+        next += theMiddle - left;
+        System.arraycopy(theSource, right, theTarget, next, theTo - right);
+    }
+
+    /** Sorts the structure indexes, bottom-up. */
+    private int[] sort(final int theCount) {
+        int[] order = new int[theCount];
+        for (int i = 0; i < theCount; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[theCount];
+        for (int width = 1; width < theCount; width *= 2) {
+            for (int from = 0; from < theCount; from += 2 * width) {
+                final int middle = Math.min(from + width, theCount);
+                final int to = Math.min(from + 2 * width, theCount);
+                merge(order, buffer, from, middle, to);
+            }
+            final int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+}
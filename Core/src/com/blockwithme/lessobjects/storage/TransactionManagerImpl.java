@@ -241,6 +241,7 @@ public class TransactionManagerImpl implements TransactionManager {
             while (itr.hasNext()) {
                 final ValueChange<?> vc = itr.next();
                 vc.reverseChange(storage());
+                storage.reindex(vc);
             }
             storage.transactionsDisabled = oldFlagVlaue;
             actionSet = null;
@@ -0,0 +1,526 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.aggregate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.parallel.StorageTasks;
+
+/**
+ * Computes aggregates (statistics and histograms) of a primitive field, over a
+ * range of structures, or over the structures selected by a bitmap (bit i of
+ * the bitmap selects the structure i).
+ *
+ * The values are read in chunks, with the bulk read operations of the
+ * storage, and aggregated in tight loops over primitive arrays. Large
+ * aggregations are split, and the parts aggregated in parallel, if the storage
+ * supports concurrent bulk reads. The storage must not be modified while an
+ * aggregate is computed.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class Aggregates {
+
+    /** Aggregates the values of a chunk, into a result. */
+    private abstract static class Aggregator<R> {
+
+        /** Are the values read as double, or as long? */
+        final boolean floating;
+
+        /** Constructor */
+        Aggregator(final boolean isFloating) {
+            floating = isFloating;
+        }
+
+        /** Aggregates the values of a chunk. */
+        abstract R aggregate(R theResult, Chunk theChunk, int theCount);
+
+        /** Combines two partial results. */
+        abstract R combine(R theFirst, R theSecond);
+
+        /** Returns the result for no values. */
+        abstract R empty();
+    }
+
+    /** Aggregates part of the structures, splitting the work if needed. */
+    @SuppressWarnings("serial")
+    private static final class AggregateTask<R> extends RecursiveTask<R> {
+
+        /** The aggregator. */
+        private final Aggregator<R> aggregator;
+
+        /** The optional bitmap. */
+        @Nullable
+        private final long[] bitmap;
+
+        /** The field. */
+        private final Field<?, ?> field;
+
+        /** The first structure. */
+        private final int from;
+
+        /** Can the work be split? */
+        private final boolean parallel;
+
+        /** The storage. */
+        private final Storage storage;
+
+        /** One more than the last structure. */
+        private final int to;
+
+        /** Constructor */
+        AggregateTask(final Aggregator<R> theAggregator,
+                final Storage theStorage, final Field<?, ?> theField,
+                @Nullable final long[] theBitmap, final int theFrom,
+                final int theTo, final boolean isParallel) {
+            aggregator = theAggregator;
+            storage = theStorage;
+            field = theField;
+            bitmap = theBitmap;
+            from = theFrom;
+            to = theTo;
+            parallel = isParallel;
+        }
+
+        /** Aggregates the selected structures of the bitmap. */
+        @SuppressWarnings("null")
+        private R aggregateBitmap() {
+            final Chunk chunk = new Chunk(storage, field, aggregator.floating);
+            final int[] indexes = new int[CHUNK];
+            R result = aggregator.empty();
+            if (from >= to) {
+                return result;
+            }
+            int count = 0;
+            final int last = (to - 1) / Long.SIZE;
+            for (int word = from / Long.SIZE; word <= last; word++) {
+                long bits = bitmap[word];
+                while (bits != 0) {
+                    final int index = word * Long.SIZE
+                            + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (index >= from && index < to) {
+                        indexes[count++] = index;
+                        if (count == CHUNK) {
+                            chunk.load(indexes, 0, count);
+                            result = aggregator.aggregate(result, chunk, count);
+                            count = 0;
+                        }
+                    }
+                }
+            }
+            if (count > 0) {
+                chunk.load(Arrays.copyOf(indexes, count), 0, count);
+                result = aggregator.aggregate(result, chunk, count);
+            }
+            return result;
+        }
+
+        /** Aggregates the range of structures. */
+        private R aggregateRange() {
+            final Chunk chunk = new Chunk(storage, field, aggregator.floating);
+            R result = aggregator.empty();
+            for (int start = from; start < to; start += CHUNK) {
+                final int count = Math.min(CHUNK, to - start);
+                chunk.load(null, start, count);
+                result = aggregator.aggregate(result, chunk, count);
+            }
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected R compute() {
+            if (parallel && to - from > PARALLEL_THRESHOLD) {
+                // Split on a word boundary, in case we use a bitmap.
+                final int middle = from + (to - from) / 2 & -Long.SIZE;
+                final AggregateTask<R> first = new AggregateTask<>(aggregator,
+                        storage, field, bitmap, from, middle, true);
+                final AggregateTask<R> second = new AggregateTask<>(
+                        aggregator, storage, field, bitmap, middle, to, true);
+                first.fork();
+                final R secondResult = second.compute();
+                return aggregator.combine(first.join(), secondResult);
+            }
+            return bitmap == null ? aggregateRange() : aggregateBitmap();
+        }
+    }
+
+    /** Reads the values of a field, one chunk of structures at a time, and
+     * converts them to long or double. */
+    private static final class Chunk {
+
+        /** The values, as double. */
+        final double[] doubles;
+
+        /** The field. */
+        private final Field<?, ?> field;
+
+        /** The values, as long. */
+        final long[] longs;
+
+        /** The values, as read from the storage. */
+        private final Object raw;
+
+        /** The storage. */
+        private final Storage storage;
+
+        /** Constructor */
+        Chunk(final Storage theStorage, final Field<?, ?> theField,
+                final boolean isFloating) {
+            storage = theStorage;
+            field = theField;
+            longs = isFloating ? null : new long[CHUNK];
+            doubles = isFloating ? new double[CHUNK] : null;
+            if (theField instanceof BooleanField) {
+                raw = new boolean[CHUNK];
+            } else if (theField instanceof ByteField) {
+                raw = new byte[CHUNK];
+            } else if (theField instanceof CharField) {
+                raw = new char[CHUNK];
+            } else if (theField instanceof DoubleField) {
+                checkArgument(isFloating, "Not an integral field: "
+                        + theField.name());
+                raw = null;
+            } else if (theField instanceof FloatField) {
+                checkArgument(isFloating, "Not an integral field: "
+                        + theField.name());
+                raw = new float[CHUNK];
+            } else if (theField instanceof IntField) {
+                raw = new int[CHUNK];
+            } else if (theField instanceof LongField) {
+                raw = isFloating ? new long[CHUNK] : null;
+            } else if (theField instanceof ShortField) {
+                raw = new short[CHUNK];
+            } else {
+                throw new IllegalArgumentException(
+                        "Not a primitive field: " + theField.name());
+            }
+        }
+
+        /** Loads the values of the given structures, or of the structures
+         * theFrom to theFrom + theCount, if theIndexes is null. */
+        @SuppressWarnings({ "rawtypes", "null" })
+        void load(@Nullable final int[] theIndexes, final int theFrom,
+                final int theCount) {
+            final int to = theFrom + theCount;
+            if (field instanceof BooleanField) {
+                final boolean[] values = (boolean[]) raw;
+                if (theIndexes == null) {
+                    storage.readRange((BooleanField) field, theFrom, to, values);
+                } else {
+                    storage.gather((BooleanField) field, theIndexes, values);
+                }
+                for (int i = 0; i < theCount; i++) {
+                    set(i, values[i] ? 1 : 0);
+                }
+            } else if (field instanceof ByteField) {
+                final byte[] values = (byte[]) raw;
+                if (theIndexes == null) {
+                    storage.readRange((ByteField) field, theFrom, to, values);
+                } else {
+                    storage.gather((ByteField) field, theIndexes, values);
+                }
+                for (int i = 0; i < theCount; i++) {
+                    set(i, values[i]);
+                }
+            } else if (field instanceof CharField) {
+                final char[] values = (char[]) raw;
+                if (theIndexes == null) {
+                    storage.readRange((CharField) field, theFrom, to, values);
+                } else {
+                    storage.gather((CharField) field, theIndexes, values);
+                }
+                for (int i = 0; i < theCount; i++) {
+                    set(i, values[i]);
+                }
+            } else if (field instanceof DoubleField) {
+                // Read directly, no conversion needed.
+                if (theIndexes == null) {
+                    storage.readRange((DoubleField) field, theFrom, to, doubles);
+                } else {
+                    storage.gather((DoubleField) field, theIndexes, doubles);
+                }
+            } else if (field instanceof FloatField) {
+                final float[] values = (float[]) raw;
+                if (theIndexes == null) {
+                    storage.readRange((FloatField) field, theFrom, to, values);
+                } else {
+                    storage.gather((FloatField) field, theIndexes, values);
+                }
+                for (int i = 0; i < theCount; i++) {
+                    doubles[i] = values[i];
+                }
+            } else if (field instanceof IntField) {
+                final int[] values = (int[]) raw;
+                if (theIndexes == null) {
+                    storage.readRange((IntField) field, theFrom, to, values);
+                } else {
+                    storage.gather((IntField) field, theIndexes, values);
+                }
+                for (int i = 0; i < theCount; i++) {
+                    set(i, values[i]);
+                }
+            } else if (field instanceof LongField) {
+                // Read directly, if no conversion is needed.
+                final long[] values = raw == null ? longs : (long[]) raw;
+                if (theIndexes == null) {
+                    storage.readRange((LongField) field, theFrom, to, values);
+                } else {
+                    storage.gather((LongField) field, theIndexes, values);
+                }
+                if (raw != null) {
+                    for (int i = 0; i < theCount; i++) {
+                        doubles[i] = values[i];
+                    }
+                }
+            } else {
+                final short[] values = (short[]) raw;
+                if (theIndexes == null) {
+                    storage.readRange((ShortField) field, theFrom, to, values);
+                } else {
+                    storage.gather((ShortField) field, theIndexes, values);
+                }
+                for (int i = 0; i < theCount; i++) {
+                    set(i, values[i]);
+                }
+            }
+        }
+
+        /** Stores one (integral) value. */
+        @SuppressWarnings("null")
+        private void set(final int theIndex, final long theValue) {
+            if (longs == null) {
+                doubles[theIndex] = theValue;
+            } else {
+                longs[theIndex] = theValue;
+            }
+        }
+    }
+
+    /** The number of structures read at once. */
+    private static final int CHUNK = 1024;
+
+    /** Computes the statistics of values read as double. */
+    private static final Aggregator<DoubleStatistics> DOUBLE_STATISTICS = new Aggregator<DoubleStatistics>(
+            true) {
+        @SuppressWarnings("null")
+        @Override
+        DoubleStatistics aggregate(final DoubleStatistics theResult,
+                final Chunk theChunk, final int theCount) {
+            final double[] values = theChunk.doubles;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < theCount; i++) {
+                final double value = values[i];
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            return theResult.add(new DoubleStatistics(theCount, sum, min, max));
+        }
+
+        @Override
+        DoubleStatistics combine(final DoubleStatistics theFirst,
+                final DoubleStatistics theSecond) {
+            return theFirst.add(theSecond);
+        }
+
+        @Override
+        DoubleStatistics empty() {
+            return DoubleStatistics.EMPTY;
+        }
+    };
+
+    /** Computes the statistics of values read as long. */
+    private static final Aggregator<LongStatistics> LONG_STATISTICS = new Aggregator<LongStatistics>(
+            false) {
+        @SuppressWarnings("null")
+        @Override
+        LongStatistics aggregate(final LongStatistics theResult,
+                final Chunk theChunk, final int theCount) {
+            final long[] values = theChunk.longs;
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < theCount; i++) {
+                final long value = values[i];
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            return theResult.add(new LongStatistics(theCount, sum, min, max));
+        }
+
+        @Override
+        LongStatistics combine(final LongStatistics theFirst,
+                final LongStatistics theSecond) {
+            return theFirst.add(theSecond);
+        }
+
+        @Override
+        LongStatistics empty() {
+            return LongStatistics.EMPTY;
+        }
+    };
+
+    /** The minimum number of structures, aggregated by each parallel task. */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /** Computes an aggregate, in parallel if possible. */
+    private static <R> R compute(final Aggregator<R> theAggregator,
+            final Storage theStorage, final Field<?, ?> theField,
+            @Nullable final long[] theBitmap, final int theFrom,
+            final int theTo) {
+        checkNotNull(theStorage);
+        checkNotNull(theField);
+        checkArgument(theFrom >= 0 && theFrom <= theTo, "Invalid range");
+        final boolean parallel = theStorage instanceof AbstractStorage
+                && ((AbstractStorage) theStorage).concurrentBulkRead()
+                && theTo - theFrom > PARALLEL_THRESHOLD;
+        final AggregateTask<R> task = new AggregateTask<>(theAggregator,
+                theStorage, theField, theBitmap, theFrom, theTo, parallel);
+        return parallel ? StorageTasks.pool().invoke(task) : task.compute();
+    }
+
+    /** Returns the structures to aggregate, for a bitmap. */
+    private static int bitmapEnd(final Storage theStorage,
+            final long[] theBitmap) {
+        return (int) Math.min((long) theBitmap.length * Long.SIZE,
+                theStorage.getSize());
+    }
+
+    /** Computes a histogram of the values of an integral field. */
+    private static long[] histogram(final Storage theStorage,
+            final Field<?, ?> theField, @Nullable final long[] theBitmap,
+            final int theFrom, final int theTo, final long theMin,
+            final long theBucketWidth, final int theBuckets) {
+        checkArgument(theBucketWidth > 0, "Invalid bucket width: "
+                + theBucketWidth);
+        checkArgument(theBuckets > 0, "Invalid bucket count: " + theBuckets);
+        return compute(new Aggregator<long[]>(false) {
+            @SuppressWarnings("null")
+            @Override
+            long[] aggregate(final long[] theResult, final Chunk theChunk,
+                    final int theCount) {
+                final long[] values = theChunk.longs;
+                final int lastBucket = theBuckets - 1;
+                for (int i = 0; i < theCount; i++) {
+                    final long value = values[i];
+                    final long bucket = value < theMin ? 0 : (value - theMin)
+                            / theBucketWidth;
+                    theResult[(int) Math.min(bucket, lastBucket)]++;
+                }
+                return theResult;
+            }
+
+            @Override
+            long[] combine(final long[] theFirst, final long[] theSecond) {
+                for (int i = 0; i < theBuckets; i++) {
+                    theFirst[i] += theSecond[i];
+                }
+                return theFirst;
+            }
+
+            @Override
+            long[] empty() {
+                return new long[theBuckets];
+            }
+        }, theStorage, theField, theBitmap, theFrom, theTo);
+    }
+
+    /** No instances. */
+    private Aggregates() {
+        // NOP
+    }
+
+    /** Computes the statistics of a numeric field, over the structures
+     * selected by the bitmap. */
+    public static DoubleStatistics doubleStatistics(final Storage theStorage,
+            final Field<?, ?> theField, final long[] theBitmap) {
+        return compute(DOUBLE_STATISTICS, theStorage, theField, theBitmap, 0,
+                bitmapEnd(theStorage, theBitmap));
+    }
+
+    /** Computes the statistics of a numeric field, over the structures
+     * theFrom (inclusive) to theTo (exclusive). */
+    public static DoubleStatistics doubleStatistics(final Storage theStorage,
+            final Field<?, ?> theField, final int theFrom, final int theTo) {
+        return compute(DOUBLE_STATISTICS, theStorage, theField, null, theFrom,
+                theTo);
+    }
+
+    /**
+     * Computes a histogram of an integral field, over the structures selected
+     * by the bitmap. Bucket i counts the values from theMin + i *
+     * theBucketWidth (inclusive) to theMin + (i + 1) * theBucketWidth
+     * (exclusive). The values below theMin are counted in the first bucket,
+     * and the values above the last bucket are counted in the last bucket.
+     */
+    public static long[] histogram(final Storage theStorage,
+            final Field<?, ?> theField, final long[] theBitmap,
+            final long theMin, final long theBucketWidth, final int theBuckets) {
+        return histogram(theStorage, theField, theBitmap, 0,
+                bitmapEnd(theStorage, theBitmap), theMin, theBucketWidth,
+                theBuckets);
+    }
+
+    /** Computes a histogram of an integral field, over the structures theFrom
+     * (inclusive) to theTo (exclusive). See histogram(Storage, Field, long[],
+     * long, long, int). */
+    public static long[] histogram(final Storage theStorage,
+            final Field<?, ?> theField, final int theFrom, final int theTo,
+            final long theMin, final long theBucketWidth, final int theBuckets) {
+        return histogram(theStorage, theField, null, theFrom, theTo, theMin,
+                theBucketWidth, theBuckets);
+    }
+
+    /** Computes the statistics of an integral (or boolean) field, over the
+     * structures selected by the bitmap. */
+    public static LongStatistics longStatistics(final Storage theStorage,
+            final Field<?, ?> theField, final long[] theBitmap) {
+        return compute(LONG_STATISTICS, theStorage, theField, theBitmap, 0,
+                bitmapEnd(theStorage, theBitmap));
+    }
+
+    /** Computes the statistics of an integral (or boolean) field, over the
+     * structures theFrom (inclusive) to theTo (exclusive). */
+    public static LongStatistics longStatistics(final Storage theStorage,
+            final Field<?, ?> theField, final int theFrom, final int theTo) {
+        return compute(LONG_STATISTICS, theStorage, theField, null, theFrom,
+                theTo);
+    }
+}
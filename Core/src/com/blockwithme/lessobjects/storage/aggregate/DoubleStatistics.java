@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.aggregate;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * The count, sum, minimum and maximum of the values of a numeric field, over
+ * some structures. The integral fields are converted to double.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class DoubleStatistics {
+
+    /** The statistics of no value at all. */
+    static final DoubleStatistics EMPTY = new DoubleStatistics(0, 0,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+    /** The number of values. */
+    private final long count;
+
+    /** The largest value. */
+    private final double max;
+
+    /** The smallest value. */
+    private final double min;
+
+    /** The sum of the values. */
+    private final double sum;
+
+    /** Constructor */
+    DoubleStatistics(final long theCount, final double theSum,
+            final double theMin, final double theMax) {
+        count = theCount;
+        sum = theSum;
+        min = theMin;
+        max = theMax;
+    }
+
+    /** Combines these statistics with the statistics of other values. */
+    DoubleStatistics add(final DoubleStatistics theOther) {
+        return new DoubleStatistics(count + theOther.count, sum + theOther.sum,
+                Math.min(min, theOther.min), Math.max(max, theOther.max));
+    }
+
+    /** Returns the number of values. */
+    public long count() {
+        return count;
+    }
+
+    /** Returns the largest value, or -Infinity if there are no values. */
+    public double max() {
+        return max;
+    }
+
+    /** Returns the average value, or NaN if there are no values. */
+    public double mean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /** Returns the smallest value, or +Infinity if there are no values. */
+    public double min() {
+        return min;
+    }
+
+    /** Returns the sum of the values. */
+    public double sum() {
+        return sum;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "DoubleStatistics(count=" + count + ", sum=" + sum + ", min="
+                + min + ", max=" + max + ")";
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.aggregate;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * The count, sum, minimum and maximum of the values of an integral (or
+ * boolean) field, over some structures.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class LongStatistics {
+
+    /** The statistics of no value at all. */
+    static final LongStatistics EMPTY = new LongStatistics(0, 0,
+            Long.MAX_VALUE, Long.MIN_VALUE);
+
+    /** The number of values. */
+    private final long count;
+
+    /** The largest value. */
+    private final long max;
+
+    /** The smallest value. */
+    private final long min;
+
+    /** The sum of the values. */
+    private final long sum;
+
+    /** Constructor */
+    LongStatistics(final long theCount, final long theSum, final long theMin,
+            final long theMax) {
+        count = theCount;
+        sum = theSum;
+        min = theMin;
+        max = theMax;
+    }
+
+    /** Combines these statistics with the statistics of other values. */
+    LongStatistics add(final LongStatistics theOther) {
+        return new LongStatistics(count + theOther.count, sum + theOther.sum,
+                Math.min(min, theOther.min), Math.max(max, theOther.max));
+    }
+
+    /** Returns the number of values. */
+    public long count() {
+        return count;
+    }
+
+    /** Returns the largest value, or Long.MIN_VALUE if there are no values. */
+    public long max() {
+        return max;
+    }
+
+    /** Returns the average value, or NaN if there are no values. */
+    public double mean() {
+        return count == 0 ? Double.NaN : (double) sum / count;
+    }
+
+    /** Returns the smallest value, or Long.MAX_VALUE if there are no values. */
+    public long min() {
+        return min;
+    }
+
+    /** Returns the sum of the values. For boolean fields, this is the number
+     * of true values. */
+    public long sum() {
+        return sum;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "LongStatistics(count=" + count + ", sum=" + sum + ", min="
+                + min + ", max=" + max + ")";
+    }
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.aligned64;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.SimpleSizingStrategy;
+import com.blockwithme.lessobjects.storage.SparseIndex;
+import com.blockwithme.lessobjects.storage.SparseStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.StorageSizingStrategy;
+
+/**
+ * Sparse version of the Aligned64CompositeStorage, which maps the structures to
+ * their slots with a SparseIndex (a presence bitmap), instead of a hash map.
+ * Selecting a structure does not hash, and clearing a structure only frees
+ * its slot; the other structures are never moved.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class Aligned64BitmapSparseStorage extends
+        Aligned64CompositeStorage implements SparseStorage {
+
+    /** The index. */
+    private final transient SparseIndex index = new SparseIndex();
+
+    /** The primary index. */
+    private int primaryIndex;
+
+    /** Set while resizing, so that the selection does not change. */
+    private transient boolean resizing;
+
+    /** The selected flag. */
+    private boolean selected;
+
+    /** The Strategy. */
+    private final transient StorageSizingStrategy strategy = new SimpleSizingStrategy();
+
+    /** Constructor */
+    Aligned64BitmapSparseStorage(final Struct theStruct,
+            final int theInitialCapacity,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final Arity theArity) {
+        super(theStruct, theInitialCapacity, theBaseStorage, isTransactional,
+                theArity);
+    }
+
+    /** Constructor */
+    public Aligned64BitmapSparseStorage(final Struct theStruct,
+            final int theInitialCapacity, final boolean isTransactional,
+            final Arity theArity) {
+        this(theStruct, theInitialCapacity, (Storage) null, isTransactional,
+                theArity);
+    }
+
+    /** Resizes the storage, without changing the selection. */
+    private void resize(final int theNewCapacity) {
+        resizing = true;
+        try {
+            resizeStorage(theNewCapacity);
+        } finally {
+            resizing = false;
+        }
+    }
+
+    /** Allocates space for a new element. */
+    private int selectNew(final int theStructure) {
+        checkState(index.size() < strategy.max(),
+                "Storage cannot be contain more than " + strategy.max()
+                        + " elements");
+        final int slot = index.add(theStructure);
+        if (slot >= capacity) {
+            resize(capacity
+                    + Math.max(strategy.grow(capacity, 1), slot + 1 - capacity));
+        }
+        return slot;
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected Storage blankCopy() {
+        return new Aligned64BitmapSparseStorage(struct, capacity,
+                isSecondary ? baseStorage : null, !transactionsDisabled, arity);
+    }
+
+    /** Only renumbers the structures; their slots, and the children in
+     * their slots, do not move. */
+    @Override
+    protected void permuteStructures(final int[] theOrder,
+            final int[] theInverse) {
+        index.renumber(theInverse);
+        selected = false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        final int slot = index.slot(theStructure);
+        // A missing structure reads as zero, like a newly added one.
+        return slot < 0 ? 0 : super.rawRead(theField, slot);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        int slot = index.slot(theStructure);
+        if (slot < 0) {
+            slot = selectNew(theStructure);
+        }
+        return super.rawWrite(theField, slot, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void checkAccess(final Field<?, ?> theField) {
+        checkState(selected,
+                "Error while reading sparse storage, element not selected");
+        super.checkAccess(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clear() {
+        assert selected;
+        super.clear();
+        index.remove(primaryIndex);
+        final int shrinkSize = Math.min(
+                strategy.shrink(capacity, index.size()),
+                capacity - Math.max(index.slotLimit(), strategy.min()));
+        if (shrinkSize > 0) {
+            resize(capacity - shrinkSize);
+        }
+        selected = false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean contains(final int theIndex) {
+        return index.contains(theIndex);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void copyStorage(final Storage theOther,
+            final SchemaMigrator theSchemaMigrator) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
+            super.copyStorage(theOther, theSchemaMigrator);
+        } else {
+            final Aligned64BitmapSparseStorage otherStorage = (Aligned64BitmapSparseStorage) theOther;
+            if (otherStorage.capacity < capacity) {
+                otherStorage.resize(capacity);
+            }
+            super.copyStorage(theOther, theSchemaMigrator);
+            index.copyTo(otherStorage.index);
+            otherStorage.primaryIndex = primaryIndex;
+            otherStorage.selected = false;
+            if (selected) {
+                otherStorage.selectStructure(primaryIndex);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int currentSize() {
+        return index.size();
+    }
+
+    /** Returns the selected structure index, rather than its slot, so that
+     * the change records can be replayed with selectStructure(). */
+    @Override
+    public int getSelectedStructure() {
+        return primaryIndex;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getSize() {
+        return strategy.max();
+    }
+
+    /** Returns the index, which allows iterating over the present structures,
+     * in index order. */
+    public SparseIndex index() {
+        return index;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectStructure(final int theStructure) {
+        if (resizing) {
+            // resizeStorage() re-selects the current structure.
+            return true;
+        }
+        int slot = index.slot(theStructure);
+        if (slot < 0) {
+            slot = selectNew(theStructure);
+        }
+        primaryIndex = theStructure;
+        structure = slot;
+        selectSlot(slot);
+        selected = true;
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int[] structures() {
+        final int[] result = new int[index.size()];
+        int structure = -1;
+        for (int i = 0; i < result.length; i++) {
+            structure = index.nextStructure(structure + 1);
+            result[i] = structure;
+        }
+        return result;
+    }
+}
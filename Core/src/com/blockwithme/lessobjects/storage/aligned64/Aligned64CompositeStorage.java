@@ -56,7 +56,11 @@ public class Aligned64CompositeStorage extends Aligned64Storage {
                 final int theInitialCapacity,
                 @Nullable final Storage theBaseStorage,
                 final boolean theTransactionalFlag) {
-
+            if (theStruct.bitmapIndexed()) {
+                return new Aligned64BitmapSparseStorage(theStruct,
+                        theInitialCapacity, theBaseStorage,
+                        theTransactionalFlag, Arity.ONE_D);
+            }
             return new Aligned64SparseStorage(theStruct, theInitialCapacity,
                     theBaseStorage, theTransactionalFlag, Arity.ONE_D);
         }
@@ -133,6 +137,14 @@ public class Aligned64CompositeStorage extends Aligned64Storage {
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected void permuteStructures(final int[] theOrder,
+            final int[] theInverse) {
+        super.permuteStructures(theOrder, theInverse);
+        optionalStorage.permute(theOrder, theInverse);
+    }
+
     /** {@inheritDoc} */
     @Override
     public void clearChild(final Struct theChild) {
@@ -148,7 +160,7 @@ public class Aligned64CompositeStorage extends Aligned64Storage {
     @Override
     public void copyStorage(final Storage theOther,
             final SchemaMigrator theSchemaMigrator) {
-        if (isDifferent(theOther)) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
             super.copyStorage(theOther, theSchemaMigrator);
         } else {
             // calls Aligned64Storage.copyStorage first then copies
@@ -17,6 +17,8 @@ package com.blockwithme.lessobjects.storage.aligned64;
 
 import static com.google.common.base.Preconditions.checkState;
 
+import java.util.Arrays;
+
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -29,9 +31,9 @@ import com.blockwithme.lessobjects.storage.SparseStorage;
 import com.blockwithme.lessobjects.storage.Storage;
 import com.blockwithme.lessobjects.storage.StorageBuilder;
 import com.blockwithme.lessobjects.storage.StorageSizingStrategy;
-import com.blockwithme.lessobjects.util.StructConstants;
 import com.carrotsearch.hppc.IntIntOpenHashMap;
 import com.carrotsearch.hppc.IntStack;
+import com.carrotsearch.hppc.cursors.IntIntCursor;
 
 /**
  * Implements the storage for the aligned 64 compiler which is Automatically
@@ -53,6 +55,9 @@ public class Aligned64SparseStorage extends Aligned64CompositeStorage implements
     /** The primary index. */
     private int primaryIndex;
 
+    /** Set while resizing, so that the selection does not change. */
+    private transient boolean resizing;
+
     /** The is selected. */
     private boolean selected;
 
@@ -86,6 +91,17 @@ public class Aligned64SparseStorage extends Aligned64CompositeStorage implements
         this(theStruct, theInitialCapacity, null, isTransactional, theArity);
     }
 
+    /** Resizes the storage, without adding the selected slot as a
+     * structure. */
+    private void resize(final int theNewCapacity) {
+        resizing = true;
+        try {
+            resizeStorage(theNewCapacity);
+        } finally {
+            resizing = false;
+        }
+    }
+
     /** Allocates space for a new element. */
     private int selectNew(final int theStructure) {
         final int secondaryIndex = indexMap.size() > 0 ? indexMap
@@ -93,7 +109,7 @@ public class Aligned64SparseStorage extends Aligned64CompositeStorage implements
         if (secondaryIndex >= capacity) {
             if (secondaryIndex <= strategy.max()) {
                 final int growBy = strategy.grow(capacity, 1);
-                resizeStorage(capacity + growBy);
+                resize(capacity + growBy);
             } else {
                 throw new IllegalStateException(
                         "Storage cannot be contain more than " + strategy.max()
@@ -116,6 +132,53 @@ public class Aligned64SparseStorage extends Aligned64CompositeStorage implements
         return result;
     }
 
+    /** Only renumbers the structures; their slots, and the children in
+     * their slots, do not move. */
+    @Override
+    protected void permuteStructures(final int[] theOrder,
+            final int[] theInverse) {
+        final IntIntOpenHashMap permuted = new IntIntOpenHashMap();
+        for (final IntIntCursor entry : indexMap) {
+            final int key = entry.key;
+            permuted.put(key < theInverse.length ? theInverse[key] : key,
+                    entry.value);
+        }
+        indexMap = permuted;
+        for (int i = 0; i < lastInserted.size(); i++) {
+            final int key = lastInserted.get(i);
+            if (key < theInverse.length) {
+                lastInserted.set(i, theInverse[key]);
+            }
+        }
+        selected = false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        // A missing structure reads as zero, like a newly added one.
+        return indexMap.containsKey(theStructure) ? super.rawRead(theField,
+                indexMap.get(theStructure)) : 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        // Adding a structure can resize the storage, so we go through the
+        // selection, and restore it afterwards.
+        final int oldPrimaryIndex = primaryIndex;
+        final boolean oldSelected = selected;
+        selectStructure(theStructure);
+        final long result = super.rawWrite(theField, structure, theValue);
+        if (oldSelected) {
+            selectStructure(oldPrimaryIndex);
+        } else {
+            selected = false;
+        }
+        return result;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void checkAccess(final Field<?, ?> theField) {
@@ -136,20 +199,13 @@ public class Aligned64SparseStorage extends Aligned64CompositeStorage implements
         final int lastStructure = indexMap.get(lastIndex);
         if (structure < lastStructure) {
             // replacing Values from last index into the current slots.
-            final int end = structureIndex
-                    + (int) (structSize / StructConstants.LONG_BITS);
-            final long lastIndexPosition = lastStructure * structSize;
-            final int lastStructureIndex = (int) (lastIndexPosition / StructConstants.LONG_BITS);
-            for (int i = structureIndex, j = 0; i < end; i++, j++) {
-                array[i] = array[lastStructureIndex + j];
-                array[lastStructureIndex + j] = 0;
-            }
+            moveSlot(lastStructure, structure);
             indexMap.put(lastIndex, structure);
         }
         indexMap.remove(primaryIndex);
         final int shrinkSize = strategy.shrink(capacity, indexMap.size());
         if (shrinkSize > 0) {
-            resizeStorage(capacity - shrinkSize);
+            resize(capacity - shrinkSize);
         }
         selected = false;
     }
@@ -165,18 +221,28 @@ public class Aligned64SparseStorage extends Aligned64CompositeStorage implements
     @SuppressWarnings("null")
     public void copyStorage(final Storage theOther,
             final SchemaMigrator theSchemaMigrator) {
-        if (isDifferent(theOther)) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
             // Call AbstractStorage.copyStorage method.
             super.copyStorage(theOther, theSchemaMigrator);
         } else {
             // calls Aligned64Storage.copyStorage first then copies
             // the index maps etc..
-            super.copyStorage(theOther, theSchemaMigrator);
             final Aligned64SparseStorage otheStorage = (Aligned64SparseStorage) theOther;
+            if (otheStorage.capacity < capacity) {
+                otheStorage.resize(capacity);
+            }
+            super.copyStorage(theOther, theSchemaMigrator);
+            // The selection, in Aligned64Storage.copyStorage, added a
+            // structure to theOther.
+            otheStorage.indexMap.clear();
+            otheStorage.lastInserted.clear();
             otheStorage.indexMap.putAll(indexMap);
             otheStorage.lastInserted.pushAll(lastInserted);
             otheStorage.primaryIndex = primaryIndex;
-            otheStorage.selected = selected;
+            otheStorage.selected = false;
+            if (selected) {
+                otheStorage.selectStructure(primaryIndex);
+            }
         }
     }
 
@@ -207,6 +273,10 @@ public class Aligned64SparseStorage extends Aligned64CompositeStorage implements
     /** {@inheritDoc} */
     @Override
     public boolean selectStructure(final int theStructure) {
+        if (resizing) {
+            // resizeStorage() re-selects the current slot.
+            return true;
+        }
         int secondaryIndex;
         if (indexMap.containsKey(theStructure)) {
             secondaryIndex = indexMap.lget();
@@ -215,9 +285,17 @@ public class Aligned64SparseStorage extends Aligned64CompositeStorage implements
         }
         primaryIndex = theStructure;
         structure = secondaryIndex;
-        structurePosition = secondaryIndex * structSize;
-        structureIndex = (int) (structurePosition / StructConstants.LONG_BITS);
+        selectSlot(secondaryIndex);
         selected = true;
         return true;
     }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    public int[] structures() {
+        final int[] result = indexMap.keys().toArray();
+        Arrays.sort(result);
+        return result;
+    }
 }
@@ -16,10 +16,14 @@
 package com.blockwithme.lessobjects.storage.aligned64;
 
 import static com.blockwithme.lessobjects.util.StructConstants.EMPTY_OBJ_ARR;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import com.blockwithme.lessobjects.Field;
 import com.blockwithme.lessobjects.SchemaMigrator;
 import com.blockwithme.lessobjects.Struct;
 import com.blockwithme.lessobjects.fields.primitive.BooleanField;
@@ -33,6 +37,8 @@ import com.blockwithme.lessobjects.fields.primitive.ShortField;
 import com.blockwithme.lessobjects.multidim.Arity;
 import com.blockwithme.lessobjects.storage.AbstractStorage;
 import com.blockwithme.lessobjects.storage.BaseLongStorage;
+import com.blockwithme.lessobjects.storage.ChangeType;
+import com.blockwithme.lessobjects.storage.SparseStorage;
 import com.blockwithme.lessobjects.storage.Storage;
 import com.blockwithme.lessobjects.storage.StorageBuilder;
 import com.blockwithme.lessobjects.util.StructConstants;
@@ -54,6 +60,11 @@ import com.blockwithme.lessobjects.util.StructConstants;
  * them, would reduce the number of calls to 1 in both case, which would speed
  * up things, in particular of that call could be made "final".
  *
+ * Structures smaller than 64 bits use a power-of-two slot (1, 2, 4, 8, 16 or
+ * 32 bits), so that 64/slot structures share a word, while no field ever lies
+ * across a word boundary. The storage then shifts the selected word by the
+ * position of the structure within it.
+ *
  * @author monster, tarung
  */
 // CHECKSTYLE.OFF: IllegalType
@@ -63,13 +74,46 @@ public class Aligned64Storage extends BaseLongStorage {
     /** The init defaults. */
     private final boolean initDefaults;
 
+    /** The position of the selected structure, within its word, in bits. */
+    protected int structureShift;
+
     /** Computes the array size, given a structure size, and a number of
      * structure. */
     public static long[] createArray(final int theCount, final long theSize) {
 
-        final long adjustedSize = adjustStructSize(theSize);
+        final long adjustedSize = slotSize(theSize);
         final long bits = adjustedSize * theCount;
-        return new long[(int) (bits / StructConstants.LONG_BITS)];
+        return new long[(int) (
+                (bits + StructConstants.LONG_BITS - 1) / StructConstants.LONG_BITS)];
+    }
+
+    /** Converts an array in the older layout, where each structure smaller
+     * than 64 bits used a whole long, to the slot layout. */
+    public static long[] fromWordLayout(final long[] theWords,
+            final long theSize) {
+        final long slot = slotSize(theSize);
+        if (slot % StructConstants.LONG_BITS == 0) {
+            // Same layout
+            return theWords;
+        }
+        final long[] result = createArray(theWords.length, theSize);
+        final long mask = -1L >>> StructConstants.LONG_BITS - slot;
+        for (int i = 0; i < theWords.length; i++) {
+            final long position = i * slot;
+            result[(int) (position / StructConstants.LONG_BITS)] |=
+                    (theWords[i] & mask) << position;
+        }
+        return result;
+    }
+
+    /** Returns the number of bits used by each structure of the given size:
+     * the next power of two for structures smaller than 64 bits, and the
+     * next multiple of 64 otherwise. */
+    public static long slotSize(final long theSize) {
+        if (theSize > 0 && theSize < StructConstants.LONG_BITS) {
+            return Long.highestOneBit(theSize * 2 - 1);
+        }
+        return adjustStructSize(theSize);
     }
 
     /** The Actual constructor with private level access, also used by at the time of de-serialization. */
@@ -79,7 +123,7 @@ public class Aligned64Storage extends BaseLongStorage {
             final boolean theTransactionalFlag,
             final boolean theDefaultInitializationFlag, final Arity theArity) {
 
-        super(theStruct, theArray, adjustStructSize(theSize), theCapacity,
+        super(theStruct, theArray, slotSize(theSize), theCapacity,
                 theBaseStorage, theTransactionalFlag, theArity);
         initDefaults = theDefaultInitializationFlag;
     }
@@ -102,8 +146,9 @@ public class Aligned64Storage extends BaseLongStorage {
     /** Constructor uses a builder object to create the storage. */
     public Aligned64Storage(final StorageBuilder theBuilder) {
 
-        super(theBuilder);
+        super(theBuilder, slotSize(theBuilder.getStruct().bits()));
         initDefaults = false;
+        structureShift = (int) (structurePosition % StructConstants.LONG_BITS);
     }
 
     /** Constructor which creates the array itself */
@@ -126,6 +171,388 @@ public class Aligned64Storage extends BaseLongStorage {
         return result;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final BooleanField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final boolean[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = rawRead(theField, structure) != 0;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final ByteField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final byte[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (byte) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final CharField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final char[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (char) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final DoubleField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final double[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = Double.longBitsToDouble(rawRead(theField,
+                    structure));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final FloatField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final float[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = Float.intBitsToFloat((int) rawRead(theField,
+                    structure));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final IntField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final int[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (int) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final LongField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final long[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final ShortField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final short[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (short) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final BooleanField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final boolean[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final boolean value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value ? 1L : 0L);
+            if (transactions) {
+                final boolean oldValue = oldRaw != 0;
+                if (oldValue != value) {
+                    publishChange((BooleanField) theField,
+                            ChangeType.BOOLEAN_FIELD, value, oldValue,
+                            structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final ByteField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final byte[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final byte value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final byte oldValue = (byte) oldRaw;
+                if (oldValue != value) {
+                    publishChange((ByteField) theField, ChangeType.BYTE_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final CharField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final char[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final char value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final char oldValue = (char) oldRaw;
+                if (oldValue != value) {
+                    publishChange((CharField) theField, ChangeType.CHAR_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final DoubleField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final double[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final double value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure,
+                    Double.doubleToRawLongBits(value));
+            if (transactions) {
+                final double oldValue = Double.longBitsToDouble(oldRaw);
+                if (oldValue != value) {
+                    publishChange((DoubleField) theField,
+                            ChangeType.DOUBLE_FIELD, value, oldValue,
+                            structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final FloatField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final float[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final float value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure,
+                    Float.floatToRawIntBits(value));
+            if (transactions) {
+                final float oldValue = Float.intBitsToFloat((int) oldRaw);
+                if (oldValue != value) {
+                    publishChange((FloatField) theField, ChangeType.FLOAT_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final IntField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final int[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final int value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final int oldValue = (int) oldRaw;
+                if (oldValue != value) {
+                    publishChange((IntField) theField, ChangeType.INT_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final LongField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final long[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final long value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final long oldValue = oldRaw;
+                if (oldValue != value) {
+                    publishChange((LongField) theField, ChangeType.LONG_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final ShortField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final short[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final short value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final short oldValue = (short) oldRaw;
+                if (oldValue != value) {
+                    publishChange((ShortField) theField, ChangeType.SHORT_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void clearAllChildren() {
@@ -140,12 +567,80 @@ public class Aligned64Storage extends BaseLongStorage {
                 !transactionsDisabled, Arity.ONE_D);
     }
 
+    /** Moves the primitive fields of the structure in one slot to another
+     * slot, and clears the source slot. */
+    protected final void moveSlot(final int theSource, final int theTarget) {
+        final long source = theSource * structSize;
+        final long target = theTarget * structSize;
+        final int sourceIndex = (int) (source / StructConstants.LONG_BITS);
+        final int targetIndex = (int) (target / StructConstants.LONG_BITS);
+        if (structSize >= StructConstants.LONG_BITS) {
+            final int words = (int) (structSize / StructConstants.LONG_BITS);
+            System.arraycopy(array, sourceIndex, array, targetIndex, words);
+            Arrays.fill(array, sourceIndex, sourceIndex + words, 0L);
+        } else {
+            final long mask = mask((int) structSize);
+            final int sourceShift = (int) (source % StructConstants.LONG_BITS);
+            final int targetShift = (int) (target % StructConstants.LONG_BITS);
+            final long bits = array[sourceIndex] >>> sourceShift & mask;
+            array[sourceIndex] &= ~(mask << sourceShift);
+            array[targetIndex] = array[targetIndex] & ~(mask << targetShift)
+                    | bits << targetShift;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        final long position = theStructure * structSize;
+        final int arrayIndex = (int) (position / StructConstants.LONG_BITS)
+                + theField.offsetDiv64();
+        final int shift = (int) (position % StructConstants.LONG_BITS);
+        return (array[arrayIndex] >>> shift & theField.mask64()) >> theField
+                .offsetMod64();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        final long position = theStructure * structSize;
+        final int arrayIndex = (int) (position / StructConstants.LONG_BITS)
+                + theField.offsetDiv64();
+        final int shift = (int) (position % StructConstants.LONG_BITS);
+        final long word = array[arrayIndex];
+        array[arrayIndex] = word & ~(theField.mask64() << shift)
+                | (theValue << theField.offsetMod64() & theField.mask64())
+                << shift;
+        return (word >>> shift & theField.mask64()) >> theField.offsetMod64();
+    }
+
+    /** Positions the storage on the structure stored in the given slot. */
+    protected final void selectSlot(final int theSlot) {
+        structurePosition = theSlot * structSize;
+        structureIndex = (int) (structurePosition / StructConstants.LONG_BITS);
+        structureShift = (int) (structurePosition % StructConstants.LONG_BITS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean concurrentBulkRead() {
+        return !(this instanceof SparseStorage);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int concurrentWriteGranularity() {
+        return this instanceof SparseStorage ? 0
+                : alignedStructures(StructConstants.LONG_BITS);
+    }
+
     /** {@inheritDoc} */
     @Override
     @SuppressWarnings("null")
     public void copyStorage(final Storage theOther,
             final SchemaMigrator theSchemaMigrator) {
-        if (isDifferent(theOther)) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
             // call AbstractStorage.copyStorage method.
             super.copyStorage(theOther, theSchemaMigrator);
         } else {
@@ -156,6 +651,7 @@ public class Aligned64Storage extends BaseLongStorage {
                         otherStorage.objectStorageObjects);
             }
             otherStorage.selectStructure(getSelectedStructure());
+            otherStorage.rebuildIndexes();
         }
     }
 
@@ -186,23 +682,23 @@ public class Aligned64Storage extends BaseLongStorage {
     @Override
     public <F extends BooleanField<?, F>> boolean readBoolean(final F theField) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        return (array[arrayIndex] & theField.mask64()) != 0;
+        return (array[arrayIndex] >>> structureShift & theField.mask64()) != 0;
     }
 
     /** {@inheritDoc} */
     @Override
     public <F extends ByteField<?, F>> byte readByte(final F theField) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        return (byte) ((array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64());
+        return (byte) ((array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64());
     }
 
     /** {@inheritDoc} */
     @Override
     public <F extends CharField<?, F>> char readChar(final F theField) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        return (char) ((array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64());
+        return (char) ((array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64());
     }
 
     /** {@inheritDoc} */
@@ -216,32 +712,32 @@ public class Aligned64Storage extends BaseLongStorage {
     @Override
     public <F extends FloatField<?, F>> float readFloat(final F theField) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        return Float.intBitsToFloat((int) ((array[arrayIndex] & theField
-                .mask64()) >> theField.offsetMod64()));
+        return Float.intBitsToFloat((int) ((array[arrayIndex] >>> structureShift
+                & theField.mask64()) >> theField.offsetMod64()));
     }
 
     /** {@inheritDoc} */
     @Override
     public <F extends IntField<?, F>> int readInt(final F theField) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        return (int) ((array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64());
+        return (int) ((array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64());
     }
 
     /** {@inheritDoc} */
     @Override
     public <F extends LongField<?, F>> long readLong(final F theField) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        return (array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64();
+        return (array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64();
     }
 
     /** {@inheritDoc} */
     @Override
     public <F extends ShortField<?, F>> short readShort(final F theField) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        return (short) ((array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64());
+        return (short) ((array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64());
     }
 
     /** {@inheritDoc} */
@@ -280,19 +776,31 @@ public class Aligned64Storage extends BaseLongStorage {
                 // select last element. here
                 selectStructure(theNewCapacity - 1);
             }
+            rebuildIndexes();
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectStructure(final int theStructure) {
+        checkArgument(theStructure < getCapacity(),
+                "Storage capacity is less then the element index passed!");
+        structure = theStructure;
+        selectSlot(theStructure);
+        return true;
+    }
+
     /** {@inheritDoc} */
     @Override
     public <F extends BooleanField<?, F>> boolean writeImpl(final F theField,
             final boolean theValue) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        final boolean oldValue = (array[arrayIndex] & theField.mask64()) != 0;
+        final boolean oldValue = (array[arrayIndex] >>> structureShift & theField
+                .mask64()) != 0;
         if (theValue) {
-            array[arrayIndex] |= theField.mask64();
+            array[arrayIndex] |= theField.mask64() << structureShift;
         } else {
-            array[arrayIndex] &= theField.negMask64();
+            array[arrayIndex] &= ~(theField.mask64() << structureShift);
         }
         return oldValue;
     }
@@ -302,11 +810,13 @@ public class Aligned64Storage extends BaseLongStorage {
     public <F extends ByteField<?, F>> byte writeImpl(final F theField,
             final byte theValue) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        final byte oldValue = (byte) ((array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64());
-        final long tmp = array[arrayIndex] & theField.negMask64();
-        array[arrayIndex] = tmp | (long) theValue << theField.offsetMod64()
-                & theField.mask64();
+        final byte oldValue = (byte) ((array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64());
+        final long tmp = array[arrayIndex]
+                & ~(theField.mask64() << structureShift);
+        array[arrayIndex] = tmp
+                | ((long) theValue << theField.offsetMod64() & theField
+                        .mask64()) << structureShift;
         return oldValue;
     }
 
@@ -315,11 +825,13 @@ public class Aligned64Storage extends BaseLongStorage {
     public <F extends CharField<?, F>> char writeImpl(final F theField,
             final char theValue) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        final char oldValue = (char) ((array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64());
-        final long tmp = array[arrayIndex] & theField.negMask64();
-        array[arrayIndex] = tmp | (long) theValue << theField.offsetMod64()
-                & theField.mask64();
+        final char oldValue = (char) ((array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64());
+        final long tmp = array[arrayIndex]
+                & ~(theField.mask64() << structureShift);
+        array[arrayIndex] = tmp
+                | ((long) theValue << theField.offsetMod64() & theField
+                        .mask64()) << structureShift;
         return oldValue;
     }
 
@@ -339,12 +851,13 @@ public class Aligned64Storage extends BaseLongStorage {
             final float theValue) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
         final float oldValue = Float
-                .intBitsToFloat((int) ((array[arrayIndex] & theField.mask64()) >> theField
-                        .offsetMod64()));
-        final long tmp = array[arrayIndex] & theField.negMask64();
+                .intBitsToFloat((int) ((array[arrayIndex] >>> structureShift & theField
+                        .mask64()) >> theField.offsetMod64()));
+        final long tmp = array[arrayIndex]
+                & ~(theField.mask64() << structureShift);
         array[arrayIndex] = tmp
-                | (long) Float.floatToRawIntBits(theValue) << theField
-                        .offsetMod64() & theField.mask64();
+                | ((long) Float.floatToRawIntBits(theValue) << theField
+                        .offsetMod64() & theField.mask64()) << structureShift;
         return oldValue;
     }
 
@@ -353,11 +866,13 @@ public class Aligned64Storage extends BaseLongStorage {
     public <F extends IntField<?, F>> int writeImpl(final F theField,
             final int theValue) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        final int oldValue = (int) ((array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64());
-        final long tmp = array[arrayIndex] & theField.negMask64();
-        array[arrayIndex] = tmp | (long) theValue << theField.offsetMod64()
-                & theField.mask64();
+        final int oldValue = (int) ((array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64());
+        final long tmp = array[arrayIndex]
+                & ~(theField.mask64() << structureShift);
+        array[arrayIndex] = tmp
+                | ((long) theValue << theField.offsetMod64() & theField
+                        .mask64()) << structureShift;
         return oldValue;
     }
 
@@ -372,11 +887,13 @@ public class Aligned64Storage extends BaseLongStorage {
             return oldValue;
         }
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        final long oldValue = (int) ((array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64());
-        final long tmp = array[arrayIndex] & theField.negMask64();
-        array[arrayIndex] = tmp | theValue << theField.offsetMod64()
-                & theField.mask64();
+        final long oldValue = (array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64();
+        final long tmp = array[arrayIndex]
+                & ~(theField.mask64() << structureShift);
+        array[arrayIndex] = tmp
+                | (theValue << theField.offsetMod64() & theField.mask64())
+                << structureShift;
         return oldValue;
     }
 
@@ -385,11 +902,13 @@ public class Aligned64Storage extends BaseLongStorage {
     public <F extends ShortField<?, F>> short writeImpl(final F theField,
             final short theValue) {
         final int arrayIndex = structureIndex + theField.offsetDiv64();
-        final short oldValue = (short) ((array[arrayIndex] & theField.mask64()) >> theField
-                .offsetMod64());
-        final long tmp = array[arrayIndex] & theField.negMask64();
-        array[arrayIndex] = tmp | (long) theValue << theField.offsetMod64()
-                & theField.mask64();
+        final short oldValue = (short) ((array[arrayIndex] >>> structureShift & theField
+                .mask64()) >> theField.offsetMod64());
+        final long tmp = array[arrayIndex]
+                & ~(theField.mask64() << structureShift);
+        array[arrayIndex] = tmp
+                | ((long) theValue << theField.offsetMod64() & theField
+                        .mask64()) << structureShift;
         return oldValue;
     }
 }
@@ -0,0 +1,464 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.columnar;
+
+import static com.blockwithme.lessobjects.util.StructConstants.EMPTY_OBJ_ARR;
+import static com.blockwithme.lessobjects.util.StructConstants.LONG_BITS;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.BaseWordStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+
+//CHECKSTYLE.OFF: IllegalType
+/**
+ * Implements the storage for the blocked compiler. The structures are grouped
+ * in blocks of Struct.blockSize() structures (a power of two). Inside a block,
+ * the values of each field, for all the structures of the block, are stored
+ * next to each other, like in a ColumnarStorage. The blocks themselves are
+ * stored one after the other, like in a PackedStorage, and start on a word
+ * boundary.
+ *
+ * This is a compromise between the row and the column layouts: kernels that
+ * process a few fields of every structure get contiguous runs of values, and
+ * the fields of one structure are still close to each other.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class BlockedStorage extends BaseWordStorage {
+
+    /** The default number of structures per block. */
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    /** The data. */
+    private long[] array;
+
+    /** The number of structures per block. */
+    private final int blockSize;
+
+    /** log2(blockSize) */
+    private final int blockShift;
+
+    /** The number of bits of a block, rounded up to a multiple of 64. */
+    private final long blockBits;
+
+    /** The bit position of the block of the selected structure. */
+    private long blockPosition;
+
+    /** The index of the selected structure, within its block. */
+    private int blockIndex;
+
+    /** The bit offset of each field, within a block, by unique index. */
+    private final int[] fieldBases;
+
+    /** The number of bits between two structures of a block, for each field,
+     * by unique index. */
+    private final int[] fieldStrides;
+
+    /** The init defaults flag. */
+    private final boolean initDefaults;
+
+    /** Returns the block size to use for a struct. */
+    private static int blockSize(final Struct theStruct) {
+        final int result = theStruct.blockSize();
+        return (result == 0) ? DEFAULT_BLOCK_SIZE : result;
+    }
+
+    /** Constructor */
+    @SuppressWarnings("null")
+    protected BlockedStorage(final Struct theStruct, final int theStorageSize,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final boolean theInitDefaultsFlag,
+            final Arity theArity) {
+        super(theStruct, theStruct.bits(), theStorageSize, theBaseStorage,
+                isTransactional, theArity);
+        initDefaults = theInitDefaultsFlag;
+        blockSize = blockSize(theStruct);
+        checkArgument((blockSize & blockSize - 1) == 0,
+                "Block size must be a power of two: " + blockSize);
+        blockShift = Integer.numberOfTrailingZeros(blockSize);
+        final ColumnLayout layout = new ColumnLayout(theStruct);
+        blockBits = ((long) layout.rowBits * blockSize + LONG_BITS - 1)
+                / LONG_BITS * LONG_BITS;
+        fieldBases = new int[layout.fieldSlots()];
+        fieldStrides = new int[layout.fieldSlots()];
+        for (int u = 0; u < fieldBases.length; u++) {
+            final int c = layout.fieldColumns[u];
+            fieldBases[u] = layout.columnStarts[c] * blockSize
+                    + layout.fieldOffsets[u];
+            fieldStrides[u] = layout.columnStrides[c];
+        }
+        array = new long[words(theStorageSize)];
+    }
+
+    /** Constructor */
+    public BlockedStorage(final Struct theStruct, final int theStorageSize,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final Arity theArity) {
+        this(theStruct, theStorageSize, theBaseStorage, isTransactional, true,
+                theArity);
+    }
+
+    /** Reads the bits of a field, for the selected structure. */
+    private long readBits(final Field<?, ?> theField) {
+        return readBits(theField, blockPosition, blockIndex);
+    }
+
+    /** Reads the bits of a field, for the structure at the given index, in
+     * the block at the given position. */
+    private long readBits(final Field<?, ?> theField,
+            final long theBlockPosition, final int theBlockIndex) {
+        final int u = theField.uniqueIndex();
+        final int bits = theField.bits();
+        final long position = theBlockPosition + fieldBases[u]
+                + (long) theBlockIndex * fieldStrides[u];
+        final int arrayIndex = (int) (position / LONG_BITS);
+        final int bitIndex = (int) (position % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        long value = array[arrayIndex] >>> bitIndex
+                & mask(Math.min(bits, rest));
+        if (bits > rest) {
+            value |= (array[arrayIndex + 1] & mask(bits - rest)) << rest;
+        }
+        return value;
+    }
+
+    /** Computes the number of words needed for some structures. */
+    private int words(final int theCapacity) {
+        final long blocks = ((long) theCapacity + blockSize - 1) >>> blockShift;
+        return (int) (blocks * blockBits / LONG_BITS);
+    }
+
+    /** Writes the bits of a field, for the selected structure, and returns
+     * the old bits. */
+    private long writeBits(final Field<?, ?> theField, final long theValue) {
+        return writeBits(theField, blockPosition, blockIndex, theValue);
+    }
+
+    /** Writes the bits of a field, for the structure at the given index, in
+     * the block at the given position, and returns the old bits. */
+    private long writeBits(final Field<?, ?> theField,
+            final long theBlockPosition, final int theBlockIndex,
+            final long theValue) {
+        final int u = theField.uniqueIndex();
+        final int bits = theField.bits();
+        final long position = theBlockPosition + fieldBases[u]
+                + (long) theBlockIndex * fieldStrides[u];
+        final int arrayIndex = (int) (position / LONG_BITS);
+        final int bitIndex = (int) (position % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        final long valueMask = mask(Math.min(bits, rest));
+        final long before = array[arrayIndex];
+        long oldValue = before >>> bitIndex & valueMask;
+        array[arrayIndex] = before & ~(valueMask << bitIndex)
+                | (theValue & valueMask) << bitIndex;
+        if (bits > rest) {
+            final long valueMask2 = mask(bits - rest);
+            final long before2 = array[arrayIndex + 1];
+            oldValue |= (before2 & valueMask2) << rest;
+            array[arrayIndex + 1] = before2 & ~valueMask2 | theValue >>> rest
+                    & valueMask2;
+        }
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected Storage blankCopy() {
+        return new BlockedStorage(struct, capacity, isSecondary ? baseStorage
+                : null, transactionsEnabled(), false, arity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void clearAllChildren() {
+        // do nothing.
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected AbstractStorage getSingleStorage(final Struct theGlobalStruct) {
+        return new BlockedStorage(theGlobalStruct, 1, this,
+                !transactionsDisabled, Arity.ONE_D);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        return readBits(theField, (long) (theStructure >>> blockShift)
+                * blockBits, theStructure & blockSize - 1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        return writeBits(theField, (long) (theStructure >>> blockShift)
+                * blockBits, theStructure & blockSize - 1, theValue);
+    }
+
+    /**
+     * Returns the raw data. The value of a field, for the structure i, is
+     * stored in the bits starting at ((i / blockSize()) * blockBits() +
+     * fieldBase(theField) + (i % blockSize()) * fieldStride(theField)).
+     * The returned array must not be modified, and is replaced when the
+     * storage is resized.
+     */
+    @SuppressWarnings("null")
+    public long[] array() {
+        return array;
+    }
+
+    /** Returns the number of bits of a block; always a multiple of 64. */
+    public long blockBits() {
+        return blockBits;
+    }
+
+    /** Returns the number of structures per block. */
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void copyStorage(final Storage theOther,
+            final SchemaMigrator theSchemaMigrator) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
+            super.copyStorage(theOther, theSchemaMigrator);
+        } else {
+            final BlockedStorage otherStorage = (BlockedStorage) theOther;
+            System.arraycopy(array, 0, otherStorage.array, 0,
+                    Math.min(array.length, otherStorage.array.length));
+            if (objectStorageObjects != null && objectStorageObjects.length > 0) {
+                copyObjectStorage(struct(), objectStorageObjects,
+                        otherStorage.objectStorageObjects);
+            }
+            otherStorage.selectStructure(getSelectedStructure());
+            otherStorage.rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild,
+            final int theInitialSize) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** Returns the bit offset of a field, within a block. */
+    public int fieldBase(final Field<?, ?> theField) {
+        checkAccess(theField);
+        return fieldBases[theField.uniqueIndex()];
+    }
+
+    /** Returns the number of bits between the values of a field, for two
+     * consecutive structures of a block. */
+    public int fieldStride(final Field<?, ?> theField) {
+        checkAccess(theField);
+        return fieldStrides[theField.uniqueIndex()];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    public Storage list(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean readBoolean(final F theField) {
+        return readBits(theField) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte readByte(final F theField) {
+        return (byte) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char readChar(final F theField) {
+        return (char) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double readDouble(final F theField) {
+        return Double.longBitsToDouble(readBits(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float readFloat(final F theField) {
+        return Float.intBitsToFloat((int) readBits(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int readInt(final F theField) {
+        return (int) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long readLong(final F theField) {
+        return readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short readShort(final F theField) {
+        return (short) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void resizeStorage(final int theNewCapacity) {
+        if (capacity != theNewCapacity) {
+            final long[] newArray = new long[words(theNewCapacity)];
+            System.arraycopy(array, 0, newArray, 0,
+                    Math.min(array.length, newArray.length));
+            array = newArray;
+            Object[] newObjectStore;
+            final int oldCapacity = capacity;
+            capacity = theNewCapacity;
+            final int currentIndex = getSelectedStructure();
+
+            if (objectStorageObjects.length > 0) {
+                newObjectStore = new Object[objectStorageObjects.length];
+            } else {
+                newObjectStore = EMPTY_OBJ_ARR;
+            }
+
+            reInitObjectStorage(struct(), newObjectStore);
+            copyObjectStorage(struct(), objectStorageObjects, newObjectStore);
+            objectStorageObjects = newObjectStore;
+
+            if (capacity > oldCapacity && initDefaults) {
+                for (int i = oldCapacity; i < capacity; i++) {
+                    selectStructure(i);
+                    clear();
+                }
+            }
+            if (currentIndex < theNewCapacity) {
+                selectStructure(currentIndex);
+            } else {
+                selectStructure(theNewCapacity - 1);
+            }
+            rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectStructure(final int theStructure) {
+        checkArgument(theStructure < getCapacity(),
+                "Storage capacity is less then the element index passed!");
+        structure = theStructure;
+        blockPosition = (long) (theStructure >>> blockShift) * blockBits;
+        blockIndex = theStructure & blockSize - 1;
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean writeImpl(final F theField,
+            final boolean theValue) {
+        return writeBits(theField, theValue ? 1 : 0) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte writeImpl(final F theField,
+            final byte theValue) {
+        return (byte) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char writeImpl(final F theField,
+            final char theValue) {
+        return (char) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double writeImpl(final F theField,
+            final double theValue) {
+        return Double.longBitsToDouble(writeBits(theField,
+                Double.doubleToRawLongBits(theValue)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float writeImpl(final F theField,
+            final float theValue) {
+        return Float.intBitsToFloat((int) writeBits(theField,
+                Float.floatToRawIntBits(theValue)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int writeImpl(final F theField,
+            final int theValue) {
+        return (int) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long writeImpl(final F theField,
+            final long theValue) {
+        return writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short writeImpl(final F theField,
+            final short theValue) {
+        return (short) writeBits(theField, theValue);
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.columnar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+
+/**
+ * Splits the fields of a compiled Struct into columns. Every field of
+ * Struct.structFields(), including the fields of the children, gets its own
+ * column, except for unions, where all the fields share a single column,
+ * because they share the same bits.
+ *
+ * The fields are identified by their Field.uniqueIndex().
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+final class ColumnLayout {
+
+    /** The number of bits used by one structure, in each column. */
+    final int[] columnStrides;
+
+    /** The bit offset of each column, if all columns of one structure were
+     * stored one after the other. */
+    final int[] columnStarts;
+
+    /** The column of each field, by unique index. */
+    final int[] fieldColumns;
+
+    /** The bit offset of each field, within the column entry of a structure,
+     * by unique index. */
+    final int[] fieldOffsets;
+
+    /** The sum of all column strides. */
+    final int rowBits;
+
+    /** Collects all the fields of a struct, including the children. */
+    private static void allFields(final Struct theStruct,
+            final List<Field<?, ?>> theFields) {
+        for (final Field<?, ?> f : theStruct.structFields()) {
+            theFields.add(f);
+        }
+        for (final Struct c : theStruct.structChildren()) {
+            if (c != null) {
+                allFields(c, theFields);
+            }
+        }
+    }
+
+    /** Splits the struct fields into columns. Every entry of the result is
+     * the list of fields sharing one column. */
+    private static void splitColumns(final Struct theStruct,
+            final List<List<Field<?, ?>>> theColumns) {
+        if (theStruct.union()) {
+            final List<Field<?, ?>> union = new ArrayList<>();
+            allFields(theStruct, union);
+            if (!union.isEmpty()) {
+                theColumns.add(union);
+            }
+            return;
+        }
+        for (final Field<?, ?> f : theStruct.structFields()) {
+            final List<Field<?, ?>> column = new ArrayList<>();
+            column.add(f);
+            theColumns.add(column);
+        }
+        for (final Struct c : theStruct.structChildren()) {
+            if (c != null) {
+                splitColumns(c, theColumns);
+            }
+        }
+    }
+
+    /** Constructor */
+    @SuppressWarnings("null")
+    ColumnLayout(final Struct theStruct) {
+        final List<List<Field<?, ?>>> split = new ArrayList<>();
+        splitColumns(theStruct, split);
+        int maxUniqueIndex = -1;
+        for (final List<Field<?, ?>> column : split) {
+            for (final Field<?, ?> f : column) {
+                maxUniqueIndex = Math.max(maxUniqueIndex, f.uniqueIndex());
+            }
+        }
+        columnStrides = new int[split.size()];
+        columnStarts = new int[split.size()];
+        fieldColumns = new int[maxUniqueIndex + 1];
+        fieldOffsets = new int[maxUniqueIndex + 1];
+        int bits = 0;
+        for (int c = 0; c < split.size(); c++) {
+            int start = Integer.MAX_VALUE;
+            int end = 0;
+            for (final Field<?, ?> f : split.get(c)) {
+                start = Math.min(start, f.offset());
+                end = Math.max(end, f.offset() + f.bits());
+            }
+            columnStrides[c] = end - start;
+            columnStarts[c] = bits;
+            bits += end - start;
+            for (final Field<?, ?> f : split.get(c)) {
+                final int u = f.uniqueIndex();
+                fieldColumns[u] = c;
+                fieldOffsets[u] = f.offset() - start;
+            }
+        }
+        rowBits = bits;
+    }
+
+    /** Returns the number of columns. */
+    int columnCount() {
+        return columnStrides.length;
+    }
+
+    /** Returns the number of field slots (highest unique index + 1). */
+    int fieldSlots() {
+        return fieldColumns.length;
+    }
+}
@@ -0,0 +1,582 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.columnar;
+
+import static com.blockwithme.lessobjects.util.StructConstants.EMPTY_OBJ_ARR;
+import static com.blockwithme.lessobjects.util.StructConstants.LONG_BITS;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.BaseWordStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+
+//CHECKSTYLE.OFF: IllegalType
+/**
+ * Implements the storage for the columnar compiler. Instead of storing all
+ * the fields of a structure next to each other, every field gets its own
+ * "column": a long array in which the values of that field, for all the
+ * structures, are bit-packed one after the other. Scanning one field over
+ * all structures therefore only touches the memory of that field.
+ *
+ * Unions are the exception: all the fields of a union share a single column,
+ * because they share the same bits.
+ *
+ * The column of a field is found using the Field.uniqueIndex(), which is
+ * unique within a root Struct.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class ColumnarStorage extends BaseWordStorage {
+
+    /** The columns. */
+    private long[][] columns;
+
+    /** The column layout. */
+    private final ColumnLayout layout;
+
+    /** The column array of each field, by unique index. */
+    private long[][] fieldArrays;
+
+    /** The column stride of each field, by unique index. */
+    private final int[] fieldStrides;
+
+    /** The init defaults flag. */
+    private final boolean initDefaults;
+
+    /** Computes the number of words needed by a column. */
+    private static int columnWords(final int theStride, final int theCapacity) {
+        return (int) (((long) theStride * theCapacity + LONG_BITS - 1) / LONG_BITS);
+    }
+
+    /** Constructor */
+    @SuppressWarnings("null")
+    protected ColumnarStorage(final Struct theStruct,
+            final int theStorageSize, @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final boolean theInitDefaultsFlag,
+            final Arity theArity) {
+        super(theStruct, theStruct.bits(), theStorageSize, theBaseStorage,
+                isTransactional, theArity);
+        initDefaults = theInitDefaultsFlag;
+        layout = new ColumnLayout(theStruct);
+        columns = new long[layout.columnCount()][];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = new long[columnWords(layout.columnStrides[c],
+                    theStorageSize)];
+        }
+        fieldStrides = new int[layout.fieldSlots()];
+        for (int u = 0; u < fieldStrides.length; u++) {
+            fieldStrides[u] = layout.columnStrides[layout.fieldColumns[u]];
+        }
+        fieldArrays = new long[layout.fieldSlots()][];
+        updateFieldArrays();
+    }
+
+    /** Constructor */
+    public ColumnarStorage(final Struct theStruct, final int theStorageSize,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final Arity theArity) {
+        this(theStruct, theStorageSize, theBaseStorage, isTransactional, true,
+                theArity);
+    }
+
+    /** Reads the bits of a field, for the selected structure. */
+    private long readBits(final Field<?, ?> theField) {
+        return rawRead(theField, structure);
+    }
+
+    /** Points the fields to the current column arrays. */
+    private void updateFieldArrays() {
+        for (int u = 0; u < fieldArrays.length; u++) {
+            fieldArrays[u] = columns[layout.fieldColumns[u]];
+        }
+    }
+
+    /** Writes the bits of a field, for the selected structure, and returns
+     * the old bits. */
+    private long writeBits(final Field<?, ?> theField, final long theValue) {
+        return rawWrite(theField, structure, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected Storage blankCopy() {
+        return new ColumnarStorage(struct, capacity, isSecondary ? baseStorage
+                : null, transactionsEnabled(), false, arity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final BooleanField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final boolean[] theValues, final int theCount) {
+        if (!checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = rawRead(theField, structure) != 0;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final ByteField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final byte[] theValues, final int theCount) {
+        if (!checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (byte) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final CharField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final char[] theValues, final int theCount) {
+        if (!checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (char) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final DoubleField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final double[] theValues, final int theCount) {
+        if (!checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = Double.longBitsToDouble(rawRead(theField, structure));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final FloatField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final float[] theValues, final int theCount) {
+        if (!checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = Float.intBitsToFloat((int) rawRead(theField, structure));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final IntField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final int[] theValues, final int theCount) {
+        if (!checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (int) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final LongField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final long[] theValues, final int theCount) {
+        if (!checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final ShortField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final short[] theValues, final int theCount) {
+        if (!checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (short) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void clearAllChildren() {
+        // do nothing.
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected AbstractStorage getSingleStorage(final Struct theGlobalStruct) {
+        return new ColumnarStorage(theGlobalStruct, 1, this,
+                !transactionsDisabled, Arity.ONE_D);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        final int u = theField.uniqueIndex();
+        final long[] column = fieldArrays[u];
+        final int bits = theField.bits();
+        final long position = (long) theStructure * fieldStrides[u]
+                + layout.fieldOffsets[u];
+        final int arrayIndex = (int) (position / LONG_BITS);
+        final int bitIndex = (int) (position % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        long value = column[arrayIndex] >>> bitIndex
+                & mask(Math.min(bits, rest));
+        if (bits > rest) {
+            value |= (column[arrayIndex + 1] & mask(bits - rest)) << rest;
+        }
+        return value;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        final int u = theField.uniqueIndex();
+        final long[] column = fieldArrays[u];
+        final int bits = theField.bits();
+        final long position = (long) theStructure * fieldStrides[u]
+                + layout.fieldOffsets[u];
+        final int arrayIndex = (int) (position / LONG_BITS);
+        final int bitIndex = (int) (position % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        final long valueMask = mask(Math.min(bits, rest));
+        final long before = column[arrayIndex];
+        long oldValue = before >>> bitIndex & valueMask;
+        column[arrayIndex] = before & ~(valueMask << bitIndex)
+                | (theValue & valueMask) << bitIndex;
+        if (bits > rest) {
+            final long valueMask2 = mask(bits - rest);
+            final long before2 = column[arrayIndex + 1];
+            oldValue |= (before2 & valueMask2) << rest;
+            column[arrayIndex + 1] = before2 & ~valueMask2 | theValue >>> rest
+                    & valueMask2;
+        }
+        return oldValue;
+    }
+
+    /**
+     * Returns the column of a field. The value of the field, for the
+     * structure i, is stored in the bits starting at
+     * (i * columnStride(theField) + columnOffset(theField)). The returned array
+     * must not be modified, and is replaced when the storage is resized.
+     */
+    @SuppressWarnings("null")
+    public long[] column(final Field<?, ?> theField) {
+        checkAccess(theField);
+        return fieldArrays[theField.uniqueIndex()];
+    }
+
+    /** Returns the bit offset of a field, in the column entry of a structure. */
+    public int columnOffset(final Field<?, ?> theField) {
+        checkAccess(theField);
+        return layout.fieldOffsets[theField.uniqueIndex()];
+    }
+
+    /** Returns the number of bits used by one structure, in the column of a
+     * field. */
+    public int columnStride(final Field<?, ?> theField) {
+        checkAccess(theField);
+        return fieldStrides[theField.uniqueIndex()];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean concurrentBulkRead() {
+        return true;
+    }
+
+    /** Every column starts at a word boundary, so 64 structures always fill
+     * whole words, whatever the width of the field. */
+    @Override
+    public int concurrentWriteGranularity() {
+        return LONG_BITS;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void copyStorage(final Storage theOther,
+            final SchemaMigrator theSchemaMigrator) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
+            super.copyStorage(theOther, theSchemaMigrator);
+        } else {
+            final ColumnarStorage otherStorage = (ColumnarStorage) theOther;
+            for (int c = 0; c < columns.length; c++) {
+                System.arraycopy(columns[c], 0, otherStorage.columns[c], 0,
+                        Math.min(columns[c].length,
+                                otherStorage.columns[c].length));
+            }
+            if (objectStorageObjects != null && objectStorageObjects.length > 0) {
+                copyObjectStorage(struct(), objectStorageObjects,
+                        otherStorage.objectStorageObjects);
+            }
+            otherStorage.selectStructure(getSelectedStructure());
+            otherStorage.rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild,
+            final int theInitialSize) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    public Storage list(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean readBoolean(final F theField) {
+        return readBits(theField) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte readByte(final F theField) {
+        return (byte) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char readChar(final F theField) {
+        return (char) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double readDouble(final F theField) {
+        return Double.longBitsToDouble(readBits(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float readFloat(final F theField) {
+        return Float.intBitsToFloat((int) readBits(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int readInt(final F theField) {
+        return (int) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long readLong(final F theField) {
+        return readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short readShort(final F theField) {
+        return (short) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void resizeStorage(final int theNewCapacity) {
+        if (capacity != theNewCapacity) {
+            for (int c = 0; c < columns.length; c++) {
+                final long[] newColumn = new long[columnWords(
+                        layout.columnStrides[c], theNewCapacity)];
+                System.arraycopy(columns[c], 0, newColumn, 0,
+                        Math.min(columns[c].length, newColumn.length));
+                columns[c] = newColumn;
+            }
+            updateFieldArrays();
+            Object[] newObjectStore;
+            final int oldCapacity = capacity;
+            capacity = theNewCapacity;
+            final int currentIndex = getSelectedStructure();
+
+            if (objectStorageObjects.length > 0) {
+                newObjectStore = new Object[objectStorageObjects.length];
+            } else {
+                newObjectStore = EMPTY_OBJ_ARR;
+            }
+
+            reInitObjectStorage(struct(), newObjectStore);
+            copyObjectStorage(struct(), objectStorageObjects, newObjectStore);
+            objectStorageObjects = newObjectStore;
+
+            if (capacity > oldCapacity && initDefaults) {
+                for (int i = oldCapacity; i < capacity; i++) {
+                    selectStructure(i);
+                    clear();
+                }
+            }
+            if (currentIndex < theNewCapacity) {
+                selectStructure(currentIndex);
+            } else {
+                selectStructure(theNewCapacity - 1);
+            }
+            rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectStructure(final int theStructure) {
+        checkArgument(theStructure < getCapacity(),
+                "Storage capacity is less then the element index passed!");
+        structure = theStructure;
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean writeImpl(final F theField,
+            final boolean theValue) {
+        return writeBits(theField, theValue ? 1 : 0) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte writeImpl(final F theField,
+            final byte theValue) {
+        return (byte) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char writeImpl(final F theField,
+            final char theValue) {
+        return (char) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double writeImpl(final F theField,
+            final double theValue) {
+        return Double.longBitsToDouble(writeBits(theField,
+                Double.doubleToRawLongBits(theValue)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float writeImpl(final F theField,
+            final float theValue) {
+        return Float.intBitsToFloat((int) writeBits(theField,
+                Float.floatToRawIntBits(theValue)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int writeImpl(final F theField,
+            final int theValue) {
+        return (int) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long writeImpl(final F theField,
+            final long theValue) {
+        return writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short writeImpl(final F theField,
+            final short theValue) {
+        return (short) writeBits(theField, theValue);
+    }
+}
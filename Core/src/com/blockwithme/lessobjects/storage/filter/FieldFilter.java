@@ -0,0 +1,468 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.filter;
+
+import static com.blockwithme.lessobjects.util.StructConstants.COLL_FACTORY;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct.UnionDiscriminatorValueMapping;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.storage.BaseLongStorage;
+import com.blockwithme.lessobjects.storage.SparseStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.collections.IntSet;
+
+/**
+ * A predicate on an integral (or boolean) field, which selects the matching
+ * structures of a storage, as a bitmap (bit i of the bitmap selects the
+ * structure i), or as an IntSet.
+ *
+ * On the Aligned64 and Packed storages, the predicate is evaluated directly
+ * on the words of the storage array. When several structures share a word,
+ * the field of all those structures is tested at once, with a few bit
+ * operations (SWAR: SIMD Within A Register), instead of one extraction and
+ * one branch per structure. Other storages are read in chunks, using
+ * readRange().
+ *
+ * Signed fields using all the bits of their type (for example an IntField of
+ * 32 bits) are compared as signed values. All the other fields are compared
+ * as unsigned values, like they are read.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class FieldFilter {
+
+    /** The kinds of predicates. */
+    private static enum Kind {
+        /** field == first */
+        EQUAL,
+        /** (field & second) == first */
+        MASKED,
+        /** Never matches. */
+        NONE,
+        /** first <= field <= second */
+        RANGE
+    }
+
+    /** The predicate constants, repeated for every structure (lane) of a
+     * word. */
+    private final class Lanes {
+
+        /** The first constant, in every lane. */
+        private final long first;
+
+        /** The field bits of every lane. */
+        private final long fields;
+
+        /** The flip bits of every lane. */
+        private final long flips;
+
+        /** The highest field bit of every lane. */
+        private final long highs;
+
+        /** The field bits, except the highest, of every lane. */
+        private final long lows;
+
+        /** The second constant, in every lane. */
+        private final long second;
+
+        /** Constructor */
+        Lanes(final int theOffset, final int theLaneBits, final int theLanes) {
+            long f = 0;
+            long h = 0;
+            long a = 0;
+            long b = 0;
+            long x = 0;
+            for (int i = 0; i < theLanes; i++) {
+                final int shift = i * theLaneBits + theOffset;
+                f |= fieldMask << shift;
+                h |= 1L << shift + bits - 1;
+                a |= FieldFilter.this.first << shift;
+                b |= FieldFilter.this.second << shift;
+                x |= flip << shift;
+            }
+            fields = f;
+            highs = h;
+            lows = f & ~h;
+            first = a;
+            second = b;
+            flips = x;
+        }
+
+        /** Returns the highest field bit of every lane of the word which
+         * matches the predicate. */
+        long match(final long theWord) {
+            if (kind == Kind.RANGE) {
+                final long value = theWord & fields ^ flips;
+                return notLess(value, first) & notLess(second, value);
+            }
+            final long diff = theWord & (kind == Kind.EQUAL ? fields : second)
+                    ^ first;
+            return ~nonZero(diff) & highs;
+        }
+
+        /** Returns the highest bit of every lane that is not zero. */
+        private long nonZero(final long theValue) {
+            return ((theValue & lows) + lows | theValue) & highs;
+        }
+
+        /** Returns the highest bit of every lane where the first value is
+         * greater or equal to the second value (unsigned). */
+        private long notLess(final long theFirst, final long theSecond) {
+            // Cannot borrow across lanes, since the highest bit is set.
+            final long diff = (theFirst | highs) - (theSecond & lows);
+            return (theFirst & ~theSecond | ~(theFirst ^ theSecond) & diff)
+                    & highs;
+        }
+    }
+
+    /** The number of structures read at once, from other storages. */
+    private static final int CHUNK = 1024;
+
+    /** The number of bits of the field. */
+    private final int bits;
+
+    /** The field. */
+    private final Field<?, ?> field;
+
+    /** The mask of the field bits. */
+    private final long fieldMask;
+
+    /** The first constant: the value, lower bound, or expected bits. */
+    private final long first;
+
+    /** The bits to flip, to compare signed values as unsigned values. */
+    private final long flip;
+
+    /** The kind of predicate. */
+    private final Kind kind;
+
+    /** The second constant: the upper bound, or the mask. */
+    private final long second;
+
+    /** Checks that the field is supported, and returns its number of bits. */
+    private static int checkField(final Field<?, ?> theField) {
+        checkNotNull(theField);
+        checkArgument(theField instanceof BooleanField
+                || theField instanceof ByteField
+                || theField instanceof CharField
+                || theField instanceof IntField
+                || theField instanceof LongField
+                || theField instanceof ShortField, "Not an integral field: "
+                + theField.name());
+        return theField.bits();
+    }
+
+    /** Computes a bitmask */
+    private static long mask(final int theBits) {
+        return -1L >>> Long.SIZE - theBits;
+    }
+
+    /** Returns the highest value of the field. */
+    private static long maxValue(final Field<?, ?> theField) {
+        final int bits = theField.bits();
+        return signed(theField) ? (1L << bits - 1) - 1 : mask(bits);
+    }
+
+    /** Returns the lowest value of the field. */
+    private static long minValue(final Field<?, ?> theField) {
+        return signed(theField) ? -(1L << theField.bits() - 1) : 0;
+    }
+
+    /** Reads the bits of the field, of some structures, with readRange(). */
+    @SuppressWarnings("rawtypes")
+    private static void readBits(final Storage theStorage,
+            final Field<?, ?> theField, final int theFrom, final int theCount,
+            final long[] theBits) {
+        final int to = theFrom + theCount;
+        final long mask = mask(theField.bits());
+        if (theField instanceof BooleanField) {
+            final boolean[] values = new boolean[theCount];
+            theStorage.readRange((BooleanField) theField, theFrom, to, values);
+            for (int i = 0; i < theCount; i++) {
+                theBits[i] = values[i] ? 1 : 0;
+            }
+        } else if (theField instanceof ByteField) {
+            final byte[] values = new byte[theCount];
+            theStorage.readRange((ByteField) theField, theFrom, to, values);
+            for (int i = 0; i < theCount; i++) {
+                theBits[i] = values[i] & mask;
+            }
+        } else if (theField instanceof CharField) {
+            final char[] values = new char[theCount];
+            theStorage.readRange((CharField) theField, theFrom, to, values);
+            for (int i = 0; i < theCount; i++) {
+                theBits[i] = values[i] & mask;
+            }
+        } else if (theField instanceof IntField) {
+            final int[] values = new int[theCount];
+            theStorage.readRange((IntField) theField, theFrom, to, values);
+            for (int i = 0; i < theCount; i++) {
+                theBits[i] = values[i] & mask;
+            }
+        } else if (theField instanceof LongField) {
+            theStorage.readRange((LongField) theField, theFrom, to, theBits);
+            for (int i = 0; i < theCount; i++) {
+                theBits[i] &= mask;
+            }
+        } else {
+            final short[] values = new short[theCount];
+            theStorage.readRange((ShortField) theField, theFrom, to, values);
+            for (int i = 0; i < theCount; i++) {
+                theBits[i] = values[i] & mask;
+            }
+        }
+    }
+
+    /** Is the field compared as a signed value? */
+    private static boolean signed(final Field<?, ?> theField) {
+        final int bits = theField.bits();
+        return theField instanceof ByteField && bits == Byte.SIZE
+                || theField instanceof ShortField && bits == Short.SIZE
+                || theField instanceof IntField && bits == Integer.SIZE
+                || theField instanceof LongField && bits == Long.SIZE;
+    }
+
+    /** Creates a filter matching the structures where the field is between
+     * theMin and theMax (both inclusive). */
+    public static FieldFilter between(final Field<?, ?> theField,
+            final long theMin, final long theMax) {
+        final int bits = checkField(theField);
+        final long low = Math.max(theMin, minValue(theField));
+        final long high = Math.min(theMax, maxValue(theField));
+        if (low > high) {
+            return new FieldFilter(theField, Kind.NONE, 0, 0, 0);
+        }
+        // Maps the signed values to unsigned values, preserving the order.
+        final long flip = signed(theField) ? 1L << bits - 1 : 0;
+        return new FieldFilter(theField, Kind.RANGE, flip, (low ^ flip)
+                & mask(bits), (high ^ flip) & mask(bits));
+    }
+
+    /** Creates a filter matching the structures where the field is equal to
+     * theValue. */
+    public static FieldFilter equalTo(final Field<?, ?> theField,
+            final long theValue) {
+        final int bits = checkField(theField);
+        if (theValue < minValue(theField) || theValue > maxValue(theField)) {
+            return new FieldFilter(theField, Kind.NONE, 0, 0, 0);
+        }
+        return new FieldFilter(theField, Kind.EQUAL, 0, theValue & mask(bits),
+                0);
+    }
+
+    /** Creates a filter matching the structures where the bits of theMask,
+     * in the field, are equal to theExpected. */
+    public static FieldFilter maskedEqualTo(final Field<?, ?> theField,
+            final long theMask, final long theExpected) {
+        final long mask = theMask & mask(checkField(theField));
+        if ((theExpected & ~mask) != 0) {
+            return new FieldFilter(theField, Kind.NONE, 0, 0, 0);
+        }
+        return new FieldFilter(theField, Kind.MASKED, 0, theExpected, mask);
+    }
+
+    /** Constructor */
+    private FieldFilter(final Field<?, ?> theField, final Kind theKind,
+            final long theFlip, final long theFirst, final long theSecond) {
+        field = theField;
+        kind = theKind;
+        flip = theFlip;
+        first = theFirst;
+        second = theSecond;
+        bits = theField.bits();
+        fieldMask = mask(bits);
+    }
+
+    /** Can the field be read directly from the storage array? */
+    private boolean direct(final Storage theStorage) {
+        if (!(theStorage instanceof BaseLongStorage) || field.global()
+                || field.isOptional() || field.virtual()) {
+            return false;
+        }
+        final UnionDiscriminatorValueMapping[] udMap = theStorage.struct()
+                .uDMapping(field);
+        if (udMap != null && udMap.length > 0) {
+            return false;
+        }
+        theStorage.checkAccess(field);
+        return true;
+    }
+
+    /** Tests the bits of the field, of one structure. */
+    private boolean matches(final long theBits) {
+        switch (kind) {
+        case EQUAL:
+            return theBits == first;
+        case MASKED:
+            return (theBits & second) == first;
+        case RANGE:
+            // Unsigned comparison
+            final long value = (theBits ^ flip) + Long.MIN_VALUE;
+            return value >= first + Long.MIN_VALUE
+                    && value <= second + Long.MIN_VALUE;
+        default:
+            return false;
+        }
+    }
+
+    /** Selects the structures, testing the field of every structure sharing
+     * a word at once. Every step reads one word, which contains the field of
+     * theLanes structures. */
+    private void selectLanes(final long[] theArray, final Lanes theLanes,
+            final int theLaneBits, final int theStride, final int theOffset,
+            final int theFrom, final int theTo, final long[] theResult) {
+        final int perWord = Long.SIZE / theLaneBits;
+        final int laneShift = Integer.numberOfTrailingZeros(theLaneBits);
+        final int last = (theTo - 1) / perWord;
+        for (int step = theFrom / perWord; step <= last; step++) {
+            long matches = theLanes.match(theArray[step * theStride
+                    + theOffset]);
+            final int base = step * perWord;
+            while (matches != 0) {
+                final int structure = base
+                        + (Long.numberOfTrailingZeros(matches) >>> laneShift);
+                matches &= matches - 1;
+                if (structure >= theFrom && structure < theTo) {
+                    theResult[structure >>> 6] |= 1L << structure;
+                }
+            }
+        }
+    }
+
+    /** Selects the structures, extracting the field of every structure. Used
+     * when the field can lie across two words. */
+    private void selectPacked(final long[] theArray, final long theSize,
+            final int theFrom, final int theTo, final long[] theResult) {
+        final int offset = field.offset();
+        for (int i = theFrom; i < theTo; i++) {
+            final long position = i * theSize + offset;
+            final int index = (int) (position >>> 6);
+            final int shift = (int) (position & 63);
+            long value = theArray[index] >>> shift;
+            if (shift + bits > Long.SIZE) {
+                value |= theArray[index + 1] << Long.SIZE - shift;
+            }
+            if (matches(value & fieldMask)) {
+                theResult[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    /** Selects the structures, reading the field with readRange(). */
+    private void selectValues(final Storage theStorage, final int theFrom,
+            final int theTo, final long[] theResult) {
+        final long[] values = new long[CHUNK];
+        for (int start = theFrom; start < theTo; start += CHUNK) {
+            final int count = Math.min(CHUNK, theTo - start);
+            readBits(theStorage, field, start, count, values);
+            for (int i = 0; i < count; i++) {
+                if (matches(values[i])) {
+                    final int structure = start + i;
+                    theResult[structure >>> 6] |= 1L << structure;
+                }
+            }
+        }
+    }
+
+    /** Selects the structures, reading the storage array directly. */
+    private void selectWords(final BaseLongStorage theStorage,
+            final int theFrom, final int theTo, final long[] theResult) {
+        final long[] array = theStorage.getArray();
+        final long size = theStorage.getStructSize();
+        final int offset = field.offset();
+        if (size < Long.SIZE && Long.SIZE % size == 0) {
+            // Several structures per word
+            final int laneBits = (int) size;
+            selectLanes(array, new Lanes(offset, laneBits, Long.SIZE
+                    / laneBits), laneBits, 1, 0, theFrom, theTo, theResult);
+        } else if (size % Long.SIZE == 0
+                && offset % Long.SIZE + bits <= Long.SIZE) {
+            // One word per structure, with the field in it
+            selectLanes(array, new Lanes(offset % Long.SIZE, Long.SIZE, 1),
+                    Long.SIZE, (int) (size / Long.SIZE), offset / Long.SIZE,
+                    theFrom, theTo, theResult);
+        } else {
+            selectPacked(array, size, theFrom, theTo, theResult);
+        }
+    }
+
+    /** Counts the matching structures of the storage. */
+    public int count(final Storage theStorage) {
+        int result = 0;
+        for (final long word : select(theStorage)) {
+            result += Long.bitCount(word);
+        }
+        return result;
+    }
+
+    /** Returns the field. */
+    public Field<?, ?> field() {
+        return field;
+    }
+
+    /** Selects the matching structures of the storage, as a bitmap. */
+    public long[] select(final Storage theStorage) {
+        return select(theStorage, 0, theStorage.getCapacity());
+    }
+
+    /** Selects the matching structures, from theFrom (inclusive) to theTo
+     * (exclusive), as a bitmap. The bits of the other structures are 0.
+     * Sparse storages are not supported. */
+    public long[] select(final Storage theStorage, final int theFrom,
+            final int theTo) {
+        checkNotNull(theStorage);
+        checkArgument(!(theStorage instanceof SparseStorage),
+                "Sparse storages cannot be filtered");
+        checkArgument(theFrom >= 0 && theFrom <= theTo
+                && theTo <= theStorage.getCapacity(), "Invalid range");
+        final long[] result = new long[(theTo + Long.SIZE - 1) / Long.SIZE];
+        if (kind == Kind.NONE || theFrom == theTo) {
+            return result;
+        }
+        if (direct(theStorage)) {
+            selectWords((BaseLongStorage) theStorage, theFrom, theTo, result);
+        } else {
+            selectValues(theStorage, theFrom, theTo, result);
+        }
+        return result;
+    }
+
+    /** Selects the matching structures of the storage, as an IntSet. */
+    public IntSet selectSet(final Storage theStorage) {
+        final long[] bitmap = select(theStorage);
+        final IntSet result = COLL_FACTORY.createIntSet(theStorage
+                .getCapacity());
+        for (int i = 0; i < bitmap.length; i++) {
+            long word = bitmap[i];
+            while (word != 0) {
+                result.add(i * Long.SIZE + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+}
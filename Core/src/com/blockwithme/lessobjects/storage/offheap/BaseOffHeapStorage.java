@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.offheap;
+
+import static com.blockwithme.lessobjects.util.StructConstants.EMPTY_OBJ_ARR;
+import static com.blockwithme.lessobjects.util.StructConstants.LONG_BITS;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.BaseWordStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64Storage;
+
+/**
+ * Base class of the off-heap storages. The words of the structures are kept in
+ * an OffHeapMemory, using exactly the same layout as the equivalent heap
+ * storage.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public abstract class BaseOffHeapStorage extends BaseWordStorage implements
+        OffHeapStorage {
+
+    /** Error message, when accessing a closed storage. */
+    protected static final String CLOSED = "This storage was closed";
+
+    /** The init defaults flag. */
+    protected final boolean initDefaults;
+
+    /** The native memory. */
+    protected final OffHeapMemory memory;
+
+    /** The position of the current struct, as a word index. We do not use
+     * structureIndex, because it is an int. */
+    protected long structureWord;
+
+    /** Constructor */
+    protected BaseOffHeapStorage(final Struct theStruct,
+            final OffHeapMemory theMemory, final long theStructSize,
+            final int theCapacity, @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final boolean theInitDefaultsFlag,
+            final Arity theArity) {
+        super(theStruct, theStructSize, theCapacity, theBaseStorage,
+                isTransactional, theArity);
+        memory = theMemory;
+        initDefaults = theInitDefaultsFlag;
+    }
+
+    /** Returns the number of words required for some capacity. */
+    protected abstract long wordsFor(final int theCapacity);
+
+    /** {@inheritDoc} */
+    @Override
+    protected void clearAllChildren() {
+        // do nothing
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected AbstractStorage getSingleStorage(final Struct theGlobalStruct) {
+        // Global fields are stored only once, so we keep them on the heap.
+        return new Aligned64Storage(theGlobalStruct, 1, this,
+                !transactionsDisabled, Arity.ONE_D);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+        memory.free();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int concurrentWriteGranularity() {
+        return alignedStructures(LONG_BITS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void copyStorage(final Storage theOther,
+            final SchemaMigrator theSchemaMigrator) {
+        checkState(!isClosed(), CLOSED);
+        if (isDifferent(theOther, theSchemaMigrator)) {
+            // call AbstractStorage.copyStorage method.
+            super.copyStorage(theOther, theSchemaMigrator);
+        } else {
+            final BaseOffHeapStorage otherStorage = (BaseOffHeapStorage) theOther;
+            memory.copyTo(otherStorage.memory);
+            if (objectStorageObjects != null && objectStorageObjects.length > 0) {
+                copyObjectStorage(struct(), objectStorageObjects,
+                        otherStorage.objectStorageObjects);
+            }
+            otherStorage.selectStructure(getSelectedStructure());
+            otherStorage.rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild,
+            final int theInitialSize) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isClosed() {
+        return memory.freed();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    public Storage list(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long offHeapBytes() {
+        return memory.words() * (LONG_BITS / Byte.SIZE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void resizeStorage(final int theNewCapacity) {
+        checkState(!isClosed(), CLOSED);
+        if (capacity != theNewCapacity) {
+            // Only the last chunk of the memory gets copied, if any.
+            memory.resize(wordsFor(theNewCapacity));
+            Object[] newObjectStore;
+            final int oldCapacity = capacity;
+            capacity = theNewCapacity;
+            final int currentIndex = getSelectedStructure();
+
+            if (objectStorageObjects.length > 0) {
+                newObjectStore = new Object[objectStorageObjects.length];
+            } else {
+                newObjectStore = EMPTY_OBJ_ARR;
+            }
+
+            reInitObjectStorage(struct(), newObjectStore);
+            copyObjectStorage(struct(), objectStorageObjects, newObjectStore);
+            objectStorageObjects = newObjectStore;
+
+            if (capacity > oldCapacity && initDefaults) {
+                for (int i = oldCapacity; i < capacity; i++) {
+                    selectStructure(i);
+                    clear();
+                }
+            }
+            if (currentIndex < theNewCapacity) {
+                selectStructure(currentIndex);
+            } else {
+                // select last element. here
+                selectStructure(theNewCapacity - 1);
+            }
+            rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectStructure(final int theStructure) {
+        checkState(!isClosed(), CLOSED);
+        checkArgument(theStructure < getCapacity(),
+                "Storage capacity is less then the element index passed!");
+        structure = theStructure;
+        structurePosition = theStructure * structSize;
+        structureWord = structurePosition / LONG_BITS;
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * OffHeapMemory backed by direct ByteBuffers, in the native byte order.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class DirectMemory extends OffHeapMemory {
+
+    /** Creates a direct memory of the given number of words. */
+    public DirectMemory(final long theWords) {
+        init(theWords);
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected ByteBuffer allocate(final int theChunk, final int theBytes) {
+        return ByteBuffer.allocateDirect(theBytes).order(
+                ByteOrder.nativeOrder());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void release(final int theChunk, final ByteBuffer theBuffer) {
+        destroy(theBuffer);
+    }
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.offheap;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Struct;
+
+/**
+ * OffHeapMemory backed by a memory-mapped file. The OS pages the words in and
+ * out on demand, so the file can be much larger then the heap, and the data
+ * survives a restart.
+ *
+ * The file starts with a small header, which records the number of words, and
+ * the layout of the structures, so that a file cannot be re-opened with the
+ * wrong Struct. The words themselves are stored in little-endian order, so
+ * that the files are portable.
+ *
+ * Resizing the memory changes the file size and re-maps the last chunk; the
+ * words are never copied.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class MappedMemory extends OffHeapMemory {
+
+    /** Layout of the Aligned64 storages. */
+    public static final int ALIGNED64_LAYOUT = 1;
+
+    /** Layout of the Packed storages. */
+    public static final int PACKED_LAYOUT = 2;
+
+    /** Size of the header, in bytes. */
+    private static final int HEADER_BYTES = 64;
+
+    /** Identifies our files ("LessObjs"). */
+    private static final long MAGIC = 0x4C6573734F626A73L;
+
+    /** The position of the magic, in the header. */
+    private static final int MAGIC_POS = 0;
+
+    /** The position of the number of words, in the header. */
+    private static final int WORDS_POS = 8;
+
+    /** The position of the layout, in the header. */
+    private static final int LAYOUT_POS = 16;
+
+    /** The position of the struct size in bits, in the header. */
+    private static final int BITS_POS = 20;
+
+    /** The position of the struct hash, in the header. */
+    private static final int HASH_POS = 24;
+
+    /** The position of the capacity, in the header. */
+    private static final int CAPACITY_POS = 28;
+
+    /** The file. */
+    private final File file;
+
+    /** The file, opened. */
+    private final RandomAccessFile randomAccessFile;
+
+    /** The file channel. */
+    private final FileChannel channel;
+
+    /** The mapped header. */
+    private final MappedByteBuffer header;
+
+    /** Was the file created? */
+    private final boolean created;
+
+    /** Opens an existing file, or creates a new one with the given number of
+     * words. */
+    @SuppressWarnings("resource")
+    public MappedMemory(final File theFile, final long theWords) {
+        file = theFile;
+        try {
+            created = !theFile.exists() || theFile.length() == 0;
+            randomAccessFile = new RandomAccessFile(theFile, "rw");
+            channel = randomAccessFile.getChannel();
+            header = channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not map " + theFile, e);
+        }
+        if (created) {
+            header.putLong(MAGIC_POS, MAGIC);
+            init(theWords);
+        } else {
+            if (header.getLong(MAGIC_POS) != MAGIC) {
+                closeFile();
+                throw new IllegalArgumentException(theFile
+                        + " is not a storage file");
+            }
+            init(header.getLong(WORDS_POS));
+        }
+    }
+
+    /** Binds this memory to a storage. If the file was just created, the
+     * layout and capacity are recorded. Otherwise the layout is validated,
+     * and the recorded capacity is returned.
+     *
+     * @return the capacity of the storage */
+    int bind(final int theLayout, final Struct theStruct,
+            final int theCapacity) {
+        if (created) {
+            header.putInt(LAYOUT_POS, theLayout);
+            header.putInt(BITS_POS, theStruct.bits());
+            header.putInt(HASH_POS, theStruct.hashCode());
+            capacity(theCapacity);
+            return theCapacity;
+        }
+        if (header.getInt(LAYOUT_POS) != theLayout
+                || header.getInt(BITS_POS) != theStruct.bits()
+                || header.getInt(HASH_POS) != theStruct.hashCode()) {
+            free();
+            throw new IllegalArgumentException(file
+                    + " was not created for this Struct and Compiler: "
+                    + theStruct.name());
+        }
+        return header.getInt(CAPACITY_POS);
+    }
+
+    /** Records the capacity of the storage. */
+    void capacity(final int theCapacity) {
+        header.putInt(CAPACITY_POS, theCapacity);
+    }
+
+    /** Closes the file. */
+    private void closeFile() {
+        destroy(header);
+        try {
+            channel.close();
+            randomAccessFile.close();
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not close " + file, e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected ByteBuffer allocate(final int theChunk, final int theBytes) {
+        try {
+            return channel.map(MapMode.READ_WRITE,
+                    HEADER_BYTES + theChunk * CHUNK_BYTES, theBytes).order(
+                    ByteOrder.LITTLE_ENDIAN);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not map " + file, e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected ByteBuffer reallocate(final int theChunk,
+            final ByteBuffer theOldBuffer, final int theBytes) {
+        // The content stays in the file: we just map it again.
+        destroy(theOldBuffer);
+        return allocate(theChunk, theBytes);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void release(final int theChunk, final ByteBuffer theBuffer) {
+        destroy(theBuffer);
+    }
+
+    /** Returns the file. */
+    public File file() {
+        return file;
+    }
+
+    /** Writes all the changes to the file, and returns once it is done. */
+    public void force() {
+        checkState(!freed(), "Memory was freed");
+        for (int i = 0; i < chunkCount(); i++) {
+            ((MappedByteBuffer) chunk(i)).force();
+        }
+        header.force();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void free() {
+        if (!freed()) {
+            super.free();
+            closeFile();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void resize(final long theNewWords) {
+        super.resize(theNewWords);
+        final long length = HEADER_BYTES + theNewWords * Long.SIZE / Byte.SIZE;
+        try {
+            if (channel.size() > length) {
+                // Makes sure the dropped words are zero if we grow again.
+                channel.truncate(length);
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not truncate " + file, e);
+        }
+        header.putLong(WORDS_POS, theNewWords);
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.offheap;
+
+import java.io.File;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.multidim.Arity;
+
+/**
+ * Memory-mapped version of the PackedStorage.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class MappedPackedStorage extends OffHeapPackedStorage implements
+        MappedStorage {
+
+    /**
+     * Opens, or creates, a storage backed by the given file. If the file
+     * already exists, it must have been created for the same compiled Struct,
+     * and the capacity recorded in the file is used instead of
+     * theInitialCapacity.
+     */
+    public static MappedPackedStorage open(final Struct theStruct,
+            final File theFile, final int theInitialCapacity,
+            final boolean isTransactional, final Arity theArity) {
+        final MappedMemory memory = new MappedMemory(theFile, words(
+                theInitialCapacity, theStruct.bits()));
+        final int capacity = memory.bind(MappedMemory.PACKED_LAYOUT,
+                theStruct, theInitialCapacity);
+        return new MappedPackedStorage(theStruct, memory, capacity,
+                isTransactional, theArity);
+    }
+
+    /** The mapped memory. */
+    private final MappedMemory mappedMemory;
+
+    /** Constructor */
+    private MappedPackedStorage(final Struct theStruct,
+            final MappedMemory theMemory, final int theCapacity,
+            final boolean isTransactional, final Arity theArity) {
+        super(theStruct, theMemory, theCapacity, null, isTransactional, true,
+                theArity);
+        mappedMemory = theMemory;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public File file() {
+        return mappedMemory.file();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void force() {
+        mappedMemory.force();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void resizeStorage(final int theNewCapacity) {
+        super.resizeStorage(theNewCapacity);
+        mappedMemory.capacity(theNewCapacity);
+    }
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.offheap;
+
+import java.io.File;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * An OffHeapStorage whose words live in a memory-mapped file. Re-opening the
+ * file with the same compiled Struct and compiler gives back the same data.
+ *
+ * Changes reach the file eventually, even without calling force(), unless the
+ * OS crashes. Object fields are not stored in the file.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public interface MappedStorage extends OffHeapStorage {
+
+    /** Returns the file backing this storage. */
+    File file();
+
+    /**
+     * Writes all the changes to the file, and only returns once they are
+     * durable. This is the storage equivalent of a "sync".
+     */
+    void force();
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.offheap;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.util.StructConstants;
+
+/**
+ * Off-heap version of the Aligned64Storage. The layout of the words is the
+ * same, but they live in an OffHeapMemory instead of a long array.
+ *
+ * @author monster
+ */
+// CHECKSTYLE.OFF: IllegalType
+@ParametersAreNonnullByDefault
+public class OffHeapAligned64Storage extends BaseOffHeapStorage {
+
+    /** Computes the number of words, given a structure size, and a number of
+     * structure. */
+    public static long words(final int theCount, final long theSize) {
+        return adjustStructSize(theSize) * theCount / StructConstants.LONG_BITS;
+    }
+
+    /** Constructor, using the given memory, which must be large enough. */
+    public OffHeapAligned64Storage(final Struct theStruct,
+            final OffHeapMemory theMemory, final int theStorageSize,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional,
+            final boolean theDefaultInitializationFlag, final Arity theArity) {
+        super(theStruct, theMemory, adjustStructSize(theStruct.bits()),
+                theStorageSize, theBaseStorage, isTransactional,
+                theDefaultInitializationFlag, theArity);
+    }
+
+    /** Constructor which allocates the memory itself */
+    public OffHeapAligned64Storage(final Struct theStruct,
+            final int theStorageSize, @Nullable final Storage theParent,
+            final boolean isTransactional, final Arity theArity) {
+        this(theStruct, new DirectMemory(words(theStorageSize,
+                theStruct.bits())), theStorageSize, theParent,
+                isTransactional, true, theArity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Storage blankCopy() {
+        @SuppressWarnings("null")
+        final OffHeapAligned64Storage result = new OffHeapAligned64Storage(
+                struct, new DirectMemory(memory.words()), capacity,
+                isSecondary ? baseStorage : null, transactionsEnabled(), false,
+                arity);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        final long wordIndex = theStructure * structSize
+                / StructConstants.LONG_BITS + theField.offsetDiv64();
+        return (memory.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        final long word = replace(theStructure * structSize
+                / StructConstants.LONG_BITS + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (word & theField.mask64()) >> theField.offsetMod64();
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected long wordsFor(final int theCapacity) {
+        return words(theCapacity, struct.bits());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean readBoolean(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (memory.get(wordIndex) & theField.mask64()) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte readByte(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (byte) ((memory.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char readChar(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (char) ((memory.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double readDouble(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return Double.longBitsToDouble(memory.get(wordIndex));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float readFloat(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return Float.intBitsToFloat((int) ((memory.get(wordIndex) & theField
+                .mask64()) >> theField.offsetMod64()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int readInt(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (int) ((memory.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long readLong(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (memory.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short readShort(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (short) ((memory.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64());
+    }
+
+    /** Replaces the bits of a field, and returns the old word. */
+    private long replace(final long theWordIndex, final long theMask,
+            final int theShift, final long theValue) {
+        final long word = memory.get(theWordIndex);
+        memory.put(theWordIndex, word & ~theMask | theValue << theShift
+                & theMask);
+        return word;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean writeImpl(final F theField,
+            final boolean theValue) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        final long word = memory.get(wordIndex);
+        final boolean oldValue = (word & theField.mask64()) != 0;
+        if (theValue) {
+            memory.put(wordIndex, word | theField.mask64());
+        } else {
+            memory.put(wordIndex, word & theField.negMask64());
+        }
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte writeImpl(final F theField,
+            final byte theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (byte) ((word & theField.mask64()) >> theField.offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char writeImpl(final F theField,
+            final char theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (char) ((word & theField.mask64()) >> theField.offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double writeImpl(final F theField,
+            final double theValue) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        final double oldValue = Double.longBitsToDouble(memory.get(wordIndex));
+        memory.put(wordIndex, Double.doubleToRawLongBits(theValue));
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float writeImpl(final F theField,
+            final float theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(),
+                Float.floatToRawIntBits(theValue));
+        return Float.intBitsToFloat((int) ((word & theField.mask64()) >> theField
+                .offsetMod64()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int writeImpl(final F theField,
+            final int theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (int) ((word & theField.mask64()) >> theField.offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long writeImpl(final F theField,
+            final long theValue) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        if (theField.fullBits()) {
+            final long oldValue = memory.get(wordIndex);
+            memory.put(wordIndex, theValue);
+            return oldValue;
+        }
+        final long word = replace(wordIndex, theField.mask64(),
+                theField.offsetMod64(), theValue);
+        return (word & theField.mask64()) >> theField.offsetMod64();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short writeImpl(final F theField,
+            final short theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (short) ((word & theField.mask64()) >> theField.offsetMod64());
+    }
+}
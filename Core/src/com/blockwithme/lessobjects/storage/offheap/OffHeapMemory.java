@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.offheap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A growable sequence of 64-bit words, which lives outside of the Java heap.
+ *
+ * The words are split in "chunks" of at most CHUNK_WORDS words, each backed
+ * by its own ByteBuffer, so that we are not limited to the 2 GB of a single
+ * buffer. Only the last chunk can be smaller then CHUNK_WORDS, so resizing
+ * only ever reallocates the last chunk, and adds or removes full chunks.
+ *
+ * Sub-classes decide where the chunks come from (direct memory, a memory
+ * mapped file, ...).
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public abstract class OffHeapMemory {
+
+    /** Log2 of the number of words in a full chunk (1 GB). */
+    public static final int CHUNK_WORDS_SHIFT = 27;
+
+    /** Number of words in a full chunk. */
+    public static final long CHUNK_WORDS = 1L << CHUNK_WORDS_SHIFT;
+
+    /** Number of bytes in a full chunk. */
+    public static final long CHUNK_BYTES = CHUNK_WORDS * (Long.SIZE / Byte.SIZE);
+
+    /** Log2 of the number of bytes in a word. */
+    private static final int WORD_BYTES_SHIFT = 3;
+
+    /** Mask to compute the word index within a chunk. */
+    private static final long CHUNK_WORDS_MASK = CHUNK_WORDS - 1;
+
+    /** The empty chunks array. */
+    private static final ByteBuffer[] NO_CHUNKS = new ByteBuffer[0];
+
+    /** Unsafe.invokeCleaner(ByteBuffer), if available (Java 9+). */
+    @Nullable
+    private static final Method INVOKE_CLEANER;
+
+    /** The Unsafe instance, if INVOKE_CLEANER is available. */
+    @Nullable
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+                    ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (final Exception e) {
+            // Before Java 9: we fall back to the buffer's own cleaner.
+            invokeCleaner = null;
+            unsafe = null;
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    /** The chunks. */
+    private ByteBuffer[] chunks = NO_CHUNKS;
+
+    /** The number of words. */
+    private long words;
+
+    /** Has the memory been freed? */
+    private boolean freed;
+
+    /** Returns the number of chunks needed for some words. */
+    private static int chunksFor(final long theWords) {
+        return (int) ((theWords + CHUNK_WORDS_MASK) >>> CHUNK_WORDS_SHIFT);
+    }
+
+    /** Returns the size, in bytes, of a chunk, for the given total words. */
+    private static int chunkBytes(final int theChunk, final long theWords) {
+        final long start = (long) theChunk << CHUNK_WORDS_SHIFT;
+        return (int) (Math.min(CHUNK_WORDS, theWords - start) << WORD_BYTES_SHIFT);
+    }
+
+    /**
+     * Frees the native memory of a direct, or memory-mapped, ByteBuffer
+     * immediately, instead of waiting for the GC. The buffer must not be used
+     * afterwards. If that is not possible on this JVM, this does nothing, and
+     * the memory is freed when the buffer is garbage collected.
+     */
+    protected static void destroy(final ByteBuffer theBuffer) {
+        if (!theBuffer.isDirect()) {
+            return;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, theBuffer);
+            } else {
+                final Method cleanerMethod = theBuffer.getClass().getMethod(
+                        "cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(theBuffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (final Exception e) {
+            // The GC will have to do it.
+        }
+    }
+
+    /** Allocates a new chunk, of the given size. The content must be zero. */
+    protected abstract ByteBuffer allocate(final int theChunk,
+            final int theBytes);
+
+    /** Frees the memory (or resources) of a chunk. */
+    protected abstract void release(final int theChunk,
+            final ByteBuffer theBuffer);
+
+    /** Changes the size of a chunk. The content that fits in the new size must
+     * be preserved, and the rest must be zero. The default implementation
+     * copies the content in a newly allocated chunk. */
+    protected ByteBuffer reallocate(final int theChunk,
+            final ByteBuffer theOldBuffer, final int theBytes) {
+        final ByteBuffer result = allocate(theChunk, theBytes);
+        final ByteBuffer src = theOldBuffer.duplicate();
+        src.clear();
+        src.limit(Math.min(src.capacity(), theBytes));
+        final ByteBuffer dst = result.duplicate();
+        dst.clear();
+        dst.put(src);
+        release(theChunk, theOldBuffer);
+        return result;
+    }
+
+    /** Returns a chunk. */
+    @SuppressWarnings("null")
+    protected final ByteBuffer chunk(final int theChunk) {
+        return chunks[theChunk];
+    }
+
+    /** Returns the current number of chunks. */
+    protected final int chunkCount() {
+        return chunks.length;
+    }
+
+    /** Allocates the initial words. Called by the sub-classes, once they are
+     * ready to allocate chunks. */
+    protected final void init(final long theWords) {
+        checkState(chunks.length == 0, "Already initialized");
+        resize(theWords);
+    }
+
+    /** Copies the words of this memory into another memory, as far as they fit. */
+    public final void copyTo(final OffHeapMemory theOther) {
+        checkState(!freed && !theOther.freed, "Memory was freed");
+        final int count = Math.min(chunks.length, theOther.chunks.length);
+        for (int i = 0; i < count; i++) {
+            final ByteBuffer src = chunks[i].duplicate();
+            final ByteBuffer dst = theOther.chunks[i].duplicate();
+            src.clear();
+            dst.clear();
+            src.limit(Math.min(src.capacity(), dst.capacity()));
+            dst.put(src);
+        }
+    }
+
+    /** Frees all the memory. The memory cannot be used afterwards. Calling
+     * free() more then once does nothing. */
+    public void free() {
+        if (!freed) {
+            freed = true;
+            for (int i = 0; i < chunks.length; i++) {
+                release(i, chunks[i]);
+            }
+            chunks = NO_CHUNKS;
+            words = 0;
+        }
+    }
+
+    /** Returns true if the memory was freed. */
+    public final boolean freed() {
+        return freed;
+    }
+
+    /** Reads a word. */
+    public final long get(final long theWordIndex) {
+        return chunks[(int) (theWordIndex >>> CHUNK_WORDS_SHIFT)]
+                .getLong((int) (theWordIndex & CHUNK_WORDS_MASK) << WORD_BYTES_SHIFT);
+    }
+
+    /** Writes a word. */
+    public final void put(final long theWordIndex, final long theValue) {
+        chunks[(int) (theWordIndex >>> CHUNK_WORDS_SHIFT)].putLong(
+                (int) (theWordIndex & CHUNK_WORDS_MASK) << WORD_BYTES_SHIFT,
+                theValue);
+    }
+
+    /** Changes the number of words. The words that fit in the new size are
+     * preserved, and the new words are zero. Only the last chunk is ever
+     * reallocated; full chunks are kept as they are. */
+    public void resize(final long theNewWords) {
+        checkState(!freed, "Memory was freed");
+        checkArgument(theNewWords > 0, "Words must be positive: "
+                + theNewWords);
+        final int oldCount = chunks.length;
+        final int newCount = chunksFor(theNewWords);
+        for (int i = newCount; i < oldCount; i++) {
+            release(i, chunks[i]);
+        }
+        final ByteBuffer[] newChunks = Arrays.copyOf(chunks, newCount);
+        for (int i = 0; i < newCount; i++) {
+            final int bytes = chunkBytes(i, theNewWords);
+            if (i >= oldCount) {
+                newChunks[i] = allocate(i, bytes);
+            } else if (newChunks[i].capacity() != bytes) {
+                newChunks[i] = reallocate(i, newChunks[i], bytes);
+            }
+        }
+        chunks = newChunks;
+        words = theNewWords;
+    }
+
+    /** Returns the number of words. */
+    public final long words() {
+        return words;
+    }
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.offheap;
+
+import static com.blockwithme.lessobjects.util.StructConstants.LONG_BITS;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.Storage;
+
+//CHECKSTYLE.OFF: IllegalType
+/**
+ * Off-heap version of the PackedStorage. The layout of the words is the
+ * same, but they live in an OffHeapMemory instead of a long array.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class OffHeapPackedStorage extends BaseOffHeapStorage {
+
+    /** Computes the number of words, given a structure size, and a number of
+     * structure. */
+    public static long words(final int theCount, final long theStructSize) {
+        final long bits = theStructSize * theCount;
+        return (bits + LONG_BITS - 1) / LONG_BITS;
+    }
+
+    /** Constructor, using the given memory, which must be large enough. */
+    public OffHeapPackedStorage(final Struct theStruct,
+            final OffHeapMemory theMemory, final int theStorageSize,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final boolean theInitDefaultsFlag,
+            final Arity theArity) {
+        super(theStruct, theMemory, theStruct.bits(), theStorageSize,
+                theBaseStorage, isTransactional, theInitDefaultsFlag, theArity);
+    }
+
+    /** Constructor which allocates the memory itself */
+    public OffHeapPackedStorage(final Struct theStruct,
+            final int theStorageSize, @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final Arity theArity) {
+        this(theStruct, new DirectMemory(words(theStorageSize,
+                theStruct.bits())), theStorageSize, theBaseStorage,
+                isTransactional, true, theArity);
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected Storage blankCopy() {
+        return new OffHeapPackedStorage(struct,
+                new DirectMemory(memory.words()), capacity,
+                isSecondary ? baseStorage : null, transactionsEnabled(), false,
+                arity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        return readBits(theStructure * structSize + theField.offset(),
+                theField.bits());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        final long position = theStructure * structSize + theField.offset();
+        final long oldValue = readBits(position, theField.bits());
+        writeBits(position, theField.bits(), theValue);
+        return oldValue;
+    }
+
+    /** Reads some bits, at the give position. */
+    protected long read(final long theOffsetInBits, final int theBitsCount) {
+        return readBits(theOffsetInBits + structurePosition, theBitsCount);
+    }
+
+    /** Reads some bits, at the give position, from the start of the memory. */
+    private long readBits(final long thePosition, final int theBitsCount) {
+        final long wordIndex = thePosition / LONG_BITS;
+        final int bitIndex = (int) (thePosition % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        final long valueMask = mask(Math.min(theBitsCount, rest));
+        long value = memory.get(wordIndex) >>> bitIndex & valueMask;
+        if (theBitsCount > rest) {
+            final long valueMask2 = mask(theBitsCount - rest);
+            value |= (memory.get(wordIndex + 1) & valueMask2) << rest;
+        }
+        return value;
+    }
+
+    /** Writes some bits, at the give position. */
+    protected void write(final long theOffsetInBits, final int theBitsCount,
+            final long theValue) {
+        writeBits(theOffsetInBits + structurePosition, theBitsCount, theValue);
+    }
+
+    /** Writes some bits, at the give position, from the start of the
+     * memory. */
+    private void writeBits(final long thePosition, final int theBitsCount,
+            final long theValue) {
+        final long wordIndex = thePosition / LONG_BITS;
+        final int bitIndex = (int) (thePosition % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        final long valueMask = mask(Math.min(theBitsCount, rest));
+        final long shiftedMask = valueMask << bitIndex;
+        final long maskedBeforeValue = memory.get(wordIndex) & ~shiftedMask;
+        memory.put(wordIndex, maskedBeforeValue
+                | (theValue & valueMask) << bitIndex);
+        if (theBitsCount > rest) {
+            final long valueMask2 = mask(theBitsCount - rest);
+            final long maskedBeforeValue2 = memory.get(wordIndex + 1)
+                    & ~valueMask2;
+            memory.put(wordIndex + 1, maskedBeforeValue2 | theValue >>> rest
+                    & valueMask2);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected long wordsFor(final int theCapacity) {
+        return words(theCapacity, struct.bits());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean readBoolean(final F theField) {
+        final long offsetInBits = structurePosition + theField.offset();
+        final long mask = 1L << (int) (offsetInBits % LONG_BITS);
+        return (memory.get(offsetInBits / LONG_BITS) & mask) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte readByte(final F theField) {
+        return (byte) read(theField.offset(), theField.bits());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char readChar(final F theField) {
+        return (char) read(theField.offset(), theField.bits());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double readDouble(final F theField) {
+        return Double
+                .longBitsToDouble(read(theField.offset(), theField.bits()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float readFloat(final F theField) {
+        return Float.intBitsToFloat((int) read(theField.offset(),
+                theField.bits()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int readInt(final F theField) {
+        return (int) read(theField.offset(), theField.bits());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long readLong(final F theField) {
+        return read(theField.offset(), theField.bits());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short readShort(final F theField) {
+        return (short) read(theField.offset(), theField.bits());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean writeImpl(final F theField,
+            final boolean theValue) {
+        final long offsetInBits = structurePosition + theField.offset();
+        final long wordIndex = offsetInBits / LONG_BITS;
+        final long mask = 1L << (int) (offsetInBits % LONG_BITS);
+        final long word = memory.get(wordIndex);
+        if (theValue) {
+            memory.put(wordIndex, word | mask);
+        } else {
+            memory.put(wordIndex, word & ~mask);
+        }
+        return (word & mask) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte writeImpl(final F theField,
+            final byte theValue) {
+        final byte oldValue = (byte) read(theField.offset(), theField.bits());
+        write(theField.offset(), theField.bits(), theValue);
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char writeImpl(final F theField,
+            final char theValue) {
+        final char oldValue = (char) read(theField.offset(), theField.bits());
+        write(theField.offset(), theField.bits(), theValue);
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double writeImpl(final F theField,
+            final double theValue) {
+        final double oldValue = Double.longBitsToDouble(read(theField.offset(),
+                theField.bits()));
+        write(theField.offset(), theField.bits(),
+                Double.doubleToRawLongBits(theValue));
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float writeImpl(final F theField,
+            final float theValue) {
+        final float oldValue = Float.intBitsToFloat((int) read(
+                theField.offset(), theField.bits()));
+        write(theField.offset(), theField.bits(),
+                Float.floatToRawIntBits(theValue));
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int writeImpl(final F theField,
+            final int theValue) {
+        final int oldValue = (int) read(theField.offset(), theField.bits());
+        write(theField.offset(), theField.bits(), theValue);
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long writeImpl(final F theField,
+            final long theValue) {
+        final long oldValue = read(theField.offset(), theField.bits());
+        write(theField.offset(), theField.bits(), theValue);
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short writeImpl(final F theField,
+            final short theValue) {
+        final short oldValue = (short) read(theField.offset(), theField.bits());
+        write(theField.offset(), theField.bits(), theValue);
+        return oldValue;
+    }
+}
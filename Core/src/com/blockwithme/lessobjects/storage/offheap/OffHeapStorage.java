@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.offheap;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.storage.Storage;
+
+/**
+ * A Storage which keeps its primitive data outside of the Java heap. Since the
+ * GC does not know how much native memory such a storage uses, it should be
+ * closed explicitly once it is not needed anymore. Object fields are still
+ * stored on the heap.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public interface OffHeapStorage extends Storage, AutoCloseable {
+
+    /**
+     * Frees the native memory of this storage. The storage cannot be used
+     * afterwards. Closing an already closed storage does nothing.
+     */
+    @Override
+    void close();
+
+    /** Returns true, if this storage was closed. */
+    boolean isClosed();
+
+    /** Returns the number of bytes of native memory used by this storage. */
+    long offHeapBytes();
+}
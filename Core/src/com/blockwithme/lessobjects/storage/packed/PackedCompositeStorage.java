@@ -58,6 +58,11 @@ public class PackedCompositeStorage extends PackedStorage {
                 @Nullable final Storage theBaseStorage,
                 final boolean theTransactionalFlag) {
             // passing SINGLE_D as arity for the child storage.
+            if (theStruct.bitmapIndexed()) {
+                return new PackedBitmapSparseStorage(theStruct,
+                        theInitialCapacity, theBaseStorage,
+                        theTransactionalFlag, Arity.ONE_D);
+            }
             return new PackedSparseStorage(theStruct, theInitialCapacity,
                     theBaseStorage, theTransactionalFlag, Arity.ONE_D);
         }
@@ -131,6 +136,14 @@ public class PackedCompositeStorage extends PackedStorage {
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected void permuteStructures(final int[] theOrder,
+            final int[] theInverse) {
+        super.permuteStructures(theOrder, theInverse);
+        optionalStorage.permute(theOrder, theInverse);
+    }
+
     /** {@inheritDoc} */
     @Override
     public void clearChild(final Struct theChild) {
@@ -146,7 +159,7 @@ public class PackedCompositeStorage extends PackedStorage {
     @Override
     public void copyStorage(final Storage theOther,
             final SchemaMigrator theSchemaMigrator) {
-        if (isDifferent(theOther)) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
             // Call AbstractStorage.copyStorage method.
             super.copyStorage(theOther, theSchemaMigrator);
         } else {
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package com.blockwithme.lessobjects.storage.packed;
 
+import java.util.Arrays;
+
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -30,6 +32,7 @@ import com.blockwithme.lessobjects.storage.StorageSizingStrategy;
 import com.blockwithme.lessobjects.util.StructConstants;
 import com.carrotsearch.hppc.IntIntOpenHashMap;
 import com.carrotsearch.hppc.IntStack;
+import com.carrotsearch.hppc.cursors.IntIntCursor;
 
 /**
  *  A Sparse is an automatically resizable storage that can grow or shrink based on the number
@@ -56,6 +59,9 @@ public class PackedSparseStorage extends PackedCompositeStorage implements
     /** The primary index. */
     private int primaryIndex;
 
+    /** Set while resizing, so that the selection does not change. */
+    private transient boolean resizing;
+
     /** The Strategy. */
     private transient StorageSizingStrategy strategy = new SimpleSizingStrategy();
 
@@ -87,6 +93,17 @@ public class PackedSparseStorage extends PackedCompositeStorage implements
                 theArity);
     }
 
+    /** Resizes the storage, without adding the selected slot as a
+     * structure. */
+    private void resize(final int theNewCapacity) {
+        resizing = true;
+        try {
+            resizeStorage(theNewCapacity);
+        } finally {
+            resizing = false;
+        }
+    }
+
     /** Allocates space for a new element. */
     private int selectNew(final int theStructure) {
         final int secondaryIndex = indexMap.size() > 0 ? indexMap
@@ -94,7 +111,7 @@ public class PackedSparseStorage extends PackedCompositeStorage implements
         if (secondaryIndex >= capacity) {
             if (secondaryIndex <= strategy.max()) {
                 final int growBy = strategy.grow(capacity, 1);
-                resizeStorage(capacity + growBy);
+                resize(capacity + growBy);
             } else {
                 throw new IllegalStateException(
                         "Storage cannot be contain more than " + strategy.max()
@@ -114,6 +131,53 @@ public class PackedSparseStorage extends PackedCompositeStorage implements
                 isSecondary ? baseStorage : null, !transactionsDisabled, arity);
     }
 
+    /** Only renumbers the structures; their slots, and the children in
+     * their slots, do not move. */
+    @Override
+    protected void permuteStructures(final int[] theOrder,
+            final int[] theInverse) {
+        final IntIntOpenHashMap permuted = new IntIntOpenHashMap();
+        for (final IntIntCursor entry : indexMap) {
+            final int key = entry.key;
+            permuted.put(key < theInverse.length ? theInverse[key] : key,
+                    entry.value);
+        }
+        indexMap = permuted;
+        for (int i = 0; i < lastInserted.size(); i++) {
+            final int key = lastInserted.get(i);
+            if (key < theInverse.length) {
+                lastInserted.set(i, theInverse[key]);
+            }
+        }
+        isSelected = false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        // A missing structure reads as zero, like a newly added one.
+        return indexMap.containsKey(theStructure) ? super.rawRead(theField,
+                indexMap.get(theStructure)) : 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        // Adding a structure can resize the storage, so we go through the
+        // selection, and restore it afterwards.
+        final int oldPrimaryIndex = primaryIndex;
+        final boolean oldSelected = isSelected;
+        selectStructure(theStructure);
+        final long result = super.rawWrite(theField, structure, theValue);
+        if (oldSelected) {
+            selectStructure(oldPrimaryIndex);
+        } else {
+            isSelected = false;
+        }
+        return result;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void checkAccess(final Field<?, ?> theField) {
@@ -150,7 +214,7 @@ public class PackedSparseStorage extends PackedCompositeStorage implements
         indexMap.remove(primaryIndex);
         final int shrinkSize = strategy.shrink(capacity, indexMap.size());
         if (shrinkSize > 0) {
-            resizeStorage(capacity - shrinkSize);
+            resize(capacity - shrinkSize);
         }
         isSelected = false;
     }
@@ -166,15 +230,25 @@ public class PackedSparseStorage extends PackedCompositeStorage implements
     @SuppressWarnings("null")
     public void copyStorage(final Storage theOther,
             final SchemaMigrator theSchemaMigrator) {
-        if (isDifferent(theOther)) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
             super.copyStorage(theOther, theSchemaMigrator);
         } else {
-            super.copyStorage(theOther, theSchemaMigrator);
             final PackedSparseStorage otheStorage = (PackedSparseStorage) theOther;
+            if (otheStorage.capacity < capacity) {
+                otheStorage.resize(capacity);
+            }
+            super.copyStorage(theOther, theSchemaMigrator);
+            // The selection, in PackedStorage.copyStorage, added a structure
+            // to theOther.
+            otheStorage.indexMap.clear();
+            otheStorage.lastInserted.clear();
             otheStorage.indexMap.putAll(indexMap);
             otheStorage.lastInserted.pushAll(lastInserted);
             otheStorage.primaryIndex = primaryIndex;
-            otheStorage.isSelected = isSelected;
+            otheStorage.isSelected = false;
+            if (isSelected) {
+                otheStorage.selectStructure(primaryIndex);
+            }
         }
     }
 
@@ -199,6 +273,10 @@ public class PackedSparseStorage extends PackedCompositeStorage implements
     /** {@inheritDoc} */
     @Override
     public boolean selectStructure(final int theStructure) {
+        if (resizing) {
+            // resizeStorage() re-selects the current slot.
+            return true;
+        }
         int secondaryIndex;
         if (indexMap.containsKey(theStructure)) {
             secondaryIndex = indexMap.lget();
@@ -212,4 +290,13 @@ public class PackedSparseStorage extends PackedCompositeStorage implements
         isSelected = true;
         return true;
     }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    public int[] structures() {
+        final int[] result = indexMap.keys().toArray();
+        Arrays.sort(result);
+        return result;
+    }
 }
@@ -20,6 +20,7 @@ import static com.blockwithme.lessobjects.util.StructConstants.LONG_BITS;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import com.blockwithme.lessobjects.Field;
 import com.blockwithme.lessobjects.SchemaMigrator;
 import com.blockwithme.lessobjects.Struct;
 import com.blockwithme.lessobjects.fields.primitive.BooleanField;
@@ -33,6 +34,8 @@ import com.blockwithme.lessobjects.fields.primitive.ShortField;
 import com.blockwithme.lessobjects.multidim.Arity;
 import com.blockwithme.lessobjects.storage.AbstractStorage;
 import com.blockwithme.lessobjects.storage.BaseLongStorage;
+import com.blockwithme.lessobjects.storage.ChangeType;
+import com.blockwithme.lessobjects.storage.SparseStorage;
 import com.blockwithme.lessobjects.storage.Storage;
 import com.blockwithme.lessobjects.storage.StorageBuilder;
 
@@ -71,7 +74,7 @@ public class PackedStorage extends BaseLongStorage {
     }
 
     /** Constructor which creates the array itself */
-    PackedStorage(final Struct theStruct, final int theStorageSize,
+    protected PackedStorage(final Struct theStruct, final int theStorageSize,
             @Nullable final Storage theBaseStorage,
             final boolean isTransactional, final boolean theInitDefaultsFlag,
             final Arity theArity) {
@@ -105,6 +108,388 @@ public class PackedStorage extends BaseLongStorage {
                 : null, transactionsEnabled(), false, arity);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final BooleanField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final boolean[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = rawRead(theField, structure) != 0;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final ByteField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final byte[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (byte) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final CharField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final char[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (char) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final DoubleField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final double[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = Double.longBitsToDouble(rawRead(theField,
+                    structure));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final FloatField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final float[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = Float.intBitsToFloat((int) rawRead(theField,
+                    structure));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final IntField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final int[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (int) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final LongField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final long[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void bulkRead(final ShortField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final short[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkRead(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkBulkRange(theStructures, theFrom, theCount);
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            theValues[i] = (short) rawRead(theField, structure);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final BooleanField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final boolean[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final boolean value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value ? 1L : 0L);
+            if (transactions) {
+                final boolean oldValue = oldRaw != 0;
+                if (oldValue != value) {
+                    publishChange((BooleanField) theField,
+                            ChangeType.BOOLEAN_FIELD, value, oldValue,
+                            structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final ByteField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final byte[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final byte value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final byte oldValue = (byte) oldRaw;
+                if (oldValue != value) {
+                    publishChange((ByteField) theField, ChangeType.BYTE_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final CharField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final char[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final char value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final char oldValue = (char) oldRaw;
+                if (oldValue != value) {
+                    publishChange((CharField) theField, ChangeType.CHAR_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final DoubleField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final double[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final double value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure,
+                    Double.doubleToRawLongBits(value));
+            if (transactions) {
+                final double oldValue = Double.longBitsToDouble(oldRaw);
+                if (oldValue != value) {
+                    publishChange((DoubleField) theField,
+                            ChangeType.DOUBLE_FIELD, value, oldValue,
+                            structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final FloatField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final float[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final float value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure,
+                    Float.floatToRawIntBits(value));
+            if (transactions) {
+                final float oldValue = Float.intBitsToFloat((int) oldRaw);
+                if (oldValue != value) {
+                    publishChange((FloatField) theField, ChangeType.FLOAT_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final IntField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final int[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final int value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final int oldValue = (int) oldRaw;
+                if (oldValue != value) {
+                    publishChange((IntField) theField, ChangeType.INT_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final LongField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final long[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final long value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final long oldValue = oldRaw;
+                if (oldValue != value) {
+                    publishChange((LongField) theField, ChangeType.LONG_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected void bulkWrite(final ShortField<?, ?> theField,
+            @Nullable final int[] theStructures, final int theFrom,
+            final short[] theValues, final int theCount) {
+        if (this instanceof SparseStorage || !checkBulkAccess(theField)) {
+            super.bulkWrite(theField, theStructures, theFrom, theValues,
+                    theCount);
+            return;
+        }
+        checkReadOnly();
+        checkBulkRange(theStructures, theFrom, theCount);
+        final boolean transactions = transactionsEnabled();
+        for (int i = 0; i < theCount; i++) {
+            final int structure = theStructures == null ? theFrom + i
+                    : theStructures[i];
+            final short value = theValues[i];
+            final long oldRaw = rawWrite(theField, structure, value);
+            if (transactions) {
+                final short oldValue = (short) oldRaw;
+                if (oldValue != value) {
+                    publishChange((ShortField) theField, ChangeType.SHORT_FIELD,
+                            value, oldValue, structure);
+                }
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void clearAllChildren() {
@@ -119,12 +504,33 @@ public class PackedStorage extends BaseLongStorage {
                 !transactionsDisabled, Arity.ONE_D);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        return readBits(theStructure * structSize + theField.offset(),
+                theField.bits());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        final long position = theStructure * structSize + theField.offset();
+        final long oldValue = readBits(position, theField.bits());
+        writeBits(position, theField.bits(), theValue);
+        return oldValue;
+    }
+
     /** Reads some bits, at the give position. */
-    protected long read(long theOffsetInBits, final int theBitsCount) {
+    protected long read(final long theOffsetInBits, final int theBitsCount) {
+        return readBits(theOffsetInBits + structurePosition, theBitsCount);
+    }
 
-        theOffsetInBits += structurePosition;
-        final int arrayIndex = (int) (theOffsetInBits / LONG_BITS);
-        final int bitIndex = (int) (theOffsetInBits % LONG_BITS);
+    /** Reads some bits, at the give position, from the start of the array. */
+    private long readBits(final long thePosition, final int theBitsCount) {
+
+        final int arrayIndex = (int) (thePosition / LONG_BITS);
+        final int bitIndex = (int) (thePosition % LONG_BITS);
         final int rest = LONG_BITS - bitIndex;
         final long valueMask = mask(Math.min(theBitsCount, rest));
         final long arrayValue = array[arrayIndex];
@@ -141,12 +547,17 @@ public class PackedStorage extends BaseLongStorage {
     }
 
     /** Writes some bits, at the give position. */
-    protected void write(long theOffsetInBits, final int theBitsCount,
+    protected void write(final long theOffsetInBits, final int theBitsCount,
+            final long theValue) {
+        writeBits(theOffsetInBits + structurePosition, theBitsCount, theValue);
+    }
+
+    /** Writes some bits, at the give position, from the start of the array. */
+    private void writeBits(final long thePosition, final int theBitsCount,
             final long theValue) {
 
-        theOffsetInBits += structurePosition;
-        final int arrayIndex = (int) (theOffsetInBits / LONG_BITS);
-        final int bitIndex = (int) (theOffsetInBits % LONG_BITS);
+        final int arrayIndex = (int) (thePosition / LONG_BITS);
+        final int bitIndex = (int) (thePosition % LONG_BITS);
         final int rest = LONG_BITS - bitIndex;
         final long valueMask = mask(Math.min(theBitsCount, rest));
         final long beforeValue = array[arrayIndex];
@@ -166,12 +577,25 @@ public class PackedStorage extends BaseLongStorage {
 
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean concurrentBulkRead() {
+        return !(this instanceof SparseStorage);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int concurrentWriteGranularity() {
+        return this instanceof SparseStorage ? 0
+                : alignedStructures(LONG_BITS);
+    }
+
     /** {@inheritDoc} */
     @SuppressWarnings("null")
     @Override
     public void copyStorage(final Storage theOther,
             final SchemaMigrator theSchemaMigrator) {
-        if (isDifferent(theOther)) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
             super.copyStorage(theOther, theSchemaMigrator);
         } else {
             final PackedStorage otherStorage = (PackedStorage) theOther;
@@ -181,6 +605,7 @@ public class PackedStorage extends BaseLongStorage {
                         otherStorage.objectStorageObjects);
             }
             otherStorage.selectStructure(getSelectedStructure());
+            otherStorage.rebuildIndexes();
         }
     }
 
@@ -297,6 +722,7 @@ public class PackedStorage extends BaseLongStorage {
             } else {
                 selectStructure(theNewCapacity - 1);
             }
+            rebuildIndexes();
         }
     }
 
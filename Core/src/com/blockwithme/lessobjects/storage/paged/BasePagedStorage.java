@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.paged;
+
+import static com.blockwithme.lessobjects.util.StructConstants.LONG_BITS;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.BaseWordStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64Storage;
+import com.blockwithme.lessobjects.storage.collections.IntObjectMap;
+
+/**
+ * Base class of the paged storages. The words of the structures are kept in
+ * LongPages, and the values of the object fields in ObjectPages, using
+ * exactly the same layout as the equivalent heap storage.
+ *
+ * Resizing only allocates, or drops, pages; nothing is ever copied.
+ * Snapshots share the pages with the storage; a page is copied the first time
+ * it is modified after a snapshot.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public abstract class BasePagedStorage extends BaseWordStorage {
+
+    /** The init defaults flag. */
+    protected final boolean initDefaults;
+
+    /** The pages. */
+    protected final LongPages pages;
+
+    /** The position of the current struct, as a word index. We do not use
+     * structureIndex, because it is an int. */
+    protected long structureWord;
+
+    /** Computes the number of words, given a structure size, and a number of
+     * structure. */
+    public static long words(final int theCount, final long theStructSize) {
+        return (theStructSize * theCount + LONG_BITS - 1) / LONG_BITS;
+    }
+
+    /** Constructor */
+    protected BasePagedStorage(final Struct theStruct, final LongPages thePages,
+            final long theStructSize, final int theCapacity,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final boolean theInitDefaultsFlag,
+            final Arity theArity) {
+        super(theStruct, theStructSize, theCapacity, theBaseStorage,
+                isTransactional, theArity);
+        pages = thePages;
+        initDefaults = theInitDefaultsFlag;
+    }
+
+    /** Resizes the object pages of a struct, and it's children. */
+    private void resizeObjects(final Struct theStruct, final int theCapacity) {
+        for (final ObjectField<?, ?> f : theStruct.structObjectFields()) {
+            if (!f.properties().isOptional()) {
+                ((ObjectPages) objectStorageObjects[f.properties()
+                        .objectFieldIndex()]).resize(theCapacity);
+            }
+        }
+        for (final Struct child : theStruct.structChildren()) {
+            if (child != null) {
+                resizeObjects(child, theCapacity);
+            }
+        }
+    }
+
+    /** Shares the object pages of a struct, and it's children, with a
+     * snapshot. */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void snapshotObjects(final Struct theStruct,
+            final Object[] theTarget) {
+        for (final ObjectField<?, ?> f : theStruct.structObjectFields()) {
+            final int index = f.properties().objectFieldIndex();
+            if (!f.properties().isOptional()) {
+                theTarget[index] = ((ObjectPages) objectStorageObjects[index])
+                        .snapshot();
+            } else {
+                ((IntObjectMap) theTarget[index])
+                        .putAll((IntObjectMap) objectStorageObjects[index]);
+            }
+        }
+        for (final Struct child : theStruct.structChildren()) {
+            if (child != null) {
+                snapshotObjects(child, theTarget);
+            }
+        }
+    }
+
+    /** Creates a storage, of the same type, using the given pages, without
+     * initializing the defaults. */
+    protected abstract BasePagedStorage newStorage(final LongPages thePages);
+
+    /** {@inheritDoc} */
+    @Override
+    protected void clearAllChildren() {
+        // do nothing
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void copyObjects(final Object theSource, final Object theTarget) {
+        ((ObjectPages) theSource).copyTo((ObjectPages) theTarget);
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected AbstractStorage getSingleStorage(final Struct theGlobalStruct) {
+        // Global fields are stored only once, so a single page would be a waste.
+        return new Aligned64Storage(theGlobalStruct, 1, this,
+                !transactionsDisabled, Arity.ONE_D);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Object newObjects(final int theCapacity) {
+        return new ObjectPages(theCapacity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Object objectAt(final Object theObjects, final int theIndex) {
+        return ((ObjectPages) theObjects).get(theIndex);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Object objectAt(final Object theObjects, final int theIndex,
+            @Nullable final Object theValue) {
+        return ((ObjectPages) theObjects).set(theIndex, theValue);
+    }
+
+    /** Aligned on the pages, so that a shared page is only ever copied by
+     * a single thread. */
+    @Override
+    public int concurrentWriteGranularity() {
+        return alignedStructures((long) LongPages.PAGE_WORDS * Long.SIZE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void copyStorage(final Storage theOther,
+            final SchemaMigrator theSchemaMigrator) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
+            // call AbstractStorage.copyStorage method.
+            super.copyStorage(theOther, theSchemaMigrator);
+        } else {
+            final BasePagedStorage otherStorage = (BasePagedStorage) theOther;
+            pages.copyTo(otherStorage.pages);
+            if (objectStorageObjects != null && objectStorageObjects.length > 0) {
+                copyObjectStorage(struct(), objectStorageObjects,
+                        otherStorage.objectStorageObjects);
+            }
+            otherStorage.selectStructure(getSelectedStructure());
+            otherStorage.rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild,
+            final int theInitialSize) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** Returns the pages. */
+    public LongPages getPages() {
+        return pages;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    public Storage list(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void resizeStorage(final int theNewCapacity) {
+        checkReadOnly();
+        if (capacity != theNewCapacity) {
+            pages.resize(words(theNewCapacity, structSize));
+            resizeObjects(struct(), theNewCapacity);
+            final int oldCapacity = capacity;
+            capacity = theNewCapacity;
+            final int currentIndex = getSelectedStructure();
+
+            if (capacity > oldCapacity && initDefaults) {
+                for (int i = oldCapacity; i < capacity; i++) {
+                    selectStructure(i);
+                    clear();
+                }
+            }
+            if (currentIndex < theNewCapacity) {
+                selectStructure(currentIndex);
+            } else {
+                selectStructure(theNewCapacity - 1);
+            }
+            rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectStructure(final int theStructure) {
+        checkArgument(theStructure < getCapacity(),
+                "Storage capacity is less then the element index passed!");
+        structure = theStructure;
+        structurePosition = theStructure * structSize;
+        structureWord = structurePosition / LONG_BITS;
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage snapshot() {
+        checkState(!isSecondary,
+                "A snapshot can be created only for a base storage instance.");
+        checkState(!transactionManager().isUncommitted(),
+                "The current Storage has uncommitted data.");
+        final BasePagedStorage result = newStorage(pages.snapshot());
+        snapshotObjects(struct(), result.objectStorageObjects);
+        if (globalFieldsStorage != null) {
+            globalFieldsStorage.copyStorage(result.globalFieldsStorage);
+        }
+        result.readOnly = true;
+        result.selectStructure(getSelectedStructure());
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.paged;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A growable sequence of words, stored in fixed-size long array pages.
+ *
+ * Growing only allocates new pages; the existing words are never copied.
+ * Since the word index is a long, the number of words is not limited by the
+ * maximum size of a Java array.
+ *
+ * A snapshot shares the pages. After that, the first write to a shared page
+ * copies that page only (copy-on-write).
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class LongPages {
+
+    /** log2 of the number of words per page. */
+    public static final int PAGE_SHIFT = 12;
+
+    /** The number of words per page (32KB). */
+    public static final int PAGE_WORDS = 1 << PAGE_SHIFT;
+
+    /** Mask of the word index, within a page. */
+    public static final int PAGE_MASK = PAGE_WORDS - 1;
+
+    /** The pages. Only the first pageCount are in use. */
+    private long[][] pages;
+
+    /** The number of pages in use. */
+    private int pageCount;
+
+    /** Pages shared with a snapshot, which must be copied before a write. */
+    private boolean[] shared;
+
+    /** The number of words. */
+    private long words;
+
+    /** Computes the number of pages needed for some words. */
+    public static int pagesFor(final long theWords) {
+        final long result = (theWords + PAGE_MASK) >>> PAGE_SHIFT;
+        checkArgument(result <= Integer.MAX_VALUE, "Too many words: "
+                + theWords);
+        return (int) result;
+    }
+
+    /** Creates pages, for the given number of words. */
+    public LongPages(final long theWords) {
+        pages = new long[Math.max(1, pagesFor(theWords))][];
+        shared = new boolean[pages.length];
+        resize(theWords);
+    }
+
+    /** Creates a snapshot of other pages. */
+    private LongPages(final LongPages theOther) {
+        pages = Arrays.copyOf(theOther.pages, Math.max(1, theOther.pageCount));
+        shared = new boolean[pages.length];
+        Arrays.fill(shared, true);
+        pageCount = theOther.pageCount;
+        words = theOther.words;
+    }
+
+    /** Copies a shared page, so that it can be modified. */
+    private long[] unshare(final int thePage) {
+        final long[] result = pages[thePage].clone();
+        pages[thePage] = result;
+        shared[thePage] = false;
+        return result;
+    }
+
+    /** Copies all the words to the other pages, up to the smaller size. */
+    public void copyTo(final LongPages theOther) {
+        final long count = Math.min(words, theOther.words);
+        final int fullPages = (int) (count >>> PAGE_SHIFT);
+        for (int p = 0; p < fullPages; p++) {
+            System.arraycopy(pages[p], 0, theOther.writablePage(p), 0,
+                    PAGE_WORDS);
+        }
+        final int rest = (int) count & PAGE_MASK;
+        if (rest != 0) {
+            System.arraycopy(pages[fullPages], 0,
+                    theOther.writablePage(fullPages), 0, rest);
+        }
+    }
+
+    /** Returns the word at the given index. */
+    public long get(final long theIndex) {
+        return pages[(int) (theIndex >>> PAGE_SHIFT)][(int) theIndex
+                & PAGE_MASK];
+    }
+
+    /** Returns a page, for reading only. The last page can contain unused
+     * words. */
+    public long[] page(final int thePage) {
+        checkArgument(thePage < pageCount, "Invalid page: " + thePage);
+        return pages[thePage];
+    }
+
+    /** Returns the number of pages in use. */
+    public int pageCount() {
+        return pageCount;
+    }
+
+    /** Sets the word at the given index. */
+    public void put(final long theIndex, final long theValue) {
+        final int page = (int) (theIndex >>> PAGE_SHIFT);
+        final long[] array = shared[page] ? unshare(page) : pages[page];
+        array[(int) theIndex & PAGE_MASK] = theValue;
+    }
+
+    /** Changes the number of words. New pages are allocated, or dropped, as
+     * needed. Dropped words are zero when the pages grow again. */
+    public void resize(final long theNewWords) {
+        checkArgument(theNewWords >= 0, "Negative size: " + theNewWords);
+        final int newPageCount = pagesFor(theNewWords);
+        if (newPageCount > pages.length) {
+            // Only the page references are copied
+            final int length = Math.max(newPageCount, pages.length * 2);
+            pages = Arrays.copyOf(pages, length);
+            shared = Arrays.copyOf(shared, length);
+        }
+        for (int p = pageCount; p < newPageCount; p++) {
+            pages[p] = new long[PAGE_WORDS];
+        }
+        for (int p = newPageCount; p < pageCount; p++) {
+            pages[p] = null;
+            shared[p] = false;
+        }
+        if (theNewWords < words && (theNewWords & PAGE_MASK) != 0) {
+            Arrays.fill(writablePage(newPageCount - 1),
+                    (int) theNewWords & PAGE_MASK, PAGE_WORDS, 0L);
+        }
+        pageCount = newPageCount;
+        words = theNewWords;
+    }
+
+    /** Returns an immutable snapshot of the pages. The pages are shared,
+     * until they are modified. */
+    public LongPages snapshot() {
+        Arrays.fill(shared, 0, pageCount, true);
+        return new LongPages(this);
+    }
+
+    /** Returns the number of words. */
+    public long words() {
+        return words;
+    }
+
+    /** Returns a page, for writing. A shared page is copied first. */
+    public long[] writablePage(final int thePage) {
+        checkArgument(thePage < pageCount, "Invalid page: " + thePage);
+        return shared[thePage] ? unshare(thePage) : pages[thePage];
+    }
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.paged;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A growable sequence of object references, stored in fixed-size pages. It
+ * replaces the Object array of an object field, in the paged storages.
+ *
+ * Growing only allocates new pages; the existing references are never copied.
+ * Pages are only allocated when something is written to them.
+ *
+ * A snapshot shares the pages. After that, the first write to a shared page
+ * copies that page only (copy-on-write).
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class ObjectPages {
+
+    /** log2 of the number of references per page. */
+    public static final int PAGE_SHIFT = 10;
+
+    /** The number of references per page. */
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    /** Mask of the index, within a page. */
+    public static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /** The pages. Only the first pageCount are in use. */
+    private Object[][] pages;
+
+    /** The number of pages in use. */
+    private int pageCount;
+
+    /** Pages shared with a snapshot, which must be copied before a write. */
+    private boolean[] shared;
+
+    /** The number of references. */
+    private int size;
+
+    /** Computes the number of pages needed for some references. */
+    private static int pagesFor(final int theSize) {
+        return (int) (((long) theSize + PAGE_MASK) >>> PAGE_SHIFT);
+    }
+
+    /** Creates pages, for the given number of references. */
+    public ObjectPages(final int theSize) {
+        pages = new Object[Math.max(1, pagesFor(theSize))][];
+        shared = new boolean[pages.length];
+        resize(theSize);
+    }
+
+    /** Creates a snapshot of other pages. */
+    private ObjectPages(final ObjectPages theOther) {
+        pages = Arrays.copyOf(theOther.pages, Math.max(1, theOther.pageCount));
+        shared = new boolean[pages.length];
+        Arrays.fill(shared, true);
+        pageCount = theOther.pageCount;
+        size = theOther.size;
+    }
+
+    /** Returns a page for writing, allocating or copying it, if needed. */
+    private Object[] writablePage(final int thePage) {
+        Object[] result = pages[thePage];
+        if (result == null) {
+            result = new Object[PAGE_SIZE];
+            pages[thePage] = result;
+        } else if (shared[thePage]) {
+            result = result.clone();
+            pages[thePage] = result;
+        }
+        shared[thePage] = false;
+        return result;
+    }
+
+    /** Copies the start of a page to the other pages. */
+    private void copyPage(final int thePage, final ObjectPages theOther,
+            final int theCount) {
+        if (pages[thePage] != null) {
+            System.arraycopy(pages[thePage], 0,
+                    theOther.writablePage(thePage), 0, theCount);
+        } else if (theOther.pages[thePage] != null) {
+            Arrays.fill(theOther.writablePage(thePage), 0, theCount, null);
+        }
+    }
+
+    /** Copies all the references to the other pages, up to the smaller size. */
+    public void copyTo(final ObjectPages theOther) {
+        final int count = Math.min(size, theOther.size);
+        final int fullPages = count >>> PAGE_SHIFT;
+        for (int p = 0; p < fullPages; p++) {
+            copyPage(p, theOther, PAGE_SIZE);
+        }
+        final int rest = count & PAGE_MASK;
+        if (rest != 0) {
+            copyPage(fullPages, theOther, rest);
+        }
+    }
+
+    /** Returns the reference at the given index. */
+    @Nullable
+    public Object get(final int theIndex) {
+        final Object[] page = pages[theIndex >>> PAGE_SHIFT];
+        return (page == null) ? null : page[theIndex & PAGE_MASK];
+    }
+
+    /** Changes the number of references. New pages are allocated, or
+     * dropped, as needed. Dropped references are cleared. */
+    public void resize(final int theNewSize) {
+        checkArgument(theNewSize >= 0, "Negative size: " + theNewSize);
+        final int newPageCount = pagesFor(theNewSize);
+        if (newPageCount > pages.length) {
+            final int length = Math.max(newPageCount, pages.length * 2);
+            pages = Arrays.copyOf(pages, length);
+            shared = Arrays.copyOf(shared, length);
+        }
+        for (int p = newPageCount; p < pageCount; p++) {
+            pages[p] = null;
+            shared[p] = false;
+        }
+        if (theNewSize < size && (theNewSize & PAGE_MASK) != 0
+                && pages[newPageCount - 1] != null) {
+            Arrays.fill(writablePage(newPageCount - 1), theNewSize & PAGE_MASK,
+                    PAGE_SIZE, null);
+        }
+        pageCount = newPageCount;
+        size = theNewSize;
+    }
+
+    /** Sets the reference at the given index, and returns the old one. */
+    @Nullable
+    public Object set(final int theIndex, @Nullable final Object theValue) {
+        final int p = theIndex >>> PAGE_SHIFT;
+        final Object[] page = (pages[p] == null || shared[p]) ? writablePage(p)
+                : pages[p];
+        final int index = theIndex & PAGE_MASK;
+        final Object result = page[index];
+        page[index] = theValue;
+        return result;
+    }
+
+    /** Returns an immutable snapshot of the pages. The pages are shared,
+     * until they are modified. */
+    public ObjectPages snapshot() {
+        Arrays.fill(shared, 0, pageCount, true);
+        return new ObjectPages(this);
+    }
+
+    /** Returns the number of references. */
+    public int size() {
+        return size;
+    }
+}
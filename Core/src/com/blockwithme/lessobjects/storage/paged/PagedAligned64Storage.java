@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.paged;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.util.StructConstants;
+
+/**
+ * Paged version of the Aligned64Storage. The layout of the words is the
+ * same, but they live in LongPages instead of a long array, so that growing
+ * does not copy the words, and the number of words can exceed the size of
+ * a Java array.
+ *
+ * @author monster
+ */
+// CHECKSTYLE.OFF: IllegalType
+@ParametersAreNonnullByDefault
+public class PagedAligned64Storage extends BasePagedStorage {
+
+    /** Constructor */
+    protected PagedAligned64Storage(final Struct theStruct,
+            final LongPages thePages, final int theStorageSize,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final boolean theInitDefaultsFlag,
+            final Arity theArity) {
+        super(theStruct, thePages, adjustStructSize(theStruct.bits()),
+                theStorageSize, theBaseStorage, isTransactional,
+                theInitDefaultsFlag, theArity);
+    }
+
+    /** Constructor which allocates the pages itself */
+    public PagedAligned64Storage(final Struct theStruct,
+            final int theStorageSize, @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final Arity theArity) {
+        this(theStruct, new LongPages(words(theStorageSize,
+                adjustStructSize(theStruct.bits()))), theStorageSize,
+                theBaseStorage, isTransactional, true, theArity);
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected Storage blankCopy() {
+        return new PagedAligned64Storage(struct, new LongPages(pages.words()),
+                capacity, isSecondary ? baseStorage : null,
+                transactionsEnabled(), false, arity);
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected BasePagedStorage newStorage(final LongPages thePages) {
+        return new PagedAligned64Storage(struct, thePages, capacity, null,
+                transactionsEnabled(), false, arity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        final long wordIndex = theStructure * structSize
+                / StructConstants.LONG_BITS + theField.offsetDiv64();
+        return (pages.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        final long word = replace(theStructure * structSize
+                / StructConstants.LONG_BITS + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (word & theField.mask64()) >> theField.offsetMod64();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean readBoolean(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (pages.get(wordIndex) & theField.mask64()) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte readByte(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (byte) ((pages.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char readChar(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (char) ((pages.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double readDouble(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return Double.longBitsToDouble(pages.get(wordIndex));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float readFloat(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return Float.intBitsToFloat((int) ((pages.get(wordIndex) & theField
+                .mask64()) >> theField.offsetMod64()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int readInt(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (int) ((pages.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long readLong(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (pages.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short readShort(final F theField) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        return (short) ((pages.get(wordIndex) & theField.mask64()) >> theField
+                .offsetMod64());
+    }
+
+    /** Replaces the bits of a field, and returns the old word. */
+    private long replace(final long theWordIndex, final long theMask,
+            final int theShift, final long theValue) {
+        final long word = pages.get(theWordIndex);
+        pages.put(theWordIndex, word & ~theMask | theValue << theShift
+                & theMask);
+        return word;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean writeImpl(final F theField,
+            final boolean theValue) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        final long word = pages.get(wordIndex);
+        final boolean oldValue = (word & theField.mask64()) != 0;
+        if (theValue) {
+            pages.put(wordIndex, word | theField.mask64());
+        } else {
+            pages.put(wordIndex, word & theField.negMask64());
+        }
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte writeImpl(final F theField,
+            final byte theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (byte) ((word & theField.mask64()) >> theField.offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char writeImpl(final F theField,
+            final char theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (char) ((word & theField.mask64()) >> theField.offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double writeImpl(final F theField,
+            final double theValue) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        final double oldValue = Double.longBitsToDouble(pages.get(wordIndex));
+        pages.put(wordIndex, Double.doubleToRawLongBits(theValue));
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float writeImpl(final F theField,
+            final float theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(),
+                Float.floatToRawIntBits(theValue));
+        return Float.intBitsToFloat((int) ((word & theField.mask64()) >> theField
+                .offsetMod64()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int writeImpl(final F theField,
+            final int theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (int) ((word & theField.mask64()) >> theField.offsetMod64());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long writeImpl(final F theField,
+            final long theValue) {
+        final long wordIndex = structureWord + theField.offsetDiv64();
+        if (theField.fullBits()) {
+            final long oldValue = pages.get(wordIndex);
+            pages.put(wordIndex, theValue);
+            return oldValue;
+        }
+        final long word = replace(wordIndex, theField.mask64(),
+                theField.offsetMod64(), theValue);
+        return (word & theField.mask64()) >> theField.offsetMod64();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short writeImpl(final F theField,
+            final short theValue) {
+        final long word = replace(structureWord + theField.offsetDiv64(),
+                theField.mask64(), theField.offsetMod64(), theValue);
+        return (short) ((word & theField.mask64()) >> theField.offsetMod64());
+    }
+}
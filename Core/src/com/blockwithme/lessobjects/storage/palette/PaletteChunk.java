@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.palette;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A chunk of a PaletteStorage. It contains a palette of the distinct rows
+ * (the bits of a whole structure) used in the chunk, and for each structure,
+ * the index of its row in the palette. The indexes are bit-packed, using a
+ * power-of-two number of bits, which grows with the palette.
+ *
+ * Every palette entry counts the structures that use it, so that an entry
+ * that is only used by the structure being written can be modified in place,
+ * and unused entries are recycled.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+final class PaletteChunk {
+
+    /** The number of bits of an index; 0 while the palette has one entry. */
+    private int indexBits;
+
+    /** The bit-packed indexes; null when indexBits is 0. */
+    private long[] indexes;
+
+    /** The palette rows, one after the other. */
+    private long[] palette;
+
+    /** The number of palette entries, used or not. */
+    private int paletteSize;
+
+    /** The number of structures using each palette entry. */
+    private int[] refs;
+
+    /** The number of structures in the chunk. */
+    private final int size;
+
+    /** The number of words of a row. */
+    private final int words;
+
+    /** Creates a chunk where all structures are zero. */
+    PaletteChunk(final int theSize, final int theWords) {
+        size = theSize;
+        words = theWords;
+        palette = new long[theWords];
+        refs = new int[] { theSize };
+        paletteSize = 1;
+    }
+
+    /** Copy constructor. */
+    private PaletteChunk(final PaletteChunk theOther) {
+        size = theOther.size;
+        words = theOther.words;
+        indexBits = theOther.indexBits;
+        indexes = theOther.indexes == null ? null : theOther.indexes.clone();
+        palette = theOther.palette.clone();
+        paletteSize = theOther.paletteSize;
+        refs = theOther.refs.clone();
+    }
+
+    /** Adds a new palette entry, reusing an unused one if possible. */
+    private int allocate(final long[] theRow) {
+        int result = -1;
+        for (int e = 0; e < paletteSize; e++) {
+            if (refs[e] == 0) {
+                result = e;
+                break;
+            }
+        }
+        if (result < 0) {
+            result = paletteSize++;
+            if (paletteSize > refs.length) {
+                refs = Arrays.copyOf(refs, refs.length * 2);
+                palette = Arrays.copyOf(palette, refs.length * words);
+            }
+            if (paletteSize > 1 << indexBits) {
+                widen();
+            }
+        }
+        System.arraycopy(theRow, 0, palette, result * words, words);
+        return result;
+    }
+
+    /** Finds a used palette entry with the given content, or returns -1. */
+    private int find(final long[] theRow) {
+        for (int e = 0; e < paletteSize; e++) {
+            if (refs[e] != 0 && same(e, theRow)) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares a palette entry with a row. */
+    private boolean same(final int theEntry, final long[] theRow) {
+        final int start = theEntry * words;
+        for (int w = 0; w < words; w++) {
+            if (palette[start + w] != theRow[w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Sets the palette entry of a structure. */
+    private void setEntry(final int theIndex, final int theEntry) {
+        final long position = (long) theIndex * indexBits;
+        final int word = (int) (position >>> 6);
+        final int bit = (int) (position & 63);
+        final long mask = (1L << indexBits) - 1 << bit;
+        indexes[word] = indexes[word] & ~mask | (long) theEntry << bit;
+    }
+
+    /** Doubles the number of bits of the indexes. */
+    private void widen() {
+        final int newBits = indexBits == 0 ? 1 : indexBits * 2;
+        final long[] newIndexes = new long[(int) (((long) size * newBits + 63) >>> 6)];
+        final int oldBits = indexBits;
+        final long[] oldIndexes = indexes;
+        indexBits = newBits;
+        indexes = newIndexes;
+        if (oldBits != 0) {
+            final long mask = (1L << oldBits) - 1;
+            for (int i = 0; i < size; i++) {
+                final long position = (long) i * oldBits;
+                setEntry(i, (int) (oldIndexes[(int) (position >>> 6)] >>> (int) (position & 63) & mask));
+            }
+        }
+    }
+
+    /** Returns a copy of this chunk. */
+    PaletteChunk copy() {
+        return new PaletteChunk(this);
+    }
+
+    /** Returns the palette entry of a structure. */
+    int entry(final int theIndex) {
+        if (indexBits == 0) {
+            return 0;
+        }
+        final long position = (long) theIndex * indexBits;
+        return (int) (indexes[(int) (position >>> 6)] >>> (int) (position & 63) & (1L << indexBits) - 1);
+    }
+
+    /** Returns the number of bits of an index. */
+    int indexBits() {
+        return indexBits;
+    }
+
+    /** Returns the palette rows. The row of entry e starts at word
+     * e * words. */
+    long[] palette() {
+        return palette;
+    }
+
+    /** Returns the number of used palette entries. */
+    int paletteEntries() {
+        int result = 0;
+        for (int e = 0; e < paletteSize; e++) {
+            if (refs[e] != 0) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /** Copies the row of a structure into theRow. */
+    void read(final int theIndex, final long[] theRow) {
+        System.arraycopy(palette, entry(theIndex) * words, theRow, 0, words);
+    }
+
+    /** Returns the number of words used by this chunk. */
+    long usedWords() {
+        return palette.length + (indexes == null ? 0 : indexes.length);
+    }
+
+    /** Sets the row of a structure. */
+    void write(final int theIndex, final long[] theRow) {
+        final int old = entry(theIndex);
+        if (same(old, theRow)) {
+            return;
+        }
+        int entry = find(theRow);
+        if (entry < 0) {
+            if (refs[old] == 1) {
+                // Only used by this structure: just change it.
+                System.arraycopy(theRow, 0, palette, old * words, words);
+                return;
+            }
+            entry = allocate(theRow);
+        }
+        refs[old]--;
+        refs[entry]++;
+        setEntry(theIndex, entry);
+    }
+}
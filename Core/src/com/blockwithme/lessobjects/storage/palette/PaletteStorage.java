@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.palette;
+
+import static com.blockwithme.lessobjects.util.StructConstants.EMPTY_OBJ_ARR;
+import static com.blockwithme.lessobjects.util.StructConstants.LONG_BITS;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.BaseWordStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+
+//CHECKSTYLE.OFF: IllegalType
+/**
+ * Implements the storage for the palette compiler. The structures are split
+ * in chunks (of Struct.blockSize() structures, or DEFAULT_CHUNK_SIZE). Every
+ * chunk only stores the distinct rows (the bits of a whole structure) that it
+ * uses, in a palette, and for each structure, a bit-packed index into the
+ * palette. The index uses 0 bits while the chunk is uniform, and grows as
+ * needed. This is very compact for low-cardinality data, like voxels.
+ *
+ * The rows use the same layout as in the PackedStorage. Object fields are
+ * not compressed.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class PaletteStorage extends BaseWordStorage {
+
+    /** The default number of structures per chunk (16 x 16 x 16). */
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    /** The selected chunk. */
+    private PaletteChunk chunk;
+
+    /** The index of the selected structure, in its chunk. */
+    private int chunkIndex;
+
+    /** The chunks. */
+    private PaletteChunk[] chunks;
+
+    /** The number of bits used to select the chunk. */
+    private final int chunkShift;
+
+    /** The number of structures per chunk. */
+    private final int chunkSize;
+
+    /** The init defaults flag. */
+    private final boolean initDefaults;
+
+    /** The row being written. */
+    private final long[] row;
+
+    /** The number of words of a row. */
+    private final int words;
+
+    /** Constructor */
+    @SuppressWarnings("null")
+    protected PaletteStorage(final Struct theStruct, final int theStorageSize,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final boolean theInitDefaultsFlag,
+            final Arity theArity) {
+        super(theStruct, theStruct.bits(), theStorageSize, theBaseStorage,
+                isTransactional, theArity);
+        initDefaults = theInitDefaultsFlag;
+        chunkSize = theStruct.blockSize() == 0 ? DEFAULT_CHUNK_SIZE
+                : theStruct.blockSize();
+        chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        words = Math.max(1, (theStruct.bits() + LONG_BITS - 1) / LONG_BITS);
+        row = new long[words];
+        chunks = new PaletteChunk[0];
+        resizeChunks(theStorageSize);
+        chunk = chunks[0];
+    }
+
+    /** Constructor */
+    public PaletteStorage(final Struct theStruct, final int theStorageSize,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final Arity theArity) {
+        this(theStruct, theStorageSize, theBaseStorage, isTransactional, true,
+                theArity);
+    }
+
+    /** Reads the bits of a field, for the selected structure. */
+    private long readBits(final Field<?, ?> theField) {
+        return readBits(theField, chunk, chunkIndex);
+    }
+
+    /** Reads the bits of a field, for the structure at the given index, in
+     * the given chunk. */
+    private long readBits(final Field<?, ?> theField,
+            final PaletteChunk theChunk, final int theIndex) {
+        final long[] palette = theChunk.palette();
+        final int bits = theField.bits();
+        final long position = (long) theChunk.entry(theIndex) * words
+                * LONG_BITS + theField.offset();
+        final int arrayIndex = (int) (position / LONG_BITS);
+        final int bitIndex = (int) (position % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        long value = palette[arrayIndex] >>> bitIndex
+                & mask(Math.min(bits, rest));
+        if (bits > rest) {
+            value |= (palette[arrayIndex + 1] & mask(bits - rest)) << rest;
+        }
+        return value;
+    }
+
+    /** Creates or drops chunks, to hold theCapacity structures. The
+     * structures past theCapacity, in the last chunk, are reset to zero. */
+    private void resizeChunks(final int theCapacity) {
+        final int count = Math.max(1, (theCapacity + chunkSize - 1)
+                >>> chunkShift);
+        final PaletteChunk[] newChunks = new PaletteChunk[count];
+        System.arraycopy(chunks, 0, newChunks, 0,
+                Math.min(count, chunks.length));
+        for (int c = chunks.length; c < count; c++) {
+            newChunks[c] = new PaletteChunk(chunkSize, words);
+        }
+        if (count <= chunks.length) {
+            final PaletteChunk last = newChunks[count - 1];
+            final long[] zero = new long[words];
+            for (int i = theCapacity - (count - 1) * chunkSize; i < chunkSize; i++) {
+                last.write(i, zero);
+            }
+        }
+        chunks = newChunks;
+    }
+
+    /** Writes the bits of a field, for the selected structure, and returns
+     * the old bits. */
+    private long writeBits(final Field<?, ?> theField, final long theValue) {
+        return writeBits(theField, chunk, chunkIndex, theValue);
+    }
+
+    /** Writes the bits of a field, for the structure at the given index, in
+     * the given chunk, and returns the old bits. */
+    private long writeBits(final Field<?, ?> theField,
+            final PaletteChunk theChunk, final int theIndex,
+            final long theValue) {
+        theChunk.read(theIndex, row);
+        final int bits = theField.bits();
+        final long position = theField.offset();
+        final int arrayIndex = (int) (position / LONG_BITS);
+        final int bitIndex = (int) (position % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        final long valueMask = mask(Math.min(bits, rest));
+        final long before = row[arrayIndex];
+        long oldValue = before >>> bitIndex & valueMask;
+        row[arrayIndex] = before & ~(valueMask << bitIndex)
+                | (theValue & valueMask) << bitIndex;
+        if (bits > rest) {
+            final long valueMask2 = mask(bits - rest);
+            final long before2 = row[arrayIndex + 1];
+            oldValue |= (before2 & valueMask2) << rest;
+            row[arrayIndex + 1] = before2 & ~valueMask2 | theValue >>> rest
+                    & valueMask2;
+        }
+        theChunk.write(theIndex, row);
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected Storage blankCopy() {
+        return new PaletteStorage(struct, capacity, isSecondary ? baseStorage
+                : null, transactionsEnabled(), false, arity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void clearAllChildren() {
+        // do nothing.
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected AbstractStorage getSingleStorage(final Struct theGlobalStruct) {
+        return new PaletteStorage(theGlobalStruct, 1, this,
+                !transactionsDisabled, Arity.ONE_D);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        return readBits(theField, chunks[theStructure >>> chunkShift],
+                theStructure & chunkSize - 1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        return writeBits(theField, chunks[theStructure >>> chunkShift],
+                theStructure & chunkSize - 1, theValue);
+    }
+
+    /** Returns the number of structures per chunk. */
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void copyStorage(final Storage theOther,
+            final SchemaMigrator theSchemaMigrator) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
+            super.copyStorage(theOther, theSchemaMigrator);
+        } else {
+            final PaletteStorage otherStorage = (PaletteStorage) theOther;
+            final int count = Math.min(chunks.length,
+                    otherStorage.chunks.length);
+            for (int c = 0; c < count; c++) {
+                otherStorage.chunks[c] = chunks[c].copy();
+            }
+            if (objectStorageObjects != null && objectStorageObjects.length > 0) {
+                copyObjectStorage(struct(), objectStorageObjects,
+                        otherStorage.objectStorageObjects);
+            }
+            otherStorage.selectStructure(getSelectedStructure());
+            otherStorage.rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild,
+            final int theInitialSize) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    public Storage list(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** Returns the number of distinct rows used in the chunk of the given
+     * structure. */
+    public int paletteEntries(final int theStructure) {
+        checkArgument(theStructure >= 0 && theStructure < capacity,
+                "Invalid structure: " + theStructure);
+        return chunks[theStructure >>> chunkShift].paletteEntries();
+    }
+
+    /** Returns the number of bits of the palette indexes, in the chunk of the
+     * given structure. */
+    public int paletteIndexBits(final int theStructure) {
+        checkArgument(theStructure >= 0 && theStructure < capacity,
+                "Invalid structure: " + theStructure);
+        return chunks[theStructure >>> chunkShift].indexBits();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean readBoolean(final F theField) {
+        return readBits(theField) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte readByte(final F theField) {
+        return (byte) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char readChar(final F theField) {
+        return (char) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double readDouble(final F theField) {
+        return Double.longBitsToDouble(readBits(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float readFloat(final F theField) {
+        return Float.intBitsToFloat((int) readBits(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int readInt(final F theField) {
+        return (int) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long readLong(final F theField) {
+        return readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short readShort(final F theField) {
+        return (short) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void resizeStorage(final int theNewCapacity) {
+        checkReadOnly();
+        if (capacity != theNewCapacity) {
+            resizeChunks(theNewCapacity);
+            Object[] newObjectStore;
+            final int oldCapacity = capacity;
+            capacity = theNewCapacity;
+            final int currentIndex = getSelectedStructure();
+
+            if (objectStorageObjects.length > 0) {
+                newObjectStore = new Object[objectStorageObjects.length];
+            } else {
+                newObjectStore = EMPTY_OBJ_ARR;
+            }
+
+            reInitObjectStorage(struct(), newObjectStore);
+            copyObjectStorage(struct(), objectStorageObjects, newObjectStore);
+            objectStorageObjects = newObjectStore;
+
+            if (capacity > oldCapacity && initDefaults) {
+                for (int i = oldCapacity; i < capacity; i++) {
+                    selectStructure(i);
+                    clear();
+                }
+            }
+            if (currentIndex < theNewCapacity) {
+                selectStructure(currentIndex);
+            } else {
+                selectStructure(theNewCapacity - 1);
+            }
+            rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectStructure(final int theStructure) {
+        checkArgument(theStructure < getCapacity(),
+                "Storage capacity is less then the element index passed!");
+        structure = theStructure;
+        chunk = chunks[theStructure >>> chunkShift];
+        chunkIndex = theStructure & chunkSize - 1;
+        return true;
+    }
+
+    /** Returns the number of words actually used to store the primitive
+     * fields. A PackedStorage would use (capacity * struct.bits() / 64). */
+    public long usedWords() {
+        long result = 0;
+        for (final PaletteChunk c : chunks) {
+            result += c.usedWords();
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean writeImpl(final F theField,
+            final boolean theValue) {
+        return writeBits(theField, theValue ? 1 : 0) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte writeImpl(final F theField,
+            final byte theValue) {
+        return (byte) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char writeImpl(final F theField,
+            final char theValue) {
+        return (char) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double writeImpl(final F theField,
+            final double theValue) {
+        return Double.longBitsToDouble(writeBits(theField,
+                Double.doubleToRawLongBits(theValue)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float writeImpl(final F theField,
+            final float theValue) {
+        return Float.intBitsToFloat((int) writeBits(theField,
+                Float.floatToRawIntBits(theValue)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int writeImpl(final F theField,
+            final int theValue) {
+        return (int) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long writeImpl(final F theField,
+            final long theValue) {
+        return writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short writeImpl(final F theField,
+            final short theValue) {
+        return (short) writeBits(theField, theValue);
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.parallel;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+
+/**
+ * The changes made by a StructOperator, in one partition of a storage. Each
+ * partition records its own changes, without synchronization; the buffers are
+ * then appended in index order, and published into the current transaction
+ * of the storage, by a single thread.
+ *
+ * The values are stored as raw bits: doubles and floats as returned by
+ * doubleToRawLongBits() and floatToRawIntBits(), booleans as 0 or 1, and the
+ * other types sign-extended to long.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class ChangeBuffer {
+
+    /** The initial number of changes. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The changed fields. */
+    private Field<?, ?>[] fields = new Field<?, ?>[INITIAL_CAPACITY];
+
+    /** The new values. */
+    private long[] newBits = new long[INITIAL_CAPACITY];
+
+    /** The old values. */
+    private long[] oldBits = new long[INITIAL_CAPACITY];
+
+    /** The number of changes. */
+    private int size;
+
+    /** The changed structures. */
+    private int[] structures = new int[INITIAL_CAPACITY];
+
+    /** Makes room for the given number of changes. */
+    private void ensureCapacity(final int theCapacity) {
+        if (theCapacity > structures.length) {
+            final int capacity = Math.max(theCapacity, structures.length * 2);
+            fields = Arrays.copyOf(fields, capacity);
+            newBits = Arrays.copyOf(newBits, capacity);
+            oldBits = Arrays.copyOf(oldBits, capacity);
+            structures = Arrays.copyOf(structures, capacity);
+        }
+    }
+
+    /** Records one change. */
+    void add(final Field<?, ?> theField, final int theStructure,
+            final long theOldBits, final long theNewBits) {
+        ensureCapacity(size + 1);
+        fields[size] = theField;
+        structures[size] = theStructure;
+        oldBits[size] = theOldBits;
+        newBits[size] = theNewBits;
+        size++;
+    }
+
+    /** Appends the changes of another buffer. */
+    void append(final ChangeBuffer theOther) {
+        final int count = theOther.size;
+        ensureCapacity(size + count);
+        System.arraycopy(theOther.fields, 0, fields, size, count);
+        System.arraycopy(theOther.structures, 0, structures, size, count);
+        System.arraycopy(theOther.oldBits, 0, oldBits, size, count);
+        System.arraycopy(theOther.newBits, 0, newBits, size, count);
+        size += count;
+    }
+
+    /** Returns the field of a change. */
+    @SuppressWarnings("null")
+    public Field<?, ?> field(final int theChange) {
+        return fields[theChange];
+    }
+
+    /** Returns the new value of a change. */
+    public long newBits(final int theChange) {
+        return newBits[theChange];
+    }
+
+    /** Returns the old value of a change. */
+    public long oldBits(final int theChange) {
+        return oldBits[theChange];
+    }
+
+    /** Returns the number of changes. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the structure of a change. */
+    public int structure(final int theChange) {
+        return structures[theChange];
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.parallel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Traverses, and partitions, the structure indexes of a storage, in
+ * ascending order; the order of the MultiDimensionalSupport indexes. It
+ * follows the contract of a Java 8 Spliterator.OfInt, so that the whole
+ * storage can be processed in parallel, without partitioning it by hand.
+ *
+ * The indexes are either a range, for dense storages, or a sorted array of
+ * the present structures, for sparse storages. Splitting is O(1), and always
+ * returns the first half, so that the parts keep the encounter order.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class IndexSpliterator {
+
+    /** The present structures, or null for a range. */
+    @Nullable
+    private final int[] structures;
+
+    /** The next position. */
+    private int from;
+
+    /** One more than the last position. */
+    private final int to;
+
+    /** Creates a spliterator over the structures theFrom (inclusive) to
+     * theTo (exclusive). */
+    public IndexSpliterator(final int theFrom, final int theTo) {
+        this(null, theFrom, theTo);
+        checkArgument(theFrom >= 0 && theFrom <= theTo, "Invalid range: "
+                + theFrom + " to " + theTo);
+    }
+
+    /** Creates a spliterator over the given structures, which must be sorted
+     * in ascending order. The array is not copied. */
+    public IndexSpliterator(final int[] theStructures) {
+        this(checkNotNull(theStructures), 0, theStructures.length);
+    }
+
+    /** Constructor */
+    private IndexSpliterator(@Nullable final int[] theStructures,
+            final int theFrom, final int theTo) {
+        structures = theStructures;
+        from = theFrom;
+        to = theTo;
+    }
+
+    /** Returns the structure at the given position. */
+    @SuppressWarnings("null")
+    private int structure(final int thePosition) {
+        return structures == null ? thePosition : structures[thePosition];
+    }
+
+    /** Returns the exact number of remaining structures. */
+    public long estimateSize() {
+        return to - from;
+    }
+
+    /** Passes all the remaining structures to the consumer. */
+    public void forEachRemaining(final IndexConsumer theConsumer) {
+        checkNotNull(theConsumer);
+        final int end = to;
+        int position = from;
+        // Consumed up-front, as in the JDK spliterators.
+        from = end;
+        if (structures == null) {
+            for (; position < end; position++) {
+                theConsumer.accept(position);
+            }
+        } else {
+            final int[] array = structures;
+            for (; position < end; position++) {
+                theConsumer.accept(array[position]);
+            }
+        }
+    }
+
+    /** Passes the next structure to the consumer, if there is one. */
+    public boolean tryAdvance(final IndexConsumer theConsumer) {
+        checkNotNull(theConsumer);
+        if (from < to) {
+            theConsumer.accept(structure(from++));
+            return true;
+        }
+        return false;
+    }
+
+    /** Splits off the first half of the remaining structures, or returns null
+     * if there are less than two. */
+    @Nullable
+    public IndexSpliterator trySplit() {
+        final int middle = from + to >>> 1;
+        if (middle <= from) {
+            return null;
+        }
+        final IndexSpliterator result = new IndexSpliterator(structures,
+                from, middle);
+        from = middle;
+        return result;
+    }
+}
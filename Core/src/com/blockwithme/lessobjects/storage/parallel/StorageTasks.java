@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.parallel;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.storage.Storage;
+
+/**
+ * Runs operations over all the structures of a storage, split across the
+ * cores with a ForkJoinPool. Every task gets its own cursor, over the shared
+ * storage.
+ *
+ * When the operation writes, the structures are only split at multiples of
+ * a granularity given by the storage, so that two tasks never write to the
+ * same long word, or page. Each task records its own changes, which are then
+ * appended in index order. The changes of the tasks which ran are kept even
+ * if the operator fails in another task, so that the caller can still
+ * publish them.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class StorageTasks {
+
+    /** Applies an operator to part of the structures, splitting the work if
+     * needed. */
+    @SuppressWarnings("serial")
+    private static final class ApplyTask extends RecursiveAction {
+
+        /** The changes made so far, in index order, if recorded. */
+        @Nullable
+        private ChangeBuffer changes;
+
+        /** The first structure. */
+        private final int from;
+
+        /** The split granularity. */
+        private final int granularity;
+
+        /** The operator. */
+        private final StructOperator operator;
+
+        /** Are the changes recorded? */
+        private final boolean recording;
+
+        /** The storage. */
+        private final Storage storage;
+
+        /** One more than the last structure. */
+        private final int to;
+
+        /** Constructor */
+        ApplyTask(final Storage theStorage, final int theFrom,
+                final int theTo, final StructOperator theOperator,
+                final int theGranularity, final boolean isRecording) {
+            storage = theStorage;
+            from = theFrom;
+            to = theTo;
+            operator = theOperator;
+            granularity = theGranularity;
+            recording = isRecording;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void compute() {
+            if (to - from > PARALLEL_THRESHOLD) {
+                final int half = from + (to - from) / 2;
+                int middle = half - half % granularity;
+                if (middle <= from) {
+                    middle += granularity;
+                }
+                if (middle < to) {
+                    final ApplyTask first = new ApplyTask(storage, from,
+                            middle, operator, granularity, recording);
+                    final ApplyTask second = new ApplyTask(storage, middle,
+                            to, operator, granularity, recording);
+                    first.fork();
+                    try {
+                        second.compute();
+                    } finally {
+                        // The first half must be done, and its changes
+                        // kept, even if the second half failed.
+                        try {
+                            first.join();
+                        } finally {
+                            changes = first.changes;
+                            if (changes != null && second.changes != null) {
+                                changes.append(second.changes);
+                            }
+                        }
+                    }
+                    return;
+                }
+            }
+            if (recording) {
+                changes = new ChangeBuffer();
+            }
+            applyAll(storage, from, to, operator, changes);
+        }
+    }
+
+    /** Visits part of the structures, splitting the work if needed. */
+    @SuppressWarnings("serial")
+    private static final class ForEachTask extends RecursiveAction {
+
+        /** The structures to visit. */
+        private final IndexSpliterator indexes;
+
+        /** The storage. */
+        private final Storage storage;
+
+        /** The visitor. */
+        private final StructureVisitor visitor;
+
+        /** Constructor */
+        ForEachTask(final Storage theStorage,
+                final IndexSpliterator theIndexes,
+                final StructureVisitor theVisitor) {
+            storage = theStorage;
+            indexes = theIndexes;
+            visitor = theVisitor;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void compute() {
+            if (indexes.estimateSize() > PARALLEL_THRESHOLD) {
+                final IndexSpliterator prefix = indexes.trySplit();
+                if (prefix != null) {
+                    final ForEachTask first = new ForEachTask(storage,
+                            prefix, visitor);
+                    first.fork();
+                    compute();
+                    first.join();
+                    return;
+                }
+            }
+            visitAll(storage, indexes, visitor);
+        }
+    }
+
+    /** The maximum number of structures, visited by each parallel task. */
+    private static final int PARALLEL_THRESHOLD = 1 << 12;
+
+    /** The pool running the parallel tasks, of the whole library. */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /** Applies the operator to the structures, with a new cursor, in the
+     * current thread, recording the changes in theChanges, if any. */
+    private static void applyAll(final Storage theStorage, final int theFrom,
+            final int theTo, final StructOperator theOperator,
+            @Nullable final ChangeBuffer theChanges) {
+        final StructureCursor cursor = new StructureCursor(theStorage,
+                theChanges);
+        for (int structure = theFrom; structure < theTo; structure++) {
+            cursor.moveTo(structure);
+            theOperator.apply(cursor);
+        }
+    }
+
+    /** Visits the structures, with a new cursor, in the current thread. */
+    private static void visitAll(final Storage theStorage,
+            final IndexSpliterator theIndexes,
+            final StructureVisitor theVisitor) {
+        final StructureCursor cursor = new StructureCursor(theStorage,
+                null);
+        theIndexes.forEachRemaining(new IndexConsumer() {
+            @Override
+            public void accept(final int theStructure) {
+                cursor.moveTo(theStructure);
+                theVisitor.visit(cursor);
+            }
+        });
+    }
+
+    /** No instances. */
+    private StorageTasks() {
+        // NOP
+    }
+
+    /**
+     * Applies an operator to the structures theFrom (inclusive) to theTo
+     * (exclusive). If theGranularity is positive, and there are enough
+     * structures, the range is split at multiples of theGranularity, and the
+     * parts are processed in parallel. Otherwise, everything runs in the
+     * current thread. If theChanges is not null, the changes are appended
+     * to it in index order. If the operator throws, the exception is
+     * rethrown once all the parts have stopped, and theChanges still
+     * contains every change made until then.
+     */
+    public static void apply(final Storage theStorage, final int theFrom,
+            final int theTo, final StructOperator theOperator,
+            final int theGranularity, @Nullable final ChangeBuffer theChanges) {
+        checkNotNull(theStorage);
+        checkNotNull(theOperator);
+        if (theGranularity > 0 && theTo - theFrom > PARALLEL_THRESHOLD) {
+            final ApplyTask task = new ApplyTask(theStorage, theFrom, theTo,
+                    theOperator, theGranularity, theChanges != null);
+            try {
+                POOL.invoke(task);
+            } finally {
+                if (theChanges != null && task.changes != null) {
+                    theChanges.append(task.changes);
+                }
+            }
+        } else {
+            applyAll(theStorage, theFrom, theTo, theOperator, theChanges);
+        }
+    }
+
+    /**
+     * Visits the given structures of a storage, in parallel if requested and
+     * if there are enough of them. The storage must not be modified while it
+     * is visited. Returns once all the structures were visited.
+     */
+    public static void forEach(final Storage theStorage,
+            final IndexSpliterator theIndexes,
+            final StructureVisitor theVisitor, final boolean isParallel) {
+        checkNotNull(theStorage);
+        checkNotNull(theIndexes);
+        checkNotNull(theVisitor);
+        if (isParallel && theIndexes.estimateSize() > PARALLEL_THRESHOLD) {
+            POOL.invoke(new ForEachTask(theStorage, theIndexes, theVisitor));
+        } else {
+            visitAll(theStorage, theIndexes, theVisitor);
+        }
+    }
+
+    /** Returns the pool running the parallel tasks, shared by all the bulk
+     * operations, so that the library starts a single set of workers. */
+    public static ForkJoinPool pool() {
+        return POOL;
+    }
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.parallel;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Point;
+import com.blockwithme.lessobjects.storage.Storage;
+
+/**
+ * A lightweight cursor over a shared storage. Each worker thread gets its own
+ * cursor, so the selected structure of the storage is never used, or changed;
+ * the fields are accessed with the index-addressed operations of the storage.
+ *
+ * When the changes are recorded, every write first reads the old value, and
+ * only the actual changes are recorded. Global fields cannot be written,
+ * since they are shared by all the structures.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class StructureCursor {
+
+    /** The recorded changes, if any. */
+    @Nullable
+    private final ChangeBuffer changes;
+
+    /** The storage. */
+    private final Storage storage;
+
+    /** The current structure. */
+    private int structure;
+
+    /** Constructor */
+    StructureCursor(final Storage theStorage,
+            @Nullable final ChangeBuffer theChanges) {
+        storage = theStorage;
+        changes = theChanges;
+    }
+
+    /** Rejects the global fields. */
+    private static void checkNotGlobal(final Field<?, ?> theField) {
+        if (theField.global()) {
+            throw new IllegalArgumentException(
+                    "Global fields cannot be written by a cursor: "
+                            + theField.name());
+        }
+    }
+
+    /** Records a change. */
+    @SuppressWarnings("null")
+    private void record(final Field<?, ?> theField, final long theOldBits,
+            final long theNewBits) {
+        changes.add(theField, structure, theOldBits, theNewBits);
+    }
+
+    /** Moves the cursor to a structure. */
+    void moveTo(final int theStructure) {
+        structure = theStructure;
+    }
+
+    /** Returns the coordinates of the current structure. */
+    public Point point() {
+        return storage.multiDimensionalSupport().toPoint(structure);
+    }
+
+    /** Reads a BooleanField of the current structure. */
+    public boolean read(final BooleanField<?, ?> theField) {
+        return storage.read(theField, structure);
+    }
+
+    /** Reads a ByteField of the current structure. */
+    public byte read(final ByteField<?, ?> theField) {
+        return storage.read(theField, structure);
+    }
+
+    /** Reads a CharField of the current structure. */
+    public char read(final CharField<?, ?> theField) {
+        return storage.read(theField, structure);
+    }
+
+    /** Reads a DoubleField of the current structure. */
+    public double read(final DoubleField<?, ?> theField) {
+        return storage.read(theField, structure);
+    }
+
+    /** Reads a FloatField of the current structure. */
+    public float read(final FloatField<?, ?> theField) {
+        return storage.read(theField, structure);
+    }
+
+    /** Reads a IntField of the current structure. */
+    public int read(final IntField<?, ?> theField) {
+        return storage.read(theField, structure);
+    }
+
+    /** Reads a LongField of the current structure. */
+    public long read(final LongField<?, ?> theField) {
+        return storage.read(theField, structure);
+    }
+
+    /** Reads a ShortField of the current structure. */
+    public short read(final ShortField<?, ?> theField) {
+        return storage.read(theField, structure);
+    }
+
+    /** Returns the storage. */
+    public Storage storage() {
+        return storage;
+    }
+
+    /** Returns the index of the current structure. */
+    public int structure() {
+        return structure;
+    }
+
+    /** Writes a BooleanField of the current structure. */
+    public void write(final BooleanField<?, ?> theField,
+            final boolean theValue) {
+        checkNotGlobal(theField);
+        final boolean oldValue = changes == null ? theValue : storage.read(
+                theField, structure);
+        storage.write(theField, structure, theValue);
+        if (oldValue != theValue) {
+            record(theField, oldValue ? 1 : 0, theValue ? 1 : 0);
+        }
+    }
+
+    /** Writes a ByteField of the current structure. */
+    public void write(final ByteField<?, ?> theField, final byte theValue) {
+        checkNotGlobal(theField);
+        final byte oldValue = changes == null ? theValue : storage.read(
+                theField, structure);
+        storage.write(theField, structure, theValue);
+        if (oldValue != theValue) {
+            record(theField, oldValue, theValue);
+        }
+    }
+
+    /** Writes a CharField of the current structure. */
+    public void write(final CharField<?, ?> theField, final char theValue) {
+        checkNotGlobal(theField);
+        final char oldValue = changes == null ? theValue : storage.read(
+                theField, structure);
+        storage.write(theField, structure, theValue);
+        if (oldValue != theValue) {
+            record(theField, oldValue, theValue);
+        }
+    }
+
+    /** Writes a DoubleField of the current structure. */
+    public void write(final DoubleField<?, ?> theField, final double theValue) {
+        checkNotGlobal(theField);
+        final long bits = Double.doubleToRawLongBits(theValue);
+        final long oldBits = changes == null ? bits
+                : Double.doubleToRawLongBits(storage.read(theField, structure));
+        storage.write(theField, structure, theValue);
+        if (oldBits != bits) {
+            record(theField, oldBits, bits);
+        }
+    }
+
+    /** Writes a FloatField of the current structure. */
+    public void write(final FloatField<?, ?> theField, final float theValue) {
+        checkNotGlobal(theField);
+        final long bits = Float.floatToRawIntBits(theValue);
+        final long oldBits = changes == null ? bits
+                : Float.floatToRawIntBits(storage.read(theField, structure));
+        storage.write(theField, structure, theValue);
+        if (oldBits != bits) {
+            record(theField, oldBits, bits);
+        }
+    }
+
+    /** Writes a IntField of the current structure. */
+    public void write(final IntField<?, ?> theField, final int theValue) {
+        checkNotGlobal(theField);
+        final int oldValue = changes == null ? theValue : storage.read(
+                theField, structure);
+        storage.write(theField, structure, theValue);
+        if (oldValue != theValue) {
+            record(theField, oldValue, theValue);
+        }
+    }
+
+    /** Writes a LongField of the current structure. */
+    public void write(final LongField<?, ?> theField, final long theValue) {
+        checkNotGlobal(theField);
+        final long oldValue = changes == null ? theValue : storage.read(
+                theField, structure);
+        storage.write(theField, structure, theValue);
+        if (oldValue != theValue) {
+            record(theField, oldValue, theValue);
+        }
+    }
+
+    /** Writes a ShortField of the current structure. */
+    public void write(final ShortField<?, ?> theField, final short theValue) {
+        checkNotGlobal(theField);
+        final short oldValue = changes == null ? theValue : storage.read(
+                theField, structure);
+        storage.write(theField, structure, theValue);
+        if (oldValue != theValue) {
+            record(theField, oldValue, theValue);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.parallel;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Visits the structures of a storage, possibly from several threads at once.
+ * The visitor must therefore be thread-safe, and must not write to the
+ * storage.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public interface StructureVisitor {
+
+    /** Visits the structure under the cursor. */
+    void visit(StructureCursor theCursor);
+}
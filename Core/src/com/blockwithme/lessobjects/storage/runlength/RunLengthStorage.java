@@ -0,0 +1,672 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.storage.runlength;
+
+import static com.blockwithme.lessobjects.util.StructConstants.EMPTY_OBJ_ARR;
+import static com.blockwithme.lessobjects.util.StructConstants.LONG_BITS;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.BaseWordStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.packed.PackedStorage;
+
+//CHECKSTYLE.OFF: IllegalType
+/**
+ * Implements the storage for the run-length compiler, for read-mostly data.
+ * The structures are stored as runs of consecutive structures. A repeated run
+ * stores a single row (the bits of a whole structure, in the packed layout)
+ * for all its structures; a literal run stores one row per structure.
+ *
+ * Reading never changes the runs. Writing a new value in a repeated run only
+ * inflates the (aligned) INFLATE_SIZE structures around the written
+ * structure into a literal run. compress() encodes the storage again, once
+ * it is not modified anymore. Object fields are not compressed.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class RunLengthStorage extends BaseWordStorage {
+
+    /** The maximum number of structures inflated by a write. */
+    public static final int INFLATE_SIZE = 64;
+
+    /** The minimum number of identical structures stored as a repeated run,
+     * by compress(). */
+    public static final int MIN_REPEAT = 4;
+
+    /** Provides the rows to encode. */
+    private abstract static class RowSource {
+        /** Copies the row of a structure into theRow. */
+        abstract void row(int theStructure, long[] theRow);
+    }
+
+    /** The init defaults flag. */
+    private final boolean initDefaults;
+
+    /** The selected run. */
+    private int run;
+
+    /** The number of runs. */
+    private int runCount;
+
+    /** The rows of the runs. */
+    private long[][] runs;
+
+    /** The offset of the row of the selected structure, in its run. */
+    private int rowOffset;
+
+    /** The first structure of each run, followed by the capacity. */
+    private int[] starts;
+
+    /** The number of words of a row. */
+    private final int words;
+
+    /** Constructor */
+    @SuppressWarnings("null")
+    protected RunLengthStorage(final Struct theStruct,
+            final int theStorageSize, @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final boolean theInitDefaultsFlag,
+            final Arity theArity) {
+        super(theStruct, theStruct.bits(), theStorageSize, theBaseStorage,
+                isTransactional, theArity);
+        initDefaults = theInitDefaultsFlag;
+        words = Math.max(1, (theStruct.bits() + LONG_BITS - 1) / LONG_BITS);
+        runCount = 1;
+        runs = new long[][] { new long[words] };
+        starts = new int[] { 0, theStorageSize };
+    }
+
+    /** Constructor */
+    public RunLengthStorage(final Struct theStruct, final int theStorageSize,
+            @Nullable final Storage theBaseStorage,
+            final boolean isTransactional, final Arity theArity) {
+        this(theStruct, theStorageSize, theBaseStorage, isTransactional, true,
+                theArity);
+    }
+
+    /** Creates a compressed copy of a PackedStorage of the same Struct. The
+     * rows are read directly from the array of the PackedStorage. */
+    @SuppressWarnings({ "null", "unchecked", "rawtypes" })
+    public static RunLengthStorage compress(final PackedStorage theSource) {
+        final Struct struct = theSource.struct();
+        final RunLengthStorage result = new RunLengthStorage(struct,
+                theSource.getCapacity(), null, theSource.transactionsEnabled(),
+                false, theSource.multiDimensionalSupport().arity());
+        final long[] array = theSource.getArray();
+        final int bits = struct.bits();
+        result.encode(new RowSource() {
+            @Override
+            void row(final int theStructure, final long[] theRow) {
+                final long start = (long) theStructure * bits;
+                for (int w = 0; w < theRow.length; w++) {
+                    final int count = Math.min(LONG_BITS, bits - w * LONG_BITS);
+                    final long position = start + (long) w * LONG_BITS;
+                    final int index = (int) (position / LONG_BITS);
+                    final int shift = (int) (position % LONG_BITS);
+                    long value = array[index] >>> shift;
+                    if (shift != 0 && shift + count > LONG_BITS) {
+                        value |= array[index + 1] << LONG_BITS - shift;
+                    }
+                    theRow[w] = value & mask(count);
+                }
+            }
+        });
+        final ObjectField[] objectFields = struct.structObjectFields();
+        if (objectFields.length > 0) {
+            final boolean transactional = result.transactionsEnabled();
+            final int selected = theSource.getSelectedStructure();
+            result.enableTransactions(false);
+            for (int i = 0; i < result.capacity; i++) {
+                theSource.selectStructure(i);
+                result.selectStructure(i);
+                for (final ObjectField field : objectFields) {
+                    result.write(field, theSource.read(field));
+                }
+            }
+            result.enableTransactions(transactional);
+            theSource.selectStructure(selected);
+        }
+        result.selectStructure(0);
+        return result;
+    }
+
+    /** Replaces the runs with the encoding of the rows of theSource. */
+    private void encode(final RowSource theSource) {
+        final int[] newStarts = new int[16];
+        final long[][] newRuns = new long[16][];
+        final Object[] result = { newStarts, newRuns };
+        int count = 0;
+        final long[] current = new long[words];
+        final long[] next = new long[words];
+        long[] literal = new long[words * 16];
+        int literalStart = -1;
+        int literalRows = 0;
+        int s = 0;
+        while (s < capacity) {
+            theSource.row(s, current);
+            int e = s + 1;
+            while (e < capacity) {
+                theSource.row(e, next);
+                if (!Arrays.equals(current, next)) {
+                    break;
+                }
+                e++;
+            }
+            if (e - s >= MIN_REPEAT) {
+                if (literalRows > 0) {
+                    count = addRun(result, count, literalStart,
+                            Arrays.copyOf(literal, literalRows * words));
+                    literalRows = 0;
+                }
+                count = addRun(result, count, s, current.clone());
+            } else {
+                if (literalRows == 0) {
+                    literalStart = s;
+                }
+                for (int i = s; i < e; i++) {
+                    if ((literalRows + 1) * words > literal.length) {
+                        literal = Arrays.copyOf(literal, literal.length * 2);
+                    }
+                    System.arraycopy(current, 0, literal, literalRows * words,
+                            words);
+                    literalRows++;
+                }
+            }
+            s = e;
+        }
+        if (literalRows > 0) {
+            count = addRun(result, count, literalStart,
+                    Arrays.copyOf(literal, literalRows * words));
+        }
+        if (count == 0) {
+            count = addRun(result, count, 0, new long[words]);
+        }
+        final int[] encodedStarts = (int[]) result[0];
+        runs = Arrays.copyOf((long[][]) result[1], count);
+        starts = Arrays.copyOf(encodedStarts, count + 1);
+        starts[count] = capacity;
+        runCount = count;
+        run = 0;
+    }
+
+    /** Appends a run to the arrays in theResult, growing them as needed. */
+    private static int addRun(final Object[] theResult, final int theCount,
+            final int theStart, final long[] theRows) {
+        int[] resultStarts = (int[]) theResult[0];
+        long[][] resultRuns = (long[][]) theResult[1];
+        if (theCount + 1 >= resultStarts.length) {
+            resultStarts = Arrays.copyOf(resultStarts, resultStarts.length * 2);
+            resultRuns = Arrays.copyOf(resultRuns, resultRuns.length * 2);
+            theResult[0] = resultStarts;
+            theResult[1] = resultRuns;
+        }
+        resultStarts[theCount] = theStart;
+        resultRuns[theCount] = theRows;
+        return theCount + 1;
+    }
+
+    /** Finds the run of a structure. */
+    private int findRun(final int theStructure) {
+        int low = 0;
+        int high = runCount - 1;
+        while (low < high) {
+            final int middle = low + high + 1 >>> 1;
+            if (starts[middle] <= theStructure) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /** Inflates the part of the selected (repeated) run around the selected
+     * structure into a literal run. */
+    private void inflate() {
+        final int first = starts[run];
+        final int end = starts[run + 1];
+        final long[] row = runs[run];
+        final int windowStart = Math.max(first, structure
+                & -INFLATE_SIZE);
+        final int windowEnd = Math.min(end, (structure & -INFLATE_SIZE)
+                + INFLATE_SIZE);
+        final long[] literal = new long[(windowEnd - windowStart) * words];
+        for (int i = 0; i < literal.length; i += words) {
+            System.arraycopy(row, 0, literal, i, words);
+        }
+        final int added = (windowStart > first ? 1 : 0)
+                + (windowEnd < end ? 1 : 0);
+        if (runCount + added + 1 > starts.length) {
+            final int length = Math.max(starts.length * 2, runCount + added
+                    + 1);
+            starts = Arrays.copyOf(starts, length);
+            runs = Arrays.copyOf(runs, length);
+        }
+        System.arraycopy(starts, run + 1, starts, run + 1 + added, runCount
+                - run);
+        System.arraycopy(runs, run + 1, runs, run + 1 + added, runCount - run
+                - 1);
+        runCount += added;
+        int r = run;
+        if (windowStart > first) {
+            runs[r] = row;
+            starts[r] = first;
+            r++;
+        }
+        runs[r] = literal;
+        starts[r] = windowStart;
+        if (windowEnd < end) {
+            runs[r + 1] = row.clone();
+            starts[r + 1] = windowEnd;
+        }
+        selectRun(r);
+    }
+
+    /** Is the given run a repeated run, of more than one structure? */
+    private boolean isRepeated(final int theRun) {
+        return runs[theRun].length < (starts[theRun + 1] - starts[theRun])
+                * words;
+    }
+
+    /** Reads the bits of a field, for the selected structure. */
+    private long readBits(final Field<?, ?> theField) {
+        return readBits(theField, runs[run], rowOffset);
+    }
+
+    /** Reads the bits of a field, in the row at the given offset. */
+    private long readBits(final Field<?, ?> theField, final long[] theRows,
+            final int theRowOffset) {
+        final int bits = theField.bits();
+        final long position = (long) theRowOffset * LONG_BITS
+                + theField.offset();
+        final int arrayIndex = (int) (position / LONG_BITS);
+        final int bitIndex = (int) (position % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        long value = theRows[arrayIndex] >>> bitIndex
+                & mask(Math.min(bits, rest));
+        if (bits > rest) {
+            value |= (theRows[arrayIndex + 1] & mask(bits - rest)) << rest;
+        }
+        return value;
+    }
+
+    /** Selects a run, which must contain the selected structure. */
+    private void selectRun(final int theRun) {
+        run = theRun;
+        rowOffset = isRepeated(theRun) || runs[theRun].length == words ? 0
+                : (structure - starts[theRun]) * words;
+    }
+
+    /** Writes the bits of a field, for the selected structure, and returns
+     * the old bits. */
+    private long writeBits(final Field<?, ?> theField, final long theValue) {
+        final int bits = theField.bits();
+        final long oldValue = readBits(theField);
+        if (oldValue == (theValue & mask(bits))) {
+            return oldValue;
+        }
+        if (isRepeated(run)) {
+            inflate();
+        }
+        final long[] rows = runs[run];
+        final long position = (long) rowOffset * LONG_BITS + theField.offset();
+        final int arrayIndex = (int) (position / LONG_BITS);
+        final int bitIndex = (int) (position % LONG_BITS);
+        final int rest = LONG_BITS - bitIndex;
+        final long valueMask = mask(Math.min(bits, rest));
+        rows[arrayIndex] = rows[arrayIndex] & ~(valueMask << bitIndex)
+                | (theValue & valueMask) << bitIndex;
+        if (bits > rest) {
+            final long valueMask2 = mask(bits - rest);
+            rows[arrayIndex + 1] = rows[arrayIndex + 1] & ~valueMask2
+                    | theValue >>> rest & valueMask2;
+        }
+        return oldValue;
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected Storage blankCopy() {
+        return new RunLengthStorage(struct, capacity, isSecondary ? baseStorage
+                : null, transactionsEnabled(), false, arity);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void clearAllChildren() {
+        // do nothing.
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("null")
+    @Override
+    protected AbstractStorage getSingleStorage(final Struct theGlobalStruct) {
+        return new RunLengthStorage(theGlobalStruct, 1, this,
+                !transactionsDisabled, Arity.ONE_D);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawRead(final Field<?, ?> theField, final int theStructure) {
+        final int r = findRun(theStructure);
+        final long[] rows = runs[r];
+        return readBits(theField, rows, isRepeated(r) || rows.length == words
+                ? 0 : (theStructure - starts[r]) * words);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected long rawWrite(final Field<?, ?> theField, final int theStructure,
+            final long theValue) {
+        // Writing can split the runs, so we go through the selection, and
+        // restore it afterwards.
+        final int selected = structure;
+        selectStructure(theStructure);
+        final long result = writeBits(theField, theValue);
+        selectStructure(selected);
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isDifferent(final Storage theOther) {
+        // The runs can only be copied as-is, to a storage of the same size.
+        return super.isDifferent(theOther)
+                || theOther.getCapacity() != capacity;
+    }
+
+    /** Encodes the storage again, merging the identical consecutive
+     * structures into repeated runs. Should be called once the storage is not
+     * modified anymore. */
+    public void compress() {
+        checkReadOnly();
+        // encode() replaces the arrays, so the old runs can be read as-is.
+        final int[] oldStarts = starts;
+        final long[][] oldRuns = runs;
+        final int[] cursor = { 0 };
+        encode(new RowSource() {
+            @Override
+            void row(final int theStructure, final long[] theRow) {
+                while (theStructure >= oldStarts[cursor[0] + 1]) {
+                    cursor[0]++;
+                }
+                final long[] rows = oldRuns[cursor[0]];
+                System.arraycopy(rows, rows.length == words ? 0
+                        : (theStructure - oldStarts[cursor[0]]) * words,
+                        theRow, 0, words);
+            }
+        });
+        selectStructure(structure);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void copyStorage(final Storage theOther,
+            final SchemaMigrator theSchemaMigrator) {
+        if (isDifferent(theOther, theSchemaMigrator)) {
+            super.copyStorage(theOther, theSchemaMigrator);
+        } else {
+            final RunLengthStorage otherStorage = (RunLengthStorage) theOther;
+            otherStorage.runCount = runCount;
+            otherStorage.starts = starts.clone();
+            otherStorage.runs = new long[runs.length][];
+            for (int r = 0; r < runCount; r++) {
+                otherStorage.runs[r] = runs[r].clone();
+            }
+            if (objectStorageObjects != null && objectStorageObjects.length > 0) {
+                copyObjectStorage(struct(), objectStorageObjects,
+                        otherStorage.objectStorageObjects);
+            }
+            otherStorage.run = 0;
+            otherStorage.selectStructure(getSelectedStructure());
+            otherStorage.rebuildIndexes();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Storage createOrClearList(final Struct theListChild,
+            final int theInitialSize) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    public Storage list(final Struct theListChild) {
+        throw new IllegalStateException(
+                "This storage does not have any list-type children");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean readBoolean(final F theField) {
+        return readBits(theField) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte readByte(final F theField) {
+        return (byte) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char readChar(final F theField) {
+        return (char) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double readDouble(final F theField) {
+        return Double.longBitsToDouble(readBits(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float readFloat(final F theField) {
+        return Float.intBitsToFloat((int) readBits(theField));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int readInt(final F theField) {
+        return (int) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long readLong(final F theField) {
+        return readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short readShort(final F theField) {
+        return (short) readBits(theField);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("null")
+    public void resizeStorage(final int theNewCapacity) {
+        checkReadOnly();
+        if (capacity != theNewCapacity) {
+            if (theNewCapacity > capacity) {
+                if (runCount + 2 > starts.length) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                    runs = Arrays.copyOf(runs, starts.length);
+                }
+                starts[runCount] = capacity;
+                runs[runCount] = new long[words];
+                runCount++;
+            } else {
+                final int last = findRun(theNewCapacity - 1);
+                final int count = theNewCapacity - starts[last];
+                if (runs[last].length > words) {
+                    runs[last] = Arrays.copyOf(runs[last], count * words);
+                }
+                Arrays.fill(runs, last + 1, runCount, null);
+                runCount = last + 1;
+            }
+            starts[runCount] = theNewCapacity;
+            run = 0;
+            Object[] newObjectStore;
+            final int oldCapacity = capacity;
+            capacity = theNewCapacity;
+            final int currentIndex = getSelectedStructure();
+
+            if (objectStorageObjects.length > 0) {
+                newObjectStore = new Object[objectStorageObjects.length];
+            } else {
+                newObjectStore = EMPTY_OBJ_ARR;
+            }
+
+            reInitObjectStorage(struct(), newObjectStore);
+            copyObjectStorage(struct(), objectStorageObjects, newObjectStore);
+            objectStorageObjects = newObjectStore;
+
+            if (capacity > oldCapacity && initDefaults) {
+                for (int i = oldCapacity; i < capacity; i++) {
+                    selectStructure(i);
+                    clear();
+                }
+            }
+            if (currentIndex < theNewCapacity) {
+                selectStructure(currentIndex);
+            } else {
+                selectStructure(theNewCapacity - 1);
+            }
+            rebuildIndexes();
+        }
+    }
+
+    /** Returns the number of runs. */
+    public int runCount() {
+        return runCount;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean selectStructure(final int theStructure) {
+        checkArgument(theStructure < getCapacity(),
+                "Storage capacity is less then the element index passed!");
+        structure = theStructure;
+        if (theStructure < starts[run] || theStructure >= starts[run + 1]) {
+            selectRun(findRun(theStructure));
+        } else {
+            selectRun(run);
+        }
+        return true;
+    }
+
+    /** Returns the number of words actually used to store the primitive
+     * fields. A PackedStorage would use (capacity * struct.bits() / 64). */
+    public long usedWords() {
+        long result = 0;
+        for (int r = 0; r < runCount; r++) {
+            result += runs[r].length;
+        }
+        return result + (starts.length + 1) / 2;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends BooleanField<?, F>> boolean writeImpl(final F theField,
+            final boolean theValue) {
+        return writeBits(theField, theValue ? 1 : 0) != 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ByteField<?, F>> byte writeImpl(final F theField,
+            final byte theValue) {
+        return (byte) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends CharField<?, F>> char writeImpl(final F theField,
+            final char theValue) {
+        return (char) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends DoubleField<?, F>> double writeImpl(final F theField,
+            final double theValue) {
+        return Double.longBitsToDouble(writeBits(theField,
+                Double.doubleToRawLongBits(theValue)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends FloatField<?, F>> float writeImpl(final F theField,
+            final float theValue) {
+        return Float.intBitsToFloat((int) writeBits(theField,
+                Float.floatToRawIntBits(theValue)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends IntField<?, F>> int writeImpl(final F theField,
+            final int theValue) {
+        return (int) writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends LongField<?, F>> long writeImpl(final F theField,
+            final long theValue) {
+        return writeBits(theField, theValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <F extends ShortField<?, F>> short writeImpl(final F theField,
+            final short theValue) {
+        return (short) writeBits(theField, theValue);
+    }
+}
@@ -47,7 +47,8 @@ public class Aligned64CompositeStorageTemplate extends
     public final int getSpaceRequired(final PackerContext theContext,
             final Aligned64CompositeStorage theStorage) {
         final StorageBuilder builder = theStorage.getBuilder();
-        return 1 + super.getSpaceRequired(builder);
+        // The optional storage, and the layout marker
+        return 2 + super.getSpaceRequired(builder);
     }
 
     /** {@inheritDoc} */
@@ -60,6 +61,7 @@ public class Aligned64CompositeStorageTemplate extends
         final StorageBuilder builder = super.createBaseStorageBuilder(
                 theContext, thePreCreated, theSize);
         builder.setOptionalStorage((OptionalObjectStore) objPacker.readObject());
+        readAligned64Layout(theContext, builder, theSize, 1);
         return new Aligned64CompositeStorage(builder);
     }
 
@@ -72,5 +74,6 @@ public class Aligned64CompositeStorageTemplate extends
         super.readFromStorageBuilder(theContext, builder);
         final ObjectPacker objPacker = theContext.objectPacker;
         objPacker.writeObject(builder.getOptionalStorage());
+        theContext.packer.writeByte(ALIGNED64_SLOT_LAYOUT);
     }
 }
@@ -50,7 +50,8 @@ public class Aligned64SparseStorageTemplate extends
     public final int getSpaceRequired(final PackerContext theContext,
             final Aligned64SparseStorage theStorage) {
         final StorageBuilder builder = theStorage.getBuilder();
-        return 4 + super.getSpaceRequired(builder);
+        // The sparse fields, and the layout marker
+        return 5 + super.getSpaceRequired(builder);
     }
 
     /** {@inheritDoc} */
@@ -68,6 +69,7 @@ public class Aligned64SparseStorageTemplate extends
         builder.setSelected(up.readBoolean());
         builder.setLastInserted((IntStack) objPacker.readObject());
         builder.setPrimaryIndex(up.readInt());
+        readAligned64Layout(theContext, builder, theSize, 4);
         return new Aligned64SparseStorage(builder);
 
     }
@@ -85,5 +87,6 @@ public class Aligned64SparseStorageTemplate extends
         packer.writeBoolean(builder.isSelected());
         objPacker.writeObject(builder.getLastInserted());
         packer.writeInt(builder.getPrimaryIndex());
+        packer.writeByte(ALIGNED64_SLOT_LAYOUT);
     }
 }
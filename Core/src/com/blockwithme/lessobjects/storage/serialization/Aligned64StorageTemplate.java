@@ -44,7 +44,8 @@ public class Aligned64StorageTemplate extends
     public final int getSpaceRequired(final PackerContext theContext,
             final Aligned64Storage theStorage) {
         final StorageBuilder builder = theStorage.getBuilder();
-        return super.getSpaceRequired(builder);
+        // The layout marker
+        return 1 + super.getSpaceRequired(builder);
     }
 
     /** {@inheritDoc} */
@@ -55,6 +56,7 @@ public class Aligned64StorageTemplate extends
             throws IOException {
         final StorageBuilder builder = super.createBaseStorageBuilder(
                 theContext, thePreCreated, theSize);
+        readAligned64Layout(theContext, builder, theSize, 0);
         return new Aligned64Storage(builder);
     }
 
@@ -65,5 +67,6 @@ public class Aligned64StorageTemplate extends
             final Aligned64Storage theValue) throws IOException {
         final StorageBuilder builder = theValue.getBuilder();
         super.readFromStorageBuilder(theContext, builder);
+        theContext.packer.writeByte(ALIGNED64_SLOT_LAYOUT);
     }
 }
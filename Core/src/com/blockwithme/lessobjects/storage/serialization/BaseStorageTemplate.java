@@ -25,6 +25,7 @@ import com.blockwithme.lessobjects.multidim.Arity;
 import com.blockwithme.lessobjects.storage.AbstractStorage;
 import com.blockwithme.lessobjects.storage.Storage;
 import com.blockwithme.lessobjects.storage.StorageBuilder;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64Storage;
 import com.blockwithme.msgpack.ObjectPacker;
 import com.blockwithme.msgpack.ObjectUnpacker;
 import com.blockwithme.msgpack.Packer;
@@ -41,6 +42,12 @@ import com.blockwithme.msgpack.templates.UnpackerContext;
 public abstract class BaseStorageTemplate<T extends Storage> extends
         AbstractTemplate<T> {
 
+    /** The layout marker of the Aligned64 storages, where the structures
+     * smaller than 64 bits share the longs, in power-of-two slots. The
+     * storages written before it have no marker, and use one long per
+     * structure. */
+    protected static final byte ALIGNED64_SLOT_LAYOUT = 1;
+
     /** The Constant ARITY_VALUES. */
     private static final Arity[] ARITY_VALUES = Arity.values();
 
@@ -49,6 +56,32 @@ public abstract class BaseStorageTemplate<T extends Storage> extends
         super(null, theClass, 1, ARRAY, EQUALITY, -1);
     }
 
+    /** Reads the layout marker of an Aligned64 storage, written last, after
+     * theExtra values following the base ones. The older data, one value
+     * shorter, has no marker, and its array is converted to the slot
+     * layout. */
+    protected void readAligned64Layout(final UnpackerContext theContext,
+            final StorageBuilder theBuilder, final int theSize,
+            final int theExtra) throws IOException {
+        final int expected = getSpaceRequired(theBuilder) + theExtra + 1;
+        if (theSize == expected - 1) {
+            final long bits = theBuilder.getStruct().bits();
+            theBuilder.setArray(Aligned64Storage.fromWordLayout(
+                    theBuilder.getArray(), bits));
+            theBuilder.setStructurePosition(theBuilder.getStructurePosition()
+                    / Long.SIZE * Aligned64Storage.slotSize(bits));
+            return;
+        }
+        if (theSize != expected) {
+            throw new IOException("Expected " + expected + " values, got "
+                    + theSize);
+        }
+        final byte layout = theContext.unpacker.readByte();
+        if (layout != ALIGNED64_SLOT_LAYOUT) {
+            throw new IOException("Unknown Aligned64 layout: " + layout);
+        }
+    }
+
     /** Creates the base storage builder. */
     @SuppressWarnings({ "null", "static-method", "unused" })
     protected StorageBuilder createBaseStorageBuilder(
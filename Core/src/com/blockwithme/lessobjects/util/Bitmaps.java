@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.blockwithme.lessobjects.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Operations on the structure bitmaps produced by the filters and indexes:
+ * bit i of a bitmap (bit i % 64 of word i / 64) selects the structure i. The
+ * operations always return a new bitmap.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class Bitmaps {
+
+    /** Returns the structures selected by both bitmaps. */
+    public static long[] and(final long[] theFirst, final long[] theSecond) {
+        final long[] result = new long[Math.min(theFirst.length,
+                theSecond.length)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = theFirst[i] & theSecond[i];
+        }
+        return result;
+    }
+
+    /** Returns the structures selected by the first bitmap, but not by the
+     * second. */
+    public static long[] andNot(final long[] theFirst, final long[] theSecond) {
+        final long[] result = theFirst.clone();
+        final int length = Math.min(theFirst.length, theSecond.length);
+        for (int i = 0; i < length; i++) {
+            result[i] &= ~theSecond[i];
+        }
+        return result;
+    }
+
+    /** Returns the number of selected structures. */
+    public static int count(final long[] theBitmap) {
+        int result = 0;
+        for (final long word : theBitmap) {
+            result += Long.bitCount(word);
+        }
+        return result;
+    }
+
+    /** Returns the structures, from 0 (inclusive) to theSize (exclusive),
+     * which are not selected by the bitmap. */
+    public static long[] not(final long[] theBitmap, final int theSize) {
+        checkArgument(theSize >= 0, "Negative size: " + theSize);
+        final long[] result = Arrays.copyOf(theBitmap, (theSize + Long.SIZE - 1)
+                / Long.SIZE);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ~result[i];
+        }
+        if (theSize % Long.SIZE != 0) {
+            result[result.length - 1] &= (1L << theSize) - 1;
+        }
+        return result;
+    }
+
+    /** Returns the structures selected by either bitmap. */
+    public static long[] or(final long[] theFirst, final long[] theSecond) {
+        final long[] longer = theFirst.length >= theSecond.length ? theFirst
+                : theSecond;
+        final long[] shorter = longer == theFirst ? theSecond : theFirst;
+        final long[] result = longer.clone();
+        for (int i = 0; i < shorter.length; i++) {
+            result[i] |= shorter[i];
+        }
+        return result;
+    }
+
+    /** Returns the selected structures, in ascending order. */
+    public static int[] toArray(final long[] theBitmap) {
+        final int[] result = new int[count(theBitmap)];
+        int pos = 0;
+        for (int i = 0; i < theBitmap.length; i++) {
+            long word = theBitmap[i];
+            while (word != 0) {
+                result[pos++] = i * Long.SIZE
+                        + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+
+    /** No instances. */
+    private Bitmaps() {
+        // NOP
+    }
+}
@@ -15,15 +15,23 @@
  ******************************************************************************/
 package com.blockwithme.lessobjects.util;
 
-import static com.blockwithme.lessobjects.CompilerType.ALIGNED64;
-
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import com.blockwithme.lessobjects.Compiler;
 import com.blockwithme.lessobjects.CompilerFactory;
 import com.blockwithme.lessobjects.CompilerType;
 import com.blockwithme.lessobjects.compiler.Aligned64Compiler;
+import com.blockwithme.lessobjects.compiler.BlockedCompiler;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.compiler.GeneratedAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.GeneratedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.OffHeapAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.OffHeapPackedCompiler;
 import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.compiler.PagedAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.PagedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.PaletteCompiler;
+import com.blockwithme.lessobjects.compiler.RunLengthCompiler;
 
 /**
  * A factory for creating Compiler objects.
@@ -36,14 +44,68 @@ public class CompilerFactoryImpl implements CompilerFactory {
     /** The aligned64 compiler. */
     private static Aligned64Compiler ALIGNED64_COMPILER = new Aligned64Compiler();
 
-    /** The aligned64 compiler. */
+    /** The packed compiler. */
     private static PackedCompiler PACKED_COMPILER = new PackedCompiler();
 
+    /** The off-heap aligned64 compiler. */
+    private static OffHeapAligned64Compiler OFFHEAP_ALIGNED64_COMPILER = new OffHeapAligned64Compiler();
+
+    /** The off-heap packed compiler. */
+    private static OffHeapPackedCompiler OFFHEAP_PACKED_COMPILER = new OffHeapPackedCompiler();
+
+    /** The columnar compiler. */
+    private static ColumnarCompiler COLUMNAR_COMPILER = new ColumnarCompiler();
+
+    /** The blocked compiler. */
+    private static BlockedCompiler BLOCKED_COMPILER = new BlockedCompiler();
+
+    /** The paged aligned64 compiler. */
+    private static PagedAligned64Compiler PAGED_ALIGNED64_COMPILER = new PagedAligned64Compiler();
+
+    /** The paged packed compiler. */
+    private static PagedPackedCompiler PAGED_PACKED_COMPILER = new PagedPackedCompiler();
+
+    /** The palette compiler. */
+    private static PaletteCompiler PALETTE_COMPILER = new PaletteCompiler();
+
+    /** The run-length compiler. */
+    private static RunLengthCompiler RUN_LENGTH_COMPILER = new RunLengthCompiler();
+
+    /** The generated aligned64 compiler. */
+    private static GeneratedAligned64Compiler GENERATED_ALIGNED64_COMPILER = new GeneratedAligned64Compiler();
+
+    /** The generated packed compiler. */
+    private static GeneratedPackedCompiler GENERATED_PACKED_COMPILER = new GeneratedPackedCompiler();
+
     /** {@inheritDoc} */
     @SuppressWarnings("null")
     @Override
     public Compiler createCompiler(final CompilerType theCompilerType) {
-        return theCompilerType == ALIGNED64 ? ALIGNED64_COMPILER
-                : PACKED_COMPILER;
+        switch (theCompilerType) {
+        case ALIGNED64:
+            return ALIGNED64_COMPILER;
+        case OFFHEAP_ALIGNED64:
+            return OFFHEAP_ALIGNED64_COMPILER;
+        case OFFHEAP_PACKED:
+            return OFFHEAP_PACKED_COMPILER;
+        case COLUMNAR:
+            return COLUMNAR_COMPILER;
+        case BLOCKED:
+            return BLOCKED_COMPILER;
+        case PAGED_ALIGNED64:
+            return PAGED_ALIGNED64_COMPILER;
+        case PAGED_PACKED:
+            return PAGED_PACKED_COMPILER;
+        case PALETTE:
+            return PALETTE_COMPILER;
+        case RUN_LENGTH:
+            return RUN_LENGTH_COMPILER;
+        case GENERATED_ALIGNED64:
+            return GENERATED_ALIGNED64_COMPILER;
+        case GENERATED_PACKED:
+            return GENERATED_PACKED_COMPILER;
+        default:
+            return PACKED_COMPILER;
+        }
     }
 }
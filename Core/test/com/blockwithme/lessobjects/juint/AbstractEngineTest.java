@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.CompilerType;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.multidim.Point2D;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.util.CompilerFactoryImpl;
+
+/**
+ * The read/write/copy checks shared by the tests of the storage engines. The
+ * subclasses name the engine, and only add their engine specific tests.
+ */
+//CHECKSTYLE IGNORE FOR NEXT 300 LINES
+@SuppressWarnings({ "PMD", "all" })
+public abstract class AbstractEngineTest extends TestData {
+
+    protected boolean[] BOOLEANS;
+
+    protected byte[] BYTES;
+
+    protected char[] CHARS;
+
+    protected double[] DOUBLES;
+
+    protected float[] FLOATS;
+
+    protected int[] INTS;
+
+    protected long[] LONGS;
+
+    protected short[] SHORTS;
+
+    protected String[] STRINGS;
+
+    protected Struct struct;
+
+    protected Storage storage;
+
+    /** Returns the compiler of the engine. */
+    protected abstract Compiler compiler();
+
+    /** Returns the type creating the compiler of the engine. */
+    protected abstract CompilerType compilerType();
+
+    /** Returns the name of the engine, used to name the structs. */
+    protected abstract String engineName();
+
+    /** Returns the class of the storages of the engine. */
+    protected abstract Class<? extends Storage> storageClass();
+
+    /** Lets the engine configure the test struct, before it is compiled. */
+    protected Struct configure(final Struct theStruct) {
+        return theStruct;
+    }
+
+    /** Checks the values written by fill(). The test values are repeated,
+     * every _CAPACITY structures. */
+    protected void assertContent(final Storage theStorage, final int theCount) {
+        final Struct s = theStorage.struct();
+        final Struct c = s.child("child");
+        for (int i = 0; i < theCount; i++) {
+            final int v = i % _CAPACITY;
+            final int r = (theCount - 1 - i) % _CAPACITY;
+            theStorage.selectStructure(i);
+            assertEquals(BOOLEANS[v],
+                    theStorage.read((BooleanField) s.field("booleanField")));
+            assertEquals(BYTES[v],
+                    theStorage.read((ByteField) s.field("byteField")));
+            assertEquals(CHARS[v],
+                    theStorage.read((CharField) s.field("charField")));
+            assertEquals(DOUBLES[v],
+                    theStorage.read((DoubleField) s.field("doubleField")),
+                    DELTA);
+            assertEquals(FLOATS[v],
+                    theStorage.read((FloatField) s.field("floatField")), DELTA);
+            assertEquals(INTS[v],
+                    theStorage.read((IntField) s.field("intField")));
+            assertEquals(LONGS[v],
+                    theStorage.read((LongField) s.field("longField")));
+            assertEquals(SHORTS[v],
+                    theStorage.read((ShortField) s.field("shortField")));
+            assertEquals(STRINGS[v],
+                    theStorage.read((ObjectField) s.field("stringField")));
+            assertEquals(INTS[r],
+                    theStorage.read((IntField) c.field("childInt")));
+            assertEquals(BOOLEANS[r],
+                    theStorage.read((BooleanField) c.field("childBoolean")));
+        }
+    }
+
+    /** Releases a storage created by a test; does nothing by default. */
+    protected void dispose(final Storage theStorage) {
+        // NOP
+    }
+
+    /** Writes the test values, repeated every _CAPACITY structures, and
+     * commits them. */
+    protected void fill(final Storage theStorage, final int theCount) {
+        final Struct s = theStorage.struct();
+        final Struct c = s.child("child");
+        for (int i = 0; i < theCount; i++) {
+            final int v = i % _CAPACITY;
+            final int r = (theCount - 1 - i) % _CAPACITY;
+            theStorage.selectStructure(i);
+            theStorage.write((BooleanField) s.field("booleanField"),
+                    BOOLEANS[v]);
+            theStorage.write((ByteField) s.field("byteField"), BYTES[v]);
+            theStorage.write((CharField) s.field("charField"), CHARS[v]);
+            theStorage.write((DoubleField) s.field("doubleField"), DOUBLES[v]);
+            theStorage.write((FloatField) s.field("floatField"), FLOATS[v]);
+            theStorage.write((IntField) s.field("intField"), INTS[v]);
+            theStorage.write((LongField) s.field("longField"), LONGS[v]);
+            theStorage.write((ShortField) s.field("shortField"), SHORTS[v]);
+            theStorage.write((ObjectField) s.field("stringField"), STRINGS[v]);
+            theStorage.write((IntField) c.field("childInt"), INTS[r]);
+            theStorage.write((BooleanField) c.field("childBoolean"),
+                    BOOLEANS[r]);
+        }
+        theStorage.transactionManager().commit();
+    }
+
+    @Before
+    public void setup() {
+        BOOLEANS = booleans();
+        BYTES = bytes();
+        CHARS = chars();
+        DOUBLES = doubles();
+        FLOATS = floats();
+        INTS = ints();
+        LONGS = longs();
+        SHORTS = shorts();
+        STRINGS = strings();
+        final Struct child = new Struct("child", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("childInt"),
+                        FACTORY.newBooleanField("childBoolean") });
+        struct = compiler().compile(configure(new Struct(engineName()
+                + "Test", new Struct[] { child }, new Field<?, ?>[] {
+                FACTORY.newBooleanField("booleanField"),
+                FACTORY.newByteField("byteField"),
+                FACTORY.newCharField("charField"),
+                FACTORY.newDoubleField("doubleField"),
+                FACTORY.newFloatField("floatField"),
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newShortField("shortField"),
+                FACTORY.newStringField("stringField") })));
+        storage = compiler().initStorage(struct, _CAPACITY);
+    }
+
+    @After
+    public void tearDown() {
+        dispose(storage);
+    }
+
+    @Test
+    public void testCompilerFactory() {
+        assertSame(compiler().getClass(), new CompilerFactoryImpl()
+                .createCompiler(compilerType()).getClass());
+    }
+
+    @Test
+    public void testCopy() {
+        fill(storage, _CAPACITY);
+        final Storage copy = storage.copy();
+        try {
+            assertTrue(storageClass().isInstance(copy));
+            assertContent(copy, _CAPACITY);
+        } finally {
+            dispose(copy);
+        }
+    }
+
+    @Test
+    public void testMultiDimensional() {
+        final Storage data = compiler().initStorage(struct, _CAPACITY,
+                Arity.TWO_D);
+        final IntField intField = struct.field("intField");
+        for (int i = 0; i < _CAPACITY; i++) {
+            data.selectPoint(new Point2D(i, 0));
+            data.write(intField, INTS[i]);
+        }
+        for (int i = 0; i < _CAPACITY; i++) {
+            data.selectStructure(i);
+            final Point2D point = (Point2D) data.getSelectedPoint();
+            assertEquals(i, point.getX());
+            assertEquals(0, point.getY());
+            assertEquals(INTS[i], data.read(intField));
+        }
+        dispose(data);
+    }
+
+    @Test
+    public void testReadWrite() {
+        fill(storage, _CAPACITY);
+        assertContent(storage, _CAPACITY);
+    }
+
+    @Test
+    public void testResize() {
+        fill(storage, _CAPACITY);
+        storage.resizeStorage(_CAPACITY * 2);
+        assertEquals(_CAPACITY * 2, storage.getCapacity());
+        assertContent(storage, _CAPACITY);
+        storage.selectStructure(_CAPACITY * 2 - 1);
+        assertEquals(0, storage.read((IntField) struct.field("intField")));
+        assertEquals(null,
+                storage.read((ObjectField) struct.field("stringField")));
+    }
+
+    @Test
+    public void testRollback() {
+        fill(storage, _CAPACITY);
+        final IntField intField = struct.field("intField");
+        for (int i = 0; i < _CAPACITY; i++) {
+            storage.selectStructure(i);
+            storage.write(intField, i);
+        }
+        storage.transactionManager().rollback();
+        assertContent(storage, _CAPACITY);
+    }
+
+    @Test
+    public void testUnion() {
+        final Struct union = compiler().compile(new Struct(engineName()
+                + "Union", new Struct[] { new Struct("u", true, new Struct[] {
+                new Struct("a", new Struct[0], new Field<?, ?>[] { FACTORY
+                        .newLongField("longField") }),
+                new Struct("b", new Struct[0], new Field<?, ?>[] {
+                        FACTORY.newIntField("intField"),
+                        FACTORY.newShortField("shortField") }) },
+                new Field<?, ?>[] { FACTORY.newByteField("selector") }) },
+                new Field<?, ?>[] { FACTORY.newIntField("other") }));
+        final Storage data = compiler().initStorage(union, _CAPACITY);
+        final Struct u = union.child("u");
+        final LongField longField = u.child("a").field("longField");
+        final IntField intField = u.child("b").field("intField");
+        final ShortField shortField = u.child("b").field("shortField");
+        final IntField other = union.field("other");
+        for (int i = 0; i < _CAPACITY; i++) {
+            data.selectStructure(i);
+            data.write(other, INTS[i]);
+            if (i % 2 == 0) {
+                data.selectUnionPosition(u, u.childIndex("a"));
+                data.write(longField, LONGS[i]);
+            } else {
+                data.selectUnionPosition(u, u.childIndex("b"));
+                data.write(intField, INTS[i]);
+                data.write(shortField, SHORTS[i]);
+            }
+        }
+        for (int i = 0; i < _CAPACITY; i++) {
+            data.selectStructure(i);
+            assertEquals(INTS[i], data.read(other));
+            if (i % 2 == 0) {
+                assertEquals(LONGS[i], data.read(longField));
+            } else {
+                assertEquals(INTS[i], data.read(intField));
+                assertEquals(SHORTS[i], data.read(shortField));
+            }
+        }
+        dispose(data);
+    }
+
+    @Test
+    public void testUnsupported() {
+        try {
+            dispose(compiler().initStorage(struct, _CAPACITY, true));
+            fail(engineName() + " storages cannot be auto-resized");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -41,7 +41,18 @@ import com.blockwithme.lessobjects.juint.ser.SerializationTest;
         TestMultiDimensionalSupport.class, TestOptionalChildInChild.class,
         TestFieldsInsideOptionalChild.class,
         TestFieldsInsideOptionalChild.class, TestStorageWrapper.class,
-        TestCommitRollbackOptionalFields.class, SerializationTest.class })
+        TestCommitRollbackOptionalFields.class, TestOffHeapStorage.class,
+        TestMappedStorage.class, TestColumnarStorage.class,
+        TestBlockedStorage.class, TestPagedStorage.class,
+        TestBitmapSparseStorage.class, TestPaletteStorage.class,
+        TestRunLengthStorage.class, TestSubWordAligned64.class,
+        TestBulkAccess.class, TestAggregates.class, TestFieldFilter.class,
+        TestFieldIndex.class, TestBitmapIndex.class, TestFieldHandle.class,
+        TestGeneratedStorage.class, TestIndexedAccess.class,
+        TestParallelForEach.class, TestParallelApply.class, TestPermute.class,
+        TestCopyRange.class, TestSchemaMigration.class, TestCopyPaths.class,
+        TestMigratingStorage.class, TestMortonMultiDimensionSupport.class,
+        SerializationTest.class })
 public class AllTests {
     // no implementation
 }
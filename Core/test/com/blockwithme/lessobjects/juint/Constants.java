@@ -21,7 +21,17 @@ package com.blockwithme.lessobjects.juint;
 import com.blockwithme.lessobjects.Compiler;
 import com.blockwithme.lessobjects.FieldFactory;
 import com.blockwithme.lessobjects.compiler.Aligned64Compiler;
+import com.blockwithme.lessobjects.compiler.BlockedCompiler;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.compiler.GeneratedAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.GeneratedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.OffHeapAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.OffHeapPackedCompiler;
 import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.compiler.PagedAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.PagedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.PaletteCompiler;
+import com.blockwithme.lessobjects.compiler.RunLengthCompiler;
 import com.blockwithme.lessobjects.util.FieldFactoryImpl;
 
 /**
@@ -34,6 +44,15 @@ public interface Constants {
     /** The compilers. */
     Compiler[] COMPILERS = { new Aligned64Compiler(), new PackedCompiler() };
 
+    /** A compiler of every storage engine. The off-heap storages must be
+     * closed. */
+    Compiler[] ENGINES = { new Aligned64Compiler(), new PackedCompiler(),
+            new BlockedCompiler(), new ColumnarCompiler(),
+            new GeneratedAligned64Compiler(), new GeneratedPackedCompiler(),
+            new OffHeapAligned64Compiler(), new OffHeapPackedCompiler(),
+            new PagedAligned64Compiler(), new PagedPackedCompiler(),
+            new PaletteCompiler(), new RunLengthCompiler() };
+
     /** Delta used for float, double comparison */
     float DELTA = 0.000001f;
 
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aggregate.Aggregates;
+import com.blockwithme.lessobjects.storage.aggregate.DoubleStatistics;
+import com.blockwithme.lessobjects.storage.aggregate.LongStatistics;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestAggregates extends TestData {
+
+    private static final Compiler[] AGGREGATE_COMPILERS = { COMPILERS[0],
+            COMPILERS[1], new ColumnarCompiler() };
+
+    /** Large enough to be aggregated in parallel. */
+    private static final int LARGE = 300000;
+
+    private double[] DOUBLES;
+
+    private int[] INTS;
+
+    private short[] SHORTS;
+
+    private Struct struct;
+
+    private Storage fill(final Compiler theCompiler, final Struct theStruct) {
+        final Storage storage = theCompiler.initStorage(theStruct, _CAPACITY);
+        storage.writeRange((DoubleField) theStruct.field("doubleField"), 0,
+                _CAPACITY, DOUBLES);
+        storage.writeRange((IntField) theStruct.field("intField"), 0,
+                _CAPACITY, INTS);
+        storage.writeRange((ShortField) theStruct.field("shortField"), 0,
+                _CAPACITY, SHORTS);
+        storage.transactionManager().commit();
+        return storage;
+    }
+
+    @Before
+    public void setup() {
+        DOUBLES = doubles();
+        INTS = ints();
+        SHORTS = shorts();
+        struct = new Struct("AggregateTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newDoubleField("doubleField"),
+                        FACTORY.newIntField("intField"),
+                        FACTORY.newShortField("shortField") });
+    }
+
+    @Test
+    public void testBitmap() {
+        final long[] bitmap = { 0x155L };
+        for (final Compiler compiler : AGGREGATE_COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = fill(compiler, s);
+            final LongStatistics stats = Aggregates.longStatistics(storage,
+                    s.field("intField"), bitmap);
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < _CAPACITY; i += 2) {
+                sum += INTS[i];
+                min = Math.min(min, INTS[i]);
+            }
+            assertEquals(compiler.compilerName(), 5, stats.count());
+            assertEquals(sum, stats.sum());
+            assertEquals(min, stats.min());
+            assertEquals(0, Aggregates.longStatistics(storage,
+                    s.field("intField"), new long[0]).count());
+        }
+    }
+
+    @Test
+    public void testDoubleStatistics() {
+        for (final Compiler compiler : AGGREGATE_COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = fill(compiler, s);
+            final DoubleStatistics stats = Aggregates.doubleStatistics(
+                    storage, s.field("doubleField"), 0, _CAPACITY);
+            double sum = 0;
+            double max = Double.NEGATIVE_INFINITY;
+            for (final double d : DOUBLES) {
+                sum += d;
+                max = Math.max(max, d);
+            }
+            assertEquals(compiler.compilerName(), _CAPACITY, stats.count());
+            assertEquals(sum, stats.sum(), DELTA);
+            assertEquals(max, stats.max(), DELTA);
+            assertEquals(sum / _CAPACITY, stats.mean(), DELTA);
+            // Integral fields can also be aggregated as double
+            assertEquals(SHORTS[3], Aggregates.doubleStatistics(storage,
+                    s.field("shortField"), 3, 4).sum(), DELTA);
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        for (final Compiler compiler : AGGREGATE_COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY);
+            final IntField field = (IntField) s.field("intField");
+            storage.writeRange(field, 0, _CAPACITY, new int[] { -5, 0, 1, 9,
+                    10, 19, 20, 29, 30, 100 });
+            final long[] histogram = Aggregates.histogram(storage, field, 0,
+                    _CAPACITY, 0, 10, 3);
+            assertArrayEquals(compiler.compilerName(),
+                    new long[] { 4, 2, 4 }, histogram);
+            try {
+                Aggregates.histogram(storage, field, 0, _CAPACITY, 0, 0, 3);
+                fail("A bucket width of 0 must fail");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testLongStatistics() {
+        for (final Compiler compiler : AGGREGATE_COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = fill(compiler, s);
+            final LongStatistics stats = Aggregates.longStatistics(storage,
+                    s.field("shortField"), 2, _CAPACITY);
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 2; i < _CAPACITY; i++) {
+                sum += SHORTS[i];
+                min = Math.min(min, SHORTS[i]);
+                max = Math.max(max, SHORTS[i]);
+            }
+            assertEquals(compiler.compilerName(), _CAPACITY - 2,
+                    stats.count());
+            assertEquals(sum, stats.sum());
+            assertEquals(min, stats.min());
+            assertEquals(max, stats.max());
+            assertTrue(Double.isNaN(Aggregates.longStatistics(storage,
+                    s.field("shortField"), 3, 3).mean()));
+            try {
+                Aggregates.longStatistics(storage, s.field("doubleField"), 0,
+                        _CAPACITY);
+                fail("A double field has no long statistics");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        for (final Compiler compiler : AGGREGATE_COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, LARGE);
+            final IntField field = (IntField) s.field("intField");
+            final int[] values = new int[LARGE];
+            for (int i = 0; i < LARGE; i++) {
+                values[i] = i % 1000;
+            }
+            storage.writeRange(field, 0, LARGE, values);
+            storage.transactionManager().commit();
+            final LongStatistics stats = Aggregates.longStatistics(storage,
+                    field, 0, LARGE);
+            assertEquals(compiler.compilerName(), LARGE, stats.count());
+            assertEquals(300L * 999 * 1000 / 2, stats.sum());
+            assertEquals(999, stats.max());
+            final long[] bitmap = new long[LARGE / Long.SIZE + 1];
+            for (int i = 0; i < LARGE; i += 1000) {
+                bitmap[i / Long.SIZE] |= 1L << i;
+            }
+            final long[] histogram = Aggregates.histogram(storage, field,
+                    bitmap, 0, 1, 2);
+            assertArrayEquals(new long[] { 300, 0 }, histogram);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.BitmapFieldIndex;
+import com.blockwithme.lessobjects.util.Bitmaps;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestBitmapIndex extends TestData {
+
+    private Struct struct;
+
+    @Before
+    public void setup() {
+        struct = new Struct("BitmapTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newEnumField("kind", TestEnum.class),
+                FACTORY.newBooleanField("frozen"),
+                FACTORY.newShortField("level", 4),
+                FACTORY.newShortField("wide") });
+    }
+
+    @Test
+    public void testBitmaps() {
+        final long[] a = new long[] { 0x0FL, 1L };
+        final long[] b = new long[] { 0x3CL };
+        assertArrayEquals(new long[] { 0x0CL }, Bitmaps.and(a, b));
+        assertArrayEquals(new long[] { 0x3FL, 1L }, Bitmaps.or(a, b));
+        assertArrayEquals(new long[] { 0x03L, 1L }, Bitmaps.andNot(a, b));
+        assertArrayEquals(new long[] { 0x30L }, Bitmaps.not(a, 6));
+        assertEquals(5, Bitmaps.count(a));
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 64 }, Bitmaps.toArray(a));
+    }
+
+    @Test
+    public void testCombine() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final AbstractStorage storage = (AbstractStorage) compiler
+                    .initStorage(s, _CAPACITY);
+            final ByteField kind = s.field("kind");
+            final BooleanField frozen = s.field("frozen");
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                kind.writeAny(i % 2 == 0 ? TestEnum.TWO : TestEnum.FOUR,
+                        storage);
+                storage.write(frozen, i % 3 == 0);
+            }
+            storage.transactionManager().commit();
+            final BitmapFieldIndex kinds = new BitmapFieldIndex(kind);
+            final BitmapFieldIndex frozens = new BitmapFieldIndex(frozen);
+            storage.addIndex(kinds);
+            storage.addIndex(frozens);
+            assertEquals(_CAPACITY, kinds.limit());
+            assertArrayEquals(compiler.compilerName(), new int[] { 1, 3, 5,
+                    7, 9 }, kinds.find(TestEnum.FOUR));
+            assertArrayEquals(new int[0], kinds.find(TestEnum.ONE));
+            final long[] twoNotFrozen = Bitmaps.and(
+                    kinds.bitmap(TestEnum.TWO),
+                    frozens.not(frozens.bitmap(true)));
+            assertArrayEquals(new int[] { 2, 4, 8 },
+                    Bitmaps.toArray(twoNotFrozen));
+            storage.selectStructure(4);
+            storage.write(frozen, true);
+            kind.writeAny(null, storage);
+            assertArrayEquals(new int[] { 0, 3, 4, 6, 9 },
+                    frozens.find(true));
+            assertArrayEquals(new int[] { 4 }, kinds.find(null));
+            assertArrayEquals(new int[] { 0, 2, 6, 8 },
+                    kinds.find(TestEnum.TWO));
+            assertEquals(_CAPACITY, kinds.size());
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final AbstractStorage storage = (AbstractStorage) compiler
+                    .initStorage(s, _CAPACITY);
+            final ShortField level = s.field("level");
+            final BitmapFieldIndex levels = new BitmapFieldIndex(level);
+            storage.addIndex(levels);
+            storage.selectStructure(3);
+            storage.write(level, (short) 5);
+            storage.transactionManager().commit();
+            storage.selectStructure(6);
+            storage.write(level, (short) 5);
+            assertArrayEquals(new int[] { 3, 6 }, levels.find(5L));
+            storage.transactionManager().rollback();
+            assertArrayEquals(compiler.compilerName(), new int[] { 3 },
+                    levels.find(5L));
+            assertEquals(_CAPACITY - 1, levels.find(0L).length);
+            assertArrayEquals(new int[0], levels.find(100L));
+        }
+    }
+
+    @Test
+    public void testUnsupportedField() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final ShortField wide = s.field("wide");
+            try {
+                new BitmapFieldIndex(wide);
+                fail("A 16 bits field must not be accepted");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
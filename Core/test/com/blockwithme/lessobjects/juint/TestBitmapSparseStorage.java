@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.storage.SparseIndex;
+import com.blockwithme.lessobjects.storage.SparseStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64BitmapSparseStorage;
+import com.blockwithme.lessobjects.storage.packed.PackedBitmapSparseStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 300 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestBitmapSparseStorage extends TestData {
+
+    /** The distance between two used structure indexes. */
+    private static final int GAP = 1000;
+
+    private int[] INTS;
+
+    private long[] LONGS;
+
+    private String[] STRINGS;
+
+    private void fill(final CompiledStorage strg) {
+        final Struct s = strg.compiledStructs;
+        for (int i = 0; i < _CAPACITY; i++) {
+            strg.storage.selectStructure(i * GAP);
+            strg.storage.write((IntField) s.field("intField"), INTS[i]);
+            strg.storage.write((LongField) s.field("longField"), LONGS[i]);
+            strg.storage.write((ObjectField) s.field("stringField"),
+                    STRINGS[i]);
+        }
+        strg.storage.transactionManager().commit();
+    }
+
+    private void assertContent(final CompiledStorage strg, final int theFrom) {
+        final String message = "Bitmap sparse test failed for Compiler -"
+                + strg.compiler.compilerName();
+        final Struct s = strg.compiledStructs;
+        for (int i = theFrom; i < _CAPACITY; i++) {
+            assertTrue(message, ((SparseStorage) strg.storage)
+                    .contains(i * GAP));
+            strg.storage.selectStructure(i * GAP);
+            assertEquals(message, INTS[i],
+                    strg.storage.read((IntField) s.field("intField")));
+            assertEquals(message, LONGS[i],
+                    strg.storage.read((LongField) s.field("longField")));
+            assertEquals(message, STRINGS[i],
+                    strg.storage.read((ObjectField) s.field("stringField")));
+        }
+    }
+
+    @Before
+    public void setup() {
+        INTS = ints();
+        LONGS = longs();
+        STRINGS = strings();
+        final Struct struct = new Struct("BitmapSparseTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("intField"),
+                        FACTORY.newLongField("longField"),
+                        FACTORY.newStringField("stringField") })
+                .setBitmapIndexed(true);
+        COMPILED = new CompiledStorage[COMPILERS.length];
+        for (int i = 0; i < COMPILERS.length; i++) {
+            COMPILED[i] = new CompiledStorage();
+            COMPILED[i].compiler = COMPILERS[i];
+            COMPILED[i].compiledStructs = COMPILERS[i].compile(struct);
+            COMPILED[i].storage = COMPILERS[i].initStorage(
+                    COMPILED[i].compiledStructs, _CAPACITY, true);
+        }
+    }
+
+    @Test
+    public void testClear() {
+        for (final CompiledStorage strg : COMPILED) {
+            fill(strg);
+            final SparseStorage storage = (SparseStorage) strg.storage;
+            final int capacity = strg.storage.getCapacity();
+            strg.storage.selectStructure(0);
+            strg.storage.clear();
+            strg.storage.selectStructure(GAP);
+            strg.storage.clear();
+            strg.storage.transactionManager().commit();
+            assertFalse(storage.contains(0));
+            assertFalse(storage.contains(GAP));
+            assertEquals(_CAPACITY - 2, storage.currentSize());
+            // The other structures did not move.
+            assertContent(strg, 2);
+            // The free slots are reused.
+            strg.storage.selectStructure(7);
+            strg.storage.selectStructure(8);
+            assertEquals(capacity, strg.storage.getCapacity());
+            assertEquals(_CAPACITY, storage.currentSize());
+            assertNull(strg.storage.read((ObjectField) strg.compiledStructs
+                    .field("stringField")));
+        }
+    }
+
+    @Test
+    public void testCopy() {
+        for (final CompiledStorage strg : COMPILED) {
+            fill(strg);
+            strg.storage = strg.storage.copy();
+            assertEquals(_CAPACITY,
+                    ((SparseStorage) strg.storage).currentSize());
+            assertContent(strg, 0);
+        }
+    }
+
+    @Test
+    public void testFreeSlots() {
+        final SparseIndex index = new SparseIndex();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, index.add(i * 3));
+        }
+        assertEquals(700, index.remove(2100));
+        assertEquals(10, index.remove(30));
+        // The lowest free slot is reused first.
+        assertEquals(10, index.add(1));
+        final SparseIndex copy = new SparseIndex();
+        index.copyTo(copy);
+        assertEquals(700, index.add(4));
+        assertEquals(1000, index.add(5));
+        assertEquals(700, copy.add(4));
+        index.clear();
+        assertEquals(0, index.add(7));
+        assertEquals(1, index.add(8));
+    }
+
+    @Test
+    public void testIndex() {
+        final SparseIndex index = new SparseIndex();
+        final int[] structures = { 70000, 5, 300, 2, 255, 256 };
+        for (int i = 0; i < structures.length; i++) {
+            assertEquals(i, index.add(structures[i]));
+        }
+        assertEquals(structures.length, index.size());
+        assertEquals(0, index.add(70000));
+        assertEquals(2, index.slot(300));
+        assertEquals(-1, index.slot(301));
+        assertFalse(index.contains(-1));
+        final int[] sorted = { 2, 5, 255, 256, 300, 70000 };
+        int next = -1;
+        for (int i = 0; i < sorted.length; i++) {
+            assertEquals(sorted[i], index.select(i));
+            next = index.nextStructure(next + 1);
+            assertEquals(sorted[i], next);
+        }
+        assertEquals(-1, index.nextStructure(70001));
+        assertEquals(6, index.slotLimit());
+        assertEquals(1, index.remove(5));
+        assertEquals(-1, index.remove(5));
+        assertEquals(256, index.select(2));
+        assertEquals(1, index.add(1000000));
+        assertEquals(5, index.remove(256));
+        assertEquals(5, index.slotLimit());
+        final SparseIndex copy = new SparseIndex();
+        index.copyTo(copy);
+        assertEquals(1, copy.slot(1000000));
+        assertEquals(index.size(), copy.size());
+    }
+
+    @Test
+    public void testRenumber() {
+        final SparseIndex index = new SparseIndex();
+        index.add(0);
+        index.add(2);
+        index.add(300);
+        index.renumber(new int[] { 2, 1, 0 });
+        assertEquals(1, index.slot(0));
+        assertEquals(0, index.slot(2));
+        assertEquals(2, index.slot(300));
+        try {
+            // 0 and 2 would both become 1.
+            index.renumber(new int[] { 1, 0, 1 });
+            fail("Not a permutation");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        // The index is unchanged.
+        assertEquals(3, index.size());
+        assertEquals(1, index.slot(0));
+        assertEquals(0, index.slot(2));
+        assertEquals(-1, index.slot(1));
+    }
+
+    @Test
+    public void testOptionalChild() {
+        final Struct child = new Struct("OptionalChild", new Struct[] {},
+                FACTORY.newIntField("childIntField")).setOptional(true)
+                .setBitmapIndexed(true);
+        final Struct struct = new Struct("BitmapOptionalTest",
+                new Struct[] { child }, FACTORY.newIntField("intField"));
+        for (final Compiler compiler : COMPILERS) {
+            final Struct compiled = compiler.compile(struct);
+            assertTrue(compiled.child("OptionalChild").bitmapIndexed());
+            final Storage storage = compiler.initStorage(compiled, _CAPACITY);
+            final IntField childField = compiled
+                    .field("OptionalChild.childIntField");
+            for (int i = 0; i < _CAPACITY; i += 2) {
+                storage.selectStructure(i);
+                storage.write(childField, INTS[i]);
+            }
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                assertEquals(i % 2 == 0 ? INTS[i] : 0,
+                        storage.read(childField));
+            }
+            storage.selectStructure(0);
+            storage.clearChild(compiled.child("OptionalChild"));
+            assertEquals(0, storage.read(childField));
+            storage.selectStructure(2);
+            assertEquals(INTS[2], storage.read(childField));
+        }
+    }
+
+    @Test
+    public void testReadWrite() {
+        for (final CompiledStorage strg : COMPILED) {
+            assertTrue(strg.storage instanceof PackedBitmapSparseStorage
+                    || strg.storage instanceof Aligned64BitmapSparseStorage);
+            fill(strg);
+            assertEquals(_CAPACITY,
+                    ((SparseStorage) strg.storage).currentSize());
+            assertFalse(((SparseStorage) strg.storage).contains(1));
+            assertContent(strg, 0);
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        for (final CompiledStorage strg : COMPILED) {
+            fill(strg);
+            final IntField intField = (IntField) strg.compiledStructs
+                    .field("intField");
+            for (int i = 0; i < _CAPACITY; i++) {
+                strg.storage.selectStructure(i * GAP);
+                strg.storage.write(intField, i);
+            }
+            strg.storage.transactionManager().rollback();
+            assertContent(strg, 0);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.CompilerType;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.BlockedCompiler;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.columnar.BlockedStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestBlockedStorage extends AbstractEngineTest {
+
+    private static final BlockedCompiler COMPILER = new BlockedCompiler();
+
+    @Override
+    protected Compiler compiler() {
+        return COMPILER;
+    }
+
+    @Override
+    protected CompilerType compilerType() {
+        return CompilerType.BLOCKED;
+    }
+
+    @Override
+    protected Struct configure(final Struct theStruct) {
+        return theStruct.setBlockSize(16);
+    }
+
+    @Override
+    protected String engineName() {
+        return "Blocked";
+    }
+
+    @Override
+    protected Class<? extends Storage> storageClass() {
+        return BlockedStorage.class;
+    }
+
+    @Test
+    public void testBlocks() {
+        final BlockedStorage blocked = (BlockedStorage) storage;
+        final IntField intField = struct.field("intField");
+        assertEquals(16, struct.blockSize());
+        assertEquals(16, blocked.blockSize());
+        assertEquals(0, blocked.blockBits() % 64);
+        assertEquals(32, blocked.fieldStride(intField));
+        fill(storage, _CAPACITY);
+        final long[] array = blocked.array();
+        for (int i = 0; i < _CAPACITY; i++) {
+            final long position = i / 16 * blocked.blockBits()
+                    + blocked.fieldBase(intField) + i % 16 * 32;
+            final long word = array[(int) (position / 64)];
+            final long next = array[(int) (position / 64) + 1];
+            final int shift = (int) (position % 64);
+            final long bits = (shift == 0) ? word : word >>> shift
+                    | next << 64 - shift;
+            assertEquals(INTS[i], (int) bits);
+        }
+        final Struct defaultBlocks = COMPILER.compile(new Struct(
+                "DefaultBlocks", new Struct[0],
+                new Field<?, ?>[] { FACTORY.newIntField("intField") }));
+        assertEquals(BlockedStorage.DEFAULT_BLOCK_SIZE,
+                ((BlockedStorage) COMPILER.initStorage(defaultBlocks,
+                        _CAPACITY)).blockSize());
+        try {
+            defaultBlocks.setBlockSize(3);
+            fail("Block size must be a power of two");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
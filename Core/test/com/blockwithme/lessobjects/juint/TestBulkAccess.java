@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.storage.Storage;
+
+//CHECKSTYLE IGNORE FOR NEXT 300 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestBulkAccess extends TestData {
+
+    private static final Compiler[] BULK_COMPILERS = { COMPILERS[0],
+            COMPILERS[1], new ColumnarCompiler() };
+
+    private boolean[] BOOLEANS;
+
+    private byte[] BYTES;
+
+    private char[] CHARS;
+
+    private double[] DOUBLES;
+
+    private float[] FLOATS;
+
+    private int[] INTS;
+
+    private long[] LONGS;
+
+    private short[] SHORTS;
+
+    private Struct struct;
+
+    private void assertContent(final Storage theStorage) {
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < _CAPACITY; i++) {
+            theStorage.selectStructure(i);
+            assertEquals(BOOLEANS[i],
+                    theStorage.read((BooleanField) s.field("booleanField")));
+            assertEquals(BYTES[i],
+                    theStorage.read((ByteField) s.field("byteField")));
+            assertEquals(CHARS[i],
+                    theStorage.read((CharField) s.field("charField")));
+            assertEquals(DOUBLES[i],
+                    theStorage.read((DoubleField) s.field("doubleField")),
+                    DELTA);
+            assertEquals(FLOATS[i],
+                    theStorage.read((FloatField) s.field("floatField")), DELTA);
+            assertEquals(INTS[i],
+                    theStorage.read((IntField) s.field("intField")));
+            assertEquals(LONGS[i],
+                    theStorage.read((LongField) s.field("longField")));
+            assertEquals(SHORTS[i],
+                    theStorage.read((ShortField) s.field("shortField")));
+        }
+    }
+
+    private void writeAll(final Storage theStorage) {
+        final Struct s = theStorage.struct();
+        theStorage.writeRange((BooleanField) s.field("booleanField"), 0,
+                _CAPACITY, BOOLEANS);
+        theStorage.writeRange((ByteField) s.field("byteField"), 0, _CAPACITY,
+                BYTES);
+        theStorage.writeRange((CharField) s.field("charField"), 0, _CAPACITY,
+                CHARS);
+        theStorage.writeRange((DoubleField) s.field("doubleField"), 0,
+                _CAPACITY, DOUBLES);
+        theStorage.writeRange((FloatField) s.field("floatField"), 0,
+                _CAPACITY, FLOATS);
+        theStorage.writeRange((IntField) s.field("intField"), 0, _CAPACITY,
+                INTS);
+        theStorage.writeRange((LongField) s.field("longField"), 0, _CAPACITY,
+                LONGS);
+        theStorage.writeRange((ShortField) s.field("shortField"), 0,
+                _CAPACITY, SHORTS);
+        theStorage.transactionManager().commit();
+    }
+
+    private static int[] reversed() {
+        final int[] result = new int[_CAPACITY];
+        for (int i = 0; i < _CAPACITY; i++) {
+            result[i] = _CAPACITY - 1 - i;
+        }
+        return result;
+    }
+
+    @Before
+    public void setup() {
+        BOOLEANS = booleans();
+        BYTES = bytes();
+        CHARS = chars();
+        DOUBLES = doubles();
+        FLOATS = floats();
+        INTS = ints();
+        LONGS = longs();
+        SHORTS = shorts();
+        struct = new Struct("BulkTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newBooleanField("booleanField"),
+                FACTORY.newByteField("byteField"),
+                FACTORY.newCharField("charField"),
+                FACTORY.newDoubleField("doubleField"),
+                FACTORY.newFloatField("floatField"),
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newShortField("shortField") });
+    }
+
+    @Test
+    public void testGather() {
+        for (final Compiler compiler : BULK_COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY);
+            writeAll(storage);
+            final int[] indexes = reversed();
+            final int[] ints = new int[_CAPACITY];
+            storage.gather((IntField) s.field("intField"), indexes, ints);
+            final long[] longs = new long[_CAPACITY];
+            storage.gather((LongField) s.field("longField"), indexes, longs);
+            final boolean[] booleans = new boolean[_CAPACITY];
+            storage.gather((BooleanField) s.field("booleanField"), indexes,
+                    booleans);
+            for (int i = 0; i < _CAPACITY; i++) {
+                assertEquals(compiler.compilerName(), INTS[indexes[i]],
+                        ints[i]);
+                assertEquals(LONGS[indexes[i]], longs[i]);
+                assertEquals(BOOLEANS[indexes[i]], booleans[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidRange() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY);
+            try {
+                storage.readRange((IntField) s.field("intField"), 0,
+                        _CAPACITY + 1, new int[_CAPACITY + 1]);
+                fail("Reading past the capacity must fail");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                storage.scatter((IntField) s.field("intField"),
+                        new int[] { -1 }, new int[1]);
+                fail("Writing a negative index must fail");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testReadRange() {
+        for (final Compiler compiler : BULK_COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY);
+            writeAll(storage);
+            assertContent(storage);
+            final char[] chars = new char[_CAPACITY];
+            storage.readRange((CharField) s.field("charField"), 0, _CAPACITY,
+                    chars);
+            assertArrayEquals(compiler.compilerName(), CHARS, chars);
+            final double[] doubles = new double[_CAPACITY];
+            storage.readRange((DoubleField) s.field("doubleField"), 0,
+                    _CAPACITY, doubles);
+            assertArrayEquals(DOUBLES, doubles, DELTA);
+            final float[] floats = new float[_CAPACITY];
+            storage.readRange((FloatField) s.field("floatField"), 0,
+                    _CAPACITY, floats);
+            assertArrayEquals(FLOATS, floats, DELTA);
+            final short[] shorts = new short[3];
+            storage.readRange((ShortField) s.field("shortField"), 2, 5, shorts);
+            assertArrayEquals(Arrays.copyOfRange(SHORTS, 2, 5), shorts);
+            final byte[] bytes = new byte[_CAPACITY];
+            storage.readRange((ByteField) s.field("byteField"), 0, _CAPACITY,
+                    bytes);
+            assertArrayEquals(BYTES, bytes);
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        for (final Compiler compiler : BULK_COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY);
+            writeAll(storage);
+            storage.writeRange((IntField) s.field("intField"), 0, _CAPACITY,
+                    new int[_CAPACITY]);
+            storage.scatter((LongField) s.field("longField"), reversed(),
+                    new long[_CAPACITY]);
+            storage.transactionManager().rollback();
+            assertContent(storage);
+        }
+    }
+
+    @Test
+    public void testScatter() {
+        for (final Compiler compiler : BULK_COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY);
+            writeAll(storage);
+            final int[] indexes = reversed();
+            final int[] ints = new int[_CAPACITY];
+            for (int i = 0; i < _CAPACITY; i++) {
+                ints[i] = INTS[indexes[i]];
+            }
+            storage.writeRange((IntField) s.field("intField"), 0, _CAPACITY,
+                    new int[_CAPACITY]);
+            storage.scatter((IntField) s.field("intField"), indexes, ints);
+            storage.transactionManager().commit();
+            assertContent(storage);
+        }
+    }
+
+    @Test
+    public void testSparse() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY, true);
+            final int[] indexes = new int[_CAPACITY];
+            for (int i = 0; i < _CAPACITY; i++) {
+                indexes[i] = i * 100;
+            }
+            storage.scatter((IntField) s.field("intField"), indexes, INTS);
+            storage.transactionManager().commit();
+            final int[] ints = new int[_CAPACITY];
+            storage.gather((IntField) s.field("intField"), indexes, ints);
+            assertArrayEquals(INTS, ints);
+        }
+    }
+
+    @Test
+    public void testSubWord() {
+        final Compiler compiler = COMPILERS[0];
+        final Struct s = compiler.compile(new Struct("SmallBulkTest",
+                new Struct[] {}, new Field<?, ?>[] { FACTORY.newIntField(
+                        "intField", 5) }));
+        final Storage storage = compiler.initStorage(s, _CAPACITY);
+        final int[] values = new int[_CAPACITY];
+        for (int i = 0; i < _CAPACITY; i++) {
+            values[i] = (i * 7 + 3) & 31;
+        }
+        storage.writeRange((IntField) s.field("intField"), 0, _CAPACITY,
+                values);
+        final int[] ints = new int[_CAPACITY];
+        storage.readRange((IntField) s.field("intField"), 0, _CAPACITY, ints);
+        assertArrayEquals(values, ints);
+        for (int i = 0; i < _CAPACITY; i++) {
+            storage.selectStructure(i);
+            assertEquals(values[i], storage.read((IntField) s
+                    .field("intField")));
+        }
+    }
+}
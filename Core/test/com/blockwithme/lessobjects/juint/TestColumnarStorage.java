@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.CompilerType;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.columnar.ColumnarStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestColumnarStorage extends AbstractEngineTest {
+
+    private static final ColumnarCompiler COMPILER = new ColumnarCompiler();
+
+    @Override
+    protected Compiler compiler() {
+        return COMPILER;
+    }
+
+    @Override
+    protected CompilerType compilerType() {
+        return CompilerType.COLUMNAR;
+    }
+
+    @Override
+    protected String engineName() {
+        return "Columnar";
+    }
+
+    @Override
+    protected Class<? extends Storage> storageClass() {
+        return ColumnarStorage.class;
+    }
+
+    @Test
+    public void testColumns() {
+        final ColumnarStorage columnar = (ColumnarStorage) storage;
+        final IntField intField = struct.field("intField");
+        final BooleanField booleanField = struct.field("booleanField");
+        assertEquals(32, columnar.columnStride(intField));
+        assertEquals(0, columnar.columnOffset(intField));
+        assertEquals(1, columnar.columnStride(booleanField));
+        assertNotSame(columnar.column(intField),
+                columnar.column(booleanField));
+        fill(storage, _CAPACITY);
+        final long[] column = columnar.column(intField);
+        for (int i = 0; i < _CAPACITY; i++) {
+            final long word = column[i / 2];
+            assertEquals(INTS[i], (int) (word >>> (i % 2) * 32));
+        }
+    }
+}
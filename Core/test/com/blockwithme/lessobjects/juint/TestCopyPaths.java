@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.ENGINES;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.global.IntGlobalField;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.optional.IntOptionalField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.storage.SparseStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.offheap.OffHeapStorage;
+
+/** Checks the copies of every engine, whether they copy the storage as-is,
+ * or field by field. */
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestCopyPaths extends TestData {
+
+    private static void close(final Storage... theStorages) {
+        for (final Storage storage : theStorages) {
+            if (storage instanceof OffHeapStorage) {
+                ((OffHeapStorage) storage).close();
+            }
+        }
+    }
+
+    private static Struct plainStruct(final String theFirst,
+            final String theSecond) {
+        return new Struct("CopyPathsTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField(theFirst),
+                        FACTORY.newIntField(theSecond),
+                        FACTORY.newLongField("longField"),
+                        FACTORY.newStringField("stringField") });
+    }
+
+    private static void fillPlain(final Storage theStorage) {
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < _CAPACITY; i++) {
+            theStorage.selectStructure(i);
+            theStorage.write((IntField) s.field("a"), i);
+            theStorage.write((IntField) s.field("b"), -i);
+            theStorage.write((LongField) s.field("longField"), i * 1000000L);
+            if (i % 2 == 0) {
+                theStorage.write((ObjectField) s.field("stringField"), "s"
+                        + i);
+            }
+        }
+        theStorage.transactionManager().commit();
+    }
+
+    private static void checkPlain(final Storage theStorage) {
+        final String message = theStorage.getClass().getSimpleName();
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < _CAPACITY; i++) {
+            theStorage.selectStructure(i);
+            assertEquals(message, i, theStorage.read((IntField) s.field("a")));
+            assertEquals(message, -i, theStorage.read((IntField) s.field("b")));
+            assertEquals(message, i * 1000000L,
+                    theStorage.read((LongField) s.field("longField")));
+            assertEquals(message, i % 2 == 0 ? "s" + i : null,
+                    theStorage.read((ObjectField) s.field("stringField")));
+        }
+    }
+
+    @Test
+    public void testOptionalAndGlobal() {
+        final Struct struct = new Struct("CopyPathsTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("intField"),
+                        FACTORY.newIntOptional("optionalField"),
+                        FACTORY.newIntGlobalField("globalField") });
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY);
+            final IntField intField = s.field("intField");
+            final IntOptionalField optionalField = s.field("optionalField");
+            final IntGlobalField globalField = s.field("globalField");
+            storage.write(globalField, 42);
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                storage.write(intField, i);
+                if (i % 3 == 0) {
+                    storage.write(optionalField, i + 1);
+                }
+            }
+            storage.transactionManager().commit();
+            final Storage copy = storage.copy();
+            final String message = compiler.compilerName();
+            assertEquals(message, 42, copy.read(globalField));
+            for (int i = 0; i < _CAPACITY; i++) {
+                copy.selectStructure(i);
+                assertEquals(message, i, copy.read(intField));
+                assertEquals(message, i % 3 == 0 ? i + 1 : 0,
+                        copy.read(optionalField));
+            }
+        }
+    }
+
+    @Test
+    public void testOtherSchema() {
+        // Same class, but the fields a and b are swapped.
+        for (final Compiler compiler : ENGINES) {
+            final Storage source = compiler.initStorage(
+                    compiler.compile(plainStruct("a", "b")), _CAPACITY);
+            final Storage target = compiler.initStorage(
+                    compiler.compile(plainStruct("b", "a")), _CAPACITY);
+            fillPlain(source);
+            source.copyStorage(target);
+            checkPlain(target);
+            close(source, target);
+        }
+    }
+
+    @Test
+    public void testSameSchema() {
+        for (final Compiler compiler : ENGINES) {
+            final Struct s = compiler.compile(plainStruct("a", "b"));
+            final Storage source = compiler.initStorage(s, _CAPACITY);
+            final Storage target = compiler.initStorage(s, _CAPACITY);
+            fillPlain(source);
+            final Storage copy = source.copy();
+            checkPlain(copy);
+            source.copyStorage(target);
+            checkPlain(target);
+            close(source, target, copy);
+        }
+    }
+
+    @Test
+    public void testSparse() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(plainStruct("a", "b"));
+            final Storage source = compiler.initStorage(s, _CAPACITY, true);
+            fillPlain(source);
+            // Moves the last structure into the slot of structure 3.
+            source.selectStructure(3);
+            source.clear();
+            source.transactionManager().commit();
+            final Storage copy = source.copy();
+            final String message = compiler.compilerName();
+            final int[] structures = ((SparseStorage) source).structures();
+            assertArrayEquals(message, structures,
+                    ((SparseStorage) copy).structures());
+            final IntField a = s.field("a");
+            final ObjectField stringField = s.field("stringField");
+            for (final int i : structures) {
+                copy.selectStructure(i);
+                assertEquals(message, i, copy.read(a));
+                assertEquals(message, i % 2 == 0 ? "s" + i : null,
+                        copy.read(stringField));
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.compiler.OffHeapPackedCompiler;
+import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.compiler.PagedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.RunLengthCompiler;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.optional.IntOptionalField;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.HashFieldIndex;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.packed.PackedSparseStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 300 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestCopyRange extends TestData {
+
+    /** Large enough for the packed structures to span many words. */
+    private static final int COUNT = 1000;
+
+    /** Checks that the structures at theAt hold the values written by
+     * fill() at theFrom. */
+    private void assertCopied(final Storage theStorage, final int theAt,
+            final int theFrom, final int theCount) {
+        final String message = theStorage.getClass().getSimpleName();
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < theCount; i++) {
+            final int old = theFrom + i;
+            final int at = theAt + i;
+            assertEquals(message, old % 3 == 0, theStorage.read(
+                    (BooleanField) s.field("booleanField"), at));
+            assertEquals(message, old - COUNT / 2.0, theStorage.read(
+                    (DoubleField) s.field("doubleField"), at), DELTA);
+            assertEquals(message, old, theStorage.read(
+                    (IntField) s.field("intField"), at));
+            assertEquals(message, -old * 1000000000L, theStorage.read(
+                    (LongField) s.field("longField"), at));
+            assertEquals(message, (short) (old % 7), theStorage.read(
+                    (ShortField) s.field("shortField"), at));
+        }
+    }
+
+    private void fill(final Storage theStorage, final int theCount) {
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < theCount; i++) {
+            theStorage.write((BooleanField) s.field("booleanField"), i,
+                    i % 3 == 0);
+            theStorage.write((DoubleField) s.field("doubleField"), i,
+                    i - COUNT / 2.0);
+            theStorage.write((IntField) s.field("intField"), i, i);
+            theStorage.write((LongField) s.field("longField"), i,
+                    -i * 1000000000L);
+            theStorage.write((ShortField) s.field("shortField"), i,
+                    (short) (i % 7));
+        }
+        theStorage.transactionManager().commit();
+    }
+
+    private Struct struct() {
+        // 147 bits: the packed structures straddle the long words.
+        return new Struct("CopyRangeTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newBooleanField("booleanField"),
+                FACTORY.newDoubleField("doubleField"),
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newShortField("shortField") });
+    }
+
+    @Test
+    public void testAcrossCompilers() {
+        final Storage source = COMPILERS[0].initStorage(
+                COMPILERS[0].compile(struct()), COUNT);
+        final Storage target = COMPILERS[1].initStorage(
+                COMPILERS[1].compile(struct()), COUNT);
+        fill(source, COUNT);
+        source.copyRange(3, target, 5, 300);
+        assertCopied(target, 5, 3, 300);
+        target.copyRange(5, source, 500, 300);
+        assertCopied(source, 500, 3, 300);
+    }
+
+    @Test
+    public void testCopy() {
+        final Compiler[] compilers = { COMPILERS[0], COMPILERS[1],
+                new ColumnarCompiler(), new PagedPackedCompiler(),
+                new OffHeapPackedCompiler(), new RunLengthCompiler() };
+        for (final Compiler compiler : compilers) {
+            final Struct struct = compiler.compile(struct());
+            final Storage source = compiler.initStorage(struct, COUNT);
+            final Storage target = compiler.initStorage(struct, COUNT);
+            fill(source, COUNT);
+            // Different offsets within the words.
+            source.copyRange(10, target, 37, 500);
+            assertCopied(target, 37, 10, 500);
+            final IntField<?, ?> intField = struct.field("intField");
+            assertEquals(0, target.read(intField, 36));
+            assertEquals(0, target.read(intField, 537));
+            // 64 packed structures fill whole words.
+            source.copyRange(64, target, 640, 300);
+            assertCopied(target, 640, 64, 300);
+            assertEquals(0, target.read(intField, 639));
+            assertEquals(0, target.read(intField, 940));
+            source.copyRange(0, target, COUNT, 0);
+        }
+    }
+
+    @Test
+    public void testIndex() {
+        final Compiler compiler = COMPILERS[1];
+        final Struct struct = compiler.compile(struct());
+        final Storage source = compiler.initStorage(struct, _CAPACITY);
+        final Storage target = compiler.initStorage(struct, _CAPACITY);
+        fill(source, _CAPACITY);
+        final HashFieldIndex index = new HashFieldIndex(
+                struct.field("intField"));
+        ((AbstractStorage) target).addIndex(index);
+        source.copyRange(2, target, 0, 3);
+        assertArrayEquals(new int[] { 1 }, index.find(3));
+        assertArrayEquals(new int[] { 3, 4, 5, 6, 7, 8, 9 }, index.find(0));
+    }
+
+    @Test
+    public void testInvalid() {
+        final Compiler compiler = COMPILERS[1];
+        final Struct struct = compiler.compile(struct());
+        final Storage storage = compiler.initStorage(struct, _CAPACITY);
+        final Struct other = compiler.compile(new Struct("OtherTest",
+                new Struct[] {}, new Field<?, ?>[] { FACTORY
+                        .newIntField("intField") }));
+        try {
+            storage.copyRange(0, compiler.initStorage(other, _CAPACITY), 0, 1);
+            fail("Different schemas must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            storage.copyRange(5, storage, 0, _CAPACITY - 4);
+            fail("Out of range source must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            storage.copyRange(0, storage, 5, _CAPACITY - 4);
+            fail("Out of range target must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            storage.copyRange(0, new PackedSparseStorage(struct, _CAPACITY,
+                    true, Arity.ONE_D), 0, 1);
+            fail("Sparse storages must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        Struct optionalChild = new Struct("OptionalChild", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("intField") });
+        optionalChild = optionalChild.setOptional(true);
+        final Struct withChild = compiler.compile(new Struct("ChildTest",
+                new Struct[] { optionalChild }, new Field<?, ?>[] {}));
+        final Storage parent = compiler.initStorage(withChild, _CAPACITY);
+        try {
+            parent.copyRange(0, parent, 1, 1);
+            fail("Optional children must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        storage.write((IntField) struct.field("intField"), 1);
+        try {
+            storage.copyRange(0, storage, 1, 1);
+            fail("Uncommitted changes must fail");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testObjects() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct struct = compiler.compile(new Struct("ObjectsTest",
+                    new Struct[] {}, new Field<?, ?>[] {
+                            FACTORY.newIntField("intField"),
+                            FACTORY.newIntOptional("optionalField"),
+                            FACTORY.newStringField("stringField") }));
+            final Storage storage = compiler.initStorage(struct, _CAPACITY);
+            final IntOptionalField<?, ?> optionalField = struct
+                    .field("optionalField");
+            final ObjectField<String, ?> stringField = struct
+                    .field("stringField");
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                if (i % 2 == 0) {
+                    storage.write(optionalField, i + 100);
+                    storage.write(stringField, "s" + i);
+                }
+            }
+            storage.transactionManager().commit();
+            // Overlapping, by an odd count.
+            storage.copyRange(0, storage, 3, 5);
+            for (int i = 0; i < _CAPACITY; i++) {
+                final int old = i >= 3 && i < 8 ? i - 3 : i;
+                storage.selectStructure(i);
+                if (old % 2 == 0) {
+                    assertEquals(old + 100, storage.read(optionalField));
+                    assertEquals("s" + old, storage.read(stringField));
+                } else {
+                    assertEquals(0, storage.read(optionalField));
+                    assertNull(storage.read(stringField));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOverlap() {
+        for (final Compiler compiler : COMPILERS) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct()), COUNT);
+            fill(storage, COUNT);
+            storage.copyRange(0, storage, 5, 500);
+            assertCopied(storage, 0, 0, 5);
+            assertCopied(storage, 5, 0, 500);
+            assertCopied(storage, 505, 505, COUNT - 505);
+            fill(storage, COUNT);
+            storage.copyRange(100, storage, 43, 500);
+            assertCopied(storage, 0, 0, 43);
+            assertCopied(storage, 43, 100, 500);
+            assertCopied(storage, 543, 543, COUNT - 543);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.collections.IntSet;
+import com.blockwithme.lessobjects.storage.filter.FieldFilter;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestFieldFilter extends TestData {
+
+    private static final Compiler[] FILTER_COMPILERS = { COMPILERS[0],
+            COMPILERS[1], new ColumnarCompiler() };
+
+    /** Spans several words, even for the smallest structures. */
+    private static final int SIZE = 300;
+
+    private static long[] expected(final long[] theValues,
+            final long theMin, final long theMax) {
+        final long[] result = new long[(SIZE + 63) / 64];
+        for (int i = 0; i < SIZE; i++) {
+            if (theValues[i] >= theMin && theValues[i] <= theMax) {
+                result[i / 64] |= 1L << i;
+            }
+        }
+        return result;
+    }
+
+    /** Writes random values in the state field (and noise in the other
+     * fields), and checks several filters against a scan. */
+    private void check(final Struct theStruct, final long theMin,
+            final long theMax) {
+        for (final Compiler compiler : FILTER_COMPILERS) {
+            final Struct s = compiler.compile(theStruct);
+            final Storage storage = compiler.initStorage(s, SIZE);
+            final Field<?, ?> state = s.field("state");
+            final long[] values = new long[SIZE];
+            for (int i = 0; i < SIZE; i++) {
+                values[i] = theMin + (long) (rand.nextDouble()
+                        * (theMax - theMin + 1.0));
+                values[i] = Math.max(theMin, Math.min(theMax, values[i]));
+                storage.selectStructure(i);
+                write(storage, state, values[i]);
+                storage.write((BooleanField) s.field("noise"),
+                        rand.nextBoolean());
+            }
+            storage.transactionManager().commit();
+            final String name = compiler.compilerName();
+            final long mid = theMin / 2 + theMax / 2;
+            assertArrayEquals(name, expected(values, values[7], values[7]),
+                    FieldFilter.equalTo(state, values[7]).select(storage));
+            assertArrayEquals(name, expected(values, theMin, mid),
+                    FieldFilter.between(state, theMin, mid).select(storage));
+            assertArrayEquals(name, expected(values, mid, theMax),
+                    FieldFilter.between(state, mid, Long.MAX_VALUE).select(
+                            storage));
+            assertArrayEquals(name, new long[(SIZE + 63) / 64], FieldFilter
+                    .between(state, theMax, theMin).select(storage));
+            final long[] odd = new long[(SIZE + 63) / 64];
+            for (int i = 0; i < SIZE; i++) {
+                if ((values[i] & 1) != 0) {
+                    odd[i / 64] |= 1L << i;
+                }
+            }
+            assertArrayEquals(name, odd, FieldFilter.maskedEqualTo(state, 1,
+                    1).select(storage));
+            // Partial range
+            final long[] partial = FieldFilter.between(state, theMin, theMax)
+                    .select(storage, 70, 200);
+            assertEquals(name, 130, Long.bitCount(partial[1])
+                    + Long.bitCount(partial[2]) + Long.bitCount(partial[3]));
+            assertEquals(0, partial[0]);
+        }
+    }
+
+    private static void write(final Storage theStorage,
+            final Field<?, ?> theField, final long theValue) {
+        if (theField instanceof LongField) {
+            theStorage.write((LongField) theField, theValue);
+        } else {
+            theStorage.write((IntField) theField, (int) theValue);
+        }
+    }
+
+    @Test
+    public void testFullWidthSigned() {
+        check(new Struct("SignedFilter", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newIntField("state"),
+                FACTORY.newBooleanField("noise") }), -1000, 1000);
+        check(new Struct("LongFilter", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newLongField("state"),
+                FACTORY.newBooleanField("noise") }), Long.MIN_VALUE / 2,
+                Long.MAX_VALUE / 2);
+    }
+
+    @Test
+    public void testIntSet() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(new Struct("SetFilter",
+                    new Struct[] {}, new Field<?, ?>[] {
+                            FACTORY.newIntField("state", 3),
+                            FACTORY.newBooleanField("noise") }));
+            final Storage storage = compiler.initStorage(s, SIZE);
+            final IntField state = s.field("state");
+            storage.selectStructure(5);
+            storage.write(state, 3);
+            storage.selectStructure(299);
+            storage.write(state, 3);
+            final FieldFilter filter = FieldFilter.equalTo(state, 3);
+            assertEquals(2, filter.count(storage));
+            final IntSet set = filter.selectSet(storage);
+            assertTrue(set.contains(5));
+            assertTrue(set.contains(299));
+            assertFalse(set.contains(6));
+            // 8 does not fit in 3 bits
+            assertEquals(0, FieldFilter.equalTo(state, 8).count(storage));
+        }
+    }
+
+    @Test
+    public void testInvalidField() {
+        try {
+            FieldFilter.equalTo(FACTORY.newDoubleField("d"), 0);
+            fail("A double field cannot be filtered");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOddSize() {
+        // 5 + 1 bits: lies across words in a Packed storage
+        check(new Struct("OddFilter", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newIntField("state", 5),
+                FACTORY.newBooleanField("noise") }), 0, 31);
+    }
+
+    @Test
+    public void testSubWord() {
+        // 3 + 1 bits: 16 structures per word
+        check(new Struct("SubWordFilter", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("state", 3),
+                        FACTORY.newBooleanField("noise") }), 0, 7);
+    }
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.storage.BaseLongStorage;
+import com.blockwithme.lessobjects.storage.FieldHandle;
+import com.blockwithme.lessobjects.storage.Storage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestFieldHandle extends TestData {
+
+    private Struct struct;
+
+    private Struct small;
+
+    @Before
+    public void setup() {
+        struct = new Struct("HandleTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newDoubleField("doubleField"),
+                FACTORY.newFloatField("floatField"),
+                FACTORY.newBooleanField("booleanField"),
+                FACTORY.newShortField("level", 5),
+                FACTORY.newIntField("narrow", 20),
+                FACTORY.newStringField("name") });
+        small = new Struct("SmallHandleTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newByteField("kind", 3),
+                        FACTORY.newBooleanField("flag") });
+    }
+
+    @Test
+    public void testRead() {
+        final int[] ints = ints();
+        final long[] longs = longs();
+        final double[] doubles = doubles();
+        final float[] floats = floats();
+        final boolean[] booleans = booleans();
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY);
+            final IntField intField = s.field("intField");
+            final LongField longField = s.field("longField");
+            final DoubleField doubleField = s.field("doubleField");
+            final FloatField floatField = s.field("floatField");
+            final BooleanField booleanField = s.field("booleanField");
+            final ShortField level = s.field("level");
+            final IntField narrow = s.field("narrow");
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                storage.write(intField, ints[i]);
+                storage.write(longField, longs[i]);
+                storage.write(doubleField, doubles[i]);
+                storage.write(floatField, floats[i]);
+                storage.write(booleanField, booleans[i]);
+                storage.write(level, (short) (i + 20));
+                storage.write(narrow, ints[i]);
+            }
+            final BaseLongStorage base = (BaseLongStorage) storage;
+            final FieldHandle intHandle = FieldHandle.resolve(storage,
+                    intField);
+            final FieldHandle longHandle = FieldHandle.resolve(storage,
+                    longField);
+            final FieldHandle doubleHandle = FieldHandle.resolve(storage,
+                    doubleField);
+            final FieldHandle floatHandle = FieldHandle.resolve(storage,
+                    floatField);
+            final FieldHandle booleanHandle = FieldHandle.resolve(storage,
+                    booleanField);
+            final FieldHandle levelHandle = FieldHandle.resolve(storage,
+                    level);
+            final FieldHandle narrowHandle = FieldHandle.resolve(storage,
+                    narrow);
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                final String msg = compiler.compilerName() + " " + i;
+                assertEquals(msg, ints[i], intHandle.readInt(base, i));
+                assertEquals(msg, longs[i], longHandle.readLong(base, i));
+                assertEquals(msg, doubles[i],
+                        doubleHandle.readDouble(base, i), DELTA);
+                assertEquals(msg, floats[i], floatHandle.readFloat(base, i),
+                        DELTA);
+                assertEquals(msg, booleans[i],
+                        booleanHandle.readBoolean(base, i));
+                assertEquals(msg, storage.read(level),
+                        levelHandle.readShort(base, i));
+                assertEquals(msg, storage.read(narrow),
+                        narrowHandle.readInt(base, i));
+            }
+        }
+    }
+
+    @Test
+    public void testWrite() {
+        final long[] longs = longs();
+        final int[] ints = ints();
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY, false,
+                    false);
+            final BaseLongStorage base = (BaseLongStorage) storage;
+            final LongField longField = s.field("longField");
+            final IntField narrow = s.field("narrow");
+            final BooleanField booleanField = s.field("booleanField");
+            final FieldHandle longHandle = FieldHandle.resolve(storage,
+                    longField);
+            final FieldHandle narrowHandle = FieldHandle.resolve(storage,
+                    narrow);
+            final FieldHandle booleanHandle = FieldHandle.resolve(storage,
+                    booleanField);
+            for (int i = 0; i < _CAPACITY; i++) {
+                longHandle.writeLong(base, i, longs[i]);
+                narrowHandle.writeInt(base, i, ints[i]);
+                booleanHandle.writeBoolean(base, i, i % 2 == 0);
+            }
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                final String msg = compiler.compilerName() + " " + i;
+                assertEquals(msg, longs[i], storage.read(longField));
+                assertEquals(msg, ints[i] & 0xFFFFF, storage.read(narrow));
+                assertEquals(msg, i % 2 == 0, storage.read(booleanField));
+            }
+        }
+    }
+
+    @Test
+    public void testChecks() {
+        final Compiler compiler = COMPILERS[0];
+        final Struct s = compiler.compile(struct);
+        final Storage storage = compiler.initStorage(s, _CAPACITY);
+        final BaseLongStorage base = (BaseLongStorage) storage;
+        final FieldHandle handle = FieldHandle.resolve(storage,
+                s.field("intField"));
+        try {
+            handle.readInt(base, _CAPACITY);
+            fail("The structure must be within the capacity");
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            handle.writeInt(base, 0, 1);
+            fail("Writes must be rejected with transactions enabled");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        storage.enableTransactions(false);
+        try {
+            handle.writeInt(base, -1, 1);
+            fail("The structure must not be negative");
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+        handle.writeInt(base, _CAPACITY - 1, 42);
+        assertEquals(42, handle.readInt(base, _CAPACITY - 1));
+    }
+
+    @Test
+    public void testSmallStruct() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(small);
+            final Storage storage = compiler.initStorage(s, _CAPACITY * 10,
+                    false, false);
+            final BaseLongStorage base = (BaseLongStorage) storage;
+            final ByteField kind = s.field("kind");
+            final BooleanField flag = s.field("flag");
+            final FieldHandle kindHandle = FieldHandle.resolve(storage, kind);
+            final FieldHandle flagHandle = FieldHandle.resolve(storage, flag);
+            for (int i = 0; i < _CAPACITY * 10; i++) {
+                kindHandle.writeByte(base, i, (byte) (i % 7));
+                flagHandle.writeBoolean(base, i, i % 3 == 0);
+            }
+            for (int i = 0; i < _CAPACITY * 10; i++) {
+                storage.selectStructure(i);
+                assertEquals(compiler.compilerName(), i % 7,
+                        storage.read(kind));
+                assertEquals(i % 3 == 0, storage.read(flag));
+                assertEquals(i % 7, kindHandle.readByte(base, i));
+            }
+        }
+    }
+
+    @Test
+    public void testAccepts() {
+        final Compiler aligned = COMPILERS[0];
+        final Compiler packed = COMPILERS[1];
+        final Struct alignedStruct = aligned.compile(struct);
+        final Storage first = aligned.initStorage(alignedStruct, _CAPACITY);
+        final Storage second = aligned.initStorage(alignedStruct, 3);
+        final Storage other = packed.initStorage(packed.compile(struct),
+                _CAPACITY);
+        final FieldHandle handle = FieldHandle.resolve(first,
+                alignedStruct.field("intField"));
+        assertTrue(handle.accepts(first));
+        assertTrue(handle.accepts(second));
+        assertFalse(handle.accepts(other));
+        try {
+            FieldHandle.resolve(first, alignedStruct.field("name"));
+            fail("An object field has no handle");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            FieldHandle.resolve(other, alignedStruct.field("intField"));
+            fail("A field of another struct must be rejected");
+        } catch (final RuntimeException e) {
+            // expected
+        }
+    }
+}
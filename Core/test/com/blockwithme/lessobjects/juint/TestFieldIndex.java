@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.HashFieldIndex;
+import com.blockwithme.lessobjects.storage.SortedFieldIndex;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestFieldIndex extends TestData {
+
+    private Struct struct;
+
+    @Before
+    public void setup() {
+        struct = new Struct("IndexTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newIntField("entityId"),
+                FACTORY.newLongField("time"),
+                FACTORY.newStringField("name") });
+    }
+
+    @Test
+    public void testBuildFromContent() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final AbstractStorage storage = (AbstractStorage) compiler
+                    .initStorage(s, _CAPACITY);
+            final IntField entityId = s.field("entityId");
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                storage.write(entityId, i % 3);
+            }
+            storage.transactionManager().commit();
+            storage.selectStructure(4);
+            final HashFieldIndex index = new HashFieldIndex(entityId);
+            storage.addIndex(index);
+            assertEquals(4, storage.getSelectedStructure());
+            assertSame(index, storage.index(entityId));
+            assertEquals(_CAPACITY, index.size());
+            assertArrayEquals(compiler.compilerName(), new int[] { 1, 4, 7 },
+                    index.find(1));
+            try {
+                storage.addIndex(new HashFieldIndex(entityId));
+                fail("A field can only be indexed once");
+            } catch (final IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testBulkOperations() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final AbstractStorage source = (AbstractStorage) compiler
+                    .initStorage(s, _CAPACITY);
+            final AbstractStorage storage = (AbstractStorage) compiler
+                    .initStorage(s, _CAPACITY);
+            final IntField entityId = s.field("entityId");
+            final HashFieldIndex ids = new HashFieldIndex(entityId);
+            storage.addIndex(ids);
+            for (int i = 0; i < _CAPACITY; i++) {
+                source.selectStructure(i);
+                source.write(entityId, i + 1);
+            }
+            source.transactionManager().commit();
+            source.copyStorage(storage);
+            assertArrayEquals(compiler.compilerName(), new int[] { 3 },
+                    ids.find(4));
+            assertArrayEquals(new int[0], ids.find(0));
+            storage.resizeStorage(_CAPACITY * 2);
+            storage.transactionManager().commit();
+            assertEquals(_CAPACITY * 2, ids.size());
+            assertEquals(_CAPACITY, ids.find(0).length);
+            storage.resizeStorage(_CAPACITY / 2);
+            storage.transactionManager().commit();
+            assertEquals(_CAPACITY / 2, ids.size());
+            assertArrayEquals(new int[0], ids.find(_CAPACITY));
+            try {
+                storage.enableTransactions(false);
+                fail("Indexes require transactions");
+            } catch (final IllegalStateException e) {
+                // expected
+            }
+            assertEquals(true, storage.transactionsEnabled());
+        }
+    }
+
+    @Test
+    public void testHashIndex() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final AbstractStorage storage = (AbstractStorage) compiler
+                    .initStorage(s, _CAPACITY);
+            final IntField entityId = s.field("entityId");
+            final ObjectField name = s.field("name");
+            final HashFieldIndex ids = new HashFieldIndex(entityId);
+            final HashFieldIndex names = new HashFieldIndex(name);
+            storage.addIndex(ids);
+            storage.addIndex(names);
+            assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 },
+                    ids.find(0));
+            storage.selectStructure(3);
+            storage.write(entityId, 42);
+            storage.write(name, "three");
+            storage.selectStructure(8);
+            storage.write(entityId, 42);
+            storage.transactionManager().commit();
+            assertArrayEquals(compiler.compilerName(), new int[] { 3, 8 },
+                    ids.find(42));
+            assertArrayEquals(new int[] { 3 }, names.find("three"));
+            assertEquals(_CAPACITY - 1, names.find(null).length);
+            storage.selectStructure(3);
+            storage.write(entityId, 7);
+            assertArrayEquals(new int[] { 8 }, ids.find(42));
+            assertArrayEquals(new int[] { 3 }, ids.find(7));
+            assertArrayEquals(new int[0], ids.find(43));
+            storage.transactionManager().commit();
+            assertSame(ids, storage.removeIndex(entityId));
+            assertNull(storage.index(entityId));
+            storage.write(entityId, 9);
+            assertArrayEquals(new int[] { 3 }, ids.find(7));
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final AbstractStorage storage = (AbstractStorage) compiler
+                    .initStorage(s, _CAPACITY);
+            final IntField entityId = s.field("entityId");
+            final ObjectField name = s.field("name");
+            final HashFieldIndex ids = new HashFieldIndex(entityId);
+            final SortedFieldIndex names = new SortedFieldIndex(name);
+            storage.addIndex(ids);
+            storage.addIndex(names);
+            storage.selectStructure(2);
+            storage.write(entityId, 5);
+            storage.write(name, "b");
+            storage.transactionManager().commit();
+            storage.write(entityId, 7);
+            storage.write(name, "c");
+            storage.selectStructure(5);
+            storage.write(entityId, 5);
+            assertArrayEquals(new int[] { 2 }, ids.find(7));
+            storage.transactionManager().rollback();
+            assertEquals(5, storage.getSelectedStructure());
+            assertArrayEquals(compiler.compilerName(), new int[] { 2 },
+                    ids.find(5));
+            assertArrayEquals(new int[0], ids.find(7));
+            assertArrayEquals(new int[] { 2 }, names.find("b"));
+            assertArrayEquals(new int[0], names.find("c"));
+            assertEquals(_CAPACITY - 1, ids.find(0).length);
+            // Several changes of the same structure
+            storage.selectStructure(2);
+            storage.write(entityId, 6);
+            storage.write(entityId, 8);
+            storage.transactionManager().rollback();
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                final int[] found = ids.find(storage.read(entityId));
+                assertEquals(i, found[Arrays.binarySearch(found, i)]);
+            }
+        }
+    }
+
+    @Test
+    public void testSortedIndex() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct s = compiler.compile(struct);
+            final AbstractStorage storage = (AbstractStorage) compiler
+                    .initStorage(s, _CAPACITY);
+            final LongField time = s.field("time");
+            final SortedFieldIndex index = new SortedFieldIndex(time);
+            storage.addIndex(index);
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                storage.write(time, 1000L - i * 100L);
+            }
+            storage.transactionManager().commit();
+            assertArrayEquals(compiler.compilerName(), new int[] { 3, 4, 5 },
+                    index.range(500, 700));
+            assertArrayEquals(new int[] { 9 }, index.find(100));
+            assertArrayEquals(new int[0], index.range(700, 500));
+            assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 },
+                    index.range(Long.MIN_VALUE, Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void testUnsupportedField() {
+        try {
+            new HashFieldIndex(FACTORY.newDoubleField("d"));
+            fail("A double field cannot be indexed");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.CompilerType;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.Aligned64Compiler;
+import com.blockwithme.lessobjects.compiler.GeneratedAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.GeneratedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.storage.BaseLongStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64Storage;
+import com.blockwithme.lessobjects.storage.packed.PackedStorage;
+import com.blockwithme.lessobjects.util.CompilerFactoryImpl;
+
+//CHECKSTYLE IGNORE FOR NEXT 250 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestGeneratedStorage extends TestData {
+
+    private static final Compiler[] GENERATED = {
+            new GeneratedAligned64Compiler(), new GeneratedPackedCompiler() };
+
+    private static final Compiler[] PLAIN = { new Aligned64Compiler(),
+            new PackedCompiler() };
+
+    private Struct struct;
+
+    private Struct small;
+
+    /** Writes the same values with both storages. */
+    private void fill(final Storage theStorage, final Struct theStruct,
+            final int[] ints, final long[] longs, final double[] doubles,
+            final float[] floats, final boolean[] booleans,
+            final short[] shorts, final byte[] bytes, final char[] chars) {
+        final IntField intField = theStruct.field("intField");
+        final LongField longField = theStruct.field("longField");
+        final DoubleField doubleField = theStruct.field("doubleField");
+        final FloatField floatField = theStruct.field("floatField");
+        final BooleanField booleanField = theStruct.field("booleanField");
+        final ShortField shortField = theStruct.field("shortField");
+        final ByteField byteField = theStruct.field("byteField");
+        final CharField charField = theStruct.field("charField");
+        final IntField narrow = theStruct.field("narrow");
+        final LongField narrowLong = theStruct.field("narrowLong");
+        for (int i = 0; i < _CAPACITY; i++) {
+            theStorage.selectStructure(i);
+            theStorage.write(intField, ints[i]);
+            theStorage.write(longField, longs[i]);
+            theStorage.write(doubleField, doubles[i]);
+            theStorage.write(floatField, floats[i]);
+            theStorage.write(booleanField, booleans[i]);
+            theStorage.write(shortField, shorts[i]);
+            theStorage.write(byteField, bytes[i]);
+            theStorage.write(charField, chars[i]);
+            theStorage.write(narrow, ints[i]);
+            theStorage.write(narrowLong, longs[i]);
+        }
+    }
+
+    @Before
+    public void setup() {
+        struct = new Struct("GeneratedTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("intField"),
+                        FACTORY.newLongField("longField"),
+                        FACTORY.newDoubleField("doubleField"),
+                        FACTORY.newFloatField("floatField"),
+                        FACTORY.newBooleanField("booleanField"),
+                        FACTORY.newShortField("shortField"),
+                        FACTORY.newByteField("byteField"),
+                        FACTORY.newCharField("charField"),
+                        FACTORY.newIntField("narrow", 19),
+                        FACTORY.newLongField("narrowLong", 37),
+                        FACTORY.newStringField("name") });
+        small = new Struct("SmallGeneratedTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newByteField("kind", 3),
+                        FACTORY.newBooleanField("flag") });
+    }
+
+    @Test
+    public void testCopies() {
+        for (int c = 0; c < GENERATED.length; c++) {
+            final Struct s = GENERATED[c].compile(struct);
+            final Storage storage = GENERATED[c].initStorage(s, _CAPACITY);
+            final IntField narrow = s.field("narrow");
+            final LongField narrowLong = s.field("narrowLong");
+            fill(storage, s, ints(), longs(), doubles(), floats(), booleans(),
+                    shorts(), bytes(), chars());
+            storage.transactionManager().commit();
+            final String msg = GENERATED[c].compilerName();
+            final Storage copy = storage.copy();
+            final Storage snapshot = storage.snapshot();
+            assertSame(msg, storage.getClass(), copy.getClass());
+            assertSame(msg, storage.getClass(), snapshot.getClass());
+            // A plain storage of the same layout takes the raw copy path.
+            final Storage plain = PLAIN[c].initStorage(s, _CAPACITY);
+            storage.copyRange(0, plain, 0, _CAPACITY);
+            final Storage back = GENERATED[c].initStorage(s, _CAPACITY);
+            plain.copyStorage(back, Struct.DEFAULT_SCHEMA_MIGRATOR);
+            for (int i = 0; i < _CAPACITY; i++) {
+                final int expected = storage.read(narrow, i);
+                final long expectedLong = storage.read(narrowLong, i);
+                assertEquals(msg, expected, copy.read(narrow, i));
+                assertEquals(msg, expectedLong, snapshot.read(narrowLong, i));
+                assertEquals(msg, expected, plain.read(narrow, i));
+                assertEquals(msg, expectedLong, back.read(narrowLong, i));
+            }
+            assertArrayEquals(msg, ((BaseLongStorage) storage).getArray(),
+                    ((BaseLongStorage) back).getArray());
+        }
+    }
+
+    @Test
+    public void testFactory() {
+        final CompilerFactoryImpl factory = new CompilerFactoryImpl();
+        assertTrue(factory.createCompiler(CompilerType.GENERATED_ALIGNED64) instanceof GeneratedAligned64Compiler);
+        assertTrue(factory.createCompiler(CompilerType.GENERATED_PACKED) instanceof GeneratedPackedCompiler);
+        final Struct s = GENERATED[0].compile(struct);
+        final Storage first = GENERATED[0].initStorage(s, _CAPACITY);
+        final Storage second = GENERATED[0].initStorage(s, _CAPACITY);
+        assertTrue(first instanceof Aligned64Storage);
+        assertNotSame(Aligned64Storage.class, first.getClass());
+        assertSame(first.getClass(), second.getClass());
+        assertTrue(GENERATED[1].initStorage(GENERATED[1].compile(struct),
+                _CAPACITY) instanceof PackedStorage);
+    }
+
+    @Test
+    public void testSameContent() {
+        final int[] ints = ints();
+        final long[] longs = longs();
+        final double[] doubles = doubles();
+        final float[] floats = floats();
+        final boolean[] booleans = booleans();
+        final short[] shorts = shorts();
+        final byte[] bytes = bytes();
+        final char[] chars = chars();
+        for (int c = 0; c < GENERATED.length; c++) {
+            final Struct generatedStruct = GENERATED[c].compile(struct);
+            final Struct plainStruct = PLAIN[c].compile(struct);
+            final Storage generated = GENERATED[c].initStorage(
+                    generatedStruct, _CAPACITY);
+            final Storage plain = PLAIN[c].initStorage(plainStruct, _CAPACITY);
+            fill(generated, generatedStruct, ints, longs, doubles, floats,
+                    booleans, shorts, bytes, chars);
+            fill(plain, plainStruct, ints, longs, doubles, floats, booleans,
+                    shorts, bytes, chars);
+            final String msg = GENERATED[c].compilerName();
+            assertArrayEquals(msg, ((BaseLongStorage) plain).getArray(),
+                    ((BaseLongStorage) generated).getArray());
+            final IntField narrow = generatedStruct.field("narrow");
+            final LongField narrowLong = generatedStruct.field("narrowLong");
+            final DoubleField doubleField = generatedStruct
+                    .field("doubleField");
+            final FloatField floatField = generatedStruct.field("floatField");
+            final CharField charField = generatedStruct.field("charField");
+            for (int i = 0; i < _CAPACITY; i++) {
+                generated.selectStructure(i);
+                plain.selectStructure(i);
+                assertEquals(msg, plain.read((IntField) plainStruct
+                        .field("narrow")), generated.read(narrow));
+                assertEquals(msg, plain.read((LongField) plainStruct
+                        .field("narrowLong")), generated.read(narrowLong));
+                assertEquals(msg, doubles[i], generated.read(doubleField),
+                        DELTA);
+                assertEquals(msg, floats[i], generated.read(floatField),
+                        DELTA);
+                assertEquals(msg, chars[i], generated.read(charField));
+            }
+        }
+    }
+
+    @Test
+    public void testRawAccess() {
+        final int[] ints = ints();
+        final long[] longs = longs();
+        for (int c = 0; c < GENERATED.length; c++) {
+            final Struct generatedStruct = GENERATED[c].compile(struct);
+            final Struct plainStruct = PLAIN[c].compile(struct);
+            final Storage generated = GENERATED[c].initStorage(
+                    generatedStruct, _CAPACITY);
+            final Storage plain = PLAIN[c].initStorage(plainStruct, _CAPACITY);
+            final IntField narrow = generatedStruct.field("narrow");
+            final LongField narrowLong = generatedStruct.field("narrowLong");
+            final BooleanField booleanField = generatedStruct
+                    .field("booleanField");
+            final IntField plainNarrow = plainStruct.field("narrow");
+            final LongField plainLong = plainStruct.field("narrowLong");
+            final BooleanField plainBoolean = plainStruct
+                    .field("booleanField");
+            for (int i = 0; i < _CAPACITY; i++) {
+                generated.write(narrow, i, ints[i]);
+                generated.write(narrowLong, i, longs[i]);
+                generated.write(booleanField, i, i % 3 == 0);
+                plain.write(plainNarrow, i, ints[i]);
+                plain.write(plainLong, i, longs[i]);
+                plain.write(plainBoolean, i, i % 3 == 0);
+            }
+            final String msg = GENERATED[c].compilerName();
+            assertArrayEquals(msg, ((BaseLongStorage) plain).getArray(),
+                    ((BaseLongStorage) generated).getArray());
+            final int[] order = new int[_CAPACITY];
+            for (int i = 0; i < _CAPACITY; i++) {
+                order[i] = _CAPACITY - 1 - i;
+            }
+            generated.transactionManager().commit();
+            generated.permute(order);
+            for (int i = 0; i < _CAPACITY; i++) {
+                final int j = order[i];
+                assertEquals(msg, plain.read(plainNarrow, j),
+                        generated.read(narrow, i));
+                assertEquals(msg, plain.read(plainLong, j),
+                        generated.read(narrowLong, i));
+                assertEquals(msg, j % 3 == 0, generated.read(booleanField, i));
+            }
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        final long[] longs = longs();
+        for (final Compiler compiler : GENERATED) {
+            final Struct s = compiler.compile(struct);
+            final Storage storage = compiler.initStorage(s, _CAPACITY);
+            final LongField narrowLong = s.field("narrowLong");
+            final BooleanField booleanField = s.field("booleanField");
+            storage.selectStructure(3);
+            storage.write(narrowLong, 12345678901L);
+            storage.write(booleanField, true);
+            storage.transactionManager().commit();
+            storage.write(narrowLong, longs[3]);
+            storage.write(booleanField, false);
+            storage.transactionManager().rollback();
+            assertEquals(compiler.compilerName(), 12345678901L,
+                    storage.read(narrowLong));
+            assertTrue(storage.read(booleanField));
+        }
+    }
+
+    @Test
+    public void testSmallStruct() {
+        for (final Compiler compiler : GENERATED) {
+            final Struct s = compiler.compile(small);
+            final Storage storage = compiler.initStorage(s, _CAPACITY * 10);
+            final ByteField kind = s.field("kind");
+            final BooleanField flag = s.field("flag");
+            for (int i = 0; i < _CAPACITY * 10; i++) {
+                storage.selectStructure(i);
+                storage.write(kind, (byte) (i % 7));
+                storage.write(flag, i % 3 == 0);
+            }
+            for (int i = 0; i < _CAPACITY * 10; i++) {
+                storage.selectStructure(i);
+                assertEquals(compiler.compilerName(), i % 7,
+                        storage.read(kind));
+                assertEquals(i % 3 == 0, storage.read(flag));
+            }
+        }
+    }
+}
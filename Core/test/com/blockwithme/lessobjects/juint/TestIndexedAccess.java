@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.Aligned64Compiler;
+import com.blockwithme.lessobjects.compiler.BlockedCompiler;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.compiler.GeneratedAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.GeneratedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.OffHeapAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.OffHeapPackedCompiler;
+import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.compiler.PagedAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.PagedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.PaletteCompiler;
+import com.blockwithme.lessobjects.compiler.RunLengthCompiler;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.ByteField;
+import com.blockwithme.lessobjects.fields.primitive.CharField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.FloatField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.SparseStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64BitmapSparseStorage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64SparseStorage;
+import com.blockwithme.lessobjects.storage.packed.PackedBitmapSparseStorage;
+import com.blockwithme.lessobjects.storage.packed.PackedSparseStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 300 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestIndexedAccess extends TestData {
+
+    private static final Compiler[] ALL_COMPILERS = { COMPILERS[0],
+            COMPILERS[1], new ColumnarCompiler(), new BlockedCompiler(),
+            new PaletteCompiler(), new RunLengthCompiler(),
+            new OffHeapAligned64Compiler(), new OffHeapPackedCompiler(),
+            new PagedAligned64Compiler(), new PagedPackedCompiler(),
+            new GeneratedAligned64Compiler(), new GeneratedPackedCompiler() };
+
+    /** The distance between two used structure indexes, in sparse storages. */
+    private static final int GAP = 1000;
+
+    private boolean[] BOOLEANS;
+
+    private byte[] BYTES;
+
+    private char[] CHARS;
+
+    private double[] DOUBLES;
+
+    private float[] FLOATS;
+
+    private int[] INTS;
+
+    private long[] LONGS;
+
+    private short[] SHORTS;
+
+    private Struct struct;
+
+    private void assertContent(final Storage theStorage, final int theGap) {
+        final String message = theStorage.getClass().getSimpleName();
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < _CAPACITY; i++) {
+            final int structure = i * theGap;
+            assertEquals(message, BOOLEANS[i], theStorage.read(
+                    (BooleanField) s.field("booleanField"), structure));
+            assertEquals(message, BYTES[i], theStorage.read(
+                    (ByteField) s.field("byteField"), structure));
+            assertEquals(message, CHARS[i], theStorage.read(
+                    (CharField) s.field("charField"), structure));
+            assertEquals(message, DOUBLES[i], theStorage.read(
+                    (DoubleField) s.field("doubleField"), structure), DELTA);
+            assertEquals(message, FLOATS[i], theStorage.read(
+                    (FloatField) s.field("floatField"), structure), DELTA);
+            assertEquals(message, INTS[i], theStorage.read(
+                    (IntField) s.field("intField"), structure));
+            assertEquals(message, LONGS[i], theStorage.read(
+                    (LongField) s.field("longField"), structure));
+            assertEquals(message, SHORTS[i], theStorage.read(
+                    (ShortField) s.field("shortField"), structure));
+        }
+    }
+
+    private int countErrors(final Storage theStorage,
+            final IntField<?, ?> theIntField,
+            final LongField<?, ?> theLongField) {
+        int result = 0;
+        for (int i = 0; i < _CAPACITY; i++) {
+            if (theStorage.read(theIntField, i) != INTS[i]
+                    || theStorage.read(theLongField, i) != LONGS[i]) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private void writeAll(final Storage theStorage, final int theGap) {
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < _CAPACITY; i++) {
+            final int structure = i * theGap;
+            theStorage.write((BooleanField) s.field("booleanField"),
+                    structure, BOOLEANS[i]);
+            theStorage.write((ByteField) s.field("byteField"), structure,
+                    BYTES[i]);
+            theStorage.write((CharField) s.field("charField"), structure,
+                    CHARS[i]);
+            theStorage.write((DoubleField) s.field("doubleField"), structure,
+                    DOUBLES[i]);
+            theStorage.write((FloatField) s.field("floatField"), structure,
+                    FLOATS[i]);
+            theStorage.write((IntField) s.field("intField"), structure,
+                    INTS[i]);
+            theStorage.write((LongField) s.field("longField"), structure,
+                    LONGS[i]);
+            theStorage.write((ShortField) s.field("shortField"), structure,
+                    SHORTS[i]);
+        }
+        theStorage.transactionManager().commit();
+    }
+
+    private Storage[] sparseStorages() {
+        final Struct aligned = new Aligned64Compiler().compile(struct);
+        final Struct packed = new PackedCompiler().compile(struct);
+        return new Storage[] {
+                new Aligned64SparseStorage(aligned, _CAPACITY, true,
+                        Arity.ONE_D),
+                new Aligned64BitmapSparseStorage(aligned, _CAPACITY, true,
+                        Arity.ONE_D),
+                new PackedSparseStorage(packed, _CAPACITY, true, Arity.ONE_D),
+                new PackedBitmapSparseStorage(packed, _CAPACITY, true,
+                        Arity.ONE_D) };
+    }
+
+    @Before
+    public void setup() {
+        BOOLEANS = booleans();
+        BYTES = bytes();
+        CHARS = chars();
+        DOUBLES = doubles();
+        FLOATS = floats();
+        INTS = ints();
+        LONGS = longs();
+        SHORTS = shorts();
+        struct = new Struct("IndexedTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newBooleanField("booleanField"),
+                FACTORY.newByteField("byteField"),
+                FACTORY.newCharField("charField"),
+                FACTORY.newDoubleField("doubleField"),
+                FACTORY.newFloatField("floatField"),
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newShortField("shortField") });
+    }
+
+    @Test
+    public void testConcurrentReaders() throws InterruptedException {
+        for (final Compiler compiler : ALL_COMPILERS) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct), _CAPACITY);
+            writeAll(storage, 1);
+            final IntField<?, ?> intField = storage.struct().field(
+                    "intField");
+            final LongField<?, ?> longField = storage.struct().field(
+                    "longField");
+            final AtomicInteger errors = new AtomicInteger();
+            final Thread[] readers = new Thread[4];
+            for (int t = 0; t < readers.length; t++) {
+                readers[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        for (int round = 0; round < 1000; round++) {
+                            errors.addAndGet(countErrors(storage, intField,
+                                    longField));
+                        }
+                    }
+                };
+                readers[t].start();
+            }
+            for (final Thread reader : readers) {
+                reader.join();
+            }
+            assertEquals(compiler.compilerName(), 0, errors.get());
+        }
+    }
+
+    @Test
+    public void testReadWrite() {
+        for (final Compiler compiler : ALL_COMPILERS) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct), _CAPACITY);
+            storage.selectStructure(3);
+            writeAll(storage, 1);
+            assertEquals(3, storage.getSelectedStructure());
+            assertContent(storage, 1);
+            assertEquals(3, storage.getSelectedStructure());
+            // The cursor sees the same values.
+            final Struct s = storage.struct();
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                assertEquals(INTS[i], storage.read((IntField) s.field(
+                        "intField")));
+                assertEquals(DOUBLES[i], storage.read((DoubleField) s.field(
+                        "doubleField")), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        for (final Compiler compiler : COMPILERS) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct), _CAPACITY);
+            writeAll(storage, 1);
+            final IntField<?, ?> intField = storage.struct().field(
+                    "intField");
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.write(intField, i, -i);
+            }
+            storage.transactionManager().rollback();
+            assertContent(storage, 1);
+        }
+    }
+
+    @Test
+    public void testSparse() {
+        for (final Storage storage : sparseStorages()) {
+            final String message = storage.getClass().getSimpleName();
+            final SparseStorage sparse = (SparseStorage) storage;
+            writeAll(storage, GAP);
+            assertEquals(message, _CAPACITY, sparse.currentSize());
+            assertContent(storage, GAP);
+            // Reading a missing structure does not add it.
+            assertEquals(message, 0, storage.read((IntField) storage
+                    .struct().field("intField"), GAP / 2));
+            assertFalse(message, sparse.contains(GAP / 2));
+            assertTrue(message, sparse.contains(GAP));
+            // The cursor sees the same values.
+            storage.selectStructure(2 * GAP);
+            assertEquals(message, INTS[2], storage.read((IntField) storage
+                    .struct().field("intField")));
+        }
+    }
+
+    @Test
+    public void testStructureOutOfRange() {
+        for (final Compiler compiler : COMPILERS) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct), _CAPACITY);
+            final IntField<?, ?> intField = storage.struct().field(
+                    "intField");
+            try {
+                storage.read(intField, _CAPACITY);
+                fail("Reading past the capacity must fail");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                storage.write(intField, -1, 1);
+                fail("Writing a negative structure must fail");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
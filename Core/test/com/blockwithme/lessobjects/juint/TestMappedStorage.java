@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.OffHeapAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.OffHeapPackedCompiler;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.storage.offheap.MappedStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestMappedStorage extends TestData {
+
+    private File file;
+
+    private Struct struct;
+
+    private int[] INTS;
+
+    private long[] LONGS;
+
+    private MappedStorage[] open() {
+        final OffHeapAligned64Compiler aligned = new OffHeapAligned64Compiler();
+        final OffHeapPackedCompiler packed = new OffHeapPackedCompiler();
+        return new MappedStorage[] {
+                aligned.mapStorage(aligned.compile(struct), new File(file
+                        .getPath() + ".aligned"), _CAPACITY),
+                packed.mapStorage(packed.compile(struct), new File(file
+                        .getPath() + ".packed"), _CAPACITY) };
+    }
+
+    @Before
+    public void setup() throws IOException {
+        INTS = ints();
+        LONGS = longs();
+        file = File.createTempFile("TestMappedStorage", ".dat");
+        struct = new Struct("MappedTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newBooleanField("booleanField") });
+    }
+
+    @After
+    public void tearDown() {
+        new File(file.getPath() + ".aligned").delete();
+        new File(file.getPath() + ".packed").delete();
+        file.delete();
+    }
+
+    @Test
+    public void testNotAStorageFile() throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[128]);
+        out.close();
+        try {
+            new OffHeapAligned64Compiler().mapStorage(
+                    new OffHeapAligned64Compiler().compile(struct), file,
+                    _CAPACITY);
+            fail("Opening a file which is not a storage must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReopen() {
+        for (final MappedStorage storage : open()) {
+            final IntField intField = storage.struct().field("intField");
+            final LongField longField = storage.struct().field("longField");
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                storage.write(intField, INTS[i]);
+                storage.write(longField, LONGS[i]);
+            }
+            storage.transactionManager().commit();
+            storage.force();
+            storage.close();
+        }
+        for (final MappedStorage storage : open()) {
+            final IntField intField = storage.struct().field("intField");
+            final LongField longField = storage.struct().field("longField");
+            assertEquals(_CAPACITY, storage.getCapacity());
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                assertEquals(INTS[i], storage.read(intField));
+                assertEquals(LONGS[i], storage.read(longField));
+            }
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testResize() {
+        for (final MappedStorage storage : open()) {
+            final IntField intField = storage.struct().field("intField");
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                storage.write(intField, INTS[i]);
+            }
+            storage.transactionManager().commit();
+            final long length = storage.file().length();
+            storage.resizeStorage(_CAPACITY * 3);
+            assertTrue(storage.file().length() > length);
+            storage.close();
+        }
+        for (final MappedStorage storage : open()) {
+            final IntField intField = storage.struct().field("intField");
+            assertEquals(_CAPACITY * 3, storage.getCapacity());
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                assertEquals(INTS[i], storage.read(intField));
+            }
+            storage.selectStructure(_CAPACITY * 3 - 1);
+            assertEquals(0, storage.read(intField));
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testWrongStruct() {
+        for (final MappedStorage storage : open()) {
+            storage.close();
+        }
+        struct = new Struct("OtherTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("intField") });
+        try {
+            open();
+            fail("Opening a file with another Struct must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
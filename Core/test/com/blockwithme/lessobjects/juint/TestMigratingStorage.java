@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.HashFieldIndex;
+import com.blockwithme.lessobjects.storage.MigratingStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestMigratingStorage extends TestData {
+
+    /** Large enough to be split across many chunks. */
+    private static final int COUNT = 20000;
+
+    /** Small, so the foreground often meets unmigrated chunks. */
+    private static final int CHUNK = 100;
+
+    private static final SchemaMigrator MIGRATOR =
+            Struct.DEFAULT_SCHEMA_MIGRATOR;
+
+    private Struct newStruct() {
+        return new Struct("MigratingTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newLongField("longField"),
+                FACTORY.newIntField("addedField"),
+                FACTORY.newIntField("intField") });
+    }
+
+    private Struct oldStruct() {
+        return new Struct("MigratingTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newIntField("intField"),
+                FACTORY.newShortField("droppedField"),
+                FACTORY.newLongField("longField") });
+    }
+
+    private Storage source(final Compiler theCompiler) {
+        final Storage source = theCompiler.initStorage(
+                theCompiler.compile(oldStruct()), COUNT);
+        final Struct s = source.struct();
+        final IntField<?, ?> intField = s.field("intField");
+        final LongField<?, ?> longField = s.field("longField");
+        source.enableTransactions(false);
+        for (int i = 0; i < COUNT; i++) {
+            source.write(intField, i, i);
+            source.write(longField, i, -i * 1000000000L);
+        }
+        return source;
+    }
+
+    private void check(final Storage theStorage, final int theWritten) {
+        final Struct s = theStorage.struct();
+        final IntField<?, ?> intField = s.field("intField");
+        final IntField<?, ?> addedField = s.field("addedField");
+        final LongField<?, ?> longField = s.field("longField");
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(i, theStorage.read(intField, i));
+            assertEquals(-i * 1000000000L, theStorage.read(longField, i));
+            assertEquals(i % theWritten == 0 ? -i : 0,
+                    theStorage.read(addedField, i));
+        }
+    }
+
+    @Test
+    public void testBackground() throws Exception {
+        for (final Compiler from : COMPILERS) {
+            for (final Compiler to : COMPILERS) {
+                final Storage target = to.initStorage(
+                        to.compile(newStruct()), COUNT);
+                final MigratingStorage storage = new MigratingStorage(
+                        source(from), target, MIGRATOR, CHUNK);
+                final Struct s = storage.struct();
+                final IntField<?, ?> intField = s.field("intField");
+                final IntField<?, ?> addedField = s.field("addedField");
+                final Future<Storage> completion = storage.start();
+                // Reads and writes, while the migration runs.
+                for (int i = COUNT - 1; i >= 0; i--) {
+                    assertEquals(i, storage.read(intField, i));
+                    if (i % 7 == 0) {
+                        storage.write(addedField, i, -i);
+                    }
+                }
+                assertSame(target, completion.get());
+                assertEquals(COUNT, storage.migratedStructures());
+                assertTrue(storage.structuresPerSecond() > 0);
+                check(storage, 7);
+                check(target, 7);
+            }
+        }
+    }
+
+    @Test
+    public void testForeground() throws Exception {
+        final Compiler compiler = COMPILERS[0];
+        final Storage target = compiler.initStorage(
+                compiler.compile(newStruct()), COUNT);
+        final MigratingStorage storage = new MigratingStorage(
+                source(compiler), target, MIGRATOR, CHUNK);
+        final Struct s = storage.struct();
+        final IntField<?, ?> addedField = s.field("addedField");
+        final IntField<?, ?> intField = s.field("intField");
+        assertEquals(0, storage.migratedStructures());
+        assertFalse(storage.completion().isDone());
+
+        // Only the chunk of the selected structure is migrated.
+        storage.selectStructure(CHUNK * 3 + 1);
+        assertEquals(CHUNK * 3 + 1, storage.read(intField));
+        storage.write(addedField, -(CHUNK * 3 + 1));
+        assertEquals(CHUNK, storage.migratedStructures());
+
+        // Writes are not overwritten by the migration of their chunk.
+        storage.write(intField, 5, 5);
+        storage.write(addedField, 5, -5);
+        assertEquals(CHUNK * 2, storage.migratedStructures());
+
+        // Copying the whole storage migrates all the chunks.
+        storage.transactionManager().commit();
+        final Storage copy = storage.copy();
+        assertEquals(COUNT, storage.migratedStructures());
+        // Completes, even though start() was never called.
+        assertSame(target, storage.completion().get());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(i, copy.read(intField, i));
+            assertEquals(i == 5 || i == CHUNK * 3 + 1 ? -i : 0,
+                    copy.read(addedField, i));
+        }
+    }
+
+    @Test
+    public void testIndexes() throws Exception {
+        for (final boolean background : new boolean[] { false, true }) {
+            final Compiler compiler = COMPILERS[1];
+            final Storage target = compiler.initStorage(
+                    compiler.compile(newStruct()), COUNT);
+            final HashFieldIndex index = new HashFieldIndex(target.struct()
+                    .field("intField"));
+            ((AbstractStorage) target).addIndex(index);
+            final MigratingStorage storage = new MigratingStorage(
+                    source(compiler), target, MIGRATOR, CHUNK);
+            if (background) {
+                storage.start().get();
+            } else {
+                storage.copy();
+            }
+            for (int i = 0; i < COUNT; i += 997) {
+                assertArrayEquals(new int[] { i }, index.find(i));
+            }
+        }
+    }
+}
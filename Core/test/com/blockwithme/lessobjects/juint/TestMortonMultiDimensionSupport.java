@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.beans.MultiDimensionalSupport;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.multidim.MortonMultiDimensionSupport;
+import com.blockwithme.lessobjects.multidim.MultiDimensionSupportImpl;
+import com.blockwithme.lessobjects.multidim.Point;
+import com.blockwithme.lessobjects.multidim.Point2D;
+import com.blockwithme.lessobjects.multidim.Point3D;
+import com.blockwithme.lessobjects.multidim.Point4D;
+import com.blockwithme.lessobjects.storage.Storage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestMortonMultiDimensionSupport extends TestData {
+
+    private static void checkPoint(final MultiDimensionalSupport theSupport,
+            final Point thePoint, final boolean[] theUsed) {
+        final int index = theSupport.getIndex(thePoint);
+        final String message = thePoint + " " + index;
+        assertFalse(message, theUsed[index]);
+        theUsed[index] = true;
+        final Point point = theSupport.toPoint(index);
+        assertEquals(message, thePoint.toString(), point.toString());
+    }
+
+    @Test
+    public void testCapacity() {
+        assertEquals(10, MortonMultiDimensionSupport.requiredCapacity(10,
+                Arity.ONE_D));
+        assertEquals(256, MortonMultiDimensionSupport.requiredCapacity(10,
+                Arity.TWO_D));
+        assertEquals(64, MortonMultiDimensionSupport.requiredCapacity(4,
+                Arity.THREE_D));
+        assertEquals(1 << 30, MortonMultiDimensionSupport.requiredCapacity(
+                1 << 10, Arity.THREE_D));
+        assertEquals(1 << 28, MortonMultiDimensionSupport.requiredCapacity(
+                1 << 7, Arity.FOUR_D));
+        assertEquals(256, new MortonMultiDimensionSupport(10, Arity.TWO_D)
+                .indexCount());
+        assertEquals(1000, new MultiDimensionSupportImpl(10, Arity.THREE_D)
+                .indexCount());
+    }
+
+    @Test
+    public void testGetIndex() {
+        final MultiDimensionalSupport support2 =
+                new MortonMultiDimensionSupport(4, Arity.TWO_D);
+        assertEquals(1, support2.getIndex(1, 0));
+        assertEquals(2, support2.getIndex(0, 1));
+        assertEquals(3, support2.getIndex(1, 1));
+        assertEquals(4, support2.getIndex(2, 0));
+        assertEquals(15, support2.getIndex(3, 3));
+        final MultiDimensionalSupport support3 =
+                new MortonMultiDimensionSupport(1 << 10, Arity.THREE_D);
+        assertEquals(4, support3.getIndex(0, 0, 1));
+        assertEquals(7, support3.getIndex(1, 1, 1));
+        assertEquals((1 << 30) - 1, support3.getIndex(1023, 1023, 1023));
+        final MultiDimensionalSupport support4 =
+                new MortonMultiDimensionSupport(1 << 7, Arity.FOUR_D);
+        assertEquals(8, support4.getIndex(0, 0, 0, 1));
+        assertEquals((1 << 28) - 1, support4.getIndex(127, 127, 127, 127));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfRange() {
+        new MortonMultiDimensionSupport(10, Arity.THREE_D).getIndex(1, 10, 1);
+    }
+
+    @Test
+    public void testToPoint2D() {
+        final int size = 37;
+        final MultiDimensionalSupport support = new MortonMultiDimensionSupport(
+                size, Arity.TWO_D);
+        final boolean[] used = new boolean[MortonMultiDimensionSupport
+                .requiredCapacity(size, Arity.TWO_D)];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                checkPoint(support, new Point2D(x, y), used);
+            }
+        }
+    }
+
+    @Test
+    public void testToPoint3D() {
+        final int size = 13;
+        final MultiDimensionalSupport support = new MortonMultiDimensionSupport(
+                size, Arity.THREE_D);
+        final boolean[] used = new boolean[MortonMultiDimensionSupport
+                .requiredCapacity(size, Arity.THREE_D)];
+        for (int z = 0; z < size; z++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    checkPoint(support, new Point3D(x, y, z), used);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testToPoint4D() {
+        final int size = 7;
+        final MultiDimensionalSupport support = new MortonMultiDimensionSupport(
+                size, Arity.FOUR_D);
+        final boolean[] used = new boolean[MortonMultiDimensionSupport
+                .requiredCapacity(size, Arity.FOUR_D)];
+        for (int w = 0; w < size; w++) {
+            for (int z = 0; z < size; z++) {
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        checkPoint(support, new Point4D(x, y, z, w), used);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStorage() {
+        final int size = 5;
+        final int capacity = MortonMultiDimensionSupport.requiredCapacity(
+                size, Arity.THREE_D);
+        final MultiDimensionalSupport support = new MortonMultiDimensionSupport(
+                size, Arity.THREE_D);
+        for (final Compiler compiler : COMPILERS) {
+            final Struct struct = compiler.compile(new Struct("MortonTest",
+                    new Struct[] {}, new Field<?, ?>[] { FACTORY
+                            .newIntField("intField") }));
+            final IntField<?, ?> intField = struct.field("intField");
+            final Storage storage = compiler.initStorage(struct, capacity,
+                    Arity.THREE_D);
+            storage.setMultiDimensionalSupport(support);
+            assertSame(support, storage.multiDimensionalSupport());
+            for (int z = 0; z < size; z++) {
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        storage.selectPoint(new Point3D(x, y, z));
+                        storage.write(intField, x + 10 * y + 100 * z);
+                    }
+                }
+            }
+            storage.transactionManager().commit();
+            assertEquals(1 + 10 + 100, storage.read(intField, 7));
+
+            // The copy keeps the layout.
+            final Storage copy = storage.copy();
+            assertSame(support, copy.multiDimensionalSupport());
+            copy.selectPoint(new Point3D(4, 3, 2));
+            assertEquals(234, copy.read(intField));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooSmall() {
+        final Struct struct = COMPILERS[0].compile(new Struct("MortonTest",
+                new Struct[] {}, new Field<?, ?>[] { FACTORY
+                        .newIntField("intField") }));
+        // 5 * 5 points need 8 * 8 structures.
+        COMPILERS[0].initStorage(struct, 25, Arity.TWO_D)
+                .setMultiDimensionalSupport(
+                        new MortonMultiDimensionSupport(5, Arity.TWO_D));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongArity() {
+        final Struct struct = COMPILERS[0].compile(new Struct("MortonTest",
+                new Struct[] {}, new Field<?, ?>[] { FACTORY
+                        .newIntField("intField") }));
+        COMPILERS[0].initStorage(struct, _CAPACITY, Arity.THREE_D)
+                .setMultiDimensionalSupport(
+                        new MultiDimensionSupportImpl(_CAPACITY, Arity.TWO_D));
+    }
+}
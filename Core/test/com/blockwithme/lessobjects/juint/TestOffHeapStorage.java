@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.CompilerType;
+import com.blockwithme.lessobjects.compiler.OffHeapAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.OffHeapPackedCompiler;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.offheap.OffHeapStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+@RunWith(Parameterized.class)
+public class TestOffHeapStorage extends AbstractEngineTest {
+
+    @Parameters
+    public static Collection<Object[]> compilers() {
+        return Arrays.asList(new Object[][] {
+                { new OffHeapAligned64Compiler(),
+                        CompilerType.OFFHEAP_ALIGNED64 },
+                { new OffHeapPackedCompiler(), CompilerType.OFFHEAP_PACKED } });
+    }
+
+    private final Compiler compiler;
+
+    private final CompilerType compilerType;
+
+    public TestOffHeapStorage(final Compiler theCompiler,
+            final CompilerType theCompilerType) {
+        compiler = theCompiler;
+        compilerType = theCompilerType;
+    }
+
+    @Override
+    protected Compiler compiler() {
+        return compiler;
+    }
+
+    @Override
+    protected CompilerType compilerType() {
+        return compilerType;
+    }
+
+    @Override
+    protected void dispose(final Storage theStorage) {
+        ((OffHeapStorage) theStorage).close();
+    }
+
+    @Override
+    protected String engineName() {
+        return "OffHeap";
+    }
+
+    @Override
+    protected Class<? extends Storage> storageClass() {
+        return OffHeapStorage.class;
+    }
+
+    @Test
+    public void testClose() {
+        final OffHeapStorage offHeap = (OffHeapStorage) storage;
+        assertFalse(offHeap.isClosed());
+        assertTrue(offHeap.offHeapBytes() > 0);
+        offHeap.close();
+        assertTrue(offHeap.isClosed());
+        assertEquals(0, offHeap.offHeapBytes());
+        // Closing twice does nothing
+        offHeap.close();
+        try {
+            offHeap.selectStructure(0);
+            fail("Selecting a structure of a closed storage must fail");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOffHeapBytes() {
+        fill(storage, _CAPACITY);
+        final long bytes = ((OffHeapStorage) storage).offHeapBytes();
+        storage.resizeStorage(_CAPACITY * 2);
+        assertTrue(((OffHeapStorage) storage).offHeapBytes() > bytes);
+        storage.resizeStorage(_CAPACITY / 2);
+        assertTrue(((OffHeapStorage) storage).offHeapBytes() < bytes);
+        assertEquals(_CAPACITY / 2, storage.getCapacity());
+        final IntField intField = struct.field("intField");
+        final ObjectField stringField = struct.field("stringField");
+        for (int i = 0; i < _CAPACITY / 2; i++) {
+            storage.selectStructure(i);
+            assertEquals(INTS[i], storage.read(intField));
+            assertEquals(STRINGS[i], storage.read(stringField));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.CompilerType;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.compiler.PagedAligned64Compiler;
+import com.blockwithme.lessobjects.compiler.PagedPackedCompiler;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.paged.BasePagedStorage;
+import com.blockwithme.lessobjects.storage.paged.LongPages;
+import com.blockwithme.lessobjects.storage.paged.ObjectPages;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+@RunWith(Parameterized.class)
+public class TestPagedStorage extends AbstractEngineTest {
+
+    /** Enough structures to need several pages. */
+    private static final int LARGE = 5000;
+
+    @Parameters
+    public static Collection<Object[]> compilers() {
+        return Arrays.asList(new Object[][] {
+                { new PagedAligned64Compiler(), CompilerType.PAGED_ALIGNED64 },
+                { new PagedPackedCompiler(), CompilerType.PAGED_PACKED } });
+    }
+
+    private final Compiler compiler;
+
+    private final CompilerType compilerType;
+
+    public TestPagedStorage(final Compiler theCompiler,
+            final CompilerType theCompilerType) {
+        compiler = theCompiler;
+        compilerType = theCompilerType;
+    }
+
+    @Override
+    protected Compiler compiler() {
+        return compiler;
+    }
+
+    @Override
+    protected CompilerType compilerType() {
+        return compilerType;
+    }
+
+    @Override
+    protected String engineName() {
+        return "Paged";
+    }
+
+    @Override
+    protected Class<? extends Storage> storageClass() {
+        return BasePagedStorage.class;
+    }
+
+    @Test
+    public void testLongPages() {
+        final LongPages pages = new LongPages(LongPages.PAGE_WORDS + 1);
+        assertEquals(2, pages.pageCount());
+        final long[] first = pages.page(0);
+        pages.put(LongPages.PAGE_WORDS - 1, 42);
+        pages.put(LongPages.PAGE_WORDS, 43);
+        pages.resize(LongPages.PAGE_WORDS * 10);
+        assertSame(first, pages.page(0));
+        assertEquals(42, pages.get(LongPages.PAGE_WORDS - 1));
+        assertEquals(43, pages.get(LongPages.PAGE_WORDS));
+        pages.resize(LongPages.PAGE_WORDS - 1);
+        assertEquals(1, pages.pageCount());
+        pages.resize(LongPages.PAGE_WORDS + 1);
+        assertEquals(0, pages.get(LongPages.PAGE_WORDS - 1));
+        assertEquals(0, pages.get(LongPages.PAGE_WORDS));
+
+        final ObjectPages objects = new ObjectPages(ObjectPages.PAGE_SIZE);
+        objects.set(ObjectPages.PAGE_SIZE - 1, "last");
+        objects.resize(ObjectPages.PAGE_SIZE * 3);
+        assertEquals("last", objects.get(ObjectPages.PAGE_SIZE - 1));
+        objects.resize(1);
+        objects.resize(ObjectPages.PAGE_SIZE);
+        assertNull(objects.get(ObjectPages.PAGE_SIZE - 1));
+    }
+
+    @Test
+    public void testPages() {
+        fill(storage, _CAPACITY);
+        final LongPages pages = ((BasePagedStorage) storage).getPages();
+        final long[] first = pages.page(0);
+        storage.resizeStorage(LARGE);
+        assertTrue(pages.pageCount() > 1);
+        // Growing must not copy the existing pages
+        assertSame(first, pages.page(0));
+        fill(storage, LARGE);
+        assertContent(storage, LARGE);
+        assertContent(storage.copy(), LARGE);
+    }
+
+    @Test
+    public void testSnapshot() {
+        storage.resizeStorage(LARGE);
+        fill(storage, LARGE);
+        final Storage live = storage;
+        final Storage snapshot = live.snapshot();
+        final LongPages livePages = ((BasePagedStorage) live).getPages();
+        final LongPages snapshotPages = ((BasePagedStorage) snapshot)
+                .getPages();
+        assertSame(livePages.page(1), snapshotPages.page(1));
+
+        final IntField intField = struct.field("intField");
+        final ObjectField stringField = struct.field("stringField");
+        live.selectStructure(0);
+        live.write(intField, INTS[0] + 1);
+        live.write(stringField, "changed");
+        live.transactionManager().commit();
+        // Only the modified page was copied
+        assertNotSame(livePages.page(0), snapshotPages.page(0));
+        assertSame(livePages.page(1), snapshotPages.page(1));
+
+        assertContent(snapshot, LARGE);
+        try {
+            snapshot.write(intField, 0);
+            fail("Snapshots are read-only");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        live.selectStructure(0);
+        assertEquals(INTS[0] + 1, live.read(intField));
+        assertEquals("changed", live.read(stringField));
+    }
+
+    @Test
+    public void testSnapshotOfHeapStorage() {
+        final Compiler packed = new PackedCompiler();
+        final Struct s = packed.compile(struct);
+        final Storage live = packed.initStorage(s, _CAPACITY);
+        fill(live, _CAPACITY);
+        final Storage snapshot = live.snapshot();
+        live.selectStructure(0);
+        live.write((IntField) s.field("intField"), INTS[0] + 1);
+        live.transactionManager().commit();
+        assertContent(snapshot, _CAPACITY);
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.CompilerType;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.PaletteCompiler;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.palette.PaletteStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestPaletteStorage extends AbstractEngineTest {
+
+    private static final PaletteCompiler COMPILER = new PaletteCompiler();
+
+    @Override
+    protected Compiler compiler() {
+        return COMPILER;
+    }
+
+    @Override
+    protected CompilerType compilerType() {
+        return CompilerType.PALETTE;
+    }
+
+    @Override
+    protected Struct configure(final Struct theStruct) {
+        return theStruct.setBlockSize(16);
+    }
+
+    @Override
+    protected String engineName() {
+        return "Palette";
+    }
+
+    @Override
+    protected Class<? extends Storage> storageClass() {
+        return PaletteStorage.class;
+    }
+
+    @Test
+    public void testPalette() {
+        final PaletteStorage palette = (PaletteStorage) storage;
+        final IntField intField = struct.field("intField");
+        assertEquals(16, palette.chunkSize());
+        assertEquals(1, palette.paletteEntries(0));
+        assertEquals(0, palette.paletteIndexBits(0));
+        for (int i = 0; i < _CAPACITY; i++) {
+            storage.selectStructure(i);
+            storage.write(intField, i % 3);
+        }
+        // 0, 1 and 2 (the zero row also covers the unused structures).
+        assertEquals(3, palette.paletteEntries(0));
+        assertEquals(2, palette.paletteIndexBits(0));
+        fill(storage, _CAPACITY);
+        assertContent(storage, _CAPACITY);
+        assertTrue(palette.paletteEntries(0) <= 16);
+        assertEquals(4, palette.paletteIndexBits(0));
+        for (int i = 0; i < _CAPACITY; i++) {
+            storage.selectStructure(i);
+            storage.clear();
+        }
+        assertEquals(1, palette.paletteEntries(0));
+        final Struct defaultChunks = COMPILER.compile(new Struct(
+                "DefaultChunks", new Struct[0],
+                new Field<?, ?>[] { FACTORY.newIntField("intField") }));
+        assertEquals(PaletteStorage.DEFAULT_CHUNK_SIZE,
+                ((PaletteStorage) COMPILER.initStorage(defaultChunks,
+                        _CAPACITY)).chunkSize());
+    }
+
+    @Test
+    public void testVoxels() {
+        final int side = 32;
+        final Struct voxel = COMPILER.compile(new Struct("Voxel",
+                new Struct[0], new Field<?, ?>[] {
+                        FACTORY.newShortField("material"),
+                        FACTORY.newBooleanField("solid") }));
+        final ShortField material = voxel.field("material");
+        final BooleanField solid = voxel.field("solid");
+        final PaletteStorage terrain = (PaletteStorage) COMPILER.initStorage(
+                voxel, side * side * side);
+        for (int z = 0; z < side; z++) {
+            for (int y = 0; y < side; y++) {
+                for (int x = 0; x < side; x++) {
+                    terrain.selectStructure(x + side * (y + side * z));
+                    if (z < side / 2) {
+                        terrain.write(material, (short) (z == side / 2 - 1 ? 2
+                                : 1));
+                        terrain.write(solid, true);
+                    }
+                }
+            }
+        }
+        terrain.transactionManager().commit();
+        for (int z = 0; z < side; z++) {
+            terrain.selectStructure(side * side * z + z);
+            assertEquals(z < side / 2 ? (z == side / 2 - 1 ? 2 : 1) : 0,
+                    terrain.read(material));
+            assertEquals(z < side / 2, terrain.read(solid));
+        }
+        final long packedWords = (long) side * side * side * voxel.bits()
+                / 64;
+        assertTrue(terrain.usedWords() * 10 < packedWords);
+    }
+}
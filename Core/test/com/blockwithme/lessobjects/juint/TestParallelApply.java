@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.beans.IntValueChange;
+import com.blockwithme.lessobjects.beans.ValueChange;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.compiler.OffHeapPackedCompiler;
+import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.compiler.PagedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.RunLengthCompiler;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.ActionSet;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.packed.PackedSparseStorage;
+import com.blockwithme.lessobjects.storage.parallel.StructOperator;
+import com.blockwithme.lessobjects.storage.parallel.StructureCursor;
+
+//CHECKSTYLE IGNORE FOR NEXT 250 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestParallelApply extends TestData {
+
+    /** Large enough to be split across several tasks. */
+    private static final int BIG = 100000;
+
+    /** Writes values derived from the structure index. */
+    private static final StructOperator FILL = new StructOperator() {
+        @Override
+        public void apply(final StructureCursor theCursor) {
+            final Struct s = theCursor.storage().struct();
+            final int i = theCursor.structure();
+            theCursor.write((BooleanField) s.field("booleanField"), i % 3 == 0);
+            theCursor.write((DoubleField) s.field("doubleField"), i / 4.0);
+            theCursor.write((IntField) s.field("intField"), i * 3);
+            theCursor.write((LongField) s.field("longField"), -i);
+            theCursor.write((ShortField) s.field("shortField"), (short) i);
+        }
+    };
+
+    /** Increments the int field. */
+    private static final StructOperator INCREMENT = new StructOperator() {
+        @Override
+        public void apply(final StructureCursor theCursor) {
+            final IntField<?, ?> field = theCursor.storage().struct().field(
+                    "intField");
+            theCursor.write(field, theCursor.read(field) + 1);
+        }
+    };
+
+    private Struct struct;
+
+    private void assertFilled(final Storage theStorage, final int theFrom,
+            final int theTo, final int theIncrement) {
+        final String message = theStorage.getClass().getSimpleName();
+        final Struct s = theStorage.struct();
+        for (int i = theFrom; i < theTo; i++) {
+            assertEquals(message, i % 3 == 0, theStorage.read(
+                    (BooleanField) s.field("booleanField"), i));
+            assertEquals(message, i / 4.0, theStorage.read(
+                    (DoubleField) s.field("doubleField"), i), DELTA);
+            assertEquals(message, i * 3 + theIncrement, theStorage.read(
+                    (IntField) s.field("intField"), i));
+            assertEquals(message, -i, theStorage.read(
+                    (LongField) s.field("longField"), i));
+            assertEquals(message, (short) i, theStorage.read(
+                    (ShortField) s.field("shortField"), i));
+        }
+    }
+
+    @Before
+    public void setup() {
+        // 177 bits: the packed structures straddle the long words.
+        struct = new Struct("ApplyTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newBooleanField("booleanField"),
+                FACTORY.newDoubleField("doubleField"),
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newShortField("shortField") });
+    }
+
+    @Test
+    public void testApply() {
+        final Compiler[] compilers = { COMPILERS[0], COMPILERS[1],
+                new ColumnarCompiler(), new PagedPackedCompiler(),
+                new OffHeapPackedCompiler(), new RunLengthCompiler() };
+        for (final Compiler compiler : compilers) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct), BIG);
+            storage.enableTransactions(false);
+            storage.selectStructure(3);
+            storage.apply(0, BIG, FILL);
+            assertEquals(3, storage.getSelectedStructure());
+            assertFilled(storage, 0, BIG, 0);
+            storage.apply(10, BIG - 10, INCREMENT);
+            assertFilled(storage, 0, 10, 0);
+            assertFilled(storage, 10, BIG - 10, 1);
+            assertFilled(storage, BIG - 10, BIG, 0);
+        }
+    }
+
+    @Test
+    public void testFailure() {
+        final int count = 20000;
+        final int failure = count * 3 / 4;
+        for (final Compiler compiler : COMPILERS) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct), count);
+            storage.apply(0, count, FILL);
+            storage.transactionManager().commit();
+            try {
+                storage.apply(0, count, new StructOperator() {
+                    @Override
+                    public void apply(final StructureCursor theCursor) {
+                        if (theCursor.structure() == failure) {
+                            throw new IllegalStateException("failure");
+                        }
+                        INCREMENT.apply(theCursor);
+                    }
+                });
+                fail("The operator failure must be rethrown");
+            } catch (final IllegalStateException e) {
+                // expected
+            }
+            final IntField intField = storage.struct().field("intField");
+            // The parts which ran before the failure were recorded.
+            assertEquals(1, storage.read(intField, 0));
+            assertEquals(failure * 3, storage.read(intField, failure));
+            storage.transactionManager().rollback();
+            assertFilled(storage, 0, count, 0);
+        }
+    }
+
+    @Test
+    public void testGlobalField() {
+        final Struct withGlobal = new Struct("GlobalTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("intField"),
+                        FACTORY.newIntGlobalField("globalField") });
+        final Storage storage = COMPILERS[1].initStorage(
+                COMPILERS[1].compile(withGlobal), _CAPACITY);
+        try {
+            storage.apply(0, _CAPACITY, new StructOperator() {
+                @Override
+                public void apply(final StructureCursor theCursor) {
+                    theCursor.write((IntField) theCursor.storage().struct()
+                            .field("globalField"), 1);
+                }
+            });
+            fail("Writing a global field must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testGranularity() {
+        final Struct packed = new PackedCompiler().compile(struct);
+        assertEquals(64, ((AbstractStorage) COMPILERS[1].initStorage(packed,
+                _CAPACITY)).concurrentWriteGranularity());
+        // 177 bits are padded to 256 bits, so every structure is aligned.
+        assertEquals(1, ((AbstractStorage) COMPILERS[0].initStorage(
+                COMPILERS[0].compile(struct), _CAPACITY))
+                .concurrentWriteGranularity());
+        final Compiler paged = new PagedPackedCompiler();
+        assertEquals(1 << 18, ((AbstractStorage) paged.initStorage(
+                paged.compile(struct), _CAPACITY))
+                .concurrentWriteGranularity());
+        assertEquals(0, new PackedSparseStorage(packed, _CAPACITY, true,
+                Arity.ONE_D).concurrentWriteGranularity());
+    }
+
+    @Test
+    public void testSparse() {
+        final Storage storage = new PackedSparseStorage(
+                new PackedCompiler().compile(struct), _CAPACITY, true,
+                Arity.ONE_D);
+        storage.apply(100, 200, FILL);
+        storage.transactionManager().commit();
+        assertFilled(storage, 100, 200, 0);
+    }
+
+    @Test
+    public void testTransactions() {
+        final int count = 20000;
+        for (final Compiler compiler : COMPILERS) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct), count);
+            storage.apply(0, count, FILL);
+            storage.transactionManager().commit();
+            storage.apply(0, count, INCREMENT);
+            // All the parts end up in the same transaction.
+            storage.transactionManager().rollback();
+            assertFilled(storage, 0, count, 0);
+            storage.apply(0, count, INCREMENT);
+            final ActionSet actions = storage.transactionManager().commit();
+            assertFilled(storage, 0, count, 1);
+            final Iterator<ValueChange<?>> changes = actions.changeRecords()
+                    .changes(storage.rootStruct());
+            for (int i = 0; i < count; i++) {
+                final IntValueChange change = (IntValueChange) changes.next();
+                assertEquals(i, change.structureIndex());
+                assertEquals(i * 3, change.intOldValue());
+                assertEquals(i * 3 + 1, change.intNewValue());
+            }
+            assertFalse(changes.hasNext());
+        }
+    }
+}
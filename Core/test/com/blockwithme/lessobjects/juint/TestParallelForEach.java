@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.Aligned64Compiler;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.compiler.PagedPackedCompiler;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64BitmapSparseStorage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64SparseStorage;
+import com.blockwithme.lessobjects.storage.packed.PackedBitmapSparseStorage;
+import com.blockwithme.lessobjects.storage.packed.PackedSparseStorage;
+import com.blockwithme.lessobjects.storage.parallel.IndexConsumer;
+import com.blockwithme.lessobjects.storage.parallel.IndexSpliterator;
+import com.blockwithme.lessobjects.storage.parallel.StructureCursor;
+import com.blockwithme.lessobjects.storage.parallel.StructureVisitor;
+
+//CHECKSTYLE IGNORE FOR NEXT 250 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestParallelForEach extends TestData {
+
+    /** Large enough to be split across several tasks. */
+    private static final int BIG = 100000;
+
+    /** The distance between two used structure indexes, in sparse storages. */
+    private static final int GAP = 37;
+
+    private Struct struct;
+
+    /** Visits all the structures, and checks that each is visited once. */
+    private void assertVisitedOnce(final Storage theStorage,
+            final int theGap, final int theCount) {
+        final String message = theStorage.getClass().getSimpleName();
+        final IntField<?, ?> intField = theStorage.struct().field(
+                "intField");
+        final AtomicIntegerArray visits = new AtomicIntegerArray(theCount);
+        final AtomicInteger errors = new AtomicInteger();
+        theStorage.forEach(new StructureVisitor() {
+            @Override
+            public void visit(final StructureCursor theCursor) {
+                final int structure = theCursor.structure();
+                if (structure % theGap != 0
+                        || theCursor.read(intField) != structure + 1) {
+                    errors.incrementAndGet();
+                } else {
+                    visits.incrementAndGet(structure / theGap);
+                }
+            }
+        });
+        assertEquals(message, 0, errors.get());
+        for (int i = 0; i < theCount; i++) {
+            assertEquals(message, 1, visits.get(i));
+        }
+    }
+
+    /** Writes structure + 1 in the int field of the given structures. */
+    private void fill(final Storage theStorage, final int theGap,
+            final int theCount) {
+        final IntField<?, ?> intField = theStorage.struct().field(
+                "intField");
+        for (int i = 0; i < theCount; i++) {
+            theStorage.write(intField, i * theGap, i * theGap + 1);
+        }
+        theStorage.transactionManager().commit();
+    }
+
+    @Before
+    public void setup() {
+        struct = new Struct("ParallelTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newBooleanField("booleanField") });
+    }
+
+    @Test
+    public void testForEach() {
+        final Compiler[] compilers = { COMPILERS[0], COMPILERS[1],
+                new ColumnarCompiler(), new PagedPackedCompiler() };
+        for (final Compiler compiler : compilers) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct), BIG);
+            fill(storage, 1, BIG);
+            storage.selectStructure(3);
+            assertVisitedOnce(storage, 1, BIG);
+            assertEquals(3, storage.getSelectedStructure());
+        }
+    }
+
+    @Test
+    public void testOrder() {
+        final Storage storage = COMPILERS[1].initStorage(
+                COMPILERS[1].compile(struct), _CAPACITY);
+        final IndexSpliterator indexes = storage.spliterator();
+        assertEquals(_CAPACITY, indexes.estimateSize());
+        final int[] next = new int[1];
+        indexes.forEachRemaining(new IndexConsumer() {
+            @Override
+            public void accept(final int theStructure) {
+                assertEquals(next[0]++, theStructure);
+            }
+        });
+        assertEquals(_CAPACITY, next[0]);
+        assertEquals(0, indexes.estimateSize());
+        // The cursor coordinates follow the MultiDimensionalSupport indexes.
+        storage.forEach(new StructureVisitor() {
+            @Override
+            public void visit(final StructureCursor theCursor) {
+                assertEquals(theCursor.structure(), storage
+                        .multiDimensionalSupport().getIndex(
+                                theCursor.point()));
+            }
+        });
+    }
+
+    @Test
+    public void testSparse() {
+        final Struct aligned = new Aligned64Compiler().compile(struct);
+        final Struct packed = new PackedCompiler().compile(struct);
+        final int count = BIG / GAP;
+        final Storage[] storages = {
+                new Aligned64SparseStorage(aligned, _CAPACITY, true,
+                        Arity.ONE_D),
+                new Aligned64BitmapSparseStorage(aligned, _CAPACITY, true,
+                        Arity.ONE_D),
+                new PackedSparseStorage(packed, _CAPACITY, true, Arity.ONE_D),
+                new PackedBitmapSparseStorage(packed, _CAPACITY, true,
+                        Arity.ONE_D) };
+        for (final Storage storage : storages) {
+            final String message = storage.getClass().getSimpleName();
+            fill(storage, GAP, count);
+            final IndexSpliterator indexes = storage.spliterator();
+            assertEquals(message, count, indexes.estimateSize());
+            final int[] next = new int[1];
+            while (indexes.tryAdvance(new IndexConsumer() {
+                @Override
+                public void accept(final int theStructure) {
+                    assertEquals(next[0]++ * GAP, theStructure);
+                }
+            })) {
+                // NOP
+            }
+            assertEquals(message, count, next[0]);
+            assertVisitedOnce(storage, GAP, count);
+        }
+    }
+
+    @Test
+    public void testSplit() {
+        final IndexSpliterator indexes = new IndexSpliterator(new int[] { 2,
+                3, 5, 7, 11 });
+        final IndexSpliterator prefix = indexes.trySplit();
+        assertNotNull(prefix);
+        assertEquals(2, prefix.estimateSize());
+        assertEquals(3, indexes.estimateSize());
+        final int[] seen = new int[1];
+        prefix.tryAdvance(new IndexConsumer() {
+            @Override
+            public void accept(final int theStructure) {
+                seen[0] = theStructure;
+            }
+        });
+        assertEquals(2, seen[0]);
+        indexes.tryAdvance(new IndexConsumer() {
+            @Override
+            public void accept(final int theStructure) {
+                seen[0] = theStructure;
+            }
+        });
+        assertEquals(5, seen[0]);
+        final IndexSpliterator single = new IndexSpliterator(4, 5);
+        assertNull(single.trySplit());
+        assertEquals(1, single.estimateSize());
+    }
+}
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.compiler.OffHeapPackedCompiler;
+import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.compiler.PagedPackedCompiler;
+import com.blockwithme.lessobjects.compiler.RunLengthCompiler;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.optional.IntOptionalField;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.multidim.Arity;
+import com.blockwithme.lessobjects.storage.AbstractStorage;
+import com.blockwithme.lessobjects.storage.HashFieldIndex;
+import com.blockwithme.lessobjects.storage.SparseStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.packed.PackedBitmapSparseStorage;
+import com.blockwithme.lessobjects.storage.packed.PackedSparseStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 350 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestPermute extends TestData {
+
+    /** Large enough for the packed structures to span many words. */
+    private static final int COUNT = 1000;
+
+    /** Checks the values written by fill(), after the structure at index i
+     * was moved to index theInverse[i]. */
+    private void assertMoved(final Storage theStorage, final int[] theOrder) {
+        final String message = theStorage.getClass().getSimpleName();
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < theOrder.length; i++) {
+            final int old = theOrder[i];
+            assertEquals(message, old % 3 == 0, theStorage.read(
+                    (BooleanField) s.field("booleanField"), i));
+            assertEquals(message, old - COUNT / 2.0, theStorage.read(
+                    (DoubleField) s.field("doubleField"), i), DELTA);
+            assertEquals(message, old, theStorage.read(
+                    (IntField) s.field("intField"), i));
+            assertEquals(message, -old * 1000000000L, theStorage.read(
+                    (LongField) s.field("longField"), i));
+            assertEquals(message, (short) (old % 7), theStorage.read(
+                    (ShortField) s.field("shortField"), i));
+        }
+    }
+
+    private void fill(final Storage theStorage, final int theCount) {
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < theCount; i++) {
+            theStorage.write((BooleanField) s.field("booleanField"), i,
+                    i % 3 == 0);
+            theStorage.write((DoubleField) s.field("doubleField"), i,
+                    i - COUNT / 2.0);
+            theStorage.write((IntField) s.field("intField"), i, i);
+            theStorage.write((LongField) s.field("longField"), i,
+                    -i * 1000000000L);
+            theStorage.write((ShortField) s.field("shortField"), i,
+                    (short) (i % 7));
+        }
+        theStorage.transactionManager().commit();
+    }
+
+    private int[] reversed(final int theCount) {
+        final int[] result = new int[theCount];
+        for (int i = 0; i < theCount; i++) {
+            result[i] = theCount - 1 - i;
+        }
+        return result;
+    }
+
+    private Struct struct() {
+        // 147 bits: the packed structures straddle the long words.
+        return new Struct("PermuteTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newBooleanField("booleanField"),
+                FACTORY.newDoubleField("doubleField"),
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newShortField("shortField") });
+    }
+
+    private Struct structWithChildren() {
+        Struct listChild = new Struct("ListChild", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("intField") });
+        listChild = listChild.setList(true);
+        Struct optionalChild = new Struct("OptionalChild", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newIntField("intField") });
+        optionalChild = optionalChild.setOptional(true);
+        return new Struct("ChildrenTest", new Struct[] { listChild,
+                optionalChild }, new Field<?, ?>[] {
+                FACTORY.newIntField("intField"),
+                FACTORY.newIntOptional("optionalField"),
+                FACTORY.newStringField("stringField") });
+    }
+
+    @Test
+    public void testChildren() {
+        for (final Compiler compiler : COMPILERS) {
+            final Struct struct = compiler.compile(structWithChildren());
+            final Storage storage = compiler.initStorage(struct, _CAPACITY);
+            final IntField<?, ?> intField = struct.field("intField");
+            final IntOptionalField<?, ?> optionalField = struct
+                    .field("optionalField");
+            final ObjectField<String, ?> stringField = struct
+                    .field("stringField");
+            final IntField<?, ?> childField = struct
+                    .field("OptionalChild.intField");
+            final Struct listChild = struct.child("ListChild");
+            final IntField<?, ?> listField = struct
+                    .field("ListChild.intField");
+            for (int i = 0; i < _CAPACITY; i++) {
+                storage.selectStructure(i);
+                storage.write(intField, i);
+                storage.write(stringField, "s" + i);
+                if (i % 2 == 0) {
+                    storage.write(optionalField, i + 100);
+                    storage.write(childField, i + 200);
+                    final Storage list = storage.createOrClearList(listChild,
+                            i + 1);
+                    list.selectStructure(i);
+                    list.write(listField, i + 300);
+                }
+            }
+            storage.transactionManager().commit();
+            final int[] order = reversed(_CAPACITY);
+            storage.permute(order);
+            for (int i = 0; i < _CAPACITY; i++) {
+                final int old = order[i];
+                storage.selectStructure(i);
+                assertEquals(old, storage.read(intField));
+                assertEquals("s" + old, storage.read(stringField));
+                final Storage list = storage.list(listChild);
+                if (old % 2 == 0) {
+                    assertEquals(old + 100, storage.read(optionalField));
+                    assertEquals(old + 200, storage.read(childField));
+                    assertEquals(old + 1, list.getCapacity());
+                    list.selectStructure(old);
+                    assertEquals(old + 300, list.read(listField));
+                } else {
+                    assertEquals(0, storage.read(optionalField));
+                    assertEquals(0, storage.read(childField));
+                    assertNull(list);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIndex() {
+        final Compiler compiler = COMPILERS[1];
+        final Storage storage = compiler.initStorage(compiler
+                .compile(struct()), _CAPACITY);
+        fill(storage, _CAPACITY);
+        final HashFieldIndex index = new HashFieldIndex(storage.struct()
+                .field("intField"));
+        ((AbstractStorage) storage).addIndex(index);
+        storage.permute(reversed(_CAPACITY));
+        for (int i = 0; i < _CAPACITY; i++) {
+            assertArrayEquals(new int[] { _CAPACITY - 1 - i }, index.find(i));
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        final Compiler compiler = COMPILERS[0];
+        final Storage storage = compiler.initStorage(compiler
+                .compile(struct()), _CAPACITY);
+        try {
+            storage.permute(new int[] { 0, 1, 1 });
+            fail("Duplicate index must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            storage.permute(new int[] { 0, 2 });
+            fail("Out of range index must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            storage.permute(new int[_CAPACITY + 1]);
+            fail("Order longer than the capacity must fail");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        storage.write((IntField) storage.struct().field("intField"), 1);
+        try {
+            storage.permute(new int[] { 1, 0 });
+            fail("Uncommitted changes must fail");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPermute() {
+        final Compiler[] compilers = { COMPILERS[0], COMPILERS[1],
+                new ColumnarCompiler(), new PagedPackedCompiler(),
+                new OffHeapPackedCompiler(), new RunLengthCompiler() };
+        for (final Compiler compiler : compilers) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct()), COUNT);
+            fill(storage, COUNT);
+            storage.selectStructure(5);
+            final int[] order = reversed(COUNT);
+            storage.permute(order);
+            assertEquals(5, storage.getSelectedStructure());
+            assertMoved(storage, order);
+            // Only the prefix moves.
+            storage.permute(new int[] { 2, 0, 1 });
+            final int[] prefix = order.clone();
+            prefix[0] = order[2];
+            prefix[1] = order[0];
+            prefix[2] = order[1];
+            assertMoved(storage, prefix);
+        }
+    }
+
+    @Test
+    public void testSortBy() {
+        for (final Compiler compiler : new Compiler[] { COMPILERS[0],
+                COMPILERS[1], new PagedPackedCompiler() }) {
+            final Storage storage = compiler.initStorage(
+                    compiler.compile(struct()), COUNT);
+            final Struct s = storage.struct();
+            final DoubleField<?, ?> doubleField = s.field("doubleField");
+            final IntField<?, ?> intField = s.field("intField");
+            final ShortField<?, ?> shortField = s.field("shortField");
+            fill(storage, COUNT);
+            // Descending doubles, from positive to negative.
+            storage.permute(reversed(COUNT));
+            storage.sortBy(doubleField);
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(i, storage.read(intField, i));
+            }
+            // Stable: equal shorts keep the ascending int order.
+            storage.sortBy(shortField);
+            for (int i = 1; i < COUNT; i++) {
+                final short previous = storage.read(shortField, i - 1);
+                final short current = storage.read(shortField, i);
+                assertTrue(previous <= current);
+                if (previous == current) {
+                    assertTrue(storage.read(intField, i - 1) < storage.read(
+                            intField, i));
+                }
+            }
+            storage.sortBy(shortField, doubleField);
+            for (int i = 1; i < COUNT; i++) {
+                final short previous = storage.read(shortField, i - 1);
+                final short current = storage.read(shortField, i);
+                assertTrue(previous < current
+                        || previous == current
+                        && storage.read(doubleField, i - 1) < storage.read(
+                                doubleField, i));
+            }
+        }
+    }
+
+    @Test
+    public void testSortByObject() {
+        final Compiler compiler = COMPILERS[1];
+        final Struct struct = compiler.compile(structWithChildren());
+        final Storage storage = compiler.initStorage(struct, _CAPACITY);
+        final IntField<?, ?> intField = struct.field("intField");
+        final ObjectField<String, ?> stringField = struct.field("stringField");
+        final String[] names = { "d", "b", null, "a", "c", "b", null, "e",
+                "f", "a" };
+        for (int i = 0; i < _CAPACITY; i++) {
+            storage.selectStructure(i);
+            storage.write(intField, i);
+            storage.write(stringField, names[i]);
+        }
+        storage.transactionManager().commit();
+        storage.sortBy(stringField);
+        final int[] expected = { 2, 6, 3, 9, 1, 5, 4, 0, 7, 8 };
+        for (int i = 0; i < _CAPACITY; i++) {
+            assertEquals(expected[i], storage.read(intField, i));
+        }
+    }
+
+    @Test
+    public void testSparse() {
+        final Struct packed = new PackedCompiler().compile(struct());
+        final Storage[] storages = {
+                new PackedSparseStorage(packed, _CAPACITY, true, Arity.ONE_D),
+                new PackedBitmapSparseStorage(packed, _CAPACITY, true,
+                        Arity.ONE_D) };
+        for (final Storage storage : storages) {
+            final String message = storage.getClass().getSimpleName();
+            final IntField<?, ?> intField = packed.field("intField");
+            for (final int structure : new int[] { 1, 4, 500, 1000 }) {
+                storage.write(intField, structure, structure + 1);
+            }
+            storage.transactionManager().commit();
+            // Swaps 1 and 2, and 4 and 500; 1000 does not move.
+            final int[] order = new int[600];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            order[1] = 2;
+            order[2] = 1;
+            order[4] = 500;
+            order[500] = 4;
+            storage.permute(order);
+            assertArrayEquals(message, new int[] { 2, 4, 500, 1000 },
+                    ((SparseStorage) storage).structures());
+            assertFalse(message, ((SparseStorage) storage).contains(1));
+            assertEquals(message, 2, storage.read(intField, 2));
+            assertEquals(message, 501, storage.read(intField, 4));
+            assertEquals(message, 5, storage.read(intField, 500));
+            assertEquals(message, 1001, storage.read(intField, 1000));
+            try {
+                storage.sortBy(intField);
+                fail("Sparse storages cannot be sorted");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.CompilerType;
+import com.blockwithme.lessobjects.compiler.PackedCompiler;
+import com.blockwithme.lessobjects.compiler.RunLengthCompiler;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.packed.PackedStorage;
+import com.blockwithme.lessobjects.storage.runlength.RunLengthStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestRunLengthStorage extends AbstractEngineTest {
+
+    private static final RunLengthCompiler COMPILER = new RunLengthCompiler();
+
+    @Override
+    protected Compiler compiler() {
+        return COMPILER;
+    }
+
+    @Override
+    protected CompilerType compilerType() {
+        return CompilerType.RUN_LENGTH;
+    }
+
+    @Override
+    protected String engineName() {
+        return "RunLength";
+    }
+
+    @Override
+    protected Class<? extends Storage> storageClass() {
+        return RunLengthStorage.class;
+    }
+
+    @Test
+    public void testCompressPacked() {
+        final PackedCompiler packedCompiler = new PackedCompiler();
+        final int count = 1000;
+        final PackedStorage packed = (PackedStorage) packedCompiler
+                .initStorage(struct, count);
+        final IntField intField = struct.field("intField");
+        final ObjectField stringField = struct.field("stringField");
+        for (int i = 0; i < count; i++) {
+            packed.selectStructure(i);
+            packed.write(intField, INTS[i / 100]);
+            packed.write(stringField, STRINGS[i % _CAPACITY]);
+        }
+        packed.transactionManager().commit();
+        final RunLengthStorage compressed = RunLengthStorage.compress(packed);
+        assertEquals(count / 100, compressed.runCount());
+        assertTrue(compressed.usedWords() * 50 < count * struct.bits() / 64);
+        for (int i = 0; i < count; i++) {
+            compressed.selectStructure(i);
+            assertEquals(INTS[i / 100], compressed.read(intField));
+            assertEquals(STRINGS[i % _CAPACITY],
+                    compressed.read(stringField));
+        }
+    }
+
+    @Test
+    public void testRuns() {
+        final int count = 1000;
+        final RunLengthStorage data = (RunLengthStorage) COMPILER
+                .initStorage(struct, count);
+        final IntField intField = struct.field("intField");
+        final long empty = data.usedWords();
+        assertEquals(1, data.runCount());
+        for (int i = 0; i < count; i++) {
+            data.selectStructure(i);
+            assertEquals(0, data.read(intField));
+            // Writing the same value does not inflate.
+            data.write(intField, 0);
+        }
+        assertEquals(1, data.runCount());
+        data.selectStructure(500);
+        data.write(intField, 42);
+        // Only the 64 structures around 500 were inflated.
+        assertEquals(3, data.runCount());
+        // (plus the row of the third run, and the run starts)
+        assertTrue(data.usedWords() - empty <= (RunLengthStorage.INFLATE_SIZE + 1)
+                * ((struct.bits() + 63) / 64) + 4);
+        for (int i = 0; i < count; i++) {
+            data.selectStructure(i);
+            assertEquals(i == 500 ? 42 : 0, data.read(intField));
+        }
+        data.selectStructure(500);
+        data.write(intField, 0);
+        data.compress();
+        assertEquals(1, data.runCount());
+        data.selectStructure(999);
+        data.write(intField, 7);
+        data.compress();
+        assertEquals(2, data.runCount());
+        data.selectStructure(998);
+        assertEquals(0, data.read(intField));
+        data.selectStructure(999);
+        assertEquals(7, data.read(intField));
+    }
+}
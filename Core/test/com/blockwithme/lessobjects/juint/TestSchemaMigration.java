@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.COMPILERS;
+import static com.blockwithme.lessobjects.juint.Constants.DELTA;
+import static com.blockwithme.lessobjects.juint.Constants.ENGINES;
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Compiler;
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.SchemaMigrator;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.ColumnarCompiler;
+import com.blockwithme.lessobjects.fields.object.ObjectField;
+import com.blockwithme.lessobjects.fields.optional.IntOptionalField;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.DoubleField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.fields.primitive.LongField;
+import com.blockwithme.lessobjects.fields.primitive.ShortField;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.offheap.OffHeapStorage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestSchemaMigration extends TestData {
+
+    /** Large enough to be split across several tasks. */
+    private static final int COUNT = 20000;
+
+    private void check(final Storage theStorage, final int theCount) {
+        final String message = theStorage.getClass().getSimpleName();
+        final Struct s = theStorage.struct();
+        final IntOptionalField<?, ?> optionalField = s.field("optionalField");
+        final ObjectField<String, ?> stringField = s.field("stringField");
+        for (int i = 0; i < theCount; i++) {
+            assertEquals(message, i % 3 == 0, theStorage.read(
+                    (BooleanField) s.field("booleanField"), i));
+            assertEquals(message, 0.0, theStorage.read(
+                    (DoubleField) s.field("doubleField"), i), DELTA);
+            assertEquals(message, i, theStorage.read(
+                    (IntField) s.field("intField"), i));
+            assertEquals(message, -i * 1000000000L, theStorage.read(
+                    (LongField) s.field("longField"), i));
+            // Narrower, then wider.
+            assertEquals(message, i & 0xFF, theStorage.read(
+                    (IntField) s.field("narrowField"), i));
+            assertEquals(message, (short) (i & 0xFFF), theStorage.read(
+                    (ShortField) s.field("wideField"), i));
+            theStorage.selectStructure(i);
+            if (i % 100 == 0) {
+                assertEquals(message, i + 1, theStorage.read(optionalField));
+                assertEquals(message, "s" + i, theStorage.read(stringField));
+            } else {
+                assertEquals(message, 0, theStorage.read(optionalField));
+                assertNull(message, theStorage.read(stringField));
+            }
+        }
+    }
+
+    private void fill(final Storage theStorage, final int theCount) {
+        final Struct s = theStorage.struct();
+        final IntOptionalField<?, ?> optionalField = s.field("optionalField");
+        final ObjectField<String, ?> stringField = s.field("stringField");
+        theStorage.enableTransactions(false);
+        for (int i = 0; i < theCount; i++) {
+            theStorage.write((BooleanField) s.field("booleanField"), i,
+                    i % 3 == 0);
+            theStorage.write((IntField) s.field("intField"), i, i);
+            theStorage.write((LongField) s.field("longField"), i,
+                    -i * 1000000000L);
+            theStorage.write((IntField) s.field("narrowField"), i, i);
+            theStorage.write((ShortField) s.field("wideField"), i,
+                    (short) (i & 0xFFF));
+            theStorage.write((ShortField) s.field("droppedField"), i,
+                    (short) -1);
+            if (i % 100 == 0) {
+                theStorage.selectStructure(i);
+                theStorage.write(optionalField, i + 1);
+                theStorage.write(stringField, "s" + i);
+            }
+        }
+    }
+
+    private Struct newStruct() {
+        // Moved, added, dropped and resized fields.
+        return new Struct("MigrationTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newLongField("longField"),
+                FACTORY.newIntField("narrowField", 8),
+                FACTORY.newDoubleField("doubleField"),
+                FACTORY.newIntField("intField"),
+                FACTORY.newShortField("wideField"),
+                FACTORY.newBooleanField("booleanField"),
+                FACTORY.newIntOptional("optionalField"),
+                FACTORY.newStringField("stringField") });
+    }
+
+    private Struct oldStruct() {
+        return new Struct("MigrationTest", new Struct[] {}, new Field<?, ?>[] {
+                FACTORY.newBooleanField("booleanField"),
+                FACTORY.newShortField("droppedField"),
+                FACTORY.newIntField("intField"),
+                FACTORY.newLongField("longField"),
+                FACTORY.newIntField("narrowField"),
+                FACTORY.newShortField("wideField", 12),
+                FACTORY.newIntOptional("optionalField"),
+                FACTORY.newStringField("stringField") });
+    }
+
+    @Test
+    public void testCustomMigrator() {
+        // The same schema, which the default migrator copies as-is.
+        final Struct struct = new Struct("CustomMigratorTest",
+                new Struct[] {}, new Field<?, ?>[] {
+                        FACTORY.newIntField("intField"),
+                        FACTORY.newIntField("doubled") });
+        for (final Compiler compiler : ENGINES) {
+            final Struct s = compiler.compile(struct);
+            final Storage source = compiler.initStorage(s, _CAPACITY);
+            final Storage target = compiler.initStorage(s, _CAPACITY);
+            final String message = source.getClass().getSimpleName();
+            final IntField intField = s.field("intField");
+            final IntField doubled = s.field("doubled");
+            for (int i = 0; i < _CAPACITY; i++) {
+                source.selectStructure(i);
+                source.write(intField, i);
+            }
+            source.transactionManager().commit();
+            final int[] calls = new int[1];
+            source.copyStorage(target, new SchemaMigrator() {
+                @Override
+                public Map<Field<?, ?>, Field<?, ?>> mapSchema(
+                        final Struct theNewStruct, final Struct theOldStruct) {
+                    return ((SchemaMigrator) Struct.DEFAULT_SCHEMA_MIGRATOR)
+                            .mapSchema(theNewStruct, theOldStruct);
+                }
+
+                @Override
+                public void postProcessor(final Storage theSource,
+                        final Storage theDestination,
+                        final int theSourceIndex,
+                        final int theDestinationIndex) {
+                    calls[0]++;
+                    theDestination.write(doubled,
+                            2 * theSource.read(intField));
+                }
+            });
+            assertEquals(message, _CAPACITY, calls[0]);
+            for (int i = 0; i < _CAPACITY; i++) {
+                target.selectStructure(i);
+                assertEquals(message, i, target.read(intField));
+                assertEquals(message, 2 * i, target.read(doubled));
+            }
+            if (source instanceof OffHeapStorage) {
+                ((OffHeapStorage) source).close();
+                ((OffHeapStorage) target).close();
+            }
+        }
+    }
+
+    @Test
+    public void testMigrate() {
+        for (final Compiler from : COMPILERS) {
+            for (final Compiler to : COMPILERS) {
+                final Storage source = from.initStorage(
+                        from.compile(oldStruct()), COUNT);
+                fill(source, COUNT);
+                final Storage target = to.initStorage(
+                        to.compile(newStruct()), COUNT);
+                source.copyStorage(target);
+                check(target, COUNT);
+            }
+        }
+    }
+
+    @Test
+    public void testOtherEngine() {
+        final Compiler columnar = new ColumnarCompiler();
+        final Storage source = COMPILERS[1].initStorage(
+                COMPILERS[1].compile(oldStruct()), _CAPACITY);
+        fill(source, _CAPACITY);
+        final Storage target = columnar.initStorage(
+                columnar.compile(newStruct()), _CAPACITY);
+        source.copyStorage(target);
+        check(target, _CAPACITY);
+    }
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright 2013 Sebastien Diot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+// $codepro.audit.disable
+package com.blockwithme.lessobjects.juint;
+
+import static com.blockwithme.lessobjects.juint.Constants.FACTORY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.blockwithme.lessobjects.Field;
+import com.blockwithme.lessobjects.Struct;
+import com.blockwithme.lessobjects.compiler.Aligned64Compiler;
+import com.blockwithme.lessobjects.fields.primitive.BooleanField;
+import com.blockwithme.lessobjects.fields.primitive.IntField;
+import com.blockwithme.lessobjects.storage.SparseStorage;
+import com.blockwithme.lessobjects.storage.Storage;
+import com.blockwithme.lessobjects.storage.aligned64.Aligned64Storage;
+
+//CHECKSTYLE IGNORE FOR NEXT 200 LINES
+@SuppressWarnings({ "PMD", "all" })
+public class TestSubWordAligned64 extends TestData {
+
+    private static final int SIZE = 100;
+
+    private final Aligned64Compiler compiler = new Aligned64Compiler();
+
+    private Struct compile(final int theBits) {
+        return compile(theBits, false);
+    }
+
+    private Struct compile(final int theBits, final boolean theBitmapIndexed) {
+        return compiler.compile(new Struct("SubWordTest", new Struct[] {},
+                new Field<?, ?>[] { FACTORY.newBooleanField("booleanField"),
+                        FACTORY.newIntField("intField", theBits) })
+                .setBitmapIndexed(theBitmapIndexed));
+    }
+
+    private static int value(final int theIndex, final int theBits) {
+        return (theIndex * 7 + 3) & (1 << theBits) - 1;
+    }
+
+    private static void fill(final Storage theStorage, final int theBits,
+            final int theCount) {
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < theCount; i++) {
+            theStorage.selectStructure(i);
+            theStorage.write((BooleanField) s.field("booleanField"),
+                    i % 3 == 0);
+            theStorage.write((IntField) s.field("intField"),
+                    value(i, theBits));
+        }
+        theStorage.transactionManager().commit();
+    }
+
+    private static void assertContent(final Storage theStorage,
+            final int theBits, final int theCount) {
+        final Struct s = theStorage.struct();
+        for (int i = 0; i < theCount; i++) {
+            theStorage.selectStructure(i);
+            assertEquals("Structure " + i, i % 3 == 0,
+                    theStorage.read((BooleanField) s.field("booleanField")));
+            assertEquals("Structure " + i, value(i, theBits),
+                    theStorage.read((IntField) s.field("intField")));
+        }
+    }
+
+    @Test
+    public void testCopyAndResize() {
+        final Storage storage = compiler.initStorage(compile(5), SIZE);
+        fill(storage, 5, SIZE);
+        assertContent(storage.copy(), 5, SIZE);
+        storage.resizeStorage(SIZE * 2 + 1);
+        assertContent(storage, 5, SIZE);
+        storage.selectStructure(SIZE * 2);
+        assertEquals(0, storage.read((IntField) storage.struct().field(
+                "intField")));
+        storage.resizeStorage(SIZE / 2 + 1);
+        assertContent(storage, 5, SIZE / 2 + 1);
+    }
+
+    @Test
+    public void testFromWordLayout() {
+        final Struct struct = compile(5);
+        final Aligned64Storage storage = (Aligned64Storage) compiler
+                .initStorage(struct, SIZE);
+        fill(storage, 5, SIZE);
+        // The older layout: one long per structure.
+        final long[] words = new long[SIZE];
+        final long slot = Aligned64Storage.slotSize(struct.bits());
+        final long[] array = storage.getArray();
+        for (int i = 0; i < SIZE; i++) {
+            final long position = i * slot;
+            words[i] = array[(int) (position / 64)] >>> position
+                    & (1L << slot) - 1;
+        }
+        assertArrayEquals(array,
+                Aligned64Storage.fromWordLayout(words, struct.bits()));
+        final long[] large = new long[] { 1, 2, 3 };
+        assertSame(large, Aligned64Storage.fromWordLayout(large, 33));
+    }
+
+    @Test
+    public void testLayout() {
+        // 6 bits: 8 structures per word.
+        final Aligned64Storage storage = (Aligned64Storage) compiler
+                .initStorage(compile(5), SIZE);
+        assertEquals((SIZE + 7) / 8, storage.getArray().length);
+        // 33 bits: one structure per word.
+        final Aligned64Storage large = (Aligned64Storage) compiler
+                .initStorage(compile(32), SIZE);
+        assertEquals(SIZE, large.getArray().length);
+    }
+
+    @Test
+    public void testReadWrite() {
+        for (final int bits : new int[] { 1, 2, 3, 6, 7, 14, 20, 31 }) {
+            final Storage storage = compiler.initStorage(compile(bits), SIZE);
+            fill(storage, bits, SIZE);
+            assertContent(storage, bits, SIZE);
+            // Overwriting a structure leaves its neighbours alone.
+            final IntField intField = (IntField) storage.struct().field(
+                    "intField");
+            for (int i = 0; i < SIZE; i += 2) {
+                storage.selectStructure(i);
+                storage.write(intField, 0);
+                storage.write(intField, value(i, bits));
+            }
+            assertContent(storage, bits, SIZE);
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        final Storage storage = compiler.initStorage(compile(3), SIZE);
+        fill(storage, 3, SIZE);
+        final IntField intField = (IntField) storage.struct().field(
+                "intField");
+        for (int i = 0; i < SIZE; i++) {
+            storage.selectStructure(i);
+            storage.write(intField, 5);
+        }
+        storage.transactionManager().rollback();
+        assertContent(storage, 3, SIZE);
+    }
+
+    @Test
+    public void testSlotSize() {
+        assertEquals(0, Aligned64Storage.slotSize(0));
+        assertEquals(1, Aligned64Storage.slotSize(1));
+        assertEquals(2, Aligned64Storage.slotSize(2));
+        assertEquals(4, Aligned64Storage.slotSize(3));
+        assertEquals(8, Aligned64Storage.slotSize(5));
+        assertEquals(32, Aligned64Storage.slotSize(17));
+        assertEquals(32, Aligned64Storage.slotSize(32));
+        assertEquals(64, Aligned64Storage.slotSize(33));
+        assertEquals(64, Aligned64Storage.slotSize(64));
+        assertEquals(128, Aligned64Storage.slotSize(65));
+    }
+
+    @Test
+    public void testSparse() {
+        for (final boolean bitmap : new boolean[] { false, true }) {
+            final Struct struct = compile(4, bitmap);
+            final Storage storage = compiler.initStorage(struct, _CAPACITY,
+                    true);
+            fill(storage, 4, _CAPACITY);
+            storage.selectStructure(3);
+            storage.clear();
+            storage.transactionManager().commit();
+            final SparseStorage sparse = (SparseStorage) storage;
+            assertFalse(sparse.contains(3));
+            for (int i = 0; i < _CAPACITY; i++) {
+                if (i != 3) {
+                    assertTrue(sparse.contains(i));
+                    storage.selectStructure(i);
+                    assertEquals(value(i, 4), storage.read((IntField) struct
+                            .field("intField")));
+                }
+            }
+        }
+    }
+}